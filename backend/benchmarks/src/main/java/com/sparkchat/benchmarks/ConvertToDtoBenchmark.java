@@ -0,0 +1,45 @@
+package com.sparkchat.benchmarks;
+
+import com.sparkchat.dto.MessageDto;
+import com.sparkchat.model.Message;
+import com.sparkchat.service.ChatService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity to DTO conversion, done for every message sent and every message in a history page
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Forks differ more than iterations do, so scores average several
+@Fork(3)
+public class ConvertToDtoBenchmark {
+
+    private ChatService chatService;
+    private Message message;
+
+    @Setup
+    public void setUp() {
+        // convertToDto uses none of the service's collaborators
+        chatService = new ChatService(null, null, null, null, null, null, null, null, null, null, null);
+        message = Samples.message();
+    }
+
+    @Benchmark
+    public MessageDto convertToDto() {
+        return chatService.convertToDto(message);
+    }
+}
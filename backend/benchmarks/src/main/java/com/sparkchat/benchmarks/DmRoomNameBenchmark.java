@@ -0,0 +1,48 @@
+package com.sparkchat.benchmarks;
+
+import com.sparkchat.service.ChatService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DM room key derivation, done for every direct message saved
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Forks differ more than iterations do, so scores average several
+@Fork(3)
+public class DmRoomNameBenchmark {
+
+    // Both orders, since the name is the same whichever user sends
+    @Param({"alice,bob", "bob,alice"})
+    public String users;
+
+    private String sender;
+    private String recipient;
+
+    @Setup
+    public void setUp() {
+        String[] names = users.split(",");
+        sender = names[0];
+        recipient = names[1];
+    }
+
+    @Benchmark
+    public String dmRoomName() {
+        return ChatService.dmRoomName(sender, recipient);
+    }
+}
@@ -0,0 +1,94 @@
+package com.sparkchat.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sparkchat.dto.MessageDto;
+import com.sparkchat.service.ChatService;
+import com.sparkchat.service.MessagePayloadEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivery of one message to each of a number of recipients on the sending thread, into
+ * an outbound channel that discards the frames
+ *
+ * Per-session STOMP header encoding and socket writes are excluded. Scores are per
+ * message, so divide by recipients for the cost of one delivery. With
+ * benchmark.profile-allocation=true the gate also reports the bytes allocated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Forks differ more than iterations do, so scores average several
+@Fork(3)
+public class EncodeOnceBenchmark {
+
+    @Param({"1", "100", "1000"})
+    private int recipients;
+
+    private SimpMessagingTemplate convertingTemplate;
+    private SimpMessagingTemplate template;
+    private MessagePayloadEncoder payloadEncoder;
+    private String[] destinations;
+    private String[] usernames;
+    private MessageDto message;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        MessageChannel outbound = (frame, timeout) -> {
+            blackhole.consume(frame);
+            return true;
+        };
+
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(objectMapper);
+        convertingTemplate = new SimpMessagingTemplate(outbound);
+        convertingTemplate.setMessageConverter(converter);
+        template = new SimpMessagingTemplate(outbound);
+        payloadEncoder = new MessagePayloadEncoder(objectMapper);
+        Fields.set(payloadEncoder, "senderCacheSize", 10_000);
+
+        usernames = new String[recipients];
+        destinations = new String[recipients];
+        for (int i = 0; i < recipients; i++) {
+            usernames[i] = "user" + (i + 2);
+            destinations[i] = "/user/" + usernames[i] + "/queue/messages";
+        }
+        message = new ChatService(null, null, null, null, null, null, null, null, null, null, null)
+                .convertToDto(Samples.message());
+    }
+
+    @Benchmark
+    public void convertAndSendToUser() {
+        for (String username : usernames) {
+            convertingTemplate.convertAndSendToUser(username, "/queue/messages", message);
+        }
+    }
+
+    @Benchmark
+    public void encodeOnce() {
+        Message<byte[]> frame = payloadEncoder.encode(message);
+        for (String destination : destinations) {
+            template.send(destination, frame);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.sparkchat.benchmarks;
+
+import com.sparkchat.config.FrameRateLimitProperties;
+import com.sparkchat.security.FrameRateLimitInterceptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission of a SEND frame by the inbound rate limiter, for a destination that matches
+ * the second of the five default rules and is checked against a session and a user bucket
+ *
+ * The limits are set high enough that every frame is admitted. With
+ * benchmark.profile-allocation=true the gate also reports the bytes allocated per frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Forks differ more than iterations do, so scores average several
+@Fork(3)
+public class FrameRateLimitBenchmark {
+
+    private FrameRateLimitInterceptor interceptor;
+    private Message<?> frame;
+
+    @Setup
+    public void setUp() {
+        FrameRateLimitProperties properties = new FrameRateLimitProperties();
+        // The destinations of application.yml
+        for (String destination : new String[] {"/app/chat.sendMessage", "/app/chat.room.*", "/app/chat.typing",
+                "/app/chat.receipt", "/app/*"}) {
+            FrameRateLimitProperties.Rule rule = new FrameRateLimitProperties.Rule();
+            rule.setDestination(destination);
+            rule.setSession(limit());
+            rule.setUser(limit());
+            properties.getRules().add(rule);
+        }
+        // Only throttled frames use the outbound channel
+        interceptor = new FrameRateLimitInterceptor(properties, null);
+
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SEND);
+        accessor.setDestination("/app/chat.room.7");
+        accessor.setSessionId("session-1");
+        Map<String, Object> attributes = new ConcurrentHashMap<>();
+        attributes.put("userId", 1L);
+        accessor.setSessionAttributes(attributes);
+        frame = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    @Benchmark
+    public Message<?> preSend() {
+        return interceptor.preSend(frame, null);
+    }
+
+    private static FrameRateLimitProperties.Limit limit() {
+        FrameRateLimitProperties.Limit limit = new FrameRateLimitProperties.Limit();
+        limit.setRate(1e9);
+        limit.setBurst(1_000_000);
+        return limit;
+    }
+}
@@ -0,0 +1,65 @@
+package com.sparkchat.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sparkchat.dto.MessageDto;
+import com.sparkchat.dto.UserDto;
+import com.sparkchat.service.ChatService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON serialization of the DTOs sent over REST and STOMP, with an ObjectMapper set up as
+ * Spring Boot sets up the application's
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Forks differ more than iterations do, so scores average several
+@Fork(3)
+public class JsonBenchmark {
+
+    private ObjectMapper objectMapper;
+    private MessageDto messageDto;
+    private UserDto userDto;
+    private String inboundMessage;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        messageDto = new ChatService(null, null, null, null, null, null, null, null, null, null, null)
+                .convertToDto(Samples.message());
+        userDto = new UserDto(Samples.user(2L, "bob"));
+        // A chat.sendMessage frame body, as the web client sends it
+        inboundMessage = "{\"recipient\":\"bob\",\"content\":" + objectMapper.writeValueAsString(Samples.CONTENT)
+                + ",\"messageTypeString\":\"TEXT\"}";
+    }
+
+    @Benchmark
+    public byte[] serializeMessageDto() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(messageDto);
+    }
+
+    @Benchmark
+    public byte[] serializeUserDto() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(userDto);
+    }
+
+    @Benchmark
+    public MessageDto deserializeMessageDto() throws JsonProcessingException {
+        return objectMapper.readValue(inboundMessage, MessageDto.class);
+    }
+}
@@ -0,0 +1,56 @@
+package com.sparkchat.benchmarks;
+
+import com.sparkchat.model.User;
+import com.sparkchat.security.JwtUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token checks done for every authenticated REST request and every STOMP CONNECT
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+// Each check builds a new parser, whose paths take a while to be compiled
+@Warmup(iterations = 6, time = 10)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JwtBenchmark {
+
+    private JwtUtils jwtUtils;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        jwtUtils = new JwtUtils();
+        Fields.set(jwtUtils, "jwtSecret", "myVeryLongSecretKeyThatIsAtLeast256BitsLongForJWTHMACAlgorithmToWorkProperly");
+        Fields.set(jwtUtils, "jwtExpirationMs", 86400000);
+
+        User user = new User("alice", "alice@example.com", "password123");
+        user.setId(42L);
+        token = jwtUtils.generateToken(user);
+    }
+
+    @Benchmark
+    public Boolean validateToken() {
+        return jwtUtils.validateToken(token);
+    }
+
+    /**
+     * What JwtAuthenticationFilter does: validate, then parse again for the username
+     */
+    @Benchmark
+    public String validateAndGetUsername() {
+        return jwtUtils.validateToken(token) ? jwtUtils.getUsernameFromToken(token) : null;
+    }
+}
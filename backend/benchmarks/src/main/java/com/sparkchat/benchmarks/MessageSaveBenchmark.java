@@ -0,0 +1,124 @@
+package com.sparkchat.benchmarks;
+
+import com.sparkchat.SparkChatApplication;
+import com.sparkchat.dto.MessageDto;
+import com.sparkchat.dto.RegisterRequest;
+import com.sparkchat.dto.UserDto;
+import com.sparkchat.model.ChatRoom;
+import com.sparkchat.model.Message;
+import com.sparkchat.model.User;
+import com.sparkchat.repository.ChatRoomRepository;
+import com.sparkchat.repository.MessageRepository;
+import com.sparkchat.service.ChatService;
+import com.sparkchat.service.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a message to embedded H2 through the full application context, so the content
+ * compression listener and the counters run as they do in the server
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+// Hibernate's paths take a while to be compiled, so warm-up is longer than elsewhere
+@Warmup(iterations = 6, time = 10)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MessageSaveBenchmark {
+
+    private ConfigurableApplicationContext context;
+    private Path dataDir;
+
+    private MessageRepository messageRepository;
+    private ChatService chatService;
+    private TransactionTemplate transaction;
+
+    private User sender;
+    private ChatRoom room;
+    private MessageDto messageDto;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("sparkchat-bench-");
+        context = SpringApplication.run(SparkChatApplication.class,
+                "--server.port=0",
+                "--management.server.port=-1",
+                "--spring.datasource.url=jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+                "--spring.jpa.show-sql=false",
+                "--sparkchat.jfr.enabled=false",
+                "--sparkchat.attachments.dir=" + dataDir.resolve("attachments"),
+                "--sparkchat.mailbox.dir=" + dataDir.resolve("mailbox"),
+                "--logging.level.root=WARN",
+                "--logging.level.com.sparkchat=WARN");
+
+        messageRepository = context.getBean(MessageRepository.class);
+        chatService = context.getBean(ChatService.class);
+        transaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+
+        UserService userService = context.getBean(UserService.class);
+        sender = userService.createUser(new RegisterRequest("alice", "alice@example.com", "password123"));
+        userService.createUser(new RegisterRequest("bob", "bob@example.com", "password123"));
+
+        messageDto = new MessageDto();
+        messageDto.setSender(new UserDto(sender));
+        messageDto.setRecipient("bob");
+        messageDto.setContent(Samples.CONTENT);
+        messageDto.setMessageTypeString("TEXT");
+
+        // Creates the DM room, which both benchmarks then write to
+        Long roomId = chatService.saveMessage(messageDto).getChatRoom().getId();
+        room = context.getBean(ChatRoomRepository.class).findById(roomId).orElseThrow();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.close();
+        FileSystemUtils.deleteRecursively(dataDir);
+    }
+
+    /**
+     * A single insert in its own transaction
+     */
+    @Benchmark
+    public Message repositorySave() {
+        return transaction.execute(status -> {
+            Message message = new Message(Samples.CONTENT, sender, room);
+            message.setMessageType(Message.MessageType.TEXT);
+            message.setSentAt(LocalDateTime.now());
+            return messageRepository.save(message);
+        });
+    }
+
+    /**
+     * What a chat.sendMessage frame costs: user and room lookups, then the insert
+     */
+    @Benchmark
+    public Message saveMessage() {
+        return chatService.saveMessage(messageDto);
+    }
+}
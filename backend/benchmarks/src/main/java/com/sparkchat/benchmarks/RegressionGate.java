@@ -0,0 +1,133 @@
+package com.sparkchat.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs the benchmarks and compares their scores with the published baselines
+ *
+ * Every benchmark reports average time per operation, so a higher score is worse. A
+ * benchmark regresses when its score exceeds its baseline by more than the regression
+ * threshold and the baseline lies below the score's 99.9% confidence interval, so a noisy
+ * run alone does not fail. Regressions fail the run with exit code 1, which fails the
+ * Maven build. Benchmarks without a baseline are
+ * reported but do not fail. With benchmark.update-baselines=true the scores of this run are
+ * written as the new baselines instead.
+ *
+ * Baselines only mean something on the machine they were measured on, so they should be
+ * updated whenever the benchmarks move to another machine.
+ *
+ * With benchmark.profile-allocation=true the runs use JMH's GC profiler, and the bytes
+ * each operation allocated are printed next to its score. The profiler slows the runs down,
+ * so their scores are reported but never fail the build.
+ */
+public final class RegressionGate {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private RegressionGate() {
+    }
+
+    public static void main(String[] args) throws IOException, RunnerException {
+        double threshold = Double.parseDouble(System.getProperty("benchmark.regression-threshold", "0.20"));
+        Path baselinesFile = Path.of(System.getProperty("benchmark.baselines", "baselines.json"));
+        boolean updateBaselines = Boolean.getBoolean("benchmark.update-baselines");
+        boolean profileAllocation = Boolean.getBoolean("benchmark.profile-allocation");
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(System.getProperty("benchmark.include", "com\\.sparkchat\\.benchmarks\\..*Benchmark"))
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty("benchmark.result", "jmh-result.json"))
+                .shouldFailOnError(true);
+        if (profileAllocation) {
+            options.addProfiler(GCProfiler.class);
+        }
+        Collection<RunResult> results = new Runner(options.build()).run();
+
+        Map<String, Double> scores = new TreeMap<>();
+        for (RunResult result : results) {
+            scores.put(name(result), Math.round(result.getPrimaryResult().getScore() * 1000) / 1000.0);
+        }
+
+        if (updateBaselines) {
+            Map<String, Double> baselines = readBaselines(baselinesFile);
+            baselines.putAll(scores);
+            objectMapper.writeValue(baselinesFile.toFile(), baselines);
+            System.out.println("Updated baselines in " + baselinesFile);
+            return;
+        }
+
+        Map<String, Double> baselines = readBaselines(baselinesFile);
+        int regressions = 0;
+        System.out.printf("%nRegression threshold %.0f%%%n", threshold * 100);
+        System.out.printf("%-60s %12s %12s %12s %8s%n", "Benchmark", "Baseline", "Score", "Error", "Change");
+        for (RunResult result : results) {
+            String name = name(result);
+            double score = result.getPrimaryResult().getScore();
+            double error = result.getPrimaryResult().getScoreError();
+            String unit = result.getPrimaryResult().getScoreUnit();
+            Double baseline = baselines.get(name);
+            if (baseline == null) {
+                System.out.printf("%-60s %12s %12.3f %12.3f %8s  %s%s, no baseline%n",
+                        name, "-", score, error, "-", unit, allocation(result));
+                continue;
+            }
+            double change = score / baseline - 1;
+            boolean regressed = !profileAllocation && change > threshold
+                    && (Double.isNaN(error) || score - error > baseline);
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-60s %12.3f %12.3f %12.3f %+7.1f%%  %s%s%s%n",
+                    name, baseline, score, error, change * 100, unit, allocation(result), regressed ? "  REGRESSION" : "");
+        }
+
+        if (regressions > 0) {
+            System.out.printf("%d benchmark(s) regressed by more than %.0f%%%n", regressions, threshold * 100);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Benchmark name without the package, with its parameters if it has any
+     */
+    private static String name(RunResult result) {
+        String benchmark = result.getParams().getBenchmark();
+        StringBuilder name = new StringBuilder(benchmark.substring(RegressionGate.class.getPackageName().length() + 1));
+        for (String key : result.getParams().getParamsKeys()) {
+            name.append(':').append(key).append('=').append(result.getParams().getParam(key));
+        }
+        return name.toString();
+    }
+
+    /**
+     * Bytes allocated per operation, when the GC profiler ran
+     */
+    private static String allocation(RunResult result) {
+        Result<?> allocated = result.getSecondaryResults().get("gc.alloc.rate.norm");
+        return allocated != null ? String.format(", %.0f B/op allocated", allocated.getScore()) : "";
+    }
+
+    private static Map<String, Double> readBaselines(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return new TreeMap<>();
+        }
+        return objectMapper.readValue(file.toFile(), new TypeReference<TreeMap<String, Double>>() { });
+    }
+}
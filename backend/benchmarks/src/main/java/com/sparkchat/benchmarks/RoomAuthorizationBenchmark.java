@@ -0,0 +1,83 @@
+package com.sparkchat.benchmarks;
+
+import com.sparkchat.security.RoomAuthorizationInterceptor;
+import com.sparkchat.service.RoomMembershipIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authorization of a member's SEND frame to a room, with 100,000 users each in 20 of
+ * 20,000 rooms (2M memberships) in the index
+ *
+ * Frames go to different rooms from different users, so the index lookups do not all
+ * hit the same cache lines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Forks differ more than iterations do, so scores average several
+@Fork(3)
+public class RoomAuthorizationBenchmark {
+
+    private static final int USERS = 100_000;
+    private static final int ROOMS = 20_000;
+    private static final int ROOMS_PER_USER = 20;
+    private static final int FRAMES = 4096;
+
+    private RoomAuthorizationInterceptor interceptor;
+    private Message<?>[] frames;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        RoomMembershipIndex membershipIndex = new RoomMembershipIndex(null);
+        long[] firstRoom = new long[USERS + 1];
+        SplittableRandom random = new SplittableRandom(42);
+        for (long userId = 1; userId <= USERS; userId++) {
+            // Consecutive rooms, so every room ends up with about 100 members
+            firstRoom[(int) userId] = random.nextInt(ROOMS);
+            for (int i = 0; i < ROOMS_PER_USER; i++) {
+                membershipIndex.memberAdded((firstRoom[(int) userId] + i) % ROOMS + 1, userId);
+            }
+        }
+        interceptor = new RoomAuthorizationInterceptor(membershipIndex);
+
+        frames = new Message<?>[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            long userId = random.nextInt(USERS) + 1;
+            long chatRoomId = (firstRoom[(int) userId] + random.nextInt(ROOMS_PER_USER)) % ROOMS + 1;
+            StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SEND);
+            accessor.setDestination("/app/chat.room." + chatRoomId);
+            Map<String, Object> attributes = new HashMap<>();
+            attributes.put("userId", userId);
+            accessor.setSessionAttributes(attributes);
+            frames[i] = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+        }
+    }
+
+    @Benchmark
+    public Message<?> preSend() {
+        Message<?> frame = frames[next];
+        next = (next + 1) & (FRAMES - 1);
+        return interceptor.preSend(frame, null);
+    }
+}
@@ -0,0 +1,129 @@
+package com.sparkchat.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sparkchat.dto.MessageDto;
+import com.sparkchat.service.ChatService;
+import com.sparkchat.service.MessagePayloadEncoder;
+import com.sparkchat.service.OfflineMailboxService;
+import com.sparkchat.service.PresenceService;
+import com.sparkchat.service.RoomFanoutService;
+import com.sparkchat.service.RoomMembershipIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dispatch of one message to a 5,000-member room with every member online, from the call
+ * until the last per-user frame reached the outbound channel
+ *
+ * The channel only counts frames, so socket writes are excluded. perRecipient is the path
+ * RoomFanoutService replaced: each member's frame converted and serialized on its own.
+ * Its members come from a list here, not from the lazy collection it used to load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Forks differ more than iterations do, so scores average several
+@Fork(3)
+public class RoomFanoutBenchmark {
+
+    private static final long ROOM = 7L;
+    private static final long SENDER = 1L;
+    private static final int MEMBERS = 5_000;
+
+    private final LongAdder delivered = new LongAdder();
+
+    private ThreadPoolTaskExecutor fanoutExecutor;
+    private RoomFanoutService fanoutService;
+    private SimpMessagingTemplate convertingTemplate;
+    private List<String> usernames;
+    private MessageDto message;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        MessageChannel outbound = (frame, timeout) -> {
+            delivered.increment();
+            return true;
+        };
+
+        RoomMembershipIndex membershipIndex = new RoomMembershipIndex(null);
+        PresenceService presenceService = new PresenceService();
+        usernames = new ArrayList<>(MEMBERS);
+        for (long userId = 1; userId <= MEMBERS; userId++) {
+            membershipIndex.memberAdded(ROOM, userId);
+            presenceService.userConnected("session-" + userId, userId, "user" + userId);
+            if (userId != SENDER) {
+                usernames.add("user" + userId);
+            }
+        }
+
+        // As configured by ExecutorConfig
+        fanoutExecutor = new ThreadPoolTaskExecutor();
+        fanoutExecutor.setCorePoolSize(4);
+        fanoutExecutor.setMaxPoolSize(4);
+        fanoutExecutor.setQueueCapacity(1000);
+        fanoutExecutor.setThreadNamePrefix("room-fanout-");
+        fanoutExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        fanoutExecutor.initialize();
+
+        SimpMessagingTemplate template = new SimpMessagingTemplate(outbound);
+        MessagePayloadEncoder payloadEncoder = new MessagePayloadEncoder(objectMapper);
+        Fields.set(payloadEncoder, "senderCacheSize", 10_000);
+        // Every member is online, so nothing reaches the mailboxes
+        OfflineMailboxService mailboxService = new OfflineMailboxService(template,
+                Files.createTempDirectory("benchmark-mailbox").toString());
+        fanoutService = new RoomFanoutService(membershipIndex, presenceService, mailboxService, template,
+                payloadEncoder, fanoutExecutor);
+        Fields.set(fanoutService, "batchSize", 250);
+
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(objectMapper);
+        convertingTemplate = new SimpMessagingTemplate(outbound);
+        convertingTemplate.setMessageConverter(converter);
+
+        message = new ChatService(null, null, null, null, null, null, null, null, null, null, null)
+                .convertToDto(Samples.message());
+    }
+
+    @TearDown
+    public void tearDown() {
+        fanoutExecutor.shutdown();
+    }
+
+    @Benchmark
+    public Void roomFanoutService() {
+        return fanoutService.deliver(ROOM, SENDER, message).join();
+    }
+
+    @Benchmark
+    public long perRecipient() {
+        for (String username : usernames) {
+            convertingTemplate.convertAndSendToUser(username, "/queue/messages", message);
+        }
+        return delivered.sum();
+    }
+}
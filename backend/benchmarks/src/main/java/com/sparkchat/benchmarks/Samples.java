@@ -0,0 +1,40 @@
+package com.sparkchat.benchmarks;
+
+import com.sparkchat.model.ChatRoom;
+import com.sparkchat.model.Message;
+import com.sparkchat.model.User;
+
+import java.time.LocalDateTime;
+
+/**
+ * Typical entities for the benchmarks that do not need a database
+ */
+final class Samples {
+
+    static final String CONTENT = "Are we still on for the design review at 3? I pushed the latest mockups to the shared folder.";
+
+    private Samples() {
+    }
+
+    static User user(long id, String username) {
+        User user = new User(username, username + "@example.com", "password123");
+        user.setId(id);
+        user.setDisplayName(Character.toUpperCase(username.charAt(0)) + username.substring(1));
+        user.setCreatedAt(LocalDateTime.of(2024, 1, 15, 9, 30));
+        user.setLastSeen(LocalDateTime.of(2024, 6, 1, 18, 5, 12));
+        return user;
+    }
+
+    static Message message() {
+        ChatRoom room = new ChatRoom();
+        room.setId(7L);
+        room.setName("DM_alice_bob");
+        room.setRoomType(ChatRoom.RoomType.DIRECT);
+
+        Message message = new Message(CONTENT, user(1L, "alice"), room);
+        message.setId(123456L);
+        message.setMessageType(Message.MessageType.TEXT);
+        message.setSentAt(LocalDateTime.of(2024, 6, 1, 18, 5, 42, 123_000_000));
+        return message;
+    }
+}
@@ -0,0 +1,109 @@
+package com.sparkchat.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * End-to-end latency and counts of one kind of traffic
+ *
+ * Latency runs from when a frame was due to be sent, not when it was sent, so a sender
+ * falling behind its schedule shows up as latency instead of hiding it.
+ */
+final class LatencyStats {
+
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    final String name;
+
+    private final Recorder recorder = new Recorder(MAX_LATENCY_MICROS, 3);
+    private final Histogram total = new Histogram(MAX_LATENCY_MICROS, 3);
+    private Histogram interval;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private long intervalSent;
+    private long intervalReceived;
+    private long totalSent;
+    private long totalReceived;
+
+    LatencyStats(String name) {
+        this.name = name;
+    }
+
+    void sent() {
+        sent.increment();
+    }
+
+    void failed() {
+        failed.increment();
+    }
+
+    void received(long dueNanos) {
+        received.increment();
+        recorder.recordValue(Math.min(MAX_LATENCY_MICROS, Math.max(0, (System.nanoTime() - dueNanos) / 1000)));
+    }
+
+    /**
+     * Discard everything recorded so far, at the end of warm-up
+     */
+    void reset() {
+        interval = recorder.getIntervalHistogram(interval);
+        sent.reset();
+        received.reset();
+        failed.reset();
+    }
+
+    /**
+     * Close the current interval and add it to the totals
+     */
+    void nextInterval() {
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        intervalSent = sent.sumThenReset();
+        intervalReceived = received.sumThenReset();
+        totalSent += intervalSent;
+        totalReceived += intervalReceived;
+    }
+
+    String intervalLine(double seconds) {
+        return line(intervalSent / seconds, intervalReceived / seconds, interval);
+    }
+
+    String totalLine(double seconds) {
+        return line(totalSent / seconds, totalReceived / seconds, total);
+    }
+
+    long getTotalSent() {
+        return totalSent;
+    }
+
+    long getTotalReceived() {
+        return totalReceived;
+    }
+
+    long getFailed() {
+        return failed.sum();
+    }
+
+    long getMaxMicros() {
+        return total.getMaxValue();
+    }
+
+    static String header() {
+        return String.format("%-8s %10s %10s %9s %9s %9s %9s", "", "sent/s", "recv/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+    }
+
+    private String line(double sentRate, double receivedRate, Histogram histogram) {
+        return String.format("%-8s %10.1f %10.1f %9.2f %9.2f %9.2f %9.2f", name, sentRate, receivedRate,
+                millis(histogram, 50), millis(histogram, 99), millis(histogram, 99.9), histogram.getMaxValue() / 1000.0);
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+}
@@ -0,0 +1,114 @@
+package com.sparkchat.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Command line of the load test
+ *
+ * Arguments starting with --load. configure the load; all others are passed to the
+ * backend, overriding the load test's defaults, e.g. --sparkchat.rate-limits.enabled=false.
+ */
+final class LoadOptions {
+
+    private static final String PREFIX = "--load.";
+
+    int users = 1000;
+    int contacts = 5;
+    double dmRate = 200;
+    double typingRate = 200;
+    int typingSubscribers = 100;
+    int messageBytes = 100;
+    int warmupSeconds = 10;
+    int durationSeconds = 60;
+    int reportIntervalSeconds = 5;
+    int connectConcurrency = 32;
+    int senderThreads = 2;
+    String endpoint = "/ws";
+    boolean sockJs = true;
+    /** WebSocket URL of a server to load instead of the in-process backend, which shares its database */
+    String url;
+
+    final Map<String, String> serverProperties = new LinkedHashMap<>();
+
+    private LoadOptions() {
+        serverProperties.putAll(serverDefaults("loadtest"));
+    }
+
+    /**
+     * Backend properties for an in-process run: random port, in-memory H2 and quiet logs
+     */
+    static Map<String, String> serverDefaults(String database) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("management.server.port", "-1");
+        properties.put("spring.datasource.url", "jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1");
+        properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        properties.put("spring.datasource.username", "sa");
+        properties.put("spring.datasource.password", "");
+        properties.put("spring.jpa.database-platform", "org.hibernate.dialect.H2Dialect");
+        properties.put("spring.jpa.show-sql", "false");
+        properties.put("server.tomcat.max-connections", "20000");
+        properties.put("sparkchat.jfr.enabled", "false");
+        properties.put("sparkchat.capture.enabled", "false");
+        properties.put("logging.level.root", "WARN");
+        properties.put("logging.level.com.sparkchat", "WARN");
+        return properties;
+    }
+
+    static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith(PREFIX)) {
+                options.set(name.substring(PREFIX.length() - 2), value);
+            } else {
+                options.serverProperties.put(name, value);
+            }
+        }
+        if (options.users < 2) {
+            throw new IllegalArgumentException("load.users must be at least 2");
+        }
+        options.contacts = Math.max(1, Math.min(options.contacts, options.users - 1));
+        options.typingSubscribers = Math.min(options.typingSubscribers, options.users);
+        options.senderThreads = Math.max(1, options.senderThreads);
+        if (options.url != null) {
+            options.sockJs = options.url.startsWith("http");
+        }
+        return options;
+    }
+
+    String[] serverArgs() {
+        return serverArgs(serverProperties);
+    }
+
+    static String[] serverArgs(Map<String, String> serverProperties) {
+        return serverProperties.entrySet().stream()
+                .map(property -> "--" + property.getKey() + "=" + property.getValue())
+                .toArray(String[]::new);
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "users" -> users = Integer.parseInt(value);
+            case "contacts" -> contacts = Integer.parseInt(value);
+            case "dm-rate" -> dmRate = Double.parseDouble(value);
+            case "typing-rate" -> typingRate = Double.parseDouble(value);
+            case "typing-subscribers" -> typingSubscribers = Integer.parseInt(value);
+            case "message-bytes" -> messageBytes = Integer.parseInt(value);
+            case "warmup-seconds" -> warmupSeconds = Integer.parseInt(value);
+            case "duration-seconds" -> durationSeconds = Integer.parseInt(value);
+            case "report-interval-seconds" -> reportIntervalSeconds = Integer.parseInt(value);
+            case "connect-concurrency" -> connectConcurrency = Integer.parseInt(value);
+            case "sender-threads" -> senderThreads = Integer.parseInt(value);
+            case "endpoint" -> endpoint = value;
+            case "sockjs" -> sockJs = Boolean.parseBoolean(value);
+            case "url" -> url = value;
+            default -> throw new IllegalArgumentException("Unknown option --load." + name);
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.sparkchat.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sparkchat.SparkChatApplication;
+import com.sparkchat.model.User;
+import com.sparkchat.repository.UserRepository;
+import com.sparkchat.security.JwtUtils;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test that boots the backend in-process on H2 and drives it over STOMP
+ *
+ * Every user gets an authenticated session on /ws. Senders send DMs to a few contacts
+ * each and typing indicators at fixed overall rates, on a schedule that does not slow
+ * down when the server does. Recipients record how long after its due time each frame
+ * arrived. Everything runs over loopback, so the tool needs nothing but this machine.
+ *
+ * Run with: java -jar target/spark-chat-loadtest-1.0.0.jar --load.users=2000 --load.dm-rate=500
+ */
+public final class LoadTest {
+
+    private static final String MESSAGES_QUEUE = "/user/queue/messages";
+    private static final String TYPING_TOPIC = "/topic/typing";
+    private static final String USERNAME_PREFIX = "load";
+    private static final String CONTENT_PREFIX = "lt:";
+
+    private final LoadOptions options;
+    private final ConfigurableApplicationContext context;
+    private final String url;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final StompSession[] sessions;
+    private final AtomicLongArray typingDue;
+    private final LatencyStats dm = new LatencyStats("dm");
+    private final LatencyStats typing = new LatencyStats("typing");
+    private final LongAdder sessionErrors = new LongAdder();
+    private final String padding;
+
+    private volatile boolean running = true;
+
+    private LoadTest(LoadOptions options, ConfigurableApplicationContext context) {
+        this.options = options;
+        this.context = context;
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        this.url = options.url != null ? options.url : (options.sockJs ? "http" : "ws") + "://localhost:" + port + options.endpoint;
+        this.sessions = new StompSession[options.users];
+        this.typingDue = new AtomicLongArray(options.users);
+        this.padding = "x".repeat(Math.max(0, options.messageBytes - 24));
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options = LoadOptions.parse(args);
+        ConfigurableApplicationContext context = SpringApplication.run(SparkChatApplication.class, options.serverArgs());
+        try {
+            new LoadTest(options, context).run();
+        } finally {
+            context.close();
+        }
+        System.exit(0);
+    }
+
+    private void run() throws InterruptedException {
+        System.out.printf("Spark.chat load test: %d users, %.0f DM/s, %.0f typing/s to %d subscribers, %s%n",
+                options.users, options.dmRate, options.typingRate, options.typingSubscribers, url);
+
+        String[] tokens = createUsers();
+        WebSocketStompClient stompClient = stompClient();
+        long connectStart = System.nanoTime();
+        int connected = connect(stompClient, tokens);
+        System.out.printf("Connected %d of %d sessions in %.1f s%n",
+                connected, options.users, (System.nanoTime() - connectStart) / 1e9);
+        // Subscriptions are confirmed asynchronously
+        Thread.sleep(1000);
+
+        long start = System.nanoTime();
+        long warmupEnd = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        List<Thread> senders = new ArrayList<>();
+        for (int t = 0; t < options.senderThreads; t++) {
+            int thread = t;
+            Thread sender = new Thread(() -> send(thread, start, end), "load-sender-" + t);
+            sender.start();
+            senders.add(sender);
+        }
+
+        System.out.printf("Warming up for %d s%n", options.warmupSeconds);
+        sleepUntil(warmupEnd);
+        dm.reset();
+        typing.reset();
+
+        System.out.printf("%-6s %s%n", "time", LatencyStats.header());
+        long intervalNanos = TimeUnit.SECONDS.toNanos(options.reportIntervalSeconds);
+        long intervalStart = warmupEnd;
+        while (intervalStart < end) {
+            long intervalEnd = Math.min(end, intervalStart + intervalNanos);
+            sleepUntil(intervalEnd);
+            report(String.format("%4d s", TimeUnit.NANOSECONDS.toSeconds(intervalEnd - warmupEnd)),
+                    (intervalEnd - intervalStart) / 1e9);
+            intervalStart = intervalEnd;
+        }
+        running = false;
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        // Frames still in flight count towards the totals
+        long drainStart = System.nanoTime();
+        Thread.sleep(2000);
+        report("drain", (System.nanoTime() - drainStart) / 1e9);
+
+        System.out.printf("%nTotals over %d s%n%-6s %s%n", options.durationSeconds, "", LatencyStats.header());
+        System.out.printf("%-6s %s%n", "", dm.totalLine(options.durationSeconds));
+        System.out.printf("%-6s %s%n", "", typing.totalLine(options.durationSeconds));
+        System.out.printf("DMs sent %d, received %d; send failures %d; session errors %d%n",
+                dm.getTotalSent(), dm.getTotalReceived(), dm.getFailed() + typing.getFailed(), sessionErrors.sum());
+
+        // Frames still queued when sessions close only log errors from here on
+        LoggingSystem.get(LoadTest.class.getClassLoader()).setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.OFF);
+        for (StompSession session : sessions) {
+            if (session != null && session.isConnected()) {
+                session.disconnect();
+            }
+        }
+        stompClient.stop();
+    }
+
+    /**
+     * Store the users directly, with one password hash for all, and sign their tokens
+     */
+    private String[] createUsers() {
+        UserRepository userRepository = context.getBean(UserRepository.class);
+        JwtUtils jwtUtils = context.getBean(JwtUtils.class);
+        String passwordHash = context.getBean(PasswordEncoder.class).encode("loadtest123");
+
+        String[] tokens = new String[options.users];
+        List<User> batch = new ArrayList<>();
+        for (int i = 0; i < options.users; i++) {
+            User user = new User(USERNAME_PREFIX + i, USERNAME_PREFIX + i + "@loadtest.local", passwordHash);
+            user.setDisplayName("Load " + i);
+            batch.add(user);
+            if (batch.size() == 500 || i == options.users - 1) {
+                for (User saved : userRepository.saveAll(batch)) {
+                    int index = Integer.parseInt(saved.getUsername().substring(USERNAME_PREFIX.length()));
+                    tokens[index] = jwtUtils.generateToken(saved);
+                }
+                batch.clear();
+            }
+        }
+        return tokens;
+    }
+
+    private WebSocketStompClient stompClient() {
+        WebSocketClient webSocketClient = new StandardWebSocketClient();
+        if (options.sockJs) {
+            webSocketClient = new SockJsClient(List.of(new WebSocketTransport(webSocketClient)));
+        }
+        WebSocketStompClient stompClient = new WebSocketStompClient(webSocketClient);
+        stompClient.setMessageConverter(new JsonStringMessageConverter());
+        stompClient.setDefaultHeartbeat(new long[] {0, 0});
+        return stompClient;
+    }
+
+    private int connect(WebSocketStompClient stompClient, String[] tokens) throws InterruptedException {
+        Semaphore inProgress = new Semaphore(options.connectConcurrency);
+        LongAdder connected = new LongAdder();
+        for (int i = 0; i < options.users; i++) {
+            int user = i;
+            inProgress.acquire();
+            StompHeaders connectHeaders = new StompHeaders();
+            connectHeaders.add("Authorization", "Bearer " + tokens[i]);
+            stompClient.connectAsync(url, new WebSocketHttpHeaders(), connectHeaders, new SessionHandler())
+                    .whenComplete((session, ex) -> {
+                        if (ex == null) {
+                            session.subscribe(MESSAGES_QUEUE, new FrameHandler(this::onMessage));
+                            if (user < options.typingSubscribers) {
+                                session.subscribe(TYPING_TOPIC, new FrameHandler(this::onTyping));
+                            }
+                            sessions[user] = session;
+                            connected.increment();
+                        } else {
+                            sessionErrors.increment();
+                        }
+                        inProgress.release();
+                    });
+            if (i > 0 && i % 1000 == 0) {
+                System.out.printf("  %d sessions connecting%n", i);
+            }
+        }
+        inProgress.acquire(options.connectConcurrency);
+        return connected.intValue();
+    }
+
+    /**
+     * Send this thread's share of the traffic, from its share of the users so no session
+     * is written by two threads
+     */
+    private void send(int thread, long start, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int threads = options.senderThreads;
+        long dmInterval = options.dmRate > 0 ? (long) (1e9 * threads / options.dmRate) : Long.MAX_VALUE;
+        long typingInterval = options.typingRate > 0 ? (long) (1e9 * threads / options.typingRate) : Long.MAX_VALUE;
+        // Threads are staggered so their sends interleave
+        long nextDm = dmInterval == Long.MAX_VALUE ? Long.MAX_VALUE : start + dmInterval * thread / threads;
+        long nextTyping = typingInterval == Long.MAX_VALUE ? Long.MAX_VALUE : start + typingInterval * thread / threads;
+
+        while (running) {
+            long due = Math.min(nextDm, nextTyping);
+            if (due >= end) {
+                break;
+            }
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            int user = thread + threads * random.nextInt((options.users - thread + threads - 1) / threads);
+            StompSession session = sessions[user];
+            if (due == nextDm) {
+                nextDm += dmInterval;
+                int recipient = (user + 1 + random.nextInt(options.contacts)) % options.users;
+                String body = "{\"recipient\":\"" + USERNAME_PREFIX + recipient + "\",\"content\":\""
+                        + CONTENT_PREFIX + due + ":" + padding + "\",\"messageTypeString\":\"TEXT\"}";
+                send(session, "/app/chat.sendMessage", body, dm);
+            } else {
+                nextTyping += typingInterval;
+                typingDue.set(user, due);
+                send(session, "/app/chat.typing", "{\"typing\":true}", typing);
+            }
+        }
+    }
+
+    private void send(StompSession session, String destination, String body, LatencyStats stats) {
+        if (session == null || !session.isConnected()) {
+            stats.failed();
+            return;
+        }
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination(destination);
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        try {
+            session.send(headers, body);
+            stats.sent();
+        } catch (RuntimeException e) {
+            stats.failed();
+        }
+    }
+
+    private void onMessage(String payload) throws Exception {
+        String content = objectMapper.readTree(payload).path("content").asText();
+        if (content.startsWith(CONTENT_PREFIX)) {
+            dm.received(Long.parseLong(content.substring(CONTENT_PREFIX.length(), content.indexOf(':', CONTENT_PREFIX.length()))));
+        }
+    }
+
+    private void onTyping(String payload) throws Exception {
+        JsonNode username = objectMapper.readTree(payload).path("username");
+        if (username.asText().startsWith(USERNAME_PREFIX)) {
+            // Conflation may have merged indicators, so this times the latest one sent
+            typing.received(typingDue.get(Integer.parseInt(username.asText().substring(USERNAME_PREFIX.length()))));
+        }
+    }
+
+    private void report(String label, double seconds) {
+        dm.nextInterval();
+        typing.nextInterval();
+        System.out.printf("%-6s %s%n", label, dm.intervalLine(seconds));
+        System.out.printf("%-6s %s%n", "", typing.intervalLine(seconds));
+    }
+
+    private static void sleepUntil(long nanos) throws InterruptedException {
+        long wait;
+        while ((wait = nanos - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Passes JSON bodies through as strings, so only the fields needed are parsed
+     */
+    private static final class JsonStringMessageConverter extends StringMessageConverter {
+
+        JsonStringMessageConverter() {
+            addSupportedMimeTypes(MimeTypeUtils.APPLICATION_JSON);
+        }
+    }
+
+    private interface PayloadHandler {
+        void handle(String payload) throws Exception;
+    }
+
+    private final class FrameHandler implements StompFrameHandler {
+
+        private final PayloadHandler handler;
+
+        FrameHandler(PayloadHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return String.class;
+        }
+
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            try {
+                handler.handle((String) payload);
+            } catch (Exception e) {
+                sessionErrors.increment();
+            }
+        }
+    }
+
+    private final class SessionHandler extends StompSessionHandlerAdapter {
+
+        /**
+         * ERROR frames, e.g. when a frame was throttled
+         */
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            sessionErrors.increment();
+        }
+
+        @Override
+        public void handleException(StompSession session, StompCommand command, StompHeaders headers,
+                                    byte[] payload, Throwable exception) {
+            sessionErrors.increment();
+        }
+
+        @Override
+        public void handleTransportError(StompSession session, Throwable exception) {
+            sessionErrors.increment();
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package com.sparkchat.loadtest;
+
+import com.sparkchat.SparkChatApplication;
+import com.sparkchat.diagnostics.TrafficLog;
+import com.sparkchat.model.ChatRoom;
+import com.sparkchat.model.User;
+import com.sparkchat.repository.UserRepository;
+import com.sparkchat.security.JwtUtils;
+import com.sparkchat.service.ChatService;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.ByteArrayMessageConverter;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays a traffic log captured by the backend's TrafficRecorder against an in-process server
+ *
+ * Users user0, user1 and so on are created for the captured users, as are group rooms for
+ * the room ids the log mentions, with the users that used them as members. The inbound
+ * frames are then sent on the captured schedule, scaled by the speed, or back to back at max
+ * speed, when sessions stay connected until the end. Frames that refer to captured message
+ * or room ids in their payload, like read receipts, may be rejected, since ids differ in the
+ * new database. UNSUBSCRIBE frames are skipped because the log does not keep subscription ids.
+ *
+ * Run with: java -Dloader.main=com.sparkchat.loadtest.Replay -jar target/spark-chat-loadtest-1.0.0.jar \
+ *     --replay.file=traffic.scap --replay.speed=max
+ */
+public final class Replay {
+
+    private static final String USERNAME_PREFIX = "user";
+    private static final Pattern ROOM_DESTINATION = Pattern.compile("^(/topic/rooms/|/app/chat\\.room\\.)(\\d+)");
+    private static final Pattern PAYLOAD_USER = Pattern.compile("\"(?:recipient|username)\":\"" + USERNAME_PREFIX + "(\\d+)\"");
+
+    private final ReplayOptions options;
+    private final ConfigurableApplicationContext context;
+    private final String url;
+
+    private final Map<Integer, CompletableFuture<StompSession>> sessions = new HashMap<>();
+    private final Map<Long, Long> rooms = new HashMap<>();
+    private final Histogram lag = new Histogram(TimeUnit.SECONDS.toMicros(60), 3);
+    private final Map<StompCommand, Long> replayed = new EnumMap<>(StompCommand.class);
+    private final LongAdder received = new LongAdder();
+    private final LongAdder sessionErrors = new LongAdder();
+
+    private int users;
+    private long capturedMessages;
+    private long capturedMicros;
+
+    private Replay(ReplayOptions options, ConfigurableApplicationContext context) {
+        this.options = options;
+        this.context = context;
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        this.url = (options.sockJs ? "http" : "ws") + "://localhost:" + port + options.endpoint;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ReplayOptions options = ReplayOptions.parse(args);
+        ConfigurableApplicationContext context = SpringApplication.run(SparkChatApplication.class, options.serverArgs());
+        try {
+            new Replay(options, context).run();
+        } finally {
+            context.close();
+        }
+        System.exit(0);
+    }
+
+    private void run() throws IOException, InterruptedException {
+        Map<Long, Set<Integer>> roomMembers = scan();
+        System.out.printf("Spark.chat replay of %s: %d users, %d rooms, %.1f s captured, speed %s, %s%n",
+                options.file, users, roomMembers.size(), capturedMicros / 1e6,
+                options.speed > 0 ? options.speed + "x" : "max", url);
+
+        String[] tokens = createUsersAndRooms(roomMembers);
+        WebSocketStompClient stompClient = stompClient();
+        Semaphore connecting = new Semaphore(options.connectConcurrency);
+
+        long start = System.nanoTime();
+        try (TrafficLog.Reader reader = new TrafficLog.Reader(options.file)) {
+            TrafficLog.Frame frame;
+            while ((frame = reader.next()) != null) {
+                if (frame.isOutbound()) {
+                    continue;
+                }
+                if (options.speed > 0) {
+                    long due = start + (long) (TimeUnit.MICROSECONDS.toNanos(frame.getTimeMicros()) / options.speed);
+                    sleepUntil(due);
+                    lag.recordValue(Math.min(lag.getHighestTrackableValue(),
+                            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due)));
+                }
+                dispatch(frame, stompClient, tokens, connecting);
+            }
+        }
+        // Wait for the frames queued behind connects
+        for (CompletableFuture<StompSession> session : sessions.values()) {
+            try {
+                session.join();
+            } catch (RuntimeException e) {
+                // Counted as a session error
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        drain();
+
+        long frames = replayed.values().stream().mapToLong(Long::longValue).sum();
+        System.out.printf("Replayed %d frames in %.1f s, %.0f frames/s (%.1fx the captured rate)%n",
+                frames, seconds, frames / seconds, capturedMicros / 1e6 / seconds);
+        System.out.printf("  %s%n", replayed);
+        if (options.speed > 0) {
+            System.out.printf("Schedule lag us: p50 %d, p99 %d, p99.9 %d, max %d%n",
+                    lag.getValueAtPercentile(50), lag.getValueAtPercentile(99),
+                    lag.getValueAtPercentile(99.9), lag.getMaxValue());
+        }
+        System.out.printf("MESSAGE frames received %d, captured %d; session errors %d%n",
+                received.sum(), capturedMessages, sessionErrors.sum());
+
+        LoggingSystem.get(Replay.class.getClassLoader()).setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.OFF);
+        for (CompletableFuture<StompSession> session : sessions.values()) {
+            StompSession connected = session.getNow(null);
+            if (connected != null && connected.isConnected()) {
+                connected.disconnect();
+            }
+        }
+        stompClient.stop();
+    }
+
+    /**
+     * Wait until MESSAGE frames stop arriving for a second, or the drain timeout
+     */
+    private void drain() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.drainSeconds);
+        long last = -1;
+        while (received.sum() != last && System.nanoTime() < deadline) {
+            last = received.sum();
+            Thread.sleep(1000);
+        }
+    }
+
+    /**
+     * First pass over the log: count users and captured MESSAGE frames, and find the rooms
+     * used and by whom
+     */
+    private Map<Long, Set<Integer>> scan() throws IOException {
+        Map<Long, Set<Integer>> roomMembers = new TreeMap<>();
+        int maxUser = -1;
+        try (TrafficLog.Reader reader = new TrafficLog.Reader(options.file)) {
+            TrafficLog.Frame frame;
+            while ((frame = reader.next()) != null) {
+                capturedMicros = frame.getTimeMicros();
+                if (frame.isOutbound()) {
+                    if (frame.getCommand() == StompCommand.MESSAGE) {
+                        capturedMessages++;
+                    }
+                    continue;
+                }
+                maxUser = Math.max(maxUser, frame.getUser());
+                if (frame.getCommand() == StompCommand.SEND) {
+                    Matcher user = PAYLOAD_USER.matcher(new String(frame.getPayload(), StandardCharsets.UTF_8));
+                    while (user.find()) {
+                        maxUser = Math.max(maxUser, Integer.parseInt(user.group(1)));
+                    }
+                }
+                if (frame.getDestination() != null && frame.getUser() >= 0) {
+                    Matcher room = ROOM_DESTINATION.matcher(frame.getDestination());
+                    if (room.find()) {
+                        roomMembers.computeIfAbsent(Long.parseLong(room.group(2)), id -> new LinkedHashSet<>())
+                                .add(frame.getUser());
+                    }
+                }
+            }
+        }
+        users = maxUser + 1;
+        return roomMembers;
+    }
+
+    private String[] createUsersAndRooms(Map<Long, Set<Integer>> roomMembers) {
+        UserRepository userRepository = context.getBean(UserRepository.class);
+        JwtUtils jwtUtils = context.getBean(JwtUtils.class);
+        ChatService chatService = context.getBean(ChatService.class);
+        String passwordHash = context.getBean(PasswordEncoder.class).encode("replay123");
+
+        User[] created = new User[users];
+        String[] tokens = new String[users];
+        List<User> batch = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            User user = new User(USERNAME_PREFIX + i, USERNAME_PREFIX + i + "@replay.local", passwordHash);
+            batch.add(user);
+            if (batch.size() == 500 || i == users - 1) {
+                for (User saved : userRepository.saveAll(batch)) {
+                    int index = Integer.parseInt(saved.getUsername().substring(USERNAME_PREFIX.length()));
+                    created[index] = saved;
+                    tokens[index] = jwtUtils.generateToken(saved);
+                }
+                batch.clear();
+            }
+        }
+
+        for (Map.Entry<Long, Set<Integer>> room : roomMembers.entrySet()) {
+            // The creator is added as a member by the service
+            User creator = created[room.getValue().iterator().next()];
+            List<String> members = room.getValue().stream().skip(1).map(user -> USERNAME_PREFIX + user).toList();
+            ChatRoom chatRoom = chatService.createGroupRoom("Room " + room.getKey(), null, creator, members);
+            rooms.put(room.getKey(), chatRoom.getId());
+        }
+        return tokens;
+    }
+
+    private WebSocketStompClient stompClient() {
+        WebSocketClient webSocketClient = new StandardWebSocketClient();
+        if (options.sockJs) {
+            webSocketClient = new SockJsClient(List.of(new WebSocketTransport(webSocketClient)));
+        }
+        WebSocketStompClient stompClient = new WebSocketStompClient(webSocketClient);
+        stompClient.setMessageConverter(new PassThroughMessageConverter());
+        stompClient.setDefaultHeartbeat(new long[] {0, 0});
+        return stompClient;
+    }
+
+    /**
+     * Send one captured frame. Frames of a session are chained on its connect, so they keep
+     * their order without blocking the schedule.
+     */
+    private void dispatch(TrafficLog.Frame frame, WebSocketStompClient stompClient, String[] tokens,
+                          Semaphore connecting) throws InterruptedException {
+        StompCommand command = frame.getCommand();
+        if (command == StompCommand.CONNECT || command == StompCommand.STOMP) {
+            connecting.acquire();
+            StompHeaders connectHeaders = new StompHeaders();
+            if (frame.getUser() >= 0) {
+                connectHeaders.add("Authorization", "Bearer " + tokens[frame.getUser()]);
+            }
+            CompletableFuture<StompSession> session = stompClient
+                    .connectAsync(url, new WebSocketHttpHeaders(), connectHeaders, new SessionHandler())
+                    .whenComplete((connected, ex) -> {
+                        connecting.release();
+                        if (ex != null) {
+                            sessionErrors.increment();
+                        }
+                    });
+            sessions.put(frame.getSession(), session);
+            replayed.merge(command, 1L, Long::sum);
+            return;
+        }
+        CompletableFuture<StompSession> session = sessions.get(frame.getSession());
+        // At max speed sessions stay connected to the end, or they would miss frames sent to them
+        if (session == null || command == StompCommand.UNSUBSCRIBE
+                || (command == StompCommand.DISCONNECT && options.speed == 0)) {
+            return;
+        }
+        String destination = destination(frame.getDestination());
+        Consumer<StompSession> action = switch (command) {
+            case SUBSCRIBE -> connected -> connected.subscribe(destination, new CountingFrameHandler());
+            case SEND -> connected -> {
+                StompHeaders headers = new StompHeaders();
+                headers.setDestination(destination);
+                headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+                connected.send(headers, payload(frame));
+            };
+            case DISCONNECT -> StompSession::disconnect;
+            default -> null;
+        };
+        CompletableFuture<StompSession> next = action == null ? null : session.thenApply(connected -> {
+            try {
+                action.accept(connected);
+            } catch (RuntimeException e) {
+                // e.g. the session was closed by the server
+                sessionErrors.increment();
+            }
+            return connected;
+        });
+        if (next != null) {
+            sessions.put(frame.getSession(), next);
+            replayed.merge(command, 1L, Long::sum);
+        }
+    }
+
+    /**
+     * Room destinations are rewritten to the rooms created for the replay
+     */
+    private String destination(String captured) {
+        if (captured == null) {
+            return null;
+        }
+        Matcher room = ROOM_DESTINATION.matcher(captured);
+        if (!room.find()) {
+            return captured;
+        }
+        Long id = rooms.get(Long.parseLong(room.group(2)));
+        return id != null ? room.group(1) + id + captured.substring(room.end()) : captured;
+    }
+
+    /**
+     * The anonymised payload, or filler of the original size if payloads were not captured
+     */
+    private static byte[] payload(TrafficLog.Frame frame) {
+        if (frame.getPayload().length > 0 || frame.getSize() == 0) {
+            return frame.getPayload();
+        }
+        byte[] filler = new byte[frame.getSize()];
+        Arrays.fill(filler, (byte) 'x');
+        return filler;
+    }
+
+    private static void sleepUntil(long nanos) throws InterruptedException {
+        long wait;
+        while ((wait = nanos - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Passes payloads through as bytes whatever their content type, since captured payloads
+     * are already encoded and received ones are only counted
+     */
+    private static final class PassThroughMessageConverter extends ByteArrayMessageConverter {
+
+        @Override
+        protected boolean supportsMimeType(MessageHeaders headers) {
+            return true;
+        }
+    }
+
+    private final class CountingFrameHandler implements StompFrameHandler {
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return byte[].class;
+        }
+
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            received.increment();
+        }
+    }
+
+    private final class SessionHandler extends StompSessionHandlerAdapter {
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return byte[].class;
+        }
+
+        /**
+         * ERROR frames, e.g. for a frame that referred to a captured id
+         */
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            sessionErrors.increment();
+        }
+
+        @Override
+        public void handleException(StompSession session, StompCommand command, StompHeaders headers,
+                                    byte[] payload, Throwable exception) {
+            sessionErrors.increment();
+        }
+
+        @Override
+        public void handleTransportError(StompSession session, Throwable exception) {
+            sessionErrors.increment();
+        }
+    }
+}
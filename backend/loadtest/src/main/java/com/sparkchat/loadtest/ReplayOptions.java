@@ -0,0 +1,80 @@
+package com.sparkchat.loadtest;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * Command line of the replayer
+ *
+ * Arguments starting with --replay. configure the replay; all others are passed to the
+ * backend, as for the load test.
+ */
+final class ReplayOptions {
+
+    private static final String PREFIX = "--replay.";
+
+    Path file;
+    /** Multiple of the captured rate, or 0 to send as fast as possible */
+    double speed = 1;
+    int connectConcurrency = 32;
+    int drainSeconds = 30;
+    String endpoint = "/ws";
+    boolean sockJs = true;
+
+    final Map<String, String> serverProperties = LoadOptions.serverDefaults("replay");
+
+    private ReplayOptions() {
+    }
+
+    static ReplayOptions parse(String[] args) {
+        ReplayOptions options = new ReplayOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith(PREFIX)) {
+                options.set(name.substring(PREFIX.length() - 2), value);
+            } else {
+                options.serverProperties.put(name, value);
+            }
+        }
+        if (options.file == null) {
+            throw new IllegalArgumentException("--replay.file is required");
+        }
+        options.connectConcurrency = Math.max(1, options.connectConcurrency);
+        return options;
+    }
+
+    String[] serverArgs() {
+        return LoadOptions.serverArgs(serverProperties);
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "file" -> file = Paths.get(value);
+            case "speed" -> speed = parseSpeed(value);
+            case "connect-concurrency" -> connectConcurrency = Integer.parseInt(value);
+            case "drain-seconds" -> drainSeconds = Integer.parseInt(value);
+            case "endpoint" -> endpoint = value;
+            case "sockjs" -> sockJs = Boolean.parseBoolean(value);
+            default -> throw new IllegalArgumentException("Unknown option --replay." + name);
+        }
+    }
+
+    /**
+     * 1, 10 or 10x replay at that multiple of the captured rate; max as fast as possible
+     */
+    private static double parseSpeed(String value) {
+        if (value.equalsIgnoreCase("max")) {
+            return 0;
+        }
+        double speed = Double.parseDouble(value.endsWith("x") ? value.substring(0, value.length() - 1) : value);
+        if (speed <= 0) {
+            throw new IllegalArgumentException("replay.speed must be positive or max");
+        }
+        return speed;
+    }
+}
@@ -0,0 +1,21 @@
+package com.sparkchat.reactive;
+
+import com.sparkchat.security.JwtUtils;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Import;
+
+/**
+ * Non-blocking variant of the Spark Chat history, contact and messaging paths, on WebFlux
+ * and R2DBC against the backend's database
+ *
+ * Tokens are issued and checked by the backend's JwtUtils, so clients log in through the
+ * backend and use the same token here.
+ */
+@SpringBootApplication
+@Import(JwtUtils.class)
+public class ReactiveChatApplication {
+    public static void main(String[] args) {
+        SpringApplication.run(ReactiveChatApplication.class, args);
+    }
+}
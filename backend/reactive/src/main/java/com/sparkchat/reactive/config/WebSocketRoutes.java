@@ -0,0 +1,23 @@
+package com.sparkchat.reactive.config;
+
+import com.sparkchat.reactive.websocket.StompWebSocketHandler;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
+
+import java.util.Map;
+
+/**
+ * Serves STOMP on /ws-native, the backend's plain WebSocket endpoint; there is no SockJS
+ * fallback in WebFlux
+ */
+@Configuration
+public class WebSocketRoutes {
+    
+    @Bean
+    public HandlerMapping webSocketHandlerMapping(StompWebSocketHandler stompWebSocketHandler) {
+        return new SimpleUrlHandlerMapping(Map.of("/ws-native", stompWebSocketHandler), Ordered.HIGHEST_PRECEDENCE);
+    }
+}
@@ -0,0 +1,79 @@
+package com.sparkchat.reactive.controller;
+
+import com.sparkchat.dto.MessageDto;
+import com.sparkchat.reactive.service.ReactiveChatService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of the backend's ChatController for message history
+ * 
+ * Paths, parameters and responses are those of the backend, so clients switch stacks by
+ * changing the base URL only.
+ */
+@RestController
+@RequestMapping("/api/chat")
+public class ReactiveChatController {
+    
+    private final ReactiveChatService chatService;
+    
+    public ReactiveChatController(ReactiveChatService chatService) {
+        this.chatService = chatService;
+    }
+    
+    /**
+     * Get message history for a chat room the current user is a member of, or the public
+     * chat without a room id
+     */
+    @GetMapping("/messages")
+    public Mono<ResponseEntity<?>> getMessageHistory(
+            @RequestParam(required = false) Long roomId,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "50") int size,
+            Authentication authentication) {
+        Mono<Boolean> allowed = roomId == null ? Mono.just(true) : chatService.canRead(roomId, authentication.getName());
+        return allowed.flatMap(canRead -> canRead
+                        ? chatService.getMessageHistory(roomId, page, size)
+                                .collectList()
+                                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                        : Mono.<ResponseEntity<?>>just(ResponseEntity.status(HttpStatus.FORBIDDEN)
+                                .body("Not a member of this chat room")))
+                .onErrorResume(e -> Mono.just(ResponseEntity.badRequest()
+                        .body("Failed to get message history: " + e.getMessage())));
+    }
+    
+    /**
+     * Stream the whole history of a chat room the current user is a member of, oldest
+     * first, as newline-delimited JSON
+     * 
+     * Each message is written as the client reads, so the history is never held in memory.
+     */
+    @GetMapping(path = "/rooms/{roomId}/messages/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MessageDto> streamMessageHistory(@PathVariable Long roomId, Authentication authentication) {
+        return chatService.isMember(roomId, authentication.getName())
+                .flatMapMany(member -> member ? chatService.streamMessageHistory(roomId)
+                        : Flux.error(new ResponseStatusException(HttpStatus.FORBIDDEN, "Not a member of this chat room")));
+    }
+    
+    /**
+     * Get DM history between current user and another user
+     */
+    @GetMapping("/dm/{username}")
+    public Mono<ResponseEntity<?>> getDmHistory(
+            @PathVariable String username,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "50") int size,
+            Authentication authentication) {
+        return chatService.getDmHistory(authentication.getName(), username, page, size)
+                .collectList()
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .onErrorResume(e -> Mono.just(ResponseEntity.badRequest()
+                        .body("Failed to get DM history: " + e.getMessage())));
+    }
+}
@@ -0,0 +1,57 @@
+package com.sparkchat.reactive.controller;
+
+import com.sparkchat.dto.UserDto;
+import com.sparkchat.reactive.repository.UserRepository;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of the backend's UserController for the contact list
+ */
+@RestController
+@RequestMapping("/api/users")
+public class ReactiveUserController {
+    
+    private final UserRepository userRepository;
+    
+    public ReactiveUserController(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+    
+    /**
+     * Get all users (for contact list)
+     */
+    @GetMapping
+    public Mono<ResponseEntity<?>> getAllUsers(Authentication authentication) {
+        return userRepository.findAllExcept(authentication.getName())
+                .map(ReactiveUserController::toContact)
+                .collectList()
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .onErrorResume(e -> Mono.just(ResponseEntity.badRequest().body("Failed to get users: " + e.getMessage())));
+    }
+    
+    /**
+     * Search user by username
+     */
+    @GetMapping("/search")
+    public Mono<ResponseEntity<?>> searchUser(@RequestParam String username, Authentication authentication) {
+        if (username.equals(authentication.getName())) {
+            return Mono.just(ResponseEntity.badRequest().body("Cannot add yourself"));
+        }
+        return userRepository.findByUsername(username)
+                .<ResponseEntity<?>>map(user -> ResponseEntity.ok(toContact(user)))
+                .defaultIfEmpty(ResponseEntity.notFound().build())
+                .onErrorResume(e -> Mono.just(ResponseEntity.badRequest().body("Failed to search user: " + e.getMessage())));
+    }
+    
+    // The contact list shows only these fields
+    private static UserDto toContact(UserDto user) {
+        UserDto contact = new UserDto();
+        contact.setUsername(user.getUsername());
+        contact.setDisplayName(user.getDisplayName());
+        contact.setEmail(user.getEmail());
+        return contact;
+    }
+}
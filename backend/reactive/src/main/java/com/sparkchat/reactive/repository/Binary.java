@@ -0,0 +1,39 @@
+package com.sparkchat.reactive.repository;
+
+import io.r2dbc.spi.Blob;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads binary columns, which drivers return as byte arrays, buffers or streamed blobs
+ * depending on the column type; the backend maps them to BLOB on H2 and LONGBLOB on MySQL
+ */
+final class Binary {
+    
+    private Binary() {
+    }
+    
+    static Mono<byte[]> read(Object value) {
+        if (value instanceof byte[]) {
+            return Mono.just((byte[]) value);
+        }
+        if (value instanceof ByteBuffer) {
+            return Mono.just(toBytes((ByteBuffer) value));
+        }
+        if (value instanceof Blob) {
+            return Flux.from(((Blob) value).stream())
+                    .collect(ByteArrayOutputStream::new, (out, buffer) -> out.writeBytes(toBytes(buffer)))
+                    .map(ByteArrayOutputStream::toByteArray);
+        }
+        return Mono.error(new IllegalStateException("Unexpected binary column type " + value.getClass().getName()));
+    }
+    
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
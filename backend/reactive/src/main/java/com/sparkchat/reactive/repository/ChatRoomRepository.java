@@ -0,0 +1,94 @@
+package com.sparkchat.reactive.repository;
+
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+
+/**
+ * Chat rooms and their members, in the backend's chat_rooms and chat_room_members tables
+ */
+@Repository
+public class ChatRoomRepository {
+    
+    private final DatabaseClient databaseClient;
+    
+    public ChatRoomRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+    
+    public Mono<Long> findIdBySystemKey(String systemKey) {
+        return databaseClient.sql("SELECT id FROM chat_rooms WHERE system_key = :systemKey")
+                .bind("systemKey", systemKey)
+                .map((row, metadata) -> row.get("id", Long.class))
+                .one();
+    }
+    
+    /**
+     * Find the public room from before rooms had keys; rooms users create always have a creator
+     */
+    public Mono<Long> findUnkeyedPublicRoomId(String name) {
+        return databaseClient.sql("SELECT id FROM chat_rooms WHERE name = :name AND room_type = 'GROUP' " +
+                        "AND system_key IS NULL AND created_by IS NULL ORDER BY id")
+                .bind("name", name)
+                .map((row, metadata) -> row.get("id", Long.class))
+                .first();
+    }
+    
+    /**
+     * Find a DM room of two users from before rooms had keys: a DIRECT room the server
+     * named for them with no members besides them
+     */
+    public Mono<Long> findUnkeyedDirectRoomId(String name, Long user1Id, Long user2Id) {
+        return databaseClient.sql("SELECT cr.id FROM chat_rooms cr WHERE cr.name = :name AND cr.room_type = 'DIRECT' " +
+                        "AND cr.system_key IS NULL AND cr.created_by IS NULL AND NOT EXISTS (" +
+                        "SELECT 1 FROM chat_room_members m WHERE m.chat_room_id = cr.id " +
+                        "AND m.user_id NOT IN (:user1Id, :user2Id)) ORDER BY cr.id")
+                .bind("name", name)
+                .bind("user1Id", user1Id)
+                .bind("user2Id", user2Id)
+                .map((row, metadata) -> row.get("id", Long.class))
+                .first();
+    }
+    
+    public Mono<Boolean> isMember(Long chatRoomId, Long userId) {
+        return databaseClient.sql("SELECT COUNT(*) AS members FROM chat_room_members " +
+                        "WHERE chat_room_id = :chatRoomId AND user_id = :userId")
+                .bind("chatRoomId", chatRoomId)
+                .bind("userId", userId)
+                .map((row, metadata) -> row.get("members", Long.class) > 0)
+                .one();
+    }
+    
+    public Flux<String> findMemberUsernames(Long chatRoomId) {
+        return databaseClient.sql("SELECT u.username FROM chat_room_members m JOIN users u ON u.id = m.user_id " +
+                        "WHERE m.chat_room_id = :chatRoomId")
+                .bind("chatRoomId", chatRoomId)
+                .map((row, metadata) -> row.get("username", String.class))
+                .all();
+    }
+    
+    /**
+     * Insert a direct message room, returning its id; members are added separately
+     */
+    public Mono<Long> insertDirectRoom(String systemKey, String name, String description) {
+        return databaseClient.sql("INSERT INTO chat_rooms (system_key, name, description, room_type, max_members, is_active, created_at) " +
+                        "VALUES (:systemKey, :name, :description, 'DIRECT', 10, TRUE, :createdAt)")
+                .bind("systemKey", systemKey)
+                .bind("name", name)
+                .bind("description", description)
+                .bind("createdAt", LocalDateTime.now())
+                .filter(statement -> statement.returnGeneratedValues("id"))
+                .map((row, metadata) -> row.get("id", Long.class))
+                .one();
+    }
+    
+    public Mono<Void> insertMember(Long chatRoomId, Long userId) {
+        return databaseClient.sql("INSERT INTO chat_room_members (chat_room_id, user_id) VALUES (:chatRoomId, :userId)")
+                .bind("chatRoomId", chatRoomId)
+                .bind("userId", userId)
+                .then();
+    }
+}
@@ -0,0 +1,26 @@
+package com.sparkchat.reactive.repository;
+
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+/**
+ * Compression dictionaries trained by the backend
+ */
+@Repository
+public class CompressionDictionaryRepository {
+    
+    private final DatabaseClient databaseClient;
+    
+    public CompressionDictionaryRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+    
+    public Mono<byte[]> findDictionary(int version) {
+        return databaseClient.sql("SELECT dictionary FROM compression_dictionaries WHERE version = :version")
+                .bind("version", version)
+                .map((row, metadata) -> row.get("dictionary"))
+                .one()
+                .flatMap(Binary::read);
+    }
+}
@@ -0,0 +1,109 @@
+package com.sparkchat.reactive.repository;
+
+import com.sparkchat.dto.MessageDto;
+import com.sparkchat.dto.UserDto;
+import io.r2dbc.spi.Row;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+
+/**
+ * Messages with their senders, in the backend's messages table
+ *
+ * Messages are written with plain content; the backend packs content with its
+ * compression dictionary only as it writes, so both kinds of row are read here.
+ */
+@Repository
+public class MessageRepository {
+    
+    private static final String COLUMNS = "SELECT m.id, m.chat_room_id, m.content, m.content_packed, " +
+            "m.content_dict_version, m.message_type, m.file_url, m.file_name, m.file_size, m.thumbnail_url, " +
+            "m.blurhash, m.self_destruct_timer, m.expires_at, m.sent_at, m.edited_at, " +
+            "u.username, u.display_name FROM messages m JOIN users u ON u.id = m.sender_id " +
+            "WHERE m.chat_room_id = :chatRoomId";
+    
+    private final DatabaseClient databaseClient;
+    
+    public MessageRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+    
+    /**
+     * Get a page of a room's messages, newest first
+     */
+    public Flux<StoredMessage> findByChatRoomNewestFirst(Long chatRoomId, int page, int size) {
+        return findPage(COLUMNS + " ORDER BY m.sent_at DESC, m.id DESC LIMIT :limit OFFSET :offset", chatRoomId, page, size);
+    }
+    
+    /**
+     * Get a page of a room's messages, oldest first
+     */
+    public Flux<StoredMessage> findByChatRoomOldestFirst(Long chatRoomId, int page, int size) {
+        return findPage(COLUMNS + " ORDER BY m.sent_at ASC, m.id ASC LIMIT :limit OFFSET :offset", chatRoomId, page, size);
+    }
+    
+    /**
+     * Get all of a room's messages, oldest first; rows are fetched as they are requested
+     */
+    public Flux<StoredMessage> streamByChatRoom(Long chatRoomId) {
+        return databaseClient.sql(COLUMNS + " ORDER BY m.id ASC")
+                .bind("chatRoomId", chatRoomId)
+                .map((row, metadata) -> toStoredMessage(row))
+                .all()
+                .concatMap(StoredMessage::resolve);
+    }
+    
+    /**
+     * Insert a message with plain content and no attachment, returning its id
+     */
+    public Mono<Long> insert(Long chatRoomId, Long senderId, MessageDto message) {
+        return databaseClient.sql("INSERT INTO messages (chat_room_id, sender_id, content, message_type, " +
+                        "is_deleted, sent_at) VALUES (:chatRoomId, :senderId, :content, :messageType, FALSE, :sentAt)")
+                .bind("chatRoomId", chatRoomId)
+                .bind("senderId", senderId)
+                .bind("content", message.getContent())
+                .bind("messageType", message.getMessageTypeString())
+                .bind("sentAt", message.getSentAt())
+                .filter(statement -> statement.returnGeneratedValues("id"))
+                .map((row, metadata) -> row.get("id", Long.class))
+                .one();
+    }
+    
+    private Flux<StoredMessage> findPage(String sql, Long chatRoomId, int page, int size) {
+        return databaseClient.sql(sql)
+                .bind("chatRoomId", chatRoomId)
+                .bind("limit", size)
+                .bind("offset", (long) page * size)
+                .map((row, metadata) -> toStoredMessage(row))
+                .all()
+                .concatMap(StoredMessage::resolve);
+    }
+    
+    private static StoredMessage toStoredMessage(Row row) {
+        MessageDto dto = new MessageDto();
+        dto.setId(row.get("id", Long.class));
+        dto.setChatRoomId(row.get("chat_room_id", Long.class));
+        String messageType = row.get("message_type", String.class);
+        dto.setMessageTypeString(messageType != null ? messageType : "TEXT");
+        dto.setFileUrl(row.get("file_url", String.class));
+        dto.setFileName(row.get("file_name", String.class));
+        dto.setFileSize(row.get("file_size", Long.class));
+        dto.setThumbnailUrl(row.get("thumbnail_url", String.class));
+        dto.setBlurhash(row.get("blurhash", String.class));
+        dto.setSelfDestructTimer(row.get("self_destruct_timer", Integer.class));
+        dto.setExpiresAt(row.get("expires_at", LocalDateTime.class));
+        dto.setSentAt(row.get("sent_at", LocalDateTime.class));
+        dto.setEditedAt(row.get("edited_at", LocalDateTime.class));
+        
+        UserDto sender = new UserDto();
+        sender.setUsername(row.get("username", String.class));
+        sender.setDisplayName(row.get("display_name", String.class));
+        dto.setSender(sender);
+        
+        return new StoredMessage(dto, row.get("content", String.class), row.get("content_packed"),
+                row.get("content_dict_version", Integer.class));
+    }
+}
@@ -0,0 +1,41 @@
+package com.sparkchat.reactive.repository;
+
+import com.sparkchat.dto.MessageDto;
+import reactor.core.publisher.Mono;
+
+/**
+ * A message row: its DTO without content, and the content as stored
+ *
+ * The content is either plain text, or packed with a compression dictionary when
+ * dictionaryVersion is set; MessageContentReader turns it back into text.
+ */
+public final class StoredMessage {
+    
+    private final MessageDto message;
+    private final String content;
+    private final Object packedContent;
+    private final Integer dictionaryVersion;
+    
+    StoredMessage(MessageDto message, String content, Object packedContent, Integer dictionaryVersion) {
+        this.message = message;
+        this.content = content;
+        this.packedContent = packedContent;
+        this.dictionaryVersion = dictionaryVersion;
+    }
+    
+    public MessageDto getMessage() { return message; }
+    public String getContent() { return content; }
+    public byte[] getPackedContent() { return (byte[]) packedContent; }
+    public Integer getDictionaryVersion() { return dictionaryVersion; }
+    
+    /**
+     * Read the packed content, if the driver returned it as a stream
+     */
+    Mono<StoredMessage> resolve() {
+        if (packedContent == null || packedContent instanceof byte[]) {
+            return Mono.just(this);
+        }
+        return Binary.read(packedContent)
+                .map(bytes -> new StoredMessage(message, content, bytes, dictionaryVersion));
+    }
+}
@@ -0,0 +1,53 @@
+package com.sparkchat.reactive.repository;
+
+import com.sparkchat.dto.UserDto;
+import io.r2dbc.spi.Row;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+
+/**
+ * Users, read from the table the backend maps its User entity to
+ */
+@Repository
+public class UserRepository {
+    
+    private static final String COLUMNS = "SELECT id, username, email, display_name, profile_picture_url, " +
+            "is_online, last_seen, created_at FROM users";
+    
+    private final DatabaseClient databaseClient;
+    
+    public UserRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+    
+    public Mono<UserDto> findByUsername(String username) {
+        return databaseClient.sql(COLUMNS + " WHERE username = :username")
+                .bind("username", username)
+                .map((row, metadata) -> toDto(row))
+                .one();
+    }
+    
+    public Flux<UserDto> findAllExcept(String username) {
+        return databaseClient.sql(COLUMNS + " WHERE username <> :username ORDER BY username")
+                .bind("username", username)
+                .map((row, metadata) -> toDto(row))
+                .all();
+    }
+    
+    private static UserDto toDto(Row row) {
+        UserDto dto = new UserDto();
+        dto.setId(row.get("id", Long.class));
+        dto.setUsername(row.get("username", String.class));
+        dto.setEmail(row.get("email", String.class));
+        dto.setDisplayName(row.get("display_name", String.class));
+        dto.setProfilePictureUrl(row.get("profile_picture_url", String.class));
+        dto.setOnline(Boolean.TRUE.equals(row.get("is_online", Boolean.class)));
+        dto.setLastSeen(row.get("last_seen", LocalDateTime.class));
+        dto.setCreatedAt(row.get("created_at", LocalDateTime.class));
+        return dto;
+    }
+}
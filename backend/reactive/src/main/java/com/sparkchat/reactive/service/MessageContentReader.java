@@ -0,0 +1,61 @@
+package com.sparkchat.reactive.service;
+
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.sparkchat.dto.MessageDto;
+import com.sparkchat.reactive.repository.CompressionDictionaryRepository;
+import com.sparkchat.reactive.repository.StoredMessage;
+import com.sparkchat.service.PackedContent;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Reads message content packed by the backend's MessageContentCompressor
+ *
+ * Values are decoded by the backend's PackedContent, so both stacks accept and reject
+ * the same rows. Only content is packed: encrypted content is stored as it is, and this
+ * stack does not read it. Dictionaries are loaded once per version, on first use;
+ * decompressing a message takes microseconds, so it runs on the event loop.
+ */
+@Service
+public class MessageContentReader {
+    
+    private final CompressionDictionaryRepository dictionaryRepository;
+    
+    private final Map<Integer, Mono<ZstdDictDecompress>> dictionaries = new ConcurrentHashMap<>();
+    private final Queue<ZstdDecompressCtx> contexts = new ConcurrentLinkedQueue<>();
+    
+    public MessageContentReader(CompressionDictionaryRepository dictionaryRepository) {
+        this.dictionaryRepository = dictionaryRepository;
+    }
+    
+    /**
+     * Get the message of a row with its content filled in
+     */
+    public Mono<MessageDto> read(StoredMessage stored) {
+        MessageDto message = stored.getMessage();
+        Integer version = stored.getDictionaryVersion();
+        if (version == null || stored.getPackedContent() == null) {
+            message.setContent(stored.getContent());
+            return Mono.just(message);
+        }
+        return dictionary(version).map(dictionary -> {
+            message.setContent(PackedContent.unpack(stored.getPackedContent(), () -> dictionary, contexts));
+            return message;
+        });
+    }
+    
+    private Mono<ZstdDictDecompress> dictionary(int version) {
+        return dictionaries.computeIfAbsent(version, v -> dictionaryRepository.findDictionary(v)
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("Unknown compression dictionary version " + v)))
+                .map(ZstdDictDecompress::new)
+                // A failed load is retried by the next message rather than cached
+                .doOnError(e -> dictionaries.remove(v))
+                .cache());
+    }
+}
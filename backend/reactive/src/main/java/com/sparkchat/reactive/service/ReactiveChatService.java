@@ -0,0 +1,191 @@
+package com.sparkchat.reactive.service;
+
+import com.sparkchat.dto.MessageDto;
+import com.sparkchat.dto.UserDto;
+import com.sparkchat.model.Message;
+import com.sparkchat.reactive.repository.ChatRoomRepository;
+import com.sparkchat.reactive.repository.MessageRepository;
+import com.sparkchat.reactive.repository.UserRepository;
+import com.sparkchat.service.ChatService;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Non-blocking counterpart of the backend's ChatService for history and message sending
+ *
+ * Messages are stored exactly as the backend stores them, so either stack reads what the
+ * other wrote. Unread counters, receipts, attachments and offline mailboxes stay with the
+ * backend.
+ */
+@Service
+public class ReactiveChatService {
+    
+    private final ChatRoomRepository chatRoomRepository;
+    private final MessageRepository messageRepository;
+    private final UserRepository userRepository;
+    private final MessageContentReader contentReader;
+    private final TransactionalOperator transactionalOperator;
+    
+    // DM rooms being created, so concurrent first messages between two users create one room
+    private final Map<String, Mono<Long>> dmRoomCreations = new ConcurrentHashMap<>();
+    
+    public ReactiveChatService(ChatRoomRepository chatRoomRepository,
+                               MessageRepository messageRepository,
+                               UserRepository userRepository,
+                               MessageContentReader contentReader,
+                               TransactionalOperator transactionalOperator) {
+        this.chatRoomRepository = chatRoomRepository;
+        this.messageRepository = messageRepository;
+        this.userRepository = userRepository;
+        this.contentReader = contentReader;
+        this.transactionalOperator = transactionalOperator;
+    }
+    
+    /**
+     * Get a page of a room's history, oldest first, or of the public room without a room id
+     */
+    public Flux<MessageDto> getMessageHistory(Long chatRoomId, int page, int size) {
+        Mono<Long> roomId = chatRoomId != null ? Mono.just(chatRoomId)
+                : chatRoomRepository.findIdBySystemKey(ChatService.PUBLIC_ROOM_KEY)
+                        .switchIfEmpty(chatRoomRepository.findUnkeyedPublicRoomId(ChatService.PUBLIC_ROOM_NAME));
+        return roomId.flatMapMany(id -> messageRepository.findByChatRoomNewestFirst(id, page, size))
+                .concatMap(contentReader::read)
+                .collectList()
+                .flatMapIterable(messages -> {
+                    Collections.reverse(messages);
+                    return messages;
+                });
+    }
+    
+    /**
+     * Check whether a user is a member of a room
+     */
+    public Mono<Boolean> isMember(Long chatRoomId, String username) {
+        return userRepository.findByUsername(username)
+                .flatMap(user -> chatRoomRepository.isMember(chatRoomId, user.getId()))
+                .defaultIfEmpty(false);
+    }
+    
+    /**
+     * Check whether a user may read a room's history: its members, and everyone for the public room
+     */
+    public Mono<Boolean> canRead(Long chatRoomId, String username) {
+        return isMember(chatRoomId, username)
+                .flatMap(member -> member ? Mono.just(true)
+                        : chatRoomRepository.findIdBySystemKey(ChatService.PUBLIC_ROOM_KEY)
+                                .map(chatRoomId::equals)
+                                .defaultIfEmpty(false));
+    }
+    
+    /**
+     * Stream a room's whole history, oldest first
+     * 
+     * Rows are read only as fast as the subscriber requests them, so a slow client holds
+     * back the query instead of having the history buffered for it.
+     */
+    public Flux<MessageDto> streamMessageHistory(Long chatRoomId) {
+        return messageRepository.streamByChatRoom(chatRoomId)
+                .concatMap(contentReader::read);
+    }
+    
+    /**
+     * Get a page of the DM history between two users, oldest first
+     */
+    public Flux<MessageDto> getDmHistory(String user1, String user2, int page, int size) {
+        return Mono.zip(userRepository.findByUsername(user1), userRepository.findByUsername(user2))
+                .flatMap(users -> findDmRoomId(users.getT1(), users.getT2()))
+                .flatMapMany(roomId -> messageRepository.findByChatRoomOldestFirst(roomId, page, size))
+                .concatMap(contentReader::read);
+    }
+    
+    /**
+     * Save a DM, creating the room of the two users on their first message
+     * 
+     * The recipient and then the room are looked up first, so once the room exists a DM
+     * takes three queries.
+     */
+    public Mono<MessageDto> saveMessage(UserDto sender, MessageDto messageDto) {
+        String recipientUsername = messageDto.getRecipient();
+        if (recipientUsername == null) {
+            return Mono.error(new RuntimeException("Recipient required"));
+        }
+        return userRepository.findByUsername(recipientUsername)
+                .switchIfEmpty(Mono.error(() -> new RuntimeException("User not found: " + recipientUsername)))
+                .flatMap(recipient -> findDmRoomId(sender, recipient)
+                        .switchIfEmpty(Mono.defer(() -> createDmChatRoom(sender, recipient))))
+                .flatMap(roomId -> save(roomId, sender, messageDto));
+    }
+    
+    /**
+     * Save a message sent to a group room by one of its members
+     */
+    public Mono<MessageDto> saveRoomMessage(Long chatRoomId, UserDto sender, MessageDto messageDto) {
+        return chatRoomRepository.isMember(chatRoomId, sender.getId())
+                .filter(Boolean::booleanValue)
+                .switchIfEmpty(Mono.error(() -> new RuntimeException("Not a member of this chat room")))
+                .flatMap(member -> save(chatRoomId, sender, messageDto));
+    }
+    
+    /**
+     * Get the usernames of a room's members
+     */
+    public Flux<String> getMemberUsernames(Long chatRoomId) {
+        return chatRoomRepository.findMemberUsernames(chatRoomId);
+    }
+    
+    // The room is found by the key the backend gives it, or as a DM room from before keys
+    private Mono<Long> findDmRoomId(UserDto user1, UserDto user2) {
+        return chatRoomRepository.findIdBySystemKey(ChatService.dmRoomKey(user1.getId(), user2.getId()))
+                .switchIfEmpty(Mono.defer(() -> chatRoomRepository.findUnkeyedDirectRoomId(
+                        ChatService.dmRoomName(user1.getUsername(), user2.getUsername()), user1.getId(), user2.getId())));
+    }
+    
+    // Concurrent first messages share one creation, which looks the room up again as it
+    // may have been created since the caller looked; the unique key stops a creation on
+    // the backend at the same time, and the room it created is used instead
+    private Mono<Long> createDmChatRoom(UserDto user1, UserDto user2) {
+        String roomKey = ChatService.dmRoomKey(user1.getId(), user2.getId());
+        return dmRoomCreations.computeIfAbsent(roomKey, key -> findDmRoomId(user1, user2)
+                .switchIfEmpty(chatRoomRepository.insertDirectRoom(key,
+                                ChatService.dmRoomName(user1.getUsername(), user2.getUsername()),
+                                "Direct message between " + user1.getUsername() + " and " + user2.getUsername())
+                        .flatMap(roomId -> chatRoomRepository.insertMember(roomId, user1.getId())
+                                .then(chatRoomRepository.insertMember(roomId, user2.getId()))
+                                .thenReturn(roomId)))
+                .as(transactionalOperator::transactional)
+                .onErrorResume(DataIntegrityViolationException.class, e -> chatRoomRepository.findIdBySystemKey(key))
+                .doFinally(signal -> dmRoomCreations.remove(key))
+                .cache());
+    }
+    
+    private Mono<MessageDto> save(Long chatRoomId, UserDto sender, MessageDto messageDto) {
+        MessageDto message = new MessageDto();
+        message.setChatRoomId(chatRoomId);
+        message.setContent(messageDto.getContent());
+        String messageTypeStr = messageDto.getMessageTypeString();
+        if (messageTypeStr == null || messageTypeStr.isEmpty()) {
+            messageTypeStr = "TEXT";
+        }
+        message.setMessageTypeString(Message.MessageType.valueOf(messageTypeStr).name());
+        message.setSentAt(LocalDateTime.now());
+        
+        UserDto senderDto = new UserDto();
+        senderDto.setUsername(sender.getUsername());
+        senderDto.setDisplayName(sender.getDisplayName());
+        message.setSender(senderDto);
+        
+        return messageRepository.insert(chatRoomId, sender.getId(), message)
+                .map(id -> {
+                    message.setId(id);
+                    return message;
+                });
+    }
+}
@@ -0,0 +1,140 @@
+package com.sparkchat.reactive.websocket;
+
+import com.sparkchat.dto.UserDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A STOMP client connected over a WebSocket, with its subscriptions and outbound frames
+ *
+ * Outbound frames queue in a bounded buffer that the WebSocket drains as fast as the
+ * client reads. A client that lets the buffer fill is closed, as the backend closes one
+ * whose send buffer overflows; frames that may be dropped, such as typing indicators, are
+ * dropped instead.
+ */
+final class ClientSession {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ClientSession.class);
+    
+    private static final StompEncoder encoder = new StompEncoder();
+    private static final byte[] EMPTY = new byte[0];
+    
+    private final WebSocketSession session;
+    private final Sinks.Many<String> frames;
+    private final AtomicLong messageIds = new AtomicLong();
+    
+    // Subscription id by destination
+    private final Map<String, String> subscriptions = new ConcurrentHashMap<>();
+    
+    private volatile UserDto user;
+    
+    ClientSession(WebSocketSession session, int bufferFrames) {
+        this.session = session;
+        this.frames = Sinks.many().unicast().onBackpressureBuffer(Queues.<String>get(bufferFrames).get());
+    }
+    
+    String getId() {
+        return session.getId();
+    }
+    
+    /**
+     * The authenticated user, or null before CONNECT
+     */
+    UserDto getUser() {
+        return user;
+    }
+    
+    void setUser(UserDto user) {
+        this.user = user;
+    }
+    
+    Map<String, String> getSubscriptions() {
+        return subscriptions;
+    }
+    
+    /**
+     * The frames to write to the WebSocket
+     */
+    Flux<String> frames() {
+        return frames.asFlux();
+    }
+    
+    /**
+     * Send a MESSAGE frame if the session is subscribed to the destination
+     */
+    void sendMessage(String destination, byte[] payload, boolean droppable) {
+        String subscriptionId = subscriptions.get(destination);
+        if (subscriptionId == null) {
+            return;
+        }
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        accessor.setDestination(destination);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setMessageId(session.getId() + "-" + messageIds.getAndIncrement());
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        send(accessor, payload, droppable);
+    }
+    
+    void sendConnected() {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.CONNECTED);
+        accessor.setVersion("1.2");
+        // Heart-beating is not supported, so the client neither sends nor expects heartbeats
+        accessor.setHeartbeat(0, 0);
+        send(accessor, EMPTY, false);
+    }
+    
+    void sendReceipt(String receiptId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.RECEIPT);
+        accessor.setReceiptId(receiptId);
+        send(accessor, EMPTY, false);
+    }
+    
+    /**
+     * Send an ERROR frame and close the session once it is written
+     */
+    void sendErrorAndClose(String message) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.ERROR);
+        accessor.setMessage(message);
+        send(accessor, EMPTY, false);
+        complete();
+    }
+    
+    /**
+     * Finish the outbound frames, which closes the session once they are written
+     */
+    void complete() {
+        synchronized (this) {
+            frames.tryEmitComplete();
+        }
+    }
+    
+    private void send(StompHeaderAccessor accessor, byte[] payload, boolean droppable) {
+        String frame = new String(encoder.encode(MessageBuilder.createMessage(payload, accessor.getMessageHeaders())),
+                StandardCharsets.UTF_8);
+        Sinks.EmitResult result;
+        // Sinks reject concurrent emission rather than wait, and deliveries come from any thread
+        synchronized (this) {
+            result = frames.tryEmitNext(frame);
+        }
+        if (result == Sinks.EmitResult.FAIL_OVERFLOW && !droppable) {
+            logger.debug("Closing session {} of {}: send buffer full", session.getId(),
+                    user != null ? user.getUsername() : null);
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Send buffer full")).subscribe();
+        }
+    }
+}
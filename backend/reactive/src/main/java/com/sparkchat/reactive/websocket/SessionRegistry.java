@@ -0,0 +1,93 @@
+package com.sparkchat.reactive.websocket;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The connected STOMP sessions, by user and by subscribed topic
+ *
+ * Takes the place of the backend's simple broker: user destinations go to every session
+ * of the user that subscribed to them, and topics to every subscribed session.
+ */
+@Component
+public class SessionRegistry {
+    
+    private static final String TOPIC_PREFIX = "/topic/";
+    
+    private final Map<String, Set<ClientSession>> userSessions = new ConcurrentHashMap<>();
+    private final Map<String, Set<ClientSession>> topicSessions = new ConcurrentHashMap<>();
+    
+    void register(ClientSession session) {
+        add(userSessions, session.getUser().getUsername(), session);
+    }
+    
+    void unregister(ClientSession session) {
+        for (String destination : session.getSubscriptions().keySet()) {
+            remove(topicSessions, destination, session);
+        }
+        if (session.getUser() != null) {
+            remove(userSessions, session.getUser().getUsername(), session);
+        }
+    }
+    
+    void subscribe(ClientSession session, String destination, String subscriptionId) {
+        session.getSubscriptions().put(destination, subscriptionId);
+        if (destination.startsWith(TOPIC_PREFIX)) {
+            add(topicSessions, destination, session);
+        }
+    }
+    
+    void unsubscribe(ClientSession session, String subscriptionId) {
+        session.getSubscriptions().entrySet().removeIf(subscription -> {
+            if (!subscription.getValue().equals(subscriptionId)) {
+                return false;
+            }
+            remove(topicSessions, subscription.getKey(), session);
+            return true;
+        });
+    }
+    
+    /**
+     * Send a payload to the sessions of a user subscribed to a destination such as
+     * /user/queue/messages
+     */
+    public void sendToUser(String username, String destination, byte[] payload) {
+        Set<ClientSession> sessions = userSessions.get(username);
+        if (sessions != null) {
+            for (ClientSession session : sessions) {
+                session.sendMessage(destination, payload, false);
+            }
+        }
+    }
+    
+    /**
+     * Send a payload to the sessions subscribed to a topic
+     */
+    public void sendToTopic(String destination, byte[] payload, boolean droppable) {
+        Set<ClientSession> sessions = topicSessions.get(destination);
+        if (sessions != null) {
+            for (ClientSession session : sessions) {
+                session.sendMessage(destination, payload, droppable);
+            }
+        }
+    }
+    
+    // Sets are added to and removed from inside compute, so none is dropped while in use
+    private static void add(Map<String, Set<ClientSession>> sessionsByKey, String key, ClientSession session) {
+        sessionsByKey.compute(key, (k, sessions) -> {
+            Set<ClientSession> updated = sessions != null ? sessions : ConcurrentHashMap.newKeySet();
+            updated.add(session);
+            return updated;
+        });
+    }
+    
+    private static void remove(Map<String, Set<ClientSession>> sessionsByKey, String key, ClientSession session) {
+        sessionsByKey.computeIfPresent(key, (k, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+}
@@ -0,0 +1,258 @@
+package com.sparkchat.reactive.websocket;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sparkchat.dto.MessageDto;
+import com.sparkchat.dto.UserDto;
+import com.sparkchat.reactive.repository.UserRepository;
+import com.sparkchat.reactive.service.ReactiveChatService;
+import com.sparkchat.security.JwtUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.BufferingStompDecoder;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * STOMP over a plain WebSocket, handled without blocking
+ *
+ * Speaks the subset of the backend's protocol the chat needs: CONNECT with a bearer
+ * token, SUBSCRIBE to /user/queue/messages and topics, and SEND to /app/chat.sendMessage,
+ * /app/chat.room.{id} and /app/chat.typing. A session's frames are handled in order, each
+ * once the previous one's database work has completed, so a client sending faster than
+ * its messages are stored is slowed down by TCP rather than buffered for.
+ */
+@Component
+public class StompWebSocketHandler implements WebSocketHandler {
+    
+    private static final Logger logger = LoggerFactory.getLogger(StompWebSocketHandler.class);
+    
+    private static final String BEARER_PREFIX = "Bearer ";
+    private static final String MESSAGES_QUEUE = "/user/queue/messages";
+    private static final String TYPING_TOPIC = "/topic/typing";
+    private static final String DM_DESTINATION = "/app/chat.sendMessage";
+    private static final String ROOM_DESTINATION_PREFIX = "/app/chat.room.";
+    private static final String TYPING_DESTINATION = "/app/chat.typing";
+    
+    private final JwtUtils jwtUtils;
+    private final UserRepository userRepository;
+    private final ReactiveChatService chatService;
+    private final SessionRegistry sessionRegistry;
+    private final ObjectMapper objectMapper;
+    
+    @Value("${sparkchat.websocket.send-buffer-frames:2048}")
+    private int sendBufferFrames;
+    
+    @Value("${sparkchat.websocket.message-size-limit:65536}")
+    private int messageSizeLimit;
+    
+    public StompWebSocketHandler(JwtUtils jwtUtils, UserRepository userRepository,
+                                 ReactiveChatService chatService, SessionRegistry sessionRegistry,
+                                 ObjectMapper objectMapper) {
+        this.jwtUtils = jwtUtils;
+        this.userRepository = userRepository;
+        this.chatService = chatService;
+        this.sessionRegistry = sessionRegistry;
+        this.objectMapper = objectMapper;
+    }
+    
+    @Override
+    public Mono<Void> handle(WebSocketSession session) {
+        ClientSession client = new ClientSession(session, sendBufferFrames);
+        BufferingStompDecoder decoder = new BufferingStompDecoder(new StompDecoder(), messageSizeLimit);
+        
+        Mono<Void> inbound = session.receive()
+                .map(message -> decode(decoder, message))
+                .concatMapIterable(frames -> frames)
+                .concatMap(frame -> handleFrame(client, frame))
+                .onErrorResume(e -> {
+                    logger.debug("Closing session {}: {}", session.getId(), e.getMessage());
+                    return Mono.empty();
+                })
+                .doFinally(signal -> client.complete())
+                .then();
+        Mono<Void> outbound = session.send(client.frames().map(session::textMessage))
+                .then(Mono.defer(session::close));
+        
+        return Mono.when(inbound, outbound)
+                .doFinally(signal -> sessionRegistry.unregister(client));
+    }
+    
+    // The payload is released once onNext returns, so it is decoded in map rather than in an
+    // operator that queues messages and reads them later
+    private static List<Message<byte[]>> decode(BufferingStompDecoder decoder, WebSocketMessage message) {
+        DataBuffer payload = message.getPayload();
+        byte[] bytes = new byte[payload.readableByteCount()];
+        payload.read(bytes);
+        return decoder.decode(ByteBuffer.wrap(bytes));
+    }
+    
+    private Mono<Void> handleFrame(ClientSession client, Message<byte[]> frame) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(frame, StompHeaderAccessor.class);
+        StompCommand command = accessor != null ? accessor.getCommand() : null;
+        if (command == null) {
+            // Heartbeat
+            return Mono.empty();
+        }
+        if (command == StompCommand.CONNECT || command == StompCommand.STOMP) {
+            return client.getUser() == null ? connect(client, accessor) : Mono.empty();
+        }
+        if (client.getUser() == null) {
+            client.sendErrorAndClose("Not connected");
+            return Mono.empty();
+        }
+        
+        String receipt = accessor.getReceipt();
+        switch (command) {
+            case SUBSCRIBE -> {
+                if (accessor.getDestination() != null && accessor.getSubscriptionId() != null) {
+                    sessionRegistry.subscribe(client, accessor.getDestination(), accessor.getSubscriptionId());
+                }
+            }
+            case UNSUBSCRIBE -> {
+                if (accessor.getSubscriptionId() != null) {
+                    sessionRegistry.unsubscribe(client, accessor.getSubscriptionId());
+                }
+            }
+            case SEND -> {
+                Mono<Void> sent = send(client, accessor.getDestination(), frame.getPayload());
+                return receipt != null ? sent.then(Mono.fromRunnable(() -> client.sendReceipt(receipt))) : sent;
+            }
+            case DISCONNECT -> {
+                if (receipt != null) {
+                    client.sendReceipt(receipt);
+                }
+                client.complete();
+                return Mono.empty();
+            }
+            default -> {
+                return Mono.empty();
+            }
+        }
+        if (receipt != null) {
+            client.sendReceipt(receipt);
+        }
+        return Mono.empty();
+    }
+    
+    /**
+     * Authenticate the session with the bearer token of its CONNECT frame
+     */
+    private Mono<Void> connect(ClientSession client, StompHeaderAccessor accessor) {
+        String authToken = accessor.getFirstNativeHeader("Authorization");
+        String token = authToken != null && authToken.startsWith(BEARER_PREFIX) ? authToken.substring(BEARER_PREFIX.length()) : null;
+        if (token == null || !jwtUtils.validateToken(token)) {
+            client.sendErrorAndClose("Invalid or missing token");
+            return Mono.empty();
+        }
+        
+        String username = jwtUtils.getUsernameFromToken(token);
+        return userRepository.findByUsername(username)
+                .doOnNext(user -> {
+                    client.setUser(user);
+                    sessionRegistry.register(client);
+                    client.sendConnected();
+                    logger.debug("WebSocket authenticated user: {}", username);
+                })
+                .switchIfEmpty(Mono.fromRunnable(() -> client.sendErrorAndClose("Unknown user " + username)))
+                .then();
+    }
+    
+    private Mono<Void> send(ClientSession client, String destination, byte[] payload) {
+        if (DM_DESTINATION.equals(destination)) {
+            return sendMessage(client.getUser(), payload);
+        }
+        if (TYPING_DESTINATION.equals(destination)) {
+            String username = client.getUser().getUsername();
+            String typing = "{ \"username\": \"" + username + "\", \"typing\": true }";
+            sessionRegistry.sendToTopic(TYPING_TOPIC, typing.getBytes(StandardCharsets.UTF_8), true);
+            return Mono.empty();
+        }
+        if (destination != null && destination.startsWith(ROOM_DESTINATION_PREFIX)) {
+            try {
+                Long roomId = Long.valueOf(destination.substring(ROOM_DESTINATION_PREFIX.length()));
+                return sendRoomMessage(client.getUser(), roomId, payload);
+            } catch (NumberFormatException e) {
+                return Mono.empty();
+            }
+        }
+        logger.debug("Ignoring SEND to {}", destination);
+        return Mono.empty();
+    }
+    
+    /**
+     * Save a DM and deliver it to the recipient's sessions, not the sender's
+     */
+    private Mono<Void> sendMessage(UserDto sender, byte[] payload) {
+        MessageDto messageDto = readMessage(payload);
+        if (messageDto == null) {
+            return Mono.empty();
+        }
+        String recipientUsername = messageDto.getRecipient();
+        return chatService.saveMessage(sender, messageDto)
+                .doOnNext(saved -> {
+                    if (!sender.getUsername().equals(recipientUsername)) {
+                        sessionRegistry.sendToUser(recipientUsername, MESSAGES_QUEUE, toJson(saved));
+                    }
+                })
+                .onErrorResume(e -> {
+                    logger.error("Error processing message: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+    
+    /**
+     * Save a group room message and deliver it to the sessions of every other member
+     */
+    private Mono<Void> sendRoomMessage(UserDto sender, Long roomId, byte[] payload) {
+        MessageDto messageDto = readMessage(payload);
+        if (messageDto == null) {
+            return Mono.empty();
+        }
+        return chatService.saveRoomMessage(roomId, sender, messageDto)
+                .flatMapMany(saved -> {
+                    byte[] json = toJson(saved);
+                    return chatService.getMemberUsernames(roomId)
+                            .filter(username -> !username.equals(sender.getUsername()))
+                            .doOnNext(username -> sessionRegistry.sendToUser(username, MESSAGES_QUEUE, json));
+                })
+                .onErrorResume(e -> {
+                    logger.error("Error processing room message: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+    
+    private MessageDto readMessage(byte[] payload) {
+        try {
+            return objectMapper.readValue(payload, MessageDto.class);
+        } catch (IOException e) {
+            logger.debug("Ignoring unreadable message: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    private byte[] toJson(MessageDto message) {
+        try {
+            return objectMapper.writeValueAsBytes(message);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize message " + message.getId(), e);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.sparkchat.config;
+
+import com.sparkchat.datasource.ReplicaDataSource;
+import com.sparkchat.datasource.ReplicaReadJpaDialect;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+
+import javax.sql.DataSource;
+
+/**
+ * Sends read-only transactions to the read replicas and everything else to the primary
+ *
+ * A read-only transaction's connection is marked read-only before any statement runs. The
+ * lazy proxy only takes a real connection at the first statement, so it can still pick the
+ * replica side for it. Without replicas configured, that side hands out primary connections.
+ *
+ * With replicas configured, the session gives its connection back after each transaction
+ * instead of holding it until the request ends, so a write following a read in the same
+ * request gets a primary connection rather than the replica one, and ReplicaReadJpaDialect
+ * marks the connections of read-only transactions.
+ */
+@Configuration
+@EnableConfigurationProperties(ReplicaProperties.class)
+public class DataSourceConfig {
+
+    /**
+     * The primary pool, configured by spring.datasource as it would be without this class
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    public ReplicaDataSource replicaDataSource(HikariDataSource primaryDataSource, DataSourceProperties properties,
+                                               ReplicaProperties replicaProperties) {
+        return new ReplicaDataSource(primaryDataSource, replicaProperties,
+                properties.determineUsername(), properties.determinePassword());
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource primaryDataSource, ReplicaDataSource replicaDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+        dataSource.setReadOnlyDataSource(replicaDataSource);
+        return dataSource;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer replicaConnectionHandlingCustomizer(ReplicaProperties replicaProperties) {
+        return properties -> {
+            if (!replicaProperties.getInstances().isEmpty()) {
+                properties.put(AvailableSettings.CONNECTION_HANDLING,
+                        PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+            }
+        };
+    }
+
+    /**
+     * Read-only transactions go to the replicas, and stay out of the second-level cache
+     */
+    @Bean
+    public static BeanPostProcessor replicaReadJpaDialectPostProcessor(Environment environment) {
+        boolean replicasConfigured = environment.containsProperty("sparkchat.replicas.instances[0].url");
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (replicasConfigured && bean instanceof LocalContainerEntityManagerFactoryBean factoryBean) {
+                    factoryBean.setJpaDialect(new ReplicaReadJpaDialect());
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,114 @@
+package com.sparkchat.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Dedicated, bounded executors for background messaging work
+ * 
+ * Each pool is sized separately so that a burst in one kind of work cannot
+ * starve the STOMP channel threads or Tomcat request threads.
+ */
+@Configuration
+public class ExecutorConfig {
+    
+    /**
+     * Executor for delivering group room messages in parallel batches.
+     * When the queue is full the sending thread delivers the batch itself,
+     * which slows the sender down instead of dropping messages.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor roomFanoutExecutor(
+            @Value("${sparkchat.fanout.threads:4}") int threads,
+            @Value("${sparkchat.fanout.queue-capacity:1000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("room-fanout-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+    
+    /**
+     * Executor for generating image thumbnails and placeholders.
+     * Image decoding is CPU and memory heavy, so the pool is small and its queue
+     * bounded; when the queue is full the job is rejected rather than run on the
+     * caller, so the send and upload paths never wait for image processing.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor mediaPreviewExecutor(
+            @Value("${sparkchat.previews.threads:2}") int threads,
+            @Value("${sparkchat.previews.queue-capacity:200}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("media-preview-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        return executor;
+    }
+    
+    /**
+     * Executor that writes queued frames to WebSocket sessions.
+     * Each session has at most one write task queued or running. Plain WebSocket
+     * writes are handed to the container without blocking; SockJS writes block up
+     * to the send time limit, so the pool bounds how many stalled SockJS clients
+     * are waited on at once. When the queue is full the write is rejected and
+     * retried on the session's next frame, so delivering to one session never
+     * waits for another.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor websocketWriterExecutor(
+            @Value("${sparkchat.websocket.writer-threads:8}") int threads,
+            @Value("${sparkchat.websocket.writer-queue-capacity:10000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ws-writer-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        return executor;
+    }
+    
+    /**
+     * Executor that checks passwords at login.
+     * BCrypt is deliberately slow, so a login storm on request threads would leave
+     * none for other endpoints; here it occupies at most this many threads. When
+     * the queue is full the login is rejected with 503 and Retry-After rather than
+     * waiting, as a client that waited that long would have given up anyway.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor authExecutor(
+            @Value("${sparkchat.auth.threads:2}") int threads,
+            @Value("${sparkchat.auth.queue-capacity:50}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("auth-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        return executor;
+    }
+    
+    /**
+     * Executor for a STOMP channel when running on virtual threads (Java 21).
+     * Its workers are virtual threads, so the pool size caps how many frames are
+     * handled at once without reserving an OS thread for each; idle workers exit
+     * after a second. Not a bean: the channel registration takes it over.
+     */
+    static ThreadPoolTaskExecutor virtualThreadChannelExecutor(String threadNamePrefix, int concurrency) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadFactory(new VirtualThreadTaskExecutor(threadNamePrefix).getVirtualThreadFactory());
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setKeepAliveSeconds(1);
+        executor.setAllowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
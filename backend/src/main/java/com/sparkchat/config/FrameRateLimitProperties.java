@@ -0,0 +1,55 @@
+package com.sparkchat.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rate limits for inbound STOMP SEND frames, per destination
+ *
+ * A rule matches a destination exactly, or by prefix when it ends with '*'. The first
+ * matching rule applies. A frame must fit both the bucket of its session and the
+ * bucket of its user; either may be left out of a rule to leave it unlimited.
+ */
+@ConfigurationProperties(prefix = "sparkchat.rate-limits")
+public class FrameRateLimitProperties {
+
+    private boolean enabled = true;
+
+    private List<Rule> rules = new ArrayList<>();
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+    public List<Rule> getRules() { return rules; }
+    public void setRules(List<Rule> rules) { this.rules = rules; }
+
+    public static class Rule {
+        private String destination;
+        private Limit session;
+        private Limit user;
+
+        public String getDestination() { return destination; }
+        public void setDestination(String destination) { this.destination = destination; }
+
+        public Limit getSession() { return session; }
+        public void setSession(Limit session) { this.session = session; }
+
+        public Limit getUser() { return user; }
+        public void setUser(Limit user) { this.user = user; }
+    }
+
+    public static class Limit {
+        // Sustained frames per second
+        private double rate;
+        // Frames that may be sent at once after a quiet period
+        private int burst = 1;
+
+        public double getRate() { return rate; }
+        public void setRate(double rate) { this.rate = rate; }
+
+        public int getBurst() { return burst; }
+        public void setBurst(int burst) { this.burst = burst; }
+    }
+}
@@ -0,0 +1,108 @@
+package com.sparkchat.config;
+
+import com.sparkchat.controller.AuthController;
+import com.sparkchat.datasource.ReplicaDataSource;
+import com.sparkchat.security.FrameRateLimitInterceptor;
+import com.sparkchat.service.OfflineMailboxService;
+import com.sparkchat.service.RoomFanoutService;
+import com.sparkchat.web.AdaptiveConcurrencyLimitFilter;
+import com.sparkchat.web.IdleSessionReaper;
+import com.sparkchat.web.OutboundSessionBuffers;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Publishes the counters the messaging components already keep as Micrometer meters
+ *
+ * The components count with LongAdders of their own, so they stay free of metrics code;
+ * meters read those counters when scraped. Channel executor queue depths come from
+ * Spring Boot's executor metrics (executor.queued, tagged with the executor bean name).
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder messagingMeterBinder(IdleSessionReaper idleSessionReaper,
+                                            OutboundSessionBuffers outboundSessionBuffers,
+                                            FrameRateLimitInterceptor frameRateLimitInterceptor,
+                                            OfflineMailboxService mailboxService,
+                                            RoomFanoutService roomFanoutService,
+                                            AdaptiveConcurrencyLimitFilter concurrencyLimitFilter) {
+        return registry -> {
+            Gauge.builder("sparkchat.websocket.sessions", idleSessionReaper, IdleSessionReaper::getSessionCount)
+                    .description("Open WebSocket sessions")
+                    .register(registry);
+            counter(registry, "sparkchat.websocket.reaped", idleSessionReaper, IdleSessionReaper::getReapedCount);
+
+            counter(registry, "sparkchat.websocket.outbound.writes", outboundSessionBuffers, OutboundSessionBuffers::getWriteCount);
+            counter(registry, "sparkchat.websocket.outbound.frames", outboundSessionBuffers, OutboundSessionBuffers::getWrittenFrameCount);
+            counter(registry, "sparkchat.websocket.outbound.conflated", outboundSessionBuffers, OutboundSessionBuffers::getConflatedCount);
+            counter(registry, "sparkchat.websocket.outbound.overflows", outboundSessionBuffers, OutboundSessionBuffers::getOverflowCount);
+            counter(registry, "sparkchat.websocket.outbound.diverted", outboundSessionBuffers, OutboundSessionBuffers::getDivertedCount);
+            counter(registry, "sparkchat.websocket.outbound.timeouts", outboundSessionBuffers, OutboundSessionBuffers::getTimeoutCount);
+
+            counter(registry, "sparkchat.stomp.frames.throttled", frameRateLimitInterceptor, FrameRateLimitInterceptor::getThrottledCount);
+
+            counter(registry, "sparkchat.mailbox.held", mailboxService, OfflineMailboxService::getHeldCount);
+            counter(registry, "sparkchat.mailbox.spilled", mailboxService, OfflineMailboxService::getSpilledCount);
+            counter(registry, "sparkchat.mailbox.drained", mailboxService, OfflineMailboxService::getDrainedCount);
+            counter(registry, "sparkchat.mailbox.dropped", mailboxService, OfflineMailboxService::getDroppedCount);
+            Gauge.builder("sparkchat.mailbox.count", mailboxService, OfflineMailboxService::getMailboxCount)
+                    .register(registry);
+            Gauge.builder("sparkchat.mailbox.memory", mailboxService, OfflineMailboxService::getMemoryBytes)
+                    .baseUnit("bytes")
+                    .register(registry);
+            Gauge.builder("sparkchat.mailbox.spill", mailboxService, OfflineMailboxService::getSpillBytes)
+                    .baseUnit("bytes")
+                    .register(registry);
+
+            counter(registry, "sparkchat.fanout.messages", roomFanoutService, RoomFanoutService::getFanoutCount);
+            counter(registry, "sparkchat.fanout.recipients", roomFanoutService, RoomFanoutService::getRecipientCount);
+
+            Gauge.builder("sparkchat.http.concurrency.limit", concurrencyLimitFilter, AdaptiveConcurrencyLimitFilter::getLimit)
+                    .register(registry);
+            Gauge.builder("sparkchat.http.concurrency.inflight", concurrencyLimitFilter, AdaptiveConcurrencyLimitFilter::getInflight)
+                    .register(registry);
+            counter(registry, "sparkchat.http.concurrency.rejected", concurrencyLimitFilter, AdaptiveConcurrencyLimitFilter::getRejectedCount);
+        };
+    }
+
+    @Bean
+    public MeterBinder replicaMeterBinder(ReplicaDataSource replicaDataSource) {
+        return registry -> {
+            for (ReplicaDataSource.Replica replica : replicaDataSource.getReplicas()) {
+                Gauge.builder("sparkchat.db.replica.lag", replica, ReplicaDataSource.Replica::getLagMs)
+                        .description("Milliseconds behind the primary as last probed, -1 when down")
+                        .tag("replica", replica.getName())
+                        .baseUnit("milliseconds")
+                        .register(registry);
+                FunctionCounter.builder("sparkchat.db.replica.connections", replica, ReplicaDataSource.Replica::getConnectionCount)
+                        .description("Connections handed out for read-only transactions")
+                        .tag("replica", replica.getName())
+                        .register(registry);
+            }
+            counter(registry, "sparkchat.db.primary.fallbacks", replicaDataSource, ReplicaDataSource::getPrimaryFallbackCount);
+        };
+    }
+
+    /**
+     * Login outcomes; the auth executor's queue depth is executor.queued with name authExecutor
+     */
+    @Bean
+    public MeterBinder authMeterBinder(AuthController authController) {
+        return registry -> {
+            counter(registry, "sparkchat.auth.logins.rejected", authController, AuthController::getRejectedLoginCount);
+            counter(registry, "sparkchat.auth.logins.refreshed", authController, AuthController::getRefreshedLoginCount);
+        };
+    }
+
+    private static <T> void counter(MeterRegistry registry, String name, T source, ToDoubleFunction<T> count) {
+        FunctionCounter.builder(name, source, count).register(registry);
+    }
+}
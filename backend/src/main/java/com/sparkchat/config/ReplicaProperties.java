@@ -0,0 +1,57 @@
+package com.sparkchat.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read replicas of the primary database
+ *
+ * Read-only transactions go to a replica that is reachable and less than max-lag-ms
+ * behind the primary, in turn, and to the primary when there is none. A replica without
+ * a username or password uses the primary's.
+ */
+@ConfigurationProperties(prefix = "sparkchat.replicas")
+public class ReplicaProperties {
+
+    private long maxLagMs = 5000;
+
+    private int maxPoolSize = 10;
+
+    // Kept short, so reads fall back to the primary quickly when a replica is down
+    private long connectionTimeoutMs = 1000;
+
+    private List<Instance> instances = new ArrayList<>();
+
+    public long getMaxLagMs() { return maxLagMs; }
+    public void setMaxLagMs(long maxLagMs) { this.maxLagMs = maxLagMs; }
+
+    public int getMaxPoolSize() { return maxPoolSize; }
+    public void setMaxPoolSize(int maxPoolSize) { this.maxPoolSize = maxPoolSize; }
+
+    public long getConnectionTimeoutMs() { return connectionTimeoutMs; }
+    public void setConnectionTimeoutMs(long connectionTimeoutMs) { this.connectionTimeoutMs = connectionTimeoutMs; }
+
+    public List<Instance> getInstances() { return instances; }
+    public void setInstances(List<Instance> instances) { this.instances = instances; }
+
+    public static class Instance {
+        private String name;
+        private String url;
+        private String username;
+        private String password;
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+
+        public String getUrl() { return url; }
+        public void setUrl(String url) { this.url = url; }
+
+        public String getUsername() { return username; }
+        public void setUsername(String username) { this.username = username; }
+
+        public String getPassword() { return password; }
+        public void setPassword(String password) { this.password = password; }
+    }
+}
@@ -0,0 +1,95 @@
+package com.sparkchat.config;
+
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.jsr107.Eh107Configuration;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import java.time.Duration;
+
+/**
+ * Hibernate second-level cache of users and chat rooms, held on the heap by Ehcache
+ *
+ * Every region is bounded by entry count and expires entries after a time to live, which
+ * also limits how long a change written to the database by anything else stays unseen.
+ * Hibernate closes the cache manager with the session factory. Hits and misses per region
+ * are published as hibernate.* meters, since hibernate.generate_statistics is on.
+ */
+@Configuration
+public class SecondLevelCacheConfig {
+
+    public static final String USERS = "users";
+    public static final String USERS_BY_USERNAME = "users-by-username";
+    public static final String CHAT_ROOMS = "chat-rooms";
+    public static final String CHAT_ROOM_MEMBERS = "chat-room-members";
+    public static final String CHAT_ROOMS_BY_NAME = "chat-rooms-by-name";
+
+    // Hibernate's own regions once the query cache is on; the timestamps must not expire
+    // or be evicted before the query results they invalidate
+    private static final String DEFAULT_QUERY_RESULTS = "default-query-results-region";
+    private static final String UPDATE_TIMESTAMPS = "default-update-timestamps-region";
+    private static final int UPDATE_TIMESTAMPS_ENTRIES = 1000;
+
+    @Value("${sparkchat.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${sparkchat.cache.user-entries:10000}")
+    private long userEntries;
+
+    @Value("${sparkchat.cache.room-entries:10000}")
+    private long roomEntries;
+
+    @Value("${sparkchat.cache.member-set-entries:1000}")
+    private long memberSetEntries;
+
+    @Value("${sparkchat.cache.ttl-minutes:30}")
+    private long ttlMinutes;
+
+    @Bean
+    public HibernatePropertiesCustomizer secondLevelCacheCustomizer() {
+        return properties -> {
+            if (!enabled) {
+                properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, false);
+                properties.put(AvailableSettings.USE_QUERY_CACHE, false);
+                return;
+            }
+            properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, true);
+            properties.put(AvailableSettings.USE_QUERY_CACHE, true);
+            properties.put(AvailableSettings.CACHE_REGION_FACTORY, ConfigSettings.SIMPLE_FACTORY_NAME);
+            properties.put(ConfigSettings.CACHE_MANAGER, createCacheManager());
+            // A region missing below is a mistake rather than something to create unbounded
+            properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+        };
+    }
+
+    private CacheManager createCacheManager() {
+        EhcacheCachingProvider provider = new EhcacheCachingProvider();
+        CacheManager cacheManager = provider.getCacheManager(provider.getDefaultURI(), getClass().getClassLoader());
+        Duration ttl = Duration.ofMinutes(ttlMinutes);
+        createRegion(cacheManager, USERS, userEntries, ttl);
+        createRegion(cacheManager, USERS_BY_USERNAME, userEntries, ttl);
+        createRegion(cacheManager, CHAT_ROOMS, roomEntries, ttl);
+        createRegion(cacheManager, CHAT_ROOM_MEMBERS, memberSetEntries, ttl);
+        createRegion(cacheManager, CHAT_ROOMS_BY_NAME, roomEntries, ttl);
+        createRegion(cacheManager, DEFAULT_QUERY_RESULTS, roomEntries, ttl);
+        createRegion(cacheManager, UPDATE_TIMESTAMPS, UPDATE_TIMESTAMPS_ENTRIES, null);
+        return cacheManager;
+    }
+
+    private static void createRegion(CacheManager cacheManager, String name, long entries, Duration ttl) {
+        CacheConfigurationBuilder<Object, Object> builder = CacheConfigurationBuilder
+                .newCacheConfigurationBuilder(Object.class, Object.class, ResourcePoolsBuilder.heap(entries));
+        builder = builder.withExpiry(ttl != null
+                ? ExpiryPolicyBuilder.timeToLiveExpiration(ttl)
+                : ExpiryPolicyBuilder.noExpiration());
+        cacheManager.createCache(name, Eh107Configuration.fromEhcacheCacheConfiguration(builder.build()));
+    }
+}
@@ -2,8 +2,10 @@ package com.sparkchat.config;
 
 import com.sparkchat.security.JwtAuthenticationFilter;
 import com.sparkchat.service.UserService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.authorization.AuthorizationDecision;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
@@ -20,21 +22,35 @@ import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 
 import java.util.Arrays;
+import java.util.Set;
 
 @Configuration
 @EnableWebSecurity
 @EnableMethodSecurity(prePostEnabled = true)
 public class SecurityConfig {
     
+    /**
+     * BCrypt at the configured cost. Stored hashes at any other cost, lower or higher, are
+     * rehashed at the user's next successful login, so changing the cost needs no migration.
+     */
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(@Value("${sparkchat.auth.bcrypt-strength:10}") int strength) {
+        String costPrefix = String.format("$%02d$", strength);
+        return new BCryptPasswordEncoder(strength) {
+            @Override
+            public boolean upgradeEncoding(String encodedPassword) {
+                // A BCrypt hash reads $2a$10$..., the cost being the two digits after the version
+                return encodedPassword != null && encodedPassword.length() > 7
+                        && !encodedPassword.startsWith(costPrefix, 3);
+            }
+        };
     }
     
     @Bean
     public DaoAuthenticationProvider authenticationProvider(UserService userService, PasswordEncoder passwordEncoder) {
         DaoAuthenticationProvider authProvider = new DaoAuthenticationProvider();
         authProvider.setUserDetailsService(userService);
+        authProvider.setUserDetailsPasswordService(userService);
         authProvider.setPasswordEncoder(passwordEncoder);
         return authProvider;
     }
@@ -44,8 +60,13 @@ public class SecurityConfig {
         return config.getAuthenticationManager();
     }
     
+    /**
+     * Flight recordings hold thread names, stack traces and usernames, so they are only
+     * served to authenticated users listed in sparkchat.security.admin-usernames
+     */
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http, JwtAuthenticationFilter jwtAuthenticationFilter, DaoAuthenticationProvider authenticationProvider) throws Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http, JwtAuthenticationFilter jwtAuthenticationFilter, DaoAuthenticationProvider authenticationProvider,
+                                           @Value("${sparkchat.security.admin-usernames:}") Set<String> adminUsernames) throws Exception {
         http.cors(cors -> cors.configurationSource(corsConfigurationSource()))
             .csrf(csrf -> csrf.disable())
             .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
@@ -53,7 +74,11 @@ public class SecurityConfig {
                 .requestMatchers("/api/auth/**").permitAll()
                 .requestMatchers("/h2-console/**").permitAll()
                 .requestMatchers("/ws/**").permitAll()
+                .requestMatchers("/ws-native").permitAll()
                 .requestMatchers("/api/health").permitAll()
+                .requestMatchers("/actuator/health", "/actuator/prometheus").permitAll()
+                .requestMatchers("/actuator/jfr").access((authentication, context) -> new AuthorizationDecision(
+                    authentication.get().isAuthenticated() && adminUsernames.contains(authentication.get().getName())))
                 .anyRequest().authenticated()
             )
             .authenticationProvider(authenticationProvider)
@@ -1,20 +1,48 @@
 package com.sparkchat.config;
 
+import com.sparkchat.diagnostics.InboundFrameEvent;
+import com.sparkchat.diagnostics.JwtValidationEvent;
+import com.sparkchat.diagnostics.PipelineTrace;
+import com.sparkchat.diagnostics.TrafficRecorder;
+import com.sparkchat.repository.UserRepository;
+import com.sparkchat.security.FrameRateLimitInterceptor;
+import com.sparkchat.security.FrameThrottledException;
 import com.sparkchat.security.JwtUtils;
+import com.sparkchat.security.RoomAuthorizationInterceptor;
+import com.sparkchat.service.MailboxDrainInterceptor;
+import com.sparkchat.service.MessagingMetrics;
+import com.sparkchat.web.IdleSessionReaper;
+import com.sparkchat.web.OutboundSessionBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.messaging.simp.stomp.StompCommand;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
-import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
 import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.messaging.StompSubProtocolErrorHandler;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
 import org.springframework.web.socket.server.support.HttpSessionHandshakeInterceptor;
 
+import java.util.Collections;
+
 /**
  * WebSocket configuration for real-time messaging
  * 
@@ -26,24 +54,103 @@ import org.springframework.web.socket.server.support.HttpSessionHandshakeInterce
  * - Message broadcasting to chat room subscribers
  * - Private messaging support
  * - Connection management and error handling
+ * - SockJS endpoint for browsers and proxies without WebSocket support, and a
+ *   plain WebSocket endpoint without SockJS framing for native clients
  * 
  * @author Spark.chat Team
  * @version 1.0.0
  */
 @Configuration
 @EnableWebSocketMessageBroker
-public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+@EnableConfigurationProperties(FrameRateLimitProperties.class)
+public class WebSocketConfig implements WebSocketMessageBrokerConfigurer, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketConfig.class);
 
     private final JwtUtils jwtUtils;
+    private final UserRepository userRepository;
+    private final FrameRateLimitInterceptor frameRateLimitInterceptor;
+    private final RoomAuthorizationInterceptor roomAuthorizationInterceptor;
+    private final MailboxDrainInterceptor mailboxDrainInterceptor;
+    private final OutboundSessionBuffers outboundSessionBuffers;
+    private final IdleSessionReaper idleSessionReaper;
+    private final MessagingMetrics messagingMetrics;
+    private final TrafficRecorder trafficRecorder;
+    
+    // Heartbeats get their own thread, so a busy scheduled job cannot delay them into
+    // a client-side timeout; it is not a bean so @Scheduled keeps the broker scheduler
+    private final ThreadPoolTaskScheduler heartbeatScheduler = new ThreadPoolTaskScheduler();
+    
+    @Value("${sparkchat.websocket.send-buffer-bytes:524288}")
+    private int sendBufferBytes;
+    
+    @Value("${sparkchat.websocket.send-time-limit-ms:10000}")
+    private int sendTimeLimitMillis;
+    
+    @Value("${sparkchat.websocket.message-size-limit:65536}")
+    private int messageSizeLimit;
+    
+    // Server sends heartbeats at this interval and expects the client's at least as often
+    @Value("${sparkchat.websocket.heartbeat-ms:10000}")
+    private long heartbeatMillis;
+    
+    // Tomcat allocates inbound buffers of this size for every connection
+    @Value("${sparkchat.websocket.container-buffer-bytes:8192}")
+    private int containerBufferBytes;
+    
+    // Frames handled at once on virtual threads; inbound ones mostly wait on the JDBC pool
+    @Value("${sparkchat.virtual-threads.inbound-concurrency:20}")
+    private int virtualInboundConcurrency;
+    
+    @Value("${sparkchat.virtual-threads.outbound-concurrency:200}")
+    private int virtualOutboundConcurrency;
     
-    public WebSocketConfig(JwtUtils jwtUtils) {
+    private final boolean virtualThreads;
+    
+    public WebSocketConfig(JwtUtils jwtUtils, UserRepository userRepository,
+                           FrameRateLimitInterceptor frameRateLimitInterceptor,
+                           RoomAuthorizationInterceptor roomAuthorizationInterceptor,
+                           MailboxDrainInterceptor mailboxDrainInterceptor,
+                           OutboundSessionBuffers outboundSessionBuffers,
+                           IdleSessionReaper idleSessionReaper,
+                           MessagingMetrics messagingMetrics,
+                           TrafficRecorder trafficRecorder,
+                           Environment environment) {
         this.jwtUtils = jwtUtils;
+        this.userRepository = userRepository;
+        this.frameRateLimitInterceptor = frameRateLimitInterceptor;
+        this.roomAuthorizationInterceptor = roomAuthorizationInterceptor;
+        this.mailboxDrainInterceptor = mailboxDrainInterceptor;
+        this.outboundSessionBuffers = outboundSessionBuffers;
+        this.idleSessionReaper = idleSessionReaper;
+        this.messagingMetrics = messagingMetrics;
+        this.trafficRecorder = trafficRecorder;
+        // spring.threads.virtual.enabled on Java 21, as for Tomcat's request threads
+        this.virtualThreads = Threading.VIRTUAL.isActive(environment);
+        heartbeatScheduler.setPoolSize(1);
+        heartbeatScheduler.setThreadNamePrefix("ws-heartbeat-");
+        heartbeatScheduler.setDaemon(true);
+        heartbeatScheduler.initialize();
+    }
+    
+    /**
+     * Limits of the servlet container's WebSocket sessions, which apply before STOMP decoding
+     */
+    @Bean
+    public ServletServerContainerFactoryBean webSocketContainer() {
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(containerBufferBytes);
+        container.setMaxBinaryMessageBufferSize(containerBufferBytes);
+        container.setAsyncSendTimeout((long) sendTimeLimitMillis);
+        return container;
     }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         // Enable simple broker for broadcasting messages
-        config.enableSimpleBroker("/topic", "/queue");
+        config.enableSimpleBroker("/topic", "/queue")
+                .setHeartbeatValue(new long[] {heartbeatMillis, heartbeatMillis})
+                .setTaskScheduler(heartbeatScheduler);
         
         // Set application destination prefix for client messages
         config.setApplicationDestinationPrefixes("/app");
@@ -60,33 +167,135 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 .withSockJS()
                 .setInterceptors(new HttpSessionHandshakeInterceptor())
                 .setSessionCookieNeeded(false); // Allow multiple sessions per user
+        
+        // Plain WebSocket endpoint for clients that do not need SockJS fallbacks
+        registry.addEndpoint("/ws-native")
+                .setAllowedOriginPatterns("*")
+                .addInterceptors(new HttpSessionHandshakeInterceptor());
+        
+        // Throttled frames get machine-readable headers on their ERROR frame
+        registry.setErrorHandler(new StompSubProtocolErrorHandler() {
+            @Override
+            protected Message<byte[]> handleInternal(StompHeaderAccessor errorHeaderAccessor, byte[] errorPayload,
+                                                     Throwable cause, StompHeaderAccessor clientHeaderAccessor) {
+                if (cause instanceof FrameThrottledException) {
+                    errorHeaderAccessor.setNativeHeader("throttled", "true");
+                    errorHeaderAccessor.setNativeHeader("retry-after",
+                        Long.toString(((FrameThrottledException) cause).getRetryAfterMillis()));
+                }
+                return super.handleInternal(errorHeaderAccessor, errorPayload, cause, clientHeaderAccessor);
+            }
+        });
+    }
+    
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Sessions are buffered by OutboundSessionBuffers, which applies the same limits
+        // per session without blocking the outbound channel on a slow socket
+        registration.setSendBufferSizeLimit(sendBufferBytes)
+                .setSendTimeLimit(sendTimeLimitMillis)
+                .setMessageSizeLimit(messageSizeLimit)
+                .addDecoratorFactory(outboundSessionBuffers::decorate)
+                .addDecoratorFactory(idleSessionReaper::decorate);
     }
     
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
-        registration.interceptors(new ChannelInterceptor() {
+        if (virtualThreads) {
+            registration.taskExecutor(ExecutorConfig.virtualThreadChannelExecutor(
+                    "clientInboundChannel-", virtualInboundConcurrency));
+        }
+        // Metrics come first so frame arrival is stamped before any other work; the recorder
+        // logs frames once the send completes, after authentication and rate limiting
+        registration.interceptors(messagingMetrics, trafficRecorder.inbound(), new ExecutorChannelInterceptor() {
             @Override
             public Message<?> preSend(Message<?> message, MessageChannel channel) {
                 StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
                 
+                // The trace id travels in a header to the thread that handles the frame
+                long traceId = PipelineTrace.newId();
+                if (accessor.isMutable()) {
+                    accessor.setHeader(PipelineTrace.HEADER, traceId);
+                }
+                InboundFrameEvent frameEvent = new InboundFrameEvent();
+                frameEvent.begin();
+                
                 if (StompCommand.CONNECT.equals(accessor.getCommand())) {
+                    if (outboundSessionBuffers.isBatchingEnabled()
+                            && "true".equals(accessor.getFirstNativeHeader(OutboundSessionBuffers.BATCHING_HEADER))) {
+                        accessor.getSessionAttributes().put(OutboundSessionBuffers.BATCHING_ATTRIBUTE, Boolean.TRUE);
+                    }
                     String authToken = accessor.getFirstNativeHeader("Authorization");
                     if (authToken != null && authToken.startsWith("Bearer ")) {
                         String token = authToken.substring(7);
+                        JwtValidationEvent jwtEvent = new JwtValidationEvent();
+                        jwtEvent.begin();
+                        jwtEvent.traceId = traceId;
+                        jwtEvent.source = "stomp";
                         try {
                             if (jwtUtils.validateToken(token)) {
                                 String username = jwtUtils.getUsernameFromToken(token);
                                 accessor.getSessionAttributes().put("username", username);
-                                System.out.println("WebSocket authenticated user: " + username);
+                                // User destinations (/user/queue/...) resolve through the session principal
+                                accessor.setUser(new UsernamePasswordAuthenticationToken(
+                                    username, null, Collections.emptyList()));
+                                
+                                // Per-frame authorization needs the user id; older tokens lack the claim
+                                Long userId = jwtUtils.getUserIdFromToken(token);
+                                if (userId == null) {
+                                    userId = userRepository.findByUsername(username)
+                                            .map(user -> user.getId())
+                                            .orElse(null);
+                                }
+                                if (userId != null) {
+                                    accessor.getSessionAttributes().put("userId", userId);
+                                }
+                                logger.debug("WebSocket authenticated user: {}", username);
+                                jwtEvent.valid = true;
+                                jwtEvent.username = username;
                             }
                         } catch (Exception e) {
-                            System.err.println("WebSocket authentication failed: " + e.getMessage());
+                            logger.warn("WebSocket authentication failed: {}", e.getMessage());
                         }
+                        jwtEvent.commit();
                     }
                 }
                 
+                frameEvent.traceId = traceId;
+                frameEvent.command = accessor.getCommand() != null ? accessor.getCommand().name() : null;
+                frameEvent.destination = accessor.getDestination();
+                frameEvent.sessionId = accessor.getSessionId();
+                frameEvent.commit();
                 return message;
             }
-        });
+            
+            @Override
+            public Message<?> beforeHandle(Message<?> message, MessageChannel channel, MessageHandler handler) {
+                Object traceId = message.getHeaders().get(PipelineTrace.HEADER);
+                if (traceId instanceof Long) {
+                    PipelineTrace.set((Long) traceId);
+                }
+                return message;
+            }
+            
+            @Override
+            public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+                PipelineTrace.clear();
+            }
+        }, frameRateLimitInterceptor, roomAuthorizationInterceptor, mailboxDrainInterceptor);
+    }
+    
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        if (virtualThreads) {
+            registration.taskExecutor(ExecutorConfig.virtualThreadChannelExecutor(
+                    "clientOutboundChannel-", virtualOutboundConcurrency));
+        }
+        registration.interceptors(trafficRecorder.outbound());
+    }
+    
+    @Override
+    public void destroy() {
+        heartbeatScheduler.shutdown();
     }
 }
\ No newline at end of file
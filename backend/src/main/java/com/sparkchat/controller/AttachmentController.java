@@ -0,0 +1,426 @@
+package com.sparkchat.controller;
+
+import com.sparkchat.dto.AttachmentDto;
+import com.sparkchat.dto.CreateUploadRequest;
+import com.sparkchat.dto.UploadProofRequest;
+import com.sparkchat.model.Attachment;
+import com.sparkchat.model.User;
+import com.sparkchat.service.AttachmentService;
+import com.sparkchat.service.ChunkedUploadService;
+import jakarta.validation.Valid;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * REST Controller for chat attachments
+ *
+ * Uploads are sent as the raw request body and streamed to disk, either in one request
+ * or as resumable, individually hashed chunks. Identical content is stored once, and
+ * content that is already stored is attached without sending it again. Downloads support
+ * single byte ranges, ETags and conditional requests so media can seek, and are
+ * written with Tomcat's sendfile when available, falling back to
+ * FileChannel.transferTo.
+ *
+ * @author Spark.chat Team
+ * @version 1.0.0
+ */
+@RestController
+@RequestMapping("/api/attachments")
+@CrossOrigin(origins = "*", maxAge = 3600)
+public class AttachmentController {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    private final AttachmentService attachmentService;
+    private final ChunkedUploadService chunkedUploadService;
+
+    public AttachmentController(AttachmentService attachmentService, ChunkedUploadService chunkedUploadService) {
+        this.attachmentService = attachmentService;
+        this.chunkedUploadService = chunkedUploadService;
+    }
+
+    /**
+     * Upload an attachment to a chat room
+     *
+     * @param roomId Target chat room
+     * @param fileName Original file name
+     * @param request Raw request; the body is the file content
+     * @param authentication Current user authentication
+     * @return Stored attachment metadata
+     */
+    @PostMapping
+    public ResponseEntity<?> upload(
+            @RequestParam Long roomId,
+            @RequestParam String fileName,
+            HttpServletRequest request,
+            Authentication authentication) {
+        try {
+            if (authentication == null) {
+                return ResponseEntity.badRequest().body("Authentication required");
+            }
+
+            User user = (User) authentication.getPrincipal();
+            Attachment attachment = attachmentService.store(roomId, user.getId(), fileName,
+                request.getContentType(), request.getContentLengthLong(), request.getInputStream());
+            return ResponseEntity.ok(new AttachmentDto(attachment));
+
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Failed to upload attachment: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Start a resumable chunked upload; completes at once when the sha256 is already stored
+     */
+    @PostMapping("/uploads")
+    public ResponseEntity<?> createUpload(
+            @Valid @RequestBody CreateUploadRequest uploadRequest,
+            Authentication authentication) {
+        try {
+            if (authentication == null) {
+                return ResponseEntity.badRequest().body("Authentication required");
+            }
+
+            User user = (User) authentication.getPrincipal();
+            return ResponseEntity.ok(chunkedUploadService.create(uploadRequest, user.getId()));
+
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Failed to start upload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the state of a chunked upload, including the chunks received so far
+     */
+    @GetMapping("/uploads/{uploadId}")
+    public ResponseEntity<?> getUpload(@PathVariable String uploadId, Authentication authentication) {
+        try {
+            if (authentication == null) {
+                return ResponseEntity.badRequest().body("Authentication required");
+            }
+
+            User user = (User) authentication.getPrincipal();
+            return ResponseEntity.ok(chunkedUploadService.getStatus(uploadId, user.getId()));
+
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Failed to get upload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Upload one chunk; the raw body is the chunk and X-Chunk-SHA256 its hex digest
+     */
+    @PutMapping("/uploads/{uploadId}/chunks/{index}")
+    public ResponseEntity<?> putChunk(
+            @PathVariable String uploadId,
+            @PathVariable int index,
+            @RequestHeader(value = "X-Chunk-SHA256", required = false) String chunkSha256,
+            HttpServletRequest request,
+            Authentication authentication) {
+        try {
+            if (authentication == null) {
+                return ResponseEntity.badRequest().body("Authentication required");
+            }
+
+            User user = (User) authentication.getPrincipal();
+            return ResponseEntity.ok(chunkedUploadService.putChunk(uploadId, index, chunkSha256,
+                user.getId(), request.getInputStream()));
+
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Failed to store chunk: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prove possession of already stored content, completing the upload without sending chunks
+     */
+    @PostMapping("/uploads/{uploadId}/proof")
+    public ResponseEntity<?> proveUpload(@PathVariable String uploadId,
+                                         @Valid @RequestBody UploadProofRequest request,
+                                         Authentication authentication) {
+        try {
+            if (authentication == null) {
+                return ResponseEntity.badRequest().body("Authentication required");
+            }
+
+            User user = (User) authentication.getPrincipal();
+            return ResponseEntity.ok(chunkedUploadService.prove(uploadId, request.getProof(), user.getId()));
+
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Failed to check upload proof: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finish a chunked upload once every chunk has been received
+     */
+    @PostMapping("/uploads/{uploadId}/complete")
+    public ResponseEntity<?> completeUpload(@PathVariable String uploadId, Authentication authentication) {
+        try {
+            if (authentication == null) {
+                return ResponseEntity.badRequest().body("Authentication required");
+            }
+
+            User user = (User) authentication.getPrincipal();
+            return ResponseEntity.ok(chunkedUploadService.complete(uploadId, user.getId()));
+
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Failed to complete upload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Download an attachment, honouring Range, If-None-Match and If-Range
+     */
+    @GetMapping("/{attachmentId}")
+    public void download(
+            @PathVariable Long attachmentId,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            Authentication authentication,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+
+        if (authentication == null) {
+            response.setStatus(HttpStatus.UNAUTHORIZED.value());
+            return;
+        }
+
+        User user = (User) authentication.getPrincipal();
+        Optional<Attachment> found;
+        try {
+            found = attachmentService.getForDownload(attachmentId, user.getId());
+        } catch (AccessDeniedException e) {
+            response.setStatus(HttpStatus.FORBIDDEN.value());
+            return;
+        }
+        if (found.isEmpty()) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+
+        Attachment attachment = found.get();
+        String eTag = attachment.getETag();
+        long size = attachment.getSize();
+
+        response.setHeader(HttpHeaders.ETAG, eTag);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        // Stored files never change, so clients may keep them as long as they like
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable");
+
+        if (ifNoneMatch != null && eTagMatches(ifNoneMatch, eTag)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+
+        long start = 0;
+        long end = size - 1;
+        // A stale If-Range means the client's partial copy is outdated: send the whole file
+        if (rangeHeader != null && (ifRange == null || ifRange.trim().equals(eTag))) {
+            long[] range = parseRange(rangeHeader, size);
+            if (range == UNSATISFIABLE) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+            if (range != null) {
+                start = range[0];
+                end = range[1];
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            }
+        }
+
+        long length = end - start + 1;
+        response.setContentType(attachment.getContentType());
+        response.setContentLengthLong(length);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(attachment).toString());
+
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        Path file = attachmentService.getFile(attachment);
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // Tomcat writes the file with sendfile once the handler returns
+            request.setAttribute(SENDFILE_FILENAME, file.toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long written = channel.transferTo(position, remaining, out);
+                position += written;
+                remaining -= written;
+            }
+        }
+    }
+
+    /**
+     * Download the thumbnail of an image attachment; 404 until it has been generated
+     */
+    @GetMapping("/{attachmentId}/thumbnail")
+    public void thumbnail(
+            @PathVariable Long attachmentId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            Authentication authentication,
+            HttpServletResponse response) throws IOException {
+
+        if (authentication == null) {
+            response.setStatus(HttpStatus.UNAUTHORIZED.value());
+            return;
+        }
+
+        User user = (User) authentication.getPrincipal();
+        Optional<Attachment> found;
+        try {
+            found = attachmentService.getForDownload(attachmentId, user.getId());
+        } catch (AccessDeniedException e) {
+            response.setStatus(HttpStatus.FORBIDDEN.value());
+            return;
+        }
+        Optional<Path> file = found.flatMap(attachmentService::getThumbnailFile);
+        if (file.isEmpty() || !Files.isRegularFile(file.get())) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+
+        // Derived from immutable content, so the content digest is a stable validator
+        String eTag = "\"t" + found.get().getContentDigest() + "\"";
+        response.setHeader(HttpHeaders.ETAG, eTag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable");
+        if (ifNoneMatch != null && eTagMatches(ifNoneMatch, eTag)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+
+        response.setContentType("image/jpeg");
+        response.setContentLengthLong(Files.size(file.get()));
+        Files.copy(file.get(), response.getOutputStream());
+    }
+
+    /**
+     * Parse a single "bytes=" range. Returns null when the header should be ignored
+     * (bad syntax or multiple ranges) and UNSATISFIABLE when no byte can be served.
+     */
+    static long[] parseRange(String header, long size) {
+        String value = header.trim();
+        if (!value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = value.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            // Positions are plain digits; parseLong would also take a sign
+            if (!isDigits(first) || !isDigits(last) || (first.isEmpty() && last.isEmpty())) {
+                return null;
+            }
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // Suffix range: the last N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                if (last.isEmpty()) {
+                    end = size - 1;
+                } else {
+                    long lastByte = Long.parseLong(last);
+                    if (lastByte < start) {
+                        return null;
+                    }
+                    end = Math.min(lastByte, size - 1);
+                }
+            }
+            if (start >= size || start < 0) {
+                return UNSATISFIABLE;
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isDigits(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean eTagMatches(String header, String eTag) {
+        for (String candidate : header.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ContentDisposition contentDisposition(Attachment attachment) {
+        String type = attachment.getContentType();
+        // Only media renders inline; anything else (e.g. HTML or SVG) is forced to download
+        boolean inline = (type.startsWith("image/") && !type.startsWith("image/svg"))
+            || type.startsWith("audio/") || type.startsWith("video/");
+        return (inline ? ContentDisposition.inline() : ContentDisposition.attachment())
+                .filename(attachment.getFileName(), StandardCharsets.UTF_8)
+                .build();
+    }
+}
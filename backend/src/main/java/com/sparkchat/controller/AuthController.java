@@ -3,35 +3,72 @@ package com.sparkchat.controller;
 import com.sparkchat.dto.*;
 import com.sparkchat.model.User;
 import com.sparkchat.security.JwtUtils;
+import com.sparkchat.service.RefreshTokenService;
 import com.sparkchat.service.UserService;
 import jakarta.validation.Valid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
 @RestController
 @RequestMapping("/api/auth")
 @CrossOrigin(origins = "*", maxAge = 3600)
 public class AuthController {
     
+    private static final Logger logger = LoggerFactory.getLogger(AuthController.class);
+    
     private final AuthenticationManager authenticationManager;
     private final UserService userService;
     private final JwtUtils jwtUtils;
+    private final RefreshTokenService refreshTokenService;
+    private final ThreadPoolTaskExecutor authExecutor;
+    
+    @Value("${sparkchat.auth.retry-after-seconds:1}")
+    private int retryAfterSeconds;
+    
+    private final LongAdder rejectedLogins = new LongAdder();
+    private final LongAdder refreshedLogins = new LongAdder();
     
-    public AuthController(AuthenticationManager authenticationManager, UserService userService, JwtUtils jwtUtils) {
+    public AuthController(AuthenticationManager authenticationManager, UserService userService, JwtUtils jwtUtils,
+                          RefreshTokenService refreshTokenService,
+                          @Qualifier("authExecutor") ThreadPoolTaskExecutor authExecutor) {
         this.authenticationManager = authenticationManager;
         this.userService = userService;
         this.jwtUtils = jwtUtils;
+        this.refreshTokenService = refreshTokenService;
+        this.authExecutor = authExecutor;
     }
     
+    /**
+     * Check the password on the auth executor, leaving the request thread free meanwhile
+     */
     @PostMapping("/login")
-    public ResponseEntity<?> authenticateUser(@Valid @RequestBody AuthRequest loginRequest) {
+    public CompletableFuture<ResponseEntity<?>> authenticateUser(@Valid @RequestBody AuthRequest loginRequest) {
+        try {
+            return CompletableFuture.supplyAsync(() -> authenticate(loginRequest), authExecutor);
+        } catch (RejectedExecutionException e) {
+            rejectedLogins.increment();
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header("Retry-After", Integer.toString(retryAfterSeconds))
+                .body(new MessageResponse("Error: Too many logins, please retry")));
+        }
+    }
+    
+    private ResponseEntity<?> authenticate(AuthRequest loginRequest) {
         try {
-            System.out.println("Login attempt for username: " + loginRequest.getUsername());
-            
             Authentication authentication = authenticationManager.authenticate(
                 new UsernamePasswordAuthenticationToken(
                     loginRequest.getUsername(), 
@@ -39,26 +76,48 @@ public class AuthController {
                 )
             );
             
-            System.out.println("Authentication successful for: " + loginRequest.getUsername());
-            
-            SecurityContextHolder.getContext().setAuthentication(authentication);
-            String jwt = jwtUtils.generateToken((User) authentication.getPrincipal());
-            
             User user = (User) authentication.getPrincipal();
-            UserDto userDto = UserDto.fromUser(user);
-            
-            // Update user online status
-            userService.updateUserOnlineStatus(user.getId(), true);
-            
-            return ResponseEntity.ok(new AuthResponse(jwt, userDto));
+            return ResponseEntity.ok(signIn(user));
         } catch (Exception e) {
-            System.out.println("Login failed for username: " + loginRequest.getUsername() + ", Error: " + e.getMessage());
-            e.printStackTrace();
+            logger.debug("Login failed for {}: {}", loginRequest.getUsername(), e.getMessage());
             return ResponseEntity.badRequest()
                 .body(new MessageResponse("Error: Invalid username or password!"));
         }
     }
     
+    /**
+     * Exchange a refresh token for a new access token and refresh token, without a password
+     */
+    @PostMapping("/refresh")
+    public ResponseEntity<?> refresh(@Valid @RequestBody RefreshRequest refreshRequest) {
+        Optional<User> user = refreshTokenService.redeem(refreshRequest.getRefreshToken())
+            .flatMap(userService::findById);
+        if (user.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                .body(new MessageResponse("Error: Invalid or expired refresh token"));
+        }
+        refreshedLogins.increment();
+        return ResponseEntity.ok(signIn(user.get()));
+    }
+    
+    private AuthResponse signIn(User user) {
+        String jwt = jwtUtils.generateToken(user);
+        String refreshToken = refreshTokenService.issue(user.getId());
+        
+        // Update user online status
+        userService.updateUserOnlineStatus(user.getId(), true);
+        
+        return new AuthResponse(jwt, refreshToken, UserDto.fromUser(user));
+    }
+    
+    public long getRejectedLoginCount() {
+        return rejectedLogins.sum();
+    }
+    
+    public long getRefreshedLoginCount() {
+        return refreshedLogins.sum();
+    }
+    
     @PostMapping("/register")
     public ResponseEntity<?> registerUser(@Valid @RequestBody RegisterRequest signUpRequest) {
         try {
@@ -73,7 +132,11 @@ public class AuthController {
     }
     
     @PostMapping("/logout")
-    public ResponseEntity<?> logoutUser(Authentication authentication) {
+    public ResponseEntity<?> logoutUser(@RequestBody(required = false) RefreshRequest refreshRequest,
+                                        Authentication authentication) {
+        if (refreshRequest != null && refreshRequest.getRefreshToken() != null) {
+            refreshTokenService.revoke(refreshRequest.getRefreshToken());
+        }
         if (authentication != null) {
             User user = (User) authentication.getPrincipal();
             userService.updateUserOnlineStatus(user.getId(), false);
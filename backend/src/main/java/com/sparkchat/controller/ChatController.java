@@ -1,13 +1,26 @@
 package com.sparkchat.controller;
 
+import com.sparkchat.dto.ChatRoomDto;
+import com.sparkchat.dto.CreateRoomRequest;
 import com.sparkchat.dto.MessageDto;
+import com.sparkchat.dto.MessageResponse;
+import com.sparkchat.model.ChatRoom;
 import com.sparkchat.model.User;
 import com.sparkchat.service.ChatService;
+import com.sparkchat.service.CounterService;
+import com.sparkchat.service.ReceiptService;
+import com.sparkchat.service.RoomMembershipIndex;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * REST Controller for chat operations
@@ -27,9 +40,16 @@ import java.util.List;
 public class ChatController {
     
     private final ChatService chatService;
+    private final CounterService counterService;
+    private final ReceiptService receiptService;
+    private final RoomMembershipIndex membershipIndex;
     
-    public ChatController(ChatService chatService) {
+    public ChatController(ChatService chatService, CounterService counterService,
+                          ReceiptService receiptService, RoomMembershipIndex membershipIndex) {
         this.chatService = chatService;
+        this.counterService = counterService;
+        this.receiptService = receiptService;
+        this.membershipIndex = membershipIndex;
     }
     
     /**
@@ -43,14 +63,60 @@ public class ChatController {
         if (authentication == null) {
             return ResponseEntity.badRequest().body("Authentication required");
         }
-        // Implementation will be added in next iteration
-        return ResponseEntity.ok("Chat rooms endpoint - Coming soon!");
+        
+        User user = (User) authentication.getPrincipal();
+        List<ChatRoomDto> rooms = chatService.getUserChatRooms(user.getId()).stream()
+                .map(room -> new ChatRoomDto(room, membershipIndex.getMemberCount(room.getId())))
+                .collect(Collectors.toList());
+        return ResponseEntity.ok(rooms);
+    }
+    
+    /**
+     * Add a user to a group chat room
+     */
+    @PostMapping("/rooms/{roomId}/members")
+    public ResponseEntity<?> addRoomMember(
+            @PathVariable Long roomId,
+            @RequestParam String username,
+            Authentication authentication) {
+        try {
+            if (authentication == null) {
+                return ResponseEntity.badRequest().body("Authentication required");
+            }
+            
+            chatService.addRoomMember(roomId, username, (User) authentication.getPrincipal());
+            return ResponseEntity.ok(new MessageResponse("Member added"));
+            
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Failed to add member: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Remove a user from a group chat room (or leave it)
+     */
+    @DeleteMapping("/rooms/{roomId}/members/{username}")
+    public ResponseEntity<?> removeRoomMember(
+            @PathVariable Long roomId,
+            @PathVariable String username,
+            Authentication authentication) {
+        try {
+            if (authentication == null) {
+                return ResponseEntity.badRequest().body("Authentication required");
+            }
+            
+            chatService.removeRoomMember(roomId, username, (User) authentication.getPrincipal());
+            return ResponseEntity.ok(new MessageResponse("Member removed"));
+            
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Failed to remove member: " + e.getMessage());
+        }
     }
     
     /**
      * Get message history for a chat room
      * 
-     * @param roomId Chat room ID (optional, defaults to public chat)
+     * @param roomId Chat room ID (optional, defaults to public chat); only members may read a room
      * @param page Page number for pagination
      * @param size Page size
      * @param authentication Current user authentication
@@ -68,6 +134,11 @@ public class ChatController {
                 return ResponseEntity.badRequest().body("Authentication required");
             }
             
+            User user = (User) authentication.getPrincipal();
+            if (roomId != null && !membershipIndex.isMember(roomId, user.getId()) && !chatService.isPublicRoom(roomId)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Not a member of this chat room");
+            }
+            
             List<MessageDto> messages = chatService.getMessageHistory(roomId, page, size);
             return ResponseEntity.ok(messages);
             
@@ -100,6 +171,96 @@ public class ChatController {
         }
     }
     
+    /**
+     * Get unread badge counts of the current user, keyed by chat room id
+     * 
+     * Served from the in-memory counters, never from the messages table.
+     */
+    @GetMapping("/unread")
+    public ResponseEntity<?> getUnreadCounts(Authentication authentication) {
+        if (authentication == null) {
+            return ResponseEntity.badRequest().body("Authentication required");
+        }
+        
+        User user = (User) authentication.getPrincipal();
+        return ResponseEntity.ok(counterService.getUnreadCounts(user.getId()));
+    }
+    
+    /**
+     * Get message and unread counts of a chat room for the current user
+     */
+    @GetMapping("/rooms/{roomId}/counts")
+    public ResponseEntity<?> getRoomCounts(@PathVariable Long roomId, Authentication authentication) {
+        if (authentication == null) {
+            return ResponseEntity.badRequest().body("Authentication required");
+        }
+        
+        User user = (User) authentication.getPrincipal();
+        if (!membershipIndex.isMember(roomId, user.getId())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Not a member of this chat room");
+        }
+        Map<String, Object> counts = new HashMap<>();
+        counts.put("roomId", roomId);
+        counts.put("messageCount", counterService.getMessageCount(roomId));
+        counts.put("unreadCount", counterService.getUnreadCount(roomId, user.getId()));
+        return ResponseEntity.ok(counts);
+    }
+    
+    /**
+     * Mark a chat room as read, optionally only up to a given message id
+     */
+    @PostMapping("/rooms/{roomId}/read")
+    public ResponseEntity<?> markRoomRead(
+            @PathVariable Long roomId,
+            @RequestParam(required = false) Long upTo,
+            Authentication authentication) {
+        if (authentication == null) {
+            return ResponseEntity.badRequest().body("Authentication required");
+        }
+        
+        try {
+            User user = (User) authentication.getPrincipal();
+            chatService.markRoomRead(roomId, user.getId(), upTo);
+            return ResponseEntity.ok(new MessageResponse("Room marked as read"));
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        }
+    }
+    
+    /**
+     * Get delivery and read receipts (high-water marks) of every member of a chat room
+     */
+    @GetMapping("/rooms/{roomId}/receipts")
+    public ResponseEntity<?> getRoomReceipts(@PathVariable Long roomId, Authentication authentication) {
+        if (authentication == null) {
+            return ResponseEntity.badRequest().body("Authentication required");
+        }
+        
+        User user = (User) authentication.getPrincipal();
+        if (!membershipIndex.isMember(roomId, user.getId())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Not a member of this chat room");
+        }
+        return ResponseEntity.ok(receiptService.getReceipts(roomId));
+    }
+    
+    /**
+     * Delete a message sent by the current user
+     */
+    @DeleteMapping("/messages/{messageId}")
+    public ResponseEntity<?> deleteMessage(@PathVariable Long messageId, Authentication authentication) {
+        try {
+            if (authentication == null) {
+                return ResponseEntity.badRequest().body("Authentication required");
+            }
+            
+            chatService.deleteMessage(messageId, (User) authentication.getPrincipal());
+            return ResponseEntity.ok(new MessageResponse("Message deleted"));
+            
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Failed to delete message: " + e.getMessage());
+        }
+    }
+    
     /**
      * Send a new message
      * 
@@ -124,9 +285,19 @@ public class ChatController {
      */
     @PostMapping("/rooms")
     public ResponseEntity<?> createChatRoom(
-            @RequestBody Object roomRequest,
+            @Valid @RequestBody CreateRoomRequest roomRequest,
             Authentication authentication) {
-        // Implementation will be added in next iteration
-        return ResponseEntity.ok("Create chat room endpoint - Coming soon!");
+        try {
+            if (authentication == null) {
+                return ResponseEntity.badRequest().body("Authentication required");
+            }
+            
+            ChatRoom room = chatService.createGroupRoom(roomRequest.getName(), roomRequest.getDescription(),
+                (User) authentication.getPrincipal(), roomRequest.getMembers());
+            return ResponseEntity.ok(new ChatRoomDto(room, room.getMembers().size()));
+            
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Failed to create chat room: " + e.getMessage());
+        }
     }
 }
\ No newline at end of file
@@ -1,10 +1,21 @@
 package com.sparkchat.controller;
 
 import com.sparkchat.dto.MessageDto;
+import com.sparkchat.dto.ReceiptDto;
 import com.sparkchat.dto.UserDto;
 import com.sparkchat.model.Message;
 import com.sparkchat.model.User;
 import com.sparkchat.service.ChatService;
+import com.sparkchat.service.MessagePreviewReadyEvent;
+import com.sparkchat.service.MessagingMetrics;
+import com.sparkchat.service.ReceiptService;
+import com.sparkchat.service.RoomFanoutService;
+import com.sparkchat.service.UserService;
+import com.sparkchat.web.OutboundSessionBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.handler.annotation.SendTo;
@@ -13,6 +24,8 @@ import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
 
+import java.util.Map;
+
 /**
  * WebSocket controller for real-time messaging
  * 
@@ -28,12 +41,25 @@ import org.springframework.stereotype.Controller;
 @Controller
 public class WebSocketController {
     
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketController.class);
+    
     private final ChatService chatService;
+    private final ReceiptService receiptService;
+    private final UserService userService;
+    private final RoomFanoutService roomFanoutService;
     private final SimpMessagingTemplate messagingTemplate;
+    private final MessagingMetrics messagingMetrics;
     
-    public WebSocketController(ChatService chatService, SimpMessagingTemplate messagingTemplate) {
+    public WebSocketController(ChatService chatService, ReceiptService receiptService,
+                               UserService userService, RoomFanoutService roomFanoutService,
+                               SimpMessagingTemplate messagingTemplate,
+                               MessagingMetrics messagingMetrics) {
         this.chatService = chatService;
+        this.receiptService = receiptService;
+        this.userService = userService;
+        this.roomFanoutService = roomFanoutService;
         this.messagingTemplate = messagingTemplate;
+        this.messagingMetrics = messagingMetrics;
     }
     
     /**
@@ -51,7 +77,7 @@ public class WebSocketController {
             String username = (String) headerAccessor.getSessionAttributes().get("username");
             
             if (username == null || username.isEmpty()) {
-                System.err.println("No username in session, using sender from message");
+                logger.warn("No username in session, using sender from message");
                 username = messageDto.getSender() != null ? messageDto.getSender().getUsername() : "anonymous";
             }
             
@@ -66,32 +92,81 @@ public class WebSocketController {
                 messageDto.setMessageTypeString("TEXT");
             }
             
-            System.out.println("Processing DM from: " + username + ", content: " + messageDto.getContent());
+            logger.debug("Processing DM from {} to {}", username, messageDto.getRecipient());
             
             // Save message to database
+            long receivedAt = messagingMetrics.receivedAt(headerAccessor);
             Message savedMessage = chatService.saveMessage(messageDto);
+            messagingMetrics.recordPersisted(MessagingMetrics.DM, receivedAt);
             
             // Convert back to DTO with updated information
             MessageDto responseDto = chatService.convertToDto(savedMessage);
             
-            // Send to recipient only (not to sender to avoid duplicates)
+            // Send to recipient only (not to sender to avoid duplicates); the DM room's
+            // fan-out holds it in the recipient's mailbox when they are offline
             String recipientUsername = messageDto.getRecipient();
             if (recipientUsername != null && !recipientUsername.equals(username)) {
-                messagingTemplate.convertAndSendToUser(
-                    recipientUsername, 
-                    "/queue/messages", 
-                    responseDto
-                );
-                System.out.println("Message sent to user: " + recipientUsername);
+                roomFanoutService.deliver(responseDto.getChatRoomId(), savedMessage.getSender().getId(), responseDto)
+                        .thenRun(() -> messagingMetrics.recordDelivered(MessagingMetrics.DM, receivedAt));
+                logger.debug("Message sent to user: {}", recipientUsername);
             }
             
         } catch (Exception e) {
-            // Log error
-            System.err.println("Error processing message: " + e.getMessage());
-            e.printStackTrace();
+            logger.error("Error processing message: {}", e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Handle incoming chat messages for a group room
+     * 
+     * The message is delivered to the personal queue of every online member,
+     * so clients only need their single /user/queue/messages subscription.
+     * 
+     * @param roomId The target group room
+     * @param messageDto The message to be sent
+     * @param headerAccessor WebSocket session information
+     */
+    @MessageMapping("/chat.room.{roomId}")
+    public void sendRoomMessage(@DestinationVariable Long roomId,
+                                @Payload MessageDto messageDto,
+                                SimpMessageHeaderAccessor headerAccessor) {
+        
+        String username = (String) headerAccessor.getSessionAttributes().get("username");
+        if (username == null) {
+            return;
+        }
+        
+        Long userId = resolveUserId(headerAccessor, username);
+        if (userId == null) {
+            return;
+        }
+        
+        try {
+            long receivedAt = messagingMetrics.receivedAt(headerAccessor);
+            Message savedMessage = chatService.saveRoomMessage(roomId, messageDto, userId);
+            messagingMetrics.recordPersisted(MessagingMetrics.ROOM, receivedAt);
+            MessageDto responseDto = chatService.convertToDto(savedMessage);
+            roomFanoutService.deliver(roomId, userId, responseDto)
+                    .thenRun(() -> messagingMetrics.recordDelivered(MessagingMetrics.ROOM, receivedAt));
+        } catch (Exception e) {
+            logger.error("Error processing room message: {}", e.getMessage());
         }
     }
     
+    /**
+     * Push a message whose image preview has just been generated
+     * 
+     * Online room members, including the sender, receive the full updated message on
+     * /user/queue/message-updates and replace their copy by id.
+     * 
+     * @param event The message that now carries its thumbnail and placeholder
+     */
+    @EventListener
+    public void onMessagePreviewReady(MessagePreviewReadyEvent event) {
+        chatService.getMessageDto(event.getMessageId())
+                .ifPresent(dto -> roomFanoutService.deliverUpdate(event.getChatRoomId(), dto));
+    }
+    
     /**
      * Handle user joining a chat room
      * 
@@ -107,7 +182,7 @@ public class WebSocketController {
         String username = messageDto.getSender().getUsername();
         headerAccessor.getSessionAttributes().put("username", username);
         
-        System.out.println("User joined: " + username);
+        logger.debug("User joined: {}", username);
         // Don't broadcast join messages to avoid spam
     }
     
@@ -123,9 +198,14 @@ public class WebSocketController {
         
         String username = (String) headerAccessor.getSessionAttributes().get("username");
         
-        // Broadcast typing indicator to room
-        messagingTemplate.convertAndSend("/topic/typing", 
-            "{ \"username\": \"" + username + "\", \"typing\": true }");
+        // Broadcast typing indicator to room; only the latest one per user is worth queueing
+        String typing = "{ \"username\": \"" + username + "\", \"typing\": true }";
+        if (username != null) {
+            messagingTemplate.convertAndSend("/topic/typing", typing,
+                Map.of(OutboundSessionBuffers.CONFLATE_HEADER, "typing/" + username));
+        } else {
+            messagingTemplate.convertAndSend("/topic/typing", typing);
+        }
     }
     
     /**
@@ -148,4 +228,51 @@ public class WebSocketController {
             messageDto
         );
     }
-}
\ No newline at end of file
+    
+    /**
+     * Handle delivery/read acknowledgements
+     * 
+     * Acks are high-water marks per room; they are coalesced in memory and
+     * persisted and pushed to the room in periodic batches.
+     * 
+     * @param receipt Room id plus delivered and/or read message id
+     * @param headerAccessor WebSocket session information
+     */
+    @MessageMapping("/chat.receipt")
+    public void handleReceipt(@Payload ReceiptDto receipt,
+                              SimpMessageHeaderAccessor headerAccessor) {
+        
+        String username = (String) headerAccessor.getSessionAttributes().get("username");
+        if (username == null || receipt.getChatRoomId() == null) {
+            return;
+        }
+        
+        // The room comes from the payload, so it is not covered by destination authorization;
+        // the receipt service drops acks from non-members
+        Long userId = resolveUserId(headerAccessor, username);
+        if (userId == null) {
+            return;
+        }
+        
+        receiptService.acknowledge(receipt.getChatRoomId(), userId, username,
+            receipt.getDeliveredMessageId(), receipt.getReadMessageId());
+    }
+    
+    /**
+     * Get the user id of the session, looking it up once for tokens issued without it
+     */
+    private Long resolveUserId(SimpMessageHeaderAccessor headerAccessor, String username) {
+        Map<String, Object> sessionAttributes = headerAccessor.getSessionAttributes();
+        Object userId = sessionAttributes.get("userId");
+        if (userId instanceof Long) {
+            return (Long) userId;
+        }
+        
+        User user = userService.findByUsername(username);
+        if (user == null) {
+            return null;
+        }
+        sessionAttributes.put("userId", user.getId());
+        return user.getId();
+    }
+}
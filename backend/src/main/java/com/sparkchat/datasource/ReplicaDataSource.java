@@ -0,0 +1,177 @@
+package com.sparkchat.datasource;
+
+import com.sparkchat.config.ReplicaProperties;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connections for read-only transactions: from the replicas that are up and caught up,
+ * in turn, or from the primary when none is
+ *
+ * A replica's lag is unknown until ReplicationLagProbe has measured it, so reads stay on
+ * the primary until then. A replica that fails to hand out a connection is skipped until
+ * the next probe reaches it again.
+ */
+public class ReplicaDataSource extends AbstractDataSource implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaDataSource.class);
+
+    private static final String HEARTBEAT_QUERY = "SELECT beat_at FROM replication_heartbeat WHERE id = ?";
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final long maxLagMs;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder primaryFallbacks = new LongAdder();
+
+    public ReplicaDataSource(DataSource primary, ReplicaProperties properties,
+                             String defaultUsername, String defaultPassword) {
+        this.primary = primary;
+        this.maxLagMs = properties.getMaxLagMs();
+        List<Replica> replicas = new ArrayList<>();
+        for (int i = 0; i < properties.getInstances().size(); i++) {
+            ReplicaProperties.Instance instance = properties.getInstances().get(i);
+            String name = instance.getName() != null ? instance.getName() : "replica-" + (i + 1);
+            HikariConfig config = new HikariConfig();
+            config.setPoolName(name);
+            config.setJdbcUrl(instance.getUrl());
+            config.setUsername(instance.getUsername() != null ? instance.getUsername() : defaultUsername);
+            config.setPassword(instance.getPassword() != null ? instance.getPassword() : defaultPassword);
+            config.setMaximumPoolSize(properties.getMaxPoolSize());
+            config.setConnectionTimeout(properties.getConnectionTimeoutMs());
+            config.setReadOnly(true);
+            // Start even when the replica is down; it gets no reads until a probe reaches it
+            config.setInitializationFailTimeout(-1);
+            replicas.add(new Replica(name, new HikariDataSource(config)));
+        }
+        this.replicas = Collections.unmodifiableList(replicas);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        int count = replicas.size();
+        int start = count > 0 ? Math.floorMod(next.getAndIncrement(), count) : 0;
+        for (int i = 0; i < count; i++) {
+            Replica replica = replicas.get((start + i) % count);
+            if (!replica.isCaughtUp(maxLagMs)) {
+                continue;
+            }
+            try {
+                Connection connection = replica.pool.getConnection();
+                replica.connections.increment();
+                return connection;
+            } catch (SQLException e) {
+                replica.lagMs = -1;
+                logger.warn("Replica {} gets no reads until the next probe: {}", replica.name, e.getMessage());
+            }
+        }
+        if (count > 0) {
+            primaryFallbacks.increment();
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) {
+        throw new UnsupportedOperationException("Replica connections use the configured credentials");
+    }
+
+    /**
+     * Measure every replica's lag behind a heartbeat the primary has just written
+     */
+    void probe(long heartbeatId) {
+        for (Replica replica : replicas) {
+            boolean wasCaughtUp = replica.isCaughtUp(maxLagMs);
+            String failure = replica.probe(heartbeatId);
+            boolean caughtUp = replica.isCaughtUp(maxLagMs);
+            if (caughtUp && !wasCaughtUp) {
+                logger.info("Replica {} takes reads, {} ms behind", replica.name, replica.lagMs);
+            } else if (!caughtUp && (wasCaughtUp || !replica.probed)) {
+                logger.warn("Replica {} gets no reads: {}", replica.name,
+                        failure != null ? failure : replica.lagMs + " ms behind");
+            }
+            replica.probed = true;
+        }
+    }
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    public long getPrimaryFallbackCount() {
+        return primaryFallbacks.sum();
+    }
+
+    @Override
+    public void destroy() {
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+
+    public static final class Replica {
+
+        private final String name;
+        private final HikariDataSource pool;
+        private final LongAdder connections = new LongAdder();
+        // Milliseconds behind the primary as last probed, or -1 when unknown or down
+        private volatile long lagMs = -1;
+        // Only read and written by the probe
+        private boolean probed;
+
+        Replica(String name, HikariDataSource pool) {
+            this.name = name;
+            this.pool = pool;
+        }
+
+        public String getName() { return name; }
+
+        public long getLagMs() { return lagMs; }
+
+        public long getConnectionCount() { return connections.sum(); }
+
+        boolean isCaughtUp(long maxLagMs) {
+            long lag = lagMs;
+            return lag >= 0 && lag <= maxLagMs;
+        }
+
+        /**
+         * Read the replica's copy of the heartbeat and record how old it is
+         *
+         * @return why the replica has no lag to record, or null when it has
+         */
+        String probe(long heartbeatId) {
+            try (Connection connection = pool.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(HEARTBEAT_QUERY)) {
+                statement.setLong(1, heartbeatId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        lagMs = -1;
+                        return "no heartbeat replicated yet";
+                    }
+                    lagMs = Math.max(0, System.currentTimeMillis() - resultSet.getLong(1));
+                    return null;
+                }
+            } catch (SQLException e) {
+                lagMs = -1;
+                return "probe failed: " + e.getMessage();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.sparkchat.datasource;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.TransactionDefinition;
+
+import java.sql.SQLException;
+
+/**
+ * Sends read-only transactions to the replica side, and keeps what they load out of the
+ * second-level cache
+ *
+ * Sessions give their connection back after each transaction when replicas are configured,
+ * and Hibernate only passes the read-only flag on to connections it holds for the whole
+ * session, so it is set here, before the first statement makes the connection proxy pick
+ * a side. The connection returns to its pool, flag reset, when the transaction ends.
+ *
+ * A replica may be up to the allowed lag behind the primary. Read-only transactions still
+ * read the cache, which only holds what the primary had, but do not put entities or query
+ * results into it, as those could be older than what was written since and would then be
+ * served from the cache until they expire.
+ */
+public class ReplicaReadJpaDialect extends HibernateJpaDialect {
+
+    @Override
+    public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition)
+            throws PersistenceException, SQLException {
+        if (!definition.isReadOnly()) {
+            return super.beginTransaction(entityManager, definition);
+        }
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        session.getJdbcCoordinator().getLogicalConnection().getPhysicalConnection().setReadOnly(true);
+        Object transactionData = super.beginTransaction(entityManager, definition);
+        CacheMode previousCacheMode = session.getCacheMode();
+        session.setCacheMode(CacheMode.GET);
+        return new ReadOnlyTransactionData(transactionData, session, previousCacheMode);
+    }
+
+    @Override
+    public void cleanupTransaction(Object transactionData) {
+        if (transactionData instanceof ReadOnlyTransactionData readOnly) {
+            // The session outlives the transaction when it is held open for the whole request
+            readOnly.session.setCacheMode(readOnly.previousCacheMode);
+            transactionData = readOnly.transactionData;
+        }
+        super.cleanupTransaction(transactionData);
+    }
+
+    private static final class ReadOnlyTransactionData {
+
+        private final Object transactionData;
+        private final Session session;
+        private final CacheMode previousCacheMode;
+
+        ReadOnlyTransactionData(Object transactionData, Session session, CacheMode previousCacheMode) {
+            this.transactionData = transactionData;
+            this.session = session;
+            this.previousCacheMode = previousCacheMode;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.sparkchat.datasource;
+
+import com.sparkchat.model.ReplicationHeartbeat;
+import com.sparkchat.repository.ReplicationHeartbeatRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes a heartbeat to the primary and measures how long each replica takes to show it
+ *
+ * The heartbeat is written first, so a replica that keeps up reports a lag of a few
+ * milliseconds and one that stopped applying changes falls behind by a probe interval
+ * each time. Nothing is written when no replicas are configured.
+ */
+@Component
+public class ReplicationLagProbe {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationLagProbe.class);
+
+    private final ReplicaDataSource replicaDataSource;
+    private final ReplicationHeartbeatRepository heartbeatRepository;
+
+    public ReplicationLagProbe(ReplicaDataSource replicaDataSource,
+                               ReplicationHeartbeatRepository heartbeatRepository) {
+        this.replicaDataSource = replicaDataSource;
+        this.heartbeatRepository = heartbeatRepository;
+    }
+
+    @Scheduled(fixedDelayString = "${sparkchat.replicas.probe-interval-ms:1000}")
+    public void probe() {
+        if (replicaDataSource.getReplicas().isEmpty()) {
+            return;
+        }
+        try {
+            heartbeatRepository.save(new ReplicationHeartbeat(ReplicationHeartbeat.ID, System.currentTimeMillis()));
+        } catch (RuntimeException e) {
+            // Replicas keep their last lag, which grows from here as the heartbeat ages
+            logger.warn("Could not write the replication heartbeat: {}", e.getMessage());
+        }
+        replicaDataSource.probe(ReplicationHeartbeat.ID);
+    }
+}
@@ -0,0 +1,137 @@
+package com.sparkchat.diagnostics;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Keeps a continuous flight recording of the last half hour or so and dumps it on demand
+ *
+ * The recording uses the sparkchat.jfc profile: the message pipeline events, GC and CPU
+ * load, and JDK events only above thresholds that keep its overhead low enough to leave
+ * on. Data older than max-age or beyond max-size is discarded as the recording runs, so a
+ * dump taken when p99 spikes shows what the server was doing in the minutes before.
+ *
+ * JFR keeps and trims a recording in whole chunks, and a chunk only ends when a recording
+ * starts or stops. The recorder is made to start a new one every chunk-interval, so a dump
+ * of the last N minutes holds at most one interval of older data.
+ */
+@Service
+public class FlightRecorderService implements SmartInitializingSingleton, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlightRecorderService.class);
+
+    private static final String RECORDING_NAME = "sparkchat-continuous";
+
+    @Value("${sparkchat.jfr.enabled:true}")
+    private boolean enabled;
+
+    @Value("${sparkchat.jfr.settings:classpath:jfr/sparkchat.jfc}")
+    private Resource settings;
+
+    @Value("${sparkchat.jfr.max-age-minutes:30}")
+    private long maxAgeMinutes;
+
+    @Value("${sparkchat.jfr.max-size-mb:100}")
+    private long maxSizeMegabytes;
+
+    private volatile Recording recording;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled || !FlightRecorder.isAvailable()) {
+            return;
+        }
+        try (Reader reader = new InputStreamReader(settings.getInputStream(), StandardCharsets.UTF_8)) {
+            Recording continuous = new Recording(Configuration.create(reader));
+            continuous.setName(RECORDING_NAME);
+            continuous.setToDisk(true);
+            continuous.setMaxAge(Duration.ofMinutes(maxAgeMinutes));
+            continuous.setMaxSize(maxSizeMegabytes * 1024 * 1024);
+            continuous.start();
+            recording = continuous;
+            logger.info("Started continuous flight recording, keeping {} minutes", maxAgeMinutes);
+        } catch (IOException | ParseException | RuntimeException e) {
+            logger.warn("Could not start continuous flight recording: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Start a new chunk, so the one being written never spans more than the interval
+     */
+    @Scheduled(fixedDelayString = "${sparkchat.jfr.chunk-interval-ms:60000}")
+    public void rotateChunk() {
+        if (recording == null) {
+            return;
+        }
+        try (Recording marker = new Recording()) {
+            marker.start();
+            marker.stop();
+        }
+    }
+
+    /**
+     * Write the last minutes of the continuous recording to a new temporary file
+     */
+    public Path dump(long minutes) throws IOException {
+        return dump(Duration.ofMinutes(Math.max(1, Math.min(minutes, maxAgeMinutes))));
+    }
+
+    /**
+     * Dump the chunks that end after now minus the window, as JFR.dump begin= does
+     */
+    Path dump(Duration window) throws IOException {
+        if (recording == null) {
+            throw new IllegalStateException("Continuous flight recording is not running");
+        }
+        Path file = Files.createTempFile("sparkchat-", ".jfr");
+        String[] arguments = {
+            "name=" + RECORDING_NAME,
+            "filename=" + file.toAbsolutePath(),
+            "begin=" + Instant.now().minus(window)
+        };
+        try {
+            ManagementFactory.getPlatformMBeanServer().invoke(
+                new ObjectName("com.sun.management:type=DiagnosticCommand"), "jfrDump",
+                new Object[] {arguments}, new String[] {String[].class.getName()});
+        } catch (JMException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw new IOException("JFR.dump failed: " + e.getMessage(), e);
+        }
+        return file;
+    }
+
+    public boolean isRecording() {
+        return recording != null;
+    }
+
+    @Override
+    public void destroy() {
+        Recording continuous = recording;
+        if (continuous != null) {
+            recording = null;
+            continuous.close();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.sparkchat.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Handling of an inbound STOMP frame by the authenticating interceptor
+ */
+@Name("sparkchat.InboundFrame")
+@Label("Inbound Frame")
+@Category({"Spark.chat", "Message Pipeline"})
+@StackTrace(false)
+public class InboundFrameEvent extends Event {
+
+    @Label("Trace Id")
+    public long traceId;
+
+    @Label("Command")
+    public String command;
+
+    @Label("Destination")
+    public String destination;
+
+    @Label("Session Id")
+    public String sessionId;
+}
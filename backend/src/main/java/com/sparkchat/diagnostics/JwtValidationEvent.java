@@ -0,0 +1,31 @@
+package com.sparkchat.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JWT check on an HTTP request or STOMP CONNECT
+ */
+@Name("sparkchat.JwtValidation")
+@Label("JWT Validation")
+@Category({"Spark.chat", "Message Pipeline"})
+@StackTrace(false)
+public class JwtValidationEvent extends Event {
+
+    @Label("Trace Id")
+    public long traceId;
+
+    @Label("Source")
+    @Description("http for a REST request, stomp for a WebSocket CONNECT")
+    public String source;
+
+    @Label("Valid")
+    public boolean valid;
+
+    @Label("Username")
+    public String username;
+}
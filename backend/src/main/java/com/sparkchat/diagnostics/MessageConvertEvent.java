@@ -0,0 +1,28 @@
+package com.sparkchat.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Conversion of a message to its DTO or JSON frame
+ */
+@Name("sparkchat.MessageConvert")
+@Label("Message Convert")
+@Category({"Spark.chat", "Message Pipeline"})
+@StackTrace(false)
+public class MessageConvertEvent extends Event {
+
+    @Label("Trace Id")
+    public long traceId;
+
+    @Label("Format")
+    @Description("dto for the MessageDto, json for the encoded STOMP payload")
+    public String format;
+
+    @Label("Message Id")
+    public long messageId;
+}
@@ -0,0 +1,32 @@
+package com.sparkchat.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Handing a message to the sessions of all online room members
+ */
+@Name("sparkchat.MessageDeliver")
+@Label("Message Deliver")
+@Category({"Spark.chat", "Message Pipeline"})
+@StackTrace(false)
+public class MessageDeliverEvent extends Event {
+
+    @Label("Trace Id")
+    public long traceId;
+
+    @Label("Chat Room Id")
+    public long chatRoomId;
+
+    @Label("Message Id")
+    public long messageId;
+
+    @Label("Recipients")
+    public int recipients;
+
+    @Label("Offline Members")
+    public int offline;
+}
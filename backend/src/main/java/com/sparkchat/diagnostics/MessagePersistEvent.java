@@ -0,0 +1,31 @@
+package com.sparkchat.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Storing a chat message in its transaction
+ */
+@Name("sparkchat.MessagePersist")
+@Label("Message Persist")
+@Category({"Spark.chat", "Message Pipeline"})
+@StackTrace(false)
+public class MessagePersistEvent extends Event {
+
+    @Label("Trace Id")
+    public long traceId;
+
+    @Label("Kind")
+    @Description("dm or room")
+    public String kind;
+
+    @Label("Chat Room Id")
+    public long chatRoomId;
+
+    @Label("Message Id")
+    public long messageId;
+}
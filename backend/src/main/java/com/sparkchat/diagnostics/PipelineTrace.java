@@ -0,0 +1,45 @@
+package com.sparkchat.diagnostics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trace id of the request or STOMP frame the current thread is handling
+ *
+ * Every HTTP request and inbound STOMP frame gets an id, which the pipeline's flight
+ * recorder events carry so one message can be followed from its JWT check to its
+ * delivery. Work handed to another thread must capture the id first.
+ */
+public final class PipelineTrace {
+
+    /**
+     * Header carrying a STOMP frame's trace id from the receiving thread to its handler
+     */
+    public static final String HEADER = "sparkchatTraceId";
+
+    private static final AtomicLong nextId = new AtomicLong();
+
+    private static final ThreadLocal<Long> current = new ThreadLocal<>();
+
+    private PipelineTrace() {
+    }
+
+    public static long newId() {
+        return nextId.incrementAndGet();
+    }
+
+    /**
+     * Get the current thread's trace id, or 0 outside a traced request
+     */
+    public static long current() {
+        Long id = current.get();
+        return id != null ? id : 0;
+    }
+
+    public static void set(long id) {
+        current.set(id);
+    }
+
+    public static void clear() {
+        current.remove();
+    }
+}
@@ -0,0 +1,250 @@
+package com.sparkchat.diagnostics;
+
+import org.springframework.messaging.simp.stomp.StompCommand;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary log of captured STOMP frames, written by TrafficRecorder and read by the replayer
+ *
+ * The file starts with the magic bytes SCAP, a version byte and the capture's start time in
+ * epoch milliseconds. Each frame then takes a kind byte (0x80 set for outbound, the rest
+ * the STOMP command's ordinal) followed by varints: microseconds since the previous frame,
+ * session number, user number plus one (0 if unknown), destination number, the frame's
+ * payload size and the length of the stored payload and its bytes. Destinations are
+ * numbered from 1 as they first occur, and a first occurrence is followed by the
+ * destination itself; 0 means none. Sessions and users are numbered from 0 as they first
+ * occur, so the log holds no session ids or usernames.
+ */
+public final class TrafficLog {
+
+    static final byte[] MAGIC = {'S', 'C', 'A', 'P'};
+    static final int VERSION = 1;
+
+    static final int OUTBOUND = 0x80;
+
+    private TrafficLog() {
+    }
+
+    /**
+     * A captured frame; time is in microseconds since the start of the capture
+     */
+    public static final class Frame {
+
+        private final boolean outbound;
+        private final StompCommand command;
+        private final long timeMicros;
+        private final int session;
+        private final int user;
+        private final String destination;
+        private final int size;
+        private final byte[] payload;
+
+        Frame(boolean outbound, StompCommand command, long timeMicros, int session, int user,
+              String destination, int size, byte[] payload) {
+            this.outbound = outbound;
+            this.command = command;
+            this.timeMicros = timeMicros;
+            this.session = session;
+            this.user = user;
+            this.destination = destination;
+            this.size = size;
+            this.payload = payload;
+        }
+
+        public boolean isOutbound() { return outbound; }
+        public StompCommand getCommand() { return command; }
+        public long getTimeMicros() { return timeMicros; }
+        public int getSession() { return session; }
+        /** The user's number, or -1 if the session was not authenticated */
+        public int getUser() { return user; }
+        public String getDestination() { return destination; }
+        /** Size of the original payload */
+        public int getSize() { return size; }
+        /** The anonymised payload, empty if it was not stored */
+        public byte[] getPayload() { return payload; }
+    }
+
+    /**
+     * Appends frames to a log file; not thread-safe
+     */
+    public static final class Writer implements Closeable {
+
+        private final DataOutputStream out;
+        private final Map<String, Integer> destinations = new HashMap<>();
+        private final long startNanos;
+        private long lastMicros;
+        private long bytesWritten;
+
+        public Writer(Path file, long startEpochMillis) throws IOException {
+            this(Files.newOutputStream(file), startEpochMillis);
+        }
+
+        Writer(OutputStream stream, long startEpochMillis) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(stream, 65536));
+            this.startNanos = System.nanoTime();
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(startEpochMillis);
+            bytesWritten = MAGIC.length + 1 + Long.BYTES;
+        }
+
+        public void write(boolean outbound, StompCommand command, long nanoTime, int session, int user,
+                          String destination, int size, byte[] payload) throws IOException {
+            long micros = Math.max(lastMicros, (nanoTime - startNanos) / 1000);
+            out.writeByte((outbound ? OUTBOUND : 0) | command.ordinal());
+            bytesWritten++;
+            writeVarint(micros - lastMicros);
+            lastMicros = micros;
+            writeVarint(session);
+            writeVarint(user + 1);
+            if (destination == null) {
+                writeVarint(0);
+            } else {
+                Integer known = destinations.get(destination);
+                if (known != null) {
+                    writeVarint(known);
+                } else {
+                    int id = destinations.size() + 1;
+                    destinations.put(destination, id);
+                    writeVarint(id);
+                    writeBytes(destination.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            writeVarint(size);
+            writeBytes(payload != null ? payload : new byte[0]);
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            writeVarint(bytes.length);
+            out.write(bytes);
+            bytesWritten += bytes.length;
+        }
+
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+                bytesWritten++;
+            }
+            out.writeByte((int) value);
+            bytesWritten++;
+        }
+    }
+
+    /**
+     * Reads the frames of a log file in order
+     */
+    public static final class Reader implements Closeable {
+
+        private final DataInputStream in;
+        private final List<String> destinations = new ArrayList<>();
+        private final StompCommand[] commands = StompCommand.values();
+        private final long startEpochMillis;
+        private long micros;
+
+        public Reader(Path file) throws IOException {
+            this(Files.newInputStream(file));
+        }
+
+        Reader(InputStream stream) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(stream, 65536));
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            int version = in.readUnsignedByte();
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                throw new IOException("Not a version " + VERSION + " traffic log");
+            }
+            startEpochMillis = in.readLong();
+            destinations.add(null);
+        }
+
+        public long getStartEpochMillis() {
+            return startEpochMillis;
+        }
+
+        /**
+         * Read the next frame, or null at the end of the log
+         */
+        public Frame next() throws IOException {
+            int kind = in.read();
+            if (kind < 0) {
+                return null;
+            }
+            try {
+                micros += readVarint();
+                int session = (int) readVarint();
+                int user = (int) readVarint() - 1;
+                int destinationId = (int) readVarint();
+                if (destinationId == destinations.size()) {
+                    destinations.add(new String(readBytes(), StandardCharsets.UTF_8));
+                } else if (destinationId > destinations.size()) {
+                    throw new IOException("Corrupt traffic log: unknown destination " + destinationId);
+                }
+                int size = (int) readVarint();
+                byte[] payload = readBytes();
+                int command = kind & ~OUTBOUND;
+                if (command >= commands.length) {
+                    throw new IOException("Corrupt traffic log: unknown command " + command);
+                }
+                return new Frame((kind & OUTBOUND) != 0, commands[command],
+                        micros, session, user, destinations.get(destinationId), size, payload);
+            } catch (EOFException e) {
+                // The recorder was stopped mid-frame
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private byte[] readBytes() throws IOException {
+            byte[] bytes = new byte[(int) readVarint()];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupt traffic log: varint too long");
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.sparkchat.diagnostics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Opt-in capture of the STOMP frames crossing the inbound and outbound client channels
+ *
+ * Frames are appended to a TrafficLog in the capture directory, for the load test's
+ * replayer. Sessions and users are numbered instead of named, and inbound JSON payloads
+ * are anonymised: usernames become user0, user1 and so on, text becomes x's of the same
+ * length, and numbers and message types are kept. Outbound frames are logged with their
+ * size only. Capture stops when the log reaches max-bytes.
+ */
+@Component
+public class TrafficRecorder implements SmartInitializingSingleton, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrafficRecorder.class);
+
+    private static final String USER_PREFIX = "user";
+    private static final Set<String> USER_FIELDS = Set.of("recipient", "username");
+    private static final Set<String> KEPT_FIELDS = Set.of("messageType", "messageTypeString");
+
+    private final ObjectMapper objectMapper;
+
+    private final Map<String, CapturedSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Integer> users = new ConcurrentHashMap<>();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+
+    private final ChannelInterceptor inbound = new ChannelInterceptor() {
+        @Override
+        public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+            // After the other interceptors, so a CONNECT has been authenticated
+            recordInbound(message);
+        }
+    };
+
+    private final ChannelInterceptor outbound = new ChannelInterceptor() {
+        @Override
+        public Message<?> preSend(Message<?> message, MessageChannel channel) {
+            recordOutbound(message);
+            return message;
+        }
+    };
+
+    @Value("${sparkchat.capture.enabled:false}")
+    private boolean enabled;
+
+    @Value("${sparkchat.capture.dir:./data/capture}")
+    private String captureDir;
+
+    @Value("${sparkchat.capture.max-bytes:1073741824}")
+    private long maxBytes;
+
+    @Value("${sparkchat.capture.payloads:true}")
+    private boolean capturePayloads;
+
+    // Written under a lock rather than a monitor, so file I/O does not pin virtual threads
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile TrafficLog.Writer writer;
+    private Path file;
+
+    public TrafficRecorder(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Path dir = Paths.get(captureDir);
+            Files.createDirectories(dir);
+            file = dir.resolve("traffic-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".scap");
+            writer = new TrafficLog.Writer(file, System.currentTimeMillis());
+            logger.info("Capturing STOMP traffic to {}", file);
+        } catch (IOException e) {
+            logger.error("Could not start traffic capture: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Interceptor for the client inbound channel
+     */
+    public ChannelInterceptor inbound() {
+        return inbound;
+    }
+
+    /**
+     * Interceptor for the client outbound channel
+     */
+    public ChannelInterceptor outbound() {
+        return outbound;
+    }
+
+    public boolean isRecording() {
+        return writer != null;
+    }
+
+    @Scheduled(fixedDelayString = "${sparkchat.capture.flush-interval-ms:5000}")
+    public void flush() {
+        writeLock.lock();
+        try {
+            if (writer != null) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            stop("flush failed: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        stop(null);
+    }
+
+    private void recordInbound(Message<?> message) {
+        if (writer == null) {
+            return;
+        }
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null || accessor.getSessionId() == null) {
+            return;
+        }
+        StompCommand command = accessor.getCommand();
+        CapturedSession session;
+        if (command == StompCommand.CONNECT || command == StompCommand.STOMP) {
+            Map<String, Object> attributes = accessor.getSessionAttributes();
+            Object username = attributes != null ? attributes.get("username") : null;
+            session = new CapturedSession(sessionCount.getAndIncrement(),
+                    username != null ? userNumber(username.toString()) : -1);
+            sessions.put(accessor.getSessionId(), session);
+        } else if (command == StompCommand.DISCONNECT) {
+            session = sessions.remove(accessor.getSessionId());
+        } else {
+            session = sessions.get(accessor.getSessionId());
+        }
+        if (session == null) {
+            return;
+        }
+        byte[] payload = (byte[]) message.getPayload();
+        write(false, command, session, accessor.getDestination(), payload.length,
+                capturePayloads ? anonymise(payload) : null);
+    }
+
+    private void recordOutbound(Message<?> message) {
+        if (writer == null) {
+            return;
+        }
+        MessageHeaders headers = message.getHeaders();
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        StompCommand command = accessor != null ? accessor.getCommand()
+                : outboundCommand(SimpMessageHeaderAccessor.getMessageType(headers));
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        CapturedSession session = sessionId != null ? sessions.get(sessionId) : null;
+        if (command == null || session == null) {
+            return;
+        }
+        // User destinations are logged as the client subscribed to them, not per session
+        Object destination = headers.get(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION);
+        if (destination == null) {
+            destination = SimpMessageHeaderAccessor.getDestination(headers);
+        }
+        Object payload = message.getPayload();
+        write(true, command, session, (String) destination, payload instanceof byte[] ? ((byte[]) payload).length : 0, null);
+    }
+
+    private void write(boolean outbound, StompCommand command, CapturedSession session, String destination,
+                       int size, byte[] payload) {
+        long now = System.nanoTime();
+        writeLock.lock();
+        try {
+            if (writer == null) {
+                return;
+            }
+            writer.write(outbound, command, now, session.number, session.user, destination, size, payload);
+            if (writer.getBytesWritten() >= maxBytes) {
+                stop("reached " + maxBytes + " bytes");
+            }
+        } catch (IOException e) {
+            stop("write failed: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void stop(String reason) {
+        writeLock.lock();
+        try {
+            if (writer == null) {
+                return;
+            }
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.warn("Could not close traffic capture {}: {}", file, e.getMessage());
+            }
+            writer = null;
+        } finally {
+            writeLock.unlock();
+        }
+        if (reason != null) {
+            logger.warn("Stopped capturing STOMP traffic to {}: {}", file, reason);
+        } else {
+            logger.info("Stopped capturing STOMP traffic to {}", file);
+        }
+    }
+
+    private int userNumber(String username) {
+        Integer number = users.get(username);
+        if (number == null) {
+            synchronized (users) {
+                number = users.computeIfAbsent(username, u -> users.size());
+            }
+        }
+        return number;
+    }
+
+    byte[] anonymise(byte[] payload) {
+        if (payload.length == 0) {
+            return payload;
+        }
+        try {
+            return objectMapper.writeValueAsBytes(anonymise(objectMapper.readTree(payload), null));
+        } catch (IOException e) {
+            byte[] filler = new byte[payload.length];
+            Arrays.fill(filler, (byte) 'x');
+            return filler;
+        }
+    }
+
+    private JsonNode anonymise(JsonNode node, String field) {
+        if (node instanceof ObjectNode) {
+            ObjectNode object = (ObjectNode) node;
+            for (Iterator<Map.Entry<String, JsonNode>> it = object.fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> child = it.next();
+                child.setValue(anonymise(child.getValue(), child.getKey()));
+            }
+        } else if (node instanceof ArrayNode) {
+            ArrayNode array = (ArrayNode) node;
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, anonymise(array.get(i), field));
+            }
+        } else if (node.isTextual()) {
+            if (USER_FIELDS.contains(field)) {
+                return TextNode.valueOf(USER_PREFIX + userNumber(node.asText()));
+            }
+            if (!KEPT_FIELDS.contains(field)) {
+                return TextNode.valueOf("x".repeat(node.asText().length()));
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Frames the broker sends carry a message type rather than a STOMP command
+     */
+    private static StompCommand outboundCommand(SimpMessageType type) {
+        if (type == SimpMessageType.MESSAGE) {
+            return StompCommand.MESSAGE;
+        }
+        if (type == SimpMessageType.CONNECT_ACK) {
+            return StompCommand.CONNECTED;
+        }
+        return null;
+    }
+
+    private static final class CapturedSession {
+
+        final int number;
+        final int user;
+
+        CapturedSession(int number, int user) {
+            this.number = number;
+            this.user = user;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.sparkchat.dto;
+
+import com.sparkchat.model.Attachment;
+
+import java.time.LocalDateTime;
+
+/**
+ * Metadata of a stored attachment; {@code url} is what clients put in a message's fileUrl.
+ */
+public class AttachmentDto {
+    
+    private Long id;
+    private Long chatRoomId;
+    private String fileName;
+    private String contentType;
+    private long size;
+    private String sha256;
+    private String url;
+    private LocalDateTime createdAt;
+    
+    // Constructors
+    public AttachmentDto() {}
+    
+    public AttachmentDto(Attachment attachment) {
+        this.id = attachment.getId();
+        this.chatRoomId = attachment.getChatRoomId();
+        this.fileName = attachment.getFileName();
+        this.contentType = attachment.getContentType();
+        this.size = attachment.getSize();
+        this.sha256 = attachment.getContentDigest();
+        this.url = "/api/attachments/" + attachment.getId();
+        this.createdAt = attachment.getCreatedAt();
+    }
+    
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public Long getChatRoomId() { return chatRoomId; }
+    public void setChatRoomId(Long chatRoomId) { this.chatRoomId = chatRoomId; }
+    
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+    
+    public String getContentType() { return contentType; }
+    public void setContentType(String contentType) { this.contentType = contentType; }
+    
+    public long getSize() { return size; }
+    public void setSize(long size) { this.size = size; }
+    
+    public String getSha256() { return sha256; }
+    public void setSha256(String sha256) { this.sha256 = sha256; }
+    
+    public String getUrl() { return url; }
+    public void setUrl(String url) { this.url = url; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
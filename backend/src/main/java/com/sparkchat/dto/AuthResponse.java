@@ -4,6 +4,7 @@ public class AuthResponse {
     
     private String token;
     private String type = "Bearer";
+    private String refreshToken;
     private UserDto user;
     
     // Constructors
@@ -14,6 +15,12 @@ public class AuthResponse {
         this.user = user;
     }
     
+    public AuthResponse(String token, String refreshToken, UserDto user) {
+        this.token = token;
+        this.refreshToken = refreshToken;
+        this.user = user;
+    }
+    
     // Getters and Setters
     public String getToken() { return token; }
     public void setToken(String token) { this.token = token; }
@@ -21,6 +28,9 @@ public class AuthResponse {
     public String getType() { return type; }
     public void setType(String type) { this.type = type; }
     
+    public String getRefreshToken() { return refreshToken; }
+    public void setRefreshToken(String refreshToken) { this.refreshToken = refreshToken; }
+    
     public UserDto getUser() { return user; }
     public void setUser(UserDto user) { this.user = user; }
 }
\ No newline at end of file
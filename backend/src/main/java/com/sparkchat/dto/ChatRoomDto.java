@@ -0,0 +1,51 @@
+package com.sparkchat.dto;
+
+import com.sparkchat.model.ChatRoom;
+
+import java.time.LocalDateTime;
+
+public class ChatRoomDto {
+    
+    private Long id;
+    private String name;
+    private String description;
+    private ChatRoom.RoomType roomType;
+    private int memberCount;
+    private Integer maxMembers;
+    private LocalDateTime createdAt;
+    
+    // Constructors
+    public ChatRoomDto() {}
+    
+    public ChatRoomDto(ChatRoom chatRoom, int memberCount) {
+        this.id = chatRoom.getId();
+        this.name = chatRoom.getName();
+        this.description = chatRoom.getDescription();
+        this.roomType = chatRoom.getRoomType();
+        this.memberCount = memberCount;
+        this.maxMembers = chatRoom.getMaxMembers();
+        this.createdAt = chatRoom.getCreatedAt();
+    }
+    
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    
+    public String getDescription() { return description; }
+    public void setDescription(String description) { this.description = description; }
+    
+    public ChatRoom.RoomType getRoomType() { return roomType; }
+    public void setRoomType(ChatRoom.RoomType roomType) { this.roomType = roomType; }
+    
+    public int getMemberCount() { return memberCount; }
+    public void setMemberCount(int memberCount) { this.memberCount = memberCount; }
+    
+    public Integer getMaxMembers() { return maxMembers; }
+    public void setMaxMembers(Integer maxMembers) { this.maxMembers = maxMembers; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,31 @@
+package com.sparkchat.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CreateRoomRequest {
+    
+    @NotBlank(message = "Room name is required")
+    @Size(max = 100, message = "Room name must be at most 100 characters")
+    private String name;
+    
+    private String description;
+    
+    private List<String> members = new ArrayList<>();
+    
+    // Constructors
+    public CreateRoomRequest() {}
+    
+    // Getters and Setters
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    
+    public String getDescription() { return description; }
+    public void setDescription(String description) { this.description = description; }
+    
+    public List<String> getMembers() { return members; }
+    public void setMembers(List<String> members) { this.members = members; }
+}
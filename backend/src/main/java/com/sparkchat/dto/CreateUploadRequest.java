@@ -0,0 +1,42 @@
+package com.sparkchat.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+
+/**
+ * Starts a chunked upload. When sha256 names content that is already stored, the
+ * attachment is created immediately and no bytes need to be sent.
+ */
+public class CreateUploadRequest {
+    
+    @NotNull
+    private Long roomId;
+    
+    @NotBlank
+    private String fileName;
+    
+    private String contentType;
+    
+    @Positive
+    private long size;
+    
+    // Optional lowercase hex SHA-256 of the whole file
+    private String sha256;
+    
+    // Getters and Setters
+    public Long getRoomId() { return roomId; }
+    public void setRoomId(Long roomId) { this.roomId = roomId; }
+    
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+    
+    public String getContentType() { return contentType; }
+    public void setContentType(String contentType) { this.contentType = contentType; }
+    
+    public long getSize() { return size; }
+    public void setSize(long size) { this.size = size; }
+    
+    public String getSha256() { return sha256; }
+    public void setSha256(String sha256) { this.sha256 = sha256; }
+}
@@ -16,6 +16,8 @@ public class MessageDto {
     private String fileUrl;
     private String fileName;
     private Long fileSize;
+    private String thumbnailUrl;
+    private String blurhash;
     private Integer selfDestructTimer;
     private LocalDateTime expiresAt;
     private LocalDateTime sentAt;
@@ -33,6 +35,8 @@ public class MessageDto {
         this.fileUrl = message.getFileUrl();
         this.fileName = message.getFileName();
         this.fileSize = message.getFileSize();
+        this.thumbnailUrl = message.getThumbnailUrl();
+        this.blurhash = message.getBlurhash();
         this.selfDestructTimer = message.getSelfDestructTimer();
         this.expiresAt = message.getExpiresAt();
         this.sentAt = message.getSentAt();
@@ -83,6 +87,12 @@ public class MessageDto {
     public Long getFileSize() { return fileSize; }
     public void setFileSize(Long fileSize) { this.fileSize = fileSize; }
     
+    public String getThumbnailUrl() { return thumbnailUrl; }
+    public void setThumbnailUrl(String thumbnailUrl) { this.thumbnailUrl = thumbnailUrl; }
+    
+    public String getBlurhash() { return blurhash; }
+    public void setBlurhash(String blurhash) { this.blurhash = blurhash; }
+    
     public Integer getSelfDestructTimer() { return selfDestructTimer; }
     public void setSelfDestructTimer(Integer selfDestructTimer) { this.selfDestructTimer = selfDestructTimer; }
     
@@ -0,0 +1,43 @@
+package com.sparkchat.dto;
+
+/**
+ * Delivery/read acknowledgement sent by clients, and the receipt update pushed back to rooms.
+ * 
+ * Both ids are high-water marks: acknowledging message 42 as read also covers every
+ * earlier message in the same room.
+ */
+public class ReceiptDto {
+    
+    private Long chatRoomId;
+    private Long userId;
+    private String username;
+    private Long deliveredMessageId;
+    private Long readMessageId;
+    
+    // Constructors
+    public ReceiptDto() {}
+    
+    public ReceiptDto(Long chatRoomId, Long userId, String username, Long deliveredMessageId, Long readMessageId) {
+        this.chatRoomId = chatRoomId;
+        this.userId = userId;
+        this.username = username;
+        this.deliveredMessageId = deliveredMessageId;
+        this.readMessageId = readMessageId;
+    }
+    
+    // Getters and Setters
+    public Long getChatRoomId() { return chatRoomId; }
+    public void setChatRoomId(Long chatRoomId) { this.chatRoomId = chatRoomId; }
+    
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+    
+    public String getUsername() { return username; }
+    public void setUsername(String username) { this.username = username; }
+    
+    public Long getDeliveredMessageId() { return deliveredMessageId; }
+    public void setDeliveredMessageId(Long deliveredMessageId) { this.deliveredMessageId = deliveredMessageId; }
+    
+    public Long getReadMessageId() { return readMessageId; }
+    public void setReadMessageId(Long readMessageId) { this.readMessageId = readMessageId; }
+}
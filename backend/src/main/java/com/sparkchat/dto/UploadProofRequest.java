@@ -0,0 +1,17 @@
+package com.sparkchat.dto;
+
+import jakarta.validation.constraints.NotBlank;
+
+/**
+ * Answers a proof-of-possession challenge: the hex SHA-256 of the nonce's bytes followed
+ * by the requested byte ranges of the file, in order.
+ */
+public class UploadProofRequest {
+    
+    @NotBlank
+    private String proof;
+    
+    // Getters and Setters
+    public String getProof() { return proof; }
+    public void setProof(String proof) { this.proof = proof; }
+}
@@ -0,0 +1,65 @@
+package com.sparkchat.dto;
+
+import java.util.List;
+
+/**
+ * State of a chunked upload; once complete, {@code attachment} holds the stored file.
+ * With {@code proofNonce} set, the client may skip the upload by proving it has the file:
+ * see ChunkedUploadService.prove.
+ */
+public class UploadSessionDto {
+    
+    private String uploadId;
+    private boolean complete;
+    private int chunkSize;
+    private int totalChunks;
+    private List<Integer> receivedChunks;
+    private AttachmentDto attachment;
+    private String proofNonce;
+    // Each an [offset, length] pair of bytes to hash after the nonce
+    private List<long[]> proofRanges;
+    
+    // Constructors
+    public UploadSessionDto() {}
+    
+    public static UploadSessionDto completed(AttachmentDto attachment) {
+        UploadSessionDto dto = new UploadSessionDto();
+        dto.setComplete(true);
+        dto.setAttachment(attachment);
+        return dto;
+    }
+    
+    public static UploadSessionDto inProgress(String uploadId, int chunkSize, int totalChunks, List<Integer> receivedChunks) {
+        UploadSessionDto dto = new UploadSessionDto();
+        dto.setUploadId(uploadId);
+        dto.setChunkSize(chunkSize);
+        dto.setTotalChunks(totalChunks);
+        dto.setReceivedChunks(receivedChunks);
+        return dto;
+    }
+    
+    // Getters and Setters
+    public String getUploadId() { return uploadId; }
+    public void setUploadId(String uploadId) { this.uploadId = uploadId; }
+    
+    public boolean isComplete() { return complete; }
+    public void setComplete(boolean complete) { this.complete = complete; }
+    
+    public int getChunkSize() { return chunkSize; }
+    public void setChunkSize(int chunkSize) { this.chunkSize = chunkSize; }
+    
+    public int getTotalChunks() { return totalChunks; }
+    public void setTotalChunks(int totalChunks) { this.totalChunks = totalChunks; }
+    
+    public List<Integer> getReceivedChunks() { return receivedChunks; }
+    public void setReceivedChunks(List<Integer> receivedChunks) { this.receivedChunks = receivedChunks; }
+    
+    public String getProofNonce() { return proofNonce; }
+    public void setProofNonce(String proofNonce) { this.proofNonce = proofNonce; }
+    
+    public List<long[]> getProofRanges() { return proofRanges; }
+    public void setProofRanges(List<long[]> proofRanges) { this.proofRanges = proofRanges; }
+    
+    public AttachmentDto getAttachment() { return attachment; }
+    public void setAttachment(AttachmentDto attachment) { this.attachment = attachment; }
+}
@@ -0,0 +1,98 @@
+package com.sparkchat.model;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * A file uploaded to a chat room and stored on local disk.
+ *
+ * Attachments are per-room records that point at a content-addressed StoredBlob, so
+ * the same file posted to many rooms is stored once. Stored content is immutable and
+ * its digest doubles as a strong ETag.
+ */
+@Entity
+@Table(name = "attachments", indexes = {
+    @Index(name = "idx_attachments_room", columnList = "chat_room_id"),
+    @Index(name = "idx_attachments_digest", columnList = "content_digest")
+})
+public class Attachment {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "chat_room_id", nullable = false)
+    private Long chatRoomId;
+
+    @Column(name = "uploader_id", nullable = false)
+    private Long uploaderId;
+
+    @Column(name = "file_name", nullable = false)
+    private String fileName;
+
+    @Column(name = "content_type", nullable = false, length = 100)
+    private String contentType;
+
+    @Column(name = "file_size", nullable = false)
+    private long size;
+
+    // SHA-256 of the content; null only for attachments stored before deduplication
+    @Column(name = "content_digest", length = 64)
+    private String contentDigest;
+
+    // Path relative to the attachment storage directory
+    @Column(name = "storage_key", nullable = false)
+    private String storageKey;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    // Constructors
+    public Attachment() {}
+
+    public Attachment(Long chatRoomId, Long uploaderId, String fileName, String contentType) {
+        this.chatRoomId = chatRoomId;
+        this.uploaderId = uploaderId;
+        this.fileName = fileName;
+        this.contentType = contentType;
+    }
+
+    // Helper methods
+    public String getETag() {
+        return contentDigest != null ? "\"" + contentDigest + "\"" : "\"a" + id + "-" + size + "\"";
+    }
+
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getChatRoomId() { return chatRoomId; }
+    public void setChatRoomId(Long chatRoomId) { this.chatRoomId = chatRoomId; }
+
+    public Long getUploaderId() { return uploaderId; }
+    public void setUploaderId(Long uploaderId) { this.uploaderId = uploaderId; }
+
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+
+    public String getContentType() { return contentType; }
+    public void setContentType(String contentType) { this.contentType = contentType; }
+
+    public long getSize() { return size; }
+    public void setSize(long size) { this.size = size; }
+
+    public String getContentDigest() { return contentDigest; }
+    public void setContentDigest(String contentDigest) { this.contentDigest = contentDigest; }
+
+    public String getStorageKey() { return storageKey; }
+    public void setStorageKey(String storageKey) { this.storageKey = storageKey; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,101 @@
+package com.sparkchat.model;
+
+import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
+
+import java.time.LocalDateTime;
+
+/**
+ * Persisted snapshot of an in-memory chat counter.
+ *
+ * A row with {@code userId == ROOM_TOTAL} holds the number of live messages in a room,
+ * any other row holds the unread count of one member of that room. Rows are written
+ * in batches by the counter flush and are never read on the badge path.
+ */
+@Entity
+@Table(name = "chat_counters")
+@IdClass(RoomMemberKey.class)
+public class ChatCounter implements Persistable<RoomMemberKey> {
+
+    public static final long ROOM_TOTAL = 0L;
+
+    @Id
+    @Column(name = "chat_room_id")
+    private Long chatRoomId;
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "counter_value", nullable = false)
+    private long value;
+
+    // Highest message id already reflected in value, used to reconcile after a crash
+    @Column(name = "last_message_id", nullable = false)
+    private long lastMessageId;
+
+    // Read position of the user for unread rows, 0 for room totals
+    @Column(name = "read_up_to", nullable = false)
+    private long readUpTo;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    // Lets saveAll() insert new rows without a merge round trip
+    @Transient
+    private boolean isNew = true;
+
+    // Constructors
+    public ChatCounter() {}
+
+    public ChatCounter(Long chatRoomId, Long userId) {
+        this.chatRoomId = chatRoomId;
+        this.userId = userId;
+    }
+
+    // Helper methods
+    public boolean isRoomTotal() {
+        return userId != null && userId == ROOM_TOTAL;
+    }
+
+    @Override
+    public RoomMemberKey getId() {
+        return new RoomMemberKey(chatRoomId, userId);
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    // Getters and Setters
+    public Long getChatRoomId() { return chatRoomId; }
+    public void setChatRoomId(Long chatRoomId) { this.chatRoomId = chatRoomId; }
+
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+
+    public long getValue() { return value; }
+    public void setValue(long value) { this.value = value; }
+
+    public long getLastMessageId() { return lastMessageId; }
+    public void setLastMessageId(long lastMessageId) { this.lastMessageId = lastMessageId; }
+
+    public long getReadUpTo() { return readUpTo; }
+    public void setReadUpTo(long readUpTo) { this.readUpTo = readUpTo; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+
+    @PrePersist
+    @PreUpdate
+    protected void onWrite() {
+        updatedAt = LocalDateTime.now();
+    }
+
+    @PostLoad
+    @PostPersist
+    protected void markNotNew() {
+        isNew = false;
+    }
+}
@@ -1,8 +1,11 @@
 package com.sparkchat.model;
 
+import com.sparkchat.config.SecondLevelCacheConfig;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.time.LocalDateTime;
 import java.util.HashSet;
@@ -10,6 +13,7 @@ import java.util.Set;
 
 @Entity
 @Table(name = "chat_rooms")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = SecondLevelCacheConfig.CHAT_ROOMS)
 public class ChatRoom {
     
     @Id
@@ -20,6 +24,11 @@ public class ChatRoom {
     @Size(max = 100)
     private String name;
     
+    // Key of the rooms the server creates and finds again, DM rooms and the public room;
+    // unique, so each exists once. Rooms users create have none, whatever their name.
+    @Column(name = "system_key", unique = true, length = 64)
+    private String systemKey;
+    
     @Column(columnDefinition = "TEXT")
     private String description;
     
@@ -32,6 +41,7 @@ public class ChatRoom {
     private User createdBy;
     
     @ManyToMany(fetch = FetchType.LAZY)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = SecondLevelCacheConfig.CHAT_ROOM_MEMBERS)
     @JoinTable(
         name = "chat_room_members",
         joinColumns = @JoinColumn(name = "chat_room_id"),
@@ -90,6 +100,9 @@ public class ChatRoom {
     public String getName() { return name; }
     public void setName(String name) { this.name = name; }
     
+    public String getSystemKey() { return systemKey; }
+    public void setSystemKey(String systemKey) { this.systemKey = systemKey; }
+    
     public String getDescription() { return description; }
     public void setDescription(String description) { this.description = description; }
     
@@ -0,0 +1,65 @@
+package com.sparkchat.model;
+
+import jakarta.persistence.*;
+import org.hibernate.Length;
+
+import java.time.LocalDateTime;
+
+/**
+ * A zstd dictionary trained on recent message content.
+ *
+ * Messages record the version of the dictionary their content was packed with, so
+ * every version stays stored and loaded for as long as rows may refer to it; new
+ * content is always packed with the highest version.
+ */
+@Entity
+@Table(name = "compression_dictionaries")
+public class CompressionDictionary {
+
+    @Id
+    @Column(name = "version")
+    private Integer version;
+
+    @Column(name = "dictionary", nullable = false, length = Length.LONG32)
+    private byte[] dictionary;
+
+    @Column(name = "sample_count", nullable = false)
+    private int sampleCount;
+
+    @Column(name = "sample_bytes", nullable = false)
+    private long sampleBytes;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    // Constructors
+    public CompressionDictionary() {}
+
+    public CompressionDictionary(Integer version, byte[] dictionary, int sampleCount, long sampleBytes) {
+        this.version = version;
+        this.dictionary = dictionary;
+        this.sampleCount = sampleCount;
+        this.sampleBytes = sampleBytes;
+    }
+
+    // Getters and Setters
+    public Integer getVersion() { return version; }
+    public void setVersion(Integer version) { this.version = version; }
+
+    public byte[] getDictionary() { return dictionary; }
+    public void setDictionary(byte[] dictionary) { this.dictionary = dictionary; }
+
+    public int getSampleCount() { return sampleCount; }
+    public void setSampleCount(int sampleCount) { this.sampleCount = sampleCount; }
+
+    public long getSampleBytes() { return sampleBytes; }
+    public void setSampleBytes(long sampleBytes) { this.sampleBytes = sampleBytes; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
@@ -1,25 +1,55 @@
 package com.sparkchat.model;
 
 import jakarta.persistence.*;
-import jakarta.validation.constraints.NotBlank;
+import org.hibernate.Length;
 
 import java.time.LocalDateTime;
 
+/**
+ * A chat message.
+ *
+ * content and encryptedContent are not mapped directly: MessageContentListener packs
+ * content into the binary content_packed column with the current compression dictionary
+ * on write, and unpacks it on load. Rows written before any dictionary existed keep
+ * their text in the original content column and are read from there. Encrypted content
+ * is stored uncompressed in encrypted_content; encrypted_content_packed is only read,
+ * for rows written when ciphertext was packed too.
+ */
 @Entity
-@Table(name = "messages")
+@EntityListeners(MessageContentListener.class)
+@Table(name = "messages", indexes = {
+    @Index(name = "idx_messages_content_digest", columnList = "content_digest")
+})
 public class Message {
     
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
     
-    @NotBlank
-    @Column(columnDefinition = "TEXT")
+    @Transient
     private String content;
     
-    @Column(name = "encrypted_content", columnDefinition = "TEXT")
+    @Transient
     private String encryptedContent;
     
+    // Uncompressed content, used while contentDictVersion is null
+    @Column(name = "content", columnDefinition = "TEXT")
+    private String storedContent;
+    
+    @Column(name = "encrypted_content", columnDefinition = "TEXT")
+    private String storedEncryptedContent;
+    
+    @Column(name = "content_packed", length = Length.LONG32)
+    private byte[] packedContent;
+    
+    // Only present on rows written when ciphertext was packed as well
+    @Column(name = "encrypted_content_packed", length = Length.LONG32)
+    private byte[] packedEncryptedContent;
+    
+    // Dictionary the packed columns were written with; null for uncompressed rows
+    @Column(name = "content_dict_version")
+    private Integer contentDictVersion;
+    
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "sender_id", nullable = false)
     private User sender;
@@ -41,6 +71,17 @@ public class Message {
     @Column(name = "file_size")
     private Long fileSize;
     
+    // Digest of the attached StoredBlob, holding one reference to it while the message is live
+    @Column(name = "content_digest", length = 64)
+    private String contentDigest;
+    
+    // Image preview, filled in once the background thumbnail job has finished
+    @Column(name = "thumbnail_url")
+    private String thumbnailUrl;
+    
+    @Column(name = "blurhash", length = 64)
+    private String blurhash;
+    
     // Self-destructing message feature
     @Column(name = "self_destruct_timer")
     private Integer selfDestructTimer; // in seconds
@@ -61,7 +102,7 @@ public class Message {
     public Message() {}
     
     public Message(String content, User sender, ChatRoom chatRoom) {
-        this.content = content;
+        setContent(content);
         this.sender = sender;
         this.chatRoom = chatRoom;
         this.sentAt = LocalDateTime.now();
@@ -94,10 +135,41 @@ public class Message {
     public void setId(Long id) { this.id = id; }
     
     public String getContent() { return content; }
-    public void setContent(String content) { this.content = content; }
+    public void setContent(String content) { 
+        // Stored uncompressed until the listener packs it on flush, which also makes the row dirty
+        this.content = content;
+        this.storedContent = content;
+        this.packedContent = null;
+    }
     
     public String getEncryptedContent() { return encryptedContent; }
-    public void setEncryptedContent(String encryptedContent) { this.encryptedContent = encryptedContent; }
+    public void setEncryptedContent(String encryptedContent) { 
+        this.encryptedContent = encryptedContent;
+        this.storedEncryptedContent = encryptedContent;
+        this.packedEncryptedContent = null;
+    }
+    
+    // Sets the content read from the stored form without touching the stored columns
+    void restoreContent(String content, String encryptedContent) {
+        this.content = content;
+        this.encryptedContent = encryptedContent;
+    }
+    
+    // Stored form of the content, maintained by MessageContentListener
+    public String getStoredContent() { return storedContent; }
+    public void setStoredContent(String storedContent) { this.storedContent = storedContent; }
+    
+    public String getStoredEncryptedContent() { return storedEncryptedContent; }
+    public void setStoredEncryptedContent(String storedEncryptedContent) { this.storedEncryptedContent = storedEncryptedContent; }
+    
+    public byte[] getPackedContent() { return packedContent; }
+    public void setPackedContent(byte[] packedContent) { this.packedContent = packedContent; }
+    
+    public byte[] getPackedEncryptedContent() { return packedEncryptedContent; }
+    public void setPackedEncryptedContent(byte[] packedEncryptedContent) { this.packedEncryptedContent = packedEncryptedContent; }
+    
+    public Integer getContentDictVersion() { return contentDictVersion; }
+    public void setContentDictVersion(Integer contentDictVersion) { this.contentDictVersion = contentDictVersion; }
     
     public User getSender() { return sender; }
     public void setSender(User sender) { this.sender = sender; }
@@ -117,6 +189,15 @@ public class Message {
     public Long getFileSize() { return fileSize; }
     public void setFileSize(Long fileSize) { this.fileSize = fileSize; }
     
+    public String getContentDigest() { return contentDigest; }
+    public void setContentDigest(String contentDigest) { this.contentDigest = contentDigest; }
+    
+    public String getThumbnailUrl() { return thumbnailUrl; }
+    public void setThumbnailUrl(String thumbnailUrl) { this.thumbnailUrl = thumbnailUrl; }
+    
+    public String getBlurhash() { return blurhash; }
+    public void setBlurhash(String blurhash) { this.blurhash = blurhash; }
+    
     public Integer getSelfDestructTimer() { return selfDestructTimer; }
     public void setSelfDestructTimer(Integer selfDestructTimer) { 
         this.selfDestructTimer = selfDestructTimer;
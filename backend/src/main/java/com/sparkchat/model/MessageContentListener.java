@@ -0,0 +1,77 @@
+package com.sparkchat.model;
+
+import com.sparkchat.service.MessageContentCompressor;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+
+/**
+ * Packs message content into its compressed columns on write and unpacks it on load.
+ *
+ * Encrypted content is stored as it is: ciphertext has no repetition for a dictionary
+ * to exploit. Rows packed before that still carry it in the packed column and are read
+ * from there.
+ *
+ * The content is checked for blankness here rather than by a constraint on the entity,
+ * since the field holding it is not mapped and its column is empty once packed.
+ *
+ * Created by Hibernate through Spring, so the compressor is injected; it is looked up
+ * lazily because listeners are built while the entity manager factory that the
+ * compressor's repositories need is still being created.
+ */
+public class MessageContentListener {
+
+    private final ObjectProvider<MessageContentCompressor> compressorProvider;
+
+    public MessageContentListener(ObjectProvider<MessageContentCompressor> compressorProvider) {
+        this.compressorProvider = compressorProvider;
+    }
+
+    @PrePersist
+    @PreUpdate
+    public void pack(Message message) {
+        if (message.getContent() == null || message.getContent().isBlank()) {
+            throw new IllegalArgumentException("Message content must not be blank");
+        }
+        MessageContentCompressor compressor = compressorProvider.getObject();
+        Integer version = compressor.getCurrentVersion();
+        if (message.getPackedEncryptedContent() != null) {
+            message.setStoredEncryptedContent(message.getEncryptedContent());
+            message.setPackedEncryptedContent(null);
+        }
+        if (version == null) {
+            message.setStoredContent(message.getContent());
+            message.setPackedContent(null);
+            message.setContentDictVersion(null);
+            return;
+        }
+        if (isPackedWith(message, version)) {
+            return;
+        }
+
+        message.setPackedContent(compressor.pack(message.getContent(), version));
+        message.setStoredContent(null);
+        message.setContentDictVersion(version);
+    }
+
+    @PostLoad
+    public void unpack(Message message) {
+        Integer version = message.getContentDictVersion();
+        if (version == null) {
+            message.restoreContent(message.getStoredContent(), message.getStoredEncryptedContent());
+            return;
+        }
+        MessageContentCompressor compressor = compressorProvider.getObject();
+        String encryptedContent = message.getPackedEncryptedContent() != null
+            ? compressor.unpack(message.getPackedEncryptedContent(), version)
+            : message.getStoredEncryptedContent();
+        message.restoreContent(compressor.unpack(message.getPackedContent(), version), encryptedContent);
+    }
+
+    // The content setter clears the packed column, so a packed value is always current
+    private static boolean isPackedWith(Message message, int version) {
+        return Integer.valueOf(version).equals(message.getContentDictVersion())
+            && message.getPackedContent() != null;
+    }
+}
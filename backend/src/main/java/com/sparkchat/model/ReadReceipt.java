@@ -0,0 +1,91 @@
+package com.sparkchat.model;
+
+import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
+
+import java.time.LocalDateTime;
+
+/**
+ * Delivery and read high-water marks of one user in one chat room.
+ *
+ * A single row per member and room records the highest message id delivered to and
+ * read by that member, so acknowledging a message never writes per-message state.
+ */
+@Entity
+@Table(name = "read_receipts")
+@IdClass(RoomMemberKey.class)
+public class ReadReceipt implements Persistable<RoomMemberKey> {
+
+    @Id
+    @Column(name = "chat_room_id")
+    private Long chatRoomId;
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "delivered_message_id", nullable = false)
+    private long deliveredMessageId;
+
+    @Column(name = "read_message_id", nullable = false)
+    private long readMessageId;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    // Lets saveAll() insert new rows without a merge round trip
+    @Transient
+    private boolean isNew = true;
+
+    // Constructors
+    public ReadReceipt() {}
+
+    public ReadReceipt(Long chatRoomId, Long userId) {
+        this.chatRoomId = chatRoomId;
+        this.userId = userId;
+    }
+
+    // Helper methods
+    public void advanceTo(long deliveredMessageId, long readMessageId) {
+        this.deliveredMessageId = Math.max(this.deliveredMessageId, deliveredMessageId);
+        this.readMessageId = Math.max(this.readMessageId, readMessageId);
+    }
+
+    @Override
+    public RoomMemberKey getId() {
+        return new RoomMemberKey(chatRoomId, userId);
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    // Getters and Setters
+    public Long getChatRoomId() { return chatRoomId; }
+    public void setChatRoomId(Long chatRoomId) { this.chatRoomId = chatRoomId; }
+
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+
+    public long getDeliveredMessageId() { return deliveredMessageId; }
+    public void setDeliveredMessageId(long deliveredMessageId) { this.deliveredMessageId = deliveredMessageId; }
+
+    public long getReadMessageId() { return readMessageId; }
+    public void setReadMessageId(long readMessageId) { this.readMessageId = readMessageId; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+
+    @PrePersist
+    @PreUpdate
+    protected void onWrite() {
+        updatedAt = LocalDateTime.now();
+    }
+
+    @PostLoad
+    @PostPersist
+    protected void markNotNew() {
+        isNew = false;
+    }
+}
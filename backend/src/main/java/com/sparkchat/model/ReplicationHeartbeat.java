@@ -0,0 +1,37 @@
+package com.sparkchat.model;
+
+import jakarta.persistence.*;
+
+/**
+ * A timestamp the primary rewrites every probe interval; how old a replica's copy of it
+ * is tells how far that replica lags behind.
+ */
+@Entity
+@Table(name = "replication_heartbeat")
+public class ReplicationHeartbeat {
+
+    public static final long ID = 1;
+
+    @Id
+    @Column(name = "id")
+    private Long id;
+
+    // Epoch millis, so the lag does not depend on the database's time zone
+    @Column(name = "beat_at", nullable = false)
+    private long beatAt;
+
+    // Constructors
+    public ReplicationHeartbeat() {}
+
+    public ReplicationHeartbeat(Long id, long beatAt) {
+        this.id = id;
+        this.beatAt = beatAt;
+    }
+
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public long getBeatAt() { return beatAt; }
+    public void setBeatAt(long beatAt) { this.beatAt = beatAt; }
+}
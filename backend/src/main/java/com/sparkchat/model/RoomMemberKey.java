@@ -0,0 +1,36 @@
+package com.sparkchat.model;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Composite primary key of per-member, per-room rows (counters and receipts)
+ */
+public class RoomMemberKey implements Serializable {
+
+    private Long chatRoomId;
+    private Long userId;
+
+    public RoomMemberKey() {}
+
+    public RoomMemberKey(Long chatRoomId, Long userId) {
+        this.chatRoomId = chatRoomId;
+        this.userId = userId;
+    }
+
+    public Long getChatRoomId() { return chatRoomId; }
+    public Long getUserId() { return userId; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RoomMemberKey)) return false;
+        RoomMemberKey key = (RoomMemberKey) o;
+        return Objects.equals(chatRoomId, key.chatRoomId) && Objects.equals(userId, key.userId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(chatRoomId, userId);
+    }
+}
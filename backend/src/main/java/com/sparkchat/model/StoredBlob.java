@@ -0,0 +1,96 @@
+package com.sparkchat.model;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * A file stored once on disk under the SHA-256 digest of its content.
+ *
+ * Any number of attachments may point at the same blob. refCount counts the live
+ * messages that carry it; a blob nobody has referenced for the grace period is
+ * garbage collected together with its attachments.
+ */
+@Entity
+@Table(name = "stored_blobs")
+public class StoredBlob {
+
+    @Id
+    @Column(name = "digest", length = 64)
+    private String digest;
+
+    @Column(name = "blob_size", nullable = false)
+    private long size;
+
+    // Path relative to the attachment storage directory
+    @Column(name = "storage_key", nullable = false)
+    private String storageKey;
+
+    @Column(name = "ref_count", nullable = false)
+    private long refCount;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    // Last time the blob was uploaded, attached or referenced, used by garbage collection
+    @Column(name = "last_used_at")
+    private LocalDateTime lastUsedAt;
+
+    // Image preview, generated in the background; null until the content has been processed
+    @Enumerated(EnumType.STRING)
+    @Column(name = "preview_status", length = 16)
+    private PreviewStatus previewStatus;
+
+    @Column(name = "thumbnail_key")
+    private String thumbnailKey;
+
+    @Column(name = "blurhash", length = 64)
+    private String blurhash;
+
+    // Constructors
+    public StoredBlob() {}
+
+    public StoredBlob(String digest, long size, String storageKey) {
+        this.digest = digest;
+        this.size = size;
+        this.storageKey = storageKey;
+    }
+
+    // Getters and Setters
+    public String getDigest() { return digest; }
+    public void setDigest(String digest) { this.digest = digest; }
+
+    public long getSize() { return size; }
+    public void setSize(long size) { this.size = size; }
+
+    public String getStorageKey() { return storageKey; }
+    public void setStorageKey(String storageKey) { this.storageKey = storageKey; }
+
+    public long getRefCount() { return refCount; }
+    public void setRefCount(long refCount) { this.refCount = refCount; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public LocalDateTime getLastUsedAt() { return lastUsedAt; }
+    public void setLastUsedAt(LocalDateTime lastUsedAt) { this.lastUsedAt = lastUsedAt; }
+
+    public PreviewStatus getPreviewStatus() { return previewStatus; }
+    public void setPreviewStatus(PreviewStatus previewStatus) { this.previewStatus = previewStatus; }
+
+    public String getThumbnailKey() { return thumbnailKey; }
+    public void setThumbnailKey(String thumbnailKey) { this.thumbnailKey = thumbnailKey; }
+
+    public String getBlurhash() { return blurhash; }
+    public void setBlurhash(String blurhash) { this.blurhash = blurhash; }
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        lastUsedAt = createdAt;
+    }
+
+    public enum PreviewStatus {
+        READY, UNSUPPORTED
+    }
+}
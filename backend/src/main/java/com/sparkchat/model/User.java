@@ -1,9 +1,15 @@
 package com.sparkchat.model;
 
+import com.sparkchat.config.SecondLevelCacheConfig;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.Email;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
@@ -13,6 +19,10 @@ import java.util.Collections;
 
 @Entity
 @Table(name = "users")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = SecondLevelCacheConfig.USERS)
+@NaturalIdCache(region = SecondLevelCacheConfig.USERS_BY_USERNAME)
+// Members of a cached room that are not cached themselves are loaded in batches
+@BatchSize(size = 100)
 public class User implements UserDetails {
     
     @Id
@@ -21,6 +31,7 @@ public class User implements UserDetails {
     
     @NotBlank
     @Size(min = 3, max = 50)
+    @NaturalId
     @Column(unique = true)
     private String username;
     
@@ -0,0 +1,21 @@
+package com.sparkchat.repository;
+
+import com.sparkchat.model.Attachment;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface AttachmentRepository extends JpaRepository<Attachment, Long> {
+    
+    @Query("SELECT DISTINCT a.chatRoomId FROM Attachment a WHERE a.contentDigest = :digest")
+    List<Long> findRoomIdsByContentDigest(@Param("digest") String digest);
+    
+    @Modifying
+    @Query("DELETE FROM Attachment a WHERE a.contentDigest = :digest")
+    int deleteByContentDigest(@Param("digest") String digest);
+}
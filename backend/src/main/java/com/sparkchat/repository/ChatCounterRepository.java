@@ -0,0 +1,10 @@
+package com.sparkchat.repository;
+
+import com.sparkchat.model.ChatCounter;
+import com.sparkchat.model.RoomMemberKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ChatCounterRepository extends JpaRepository<ChatCounter, RoomMemberKey> {
+}
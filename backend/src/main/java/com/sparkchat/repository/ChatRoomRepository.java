@@ -1,9 +1,13 @@
 package com.sparkchat.repository;
 
+import com.sparkchat.config.SecondLevelCacheConfig;
 import com.sparkchat.model.ChatRoom;
 import com.sparkchat.model.User;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.AvailableHints;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
@@ -13,7 +17,23 @@ import java.util.Optional;
 @Repository
 public interface ChatRoomRepository extends JpaRepository<ChatRoom, Long> {
     
-    Optional<ChatRoom> findByName(String name);
+    // Cached until a chat room is inserted, updated or deleted; DM and public rooms are
+    // looked up on every message
+    @QueryHints({
+        @QueryHint(name = AvailableHints.HINT_CACHEABLE, value = "true"),
+        @QueryHint(name = AvailableHints.HINT_CACHE_REGION, value = SecondLevelCacheConfig.CHAT_ROOMS_BY_NAME)
+    })
+    @Query("SELECT cr FROM ChatRoom cr WHERE cr.systemKey = :systemKey")
+    Optional<ChatRoom> findBySystemKey(@Param("systemKey") String systemKey);
+    
+    // The same lookup past the query cache, for checks that must see rooms created elsewhere
+    @Query("SELECT cr FROM ChatRoom cr WHERE cr.systemKey = :systemKey")
+    Optional<ChatRoom> findBySystemKeyUncached(@Param("systemKey") String systemKey);
+    
+    // Rooms the server created before rooms had keys; rooms users create always have a creator
+    @Query("SELECT cr FROM ChatRoom cr WHERE cr.name = :name AND cr.roomType = :roomType " +
+           "AND cr.systemKey IS NULL AND cr.createdBy IS NULL ORDER BY cr.id")
+    List<ChatRoom> findUnkeyedSystemRooms(@Param("name") String name, @Param("roomType") ChatRoom.RoomType roomType);
     
     @Query("SELECT cr FROM ChatRoom cr JOIN cr.members m WHERE m.id = :userId AND cr.isActive = true")
     List<ChatRoom> findByMembersContaining(@Param("userId") Long userId);
@@ -27,6 +47,9 @@ public interface ChatRoomRepository extends JpaRepository<ChatRoom, Long> {
     
     List<ChatRoom> findByNameContainingIgnoreCaseAndIsActiveTrue(String name);
     
+    @Query("SELECT cr.id, m.id FROM ChatRoom cr JOIN cr.members m")
+    List<Object[]> findAllMemberships();
+    
     @Query("SELECT COUNT(m) FROM ChatRoom cr JOIN cr.members m WHERE cr.id = :roomId")
     Long countMembersByRoomId(@Param("roomId") Long roomId);
 }
\ No newline at end of file
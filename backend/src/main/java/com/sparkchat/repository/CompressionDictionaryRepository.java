@@ -0,0 +1,9 @@
+package com.sparkchat.repository;
+
+import com.sparkchat.model.CompressionDictionary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface CompressionDictionaryRepository extends JpaRepository<CompressionDictionary, Integer> {
+}
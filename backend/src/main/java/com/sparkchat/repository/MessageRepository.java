@@ -1,5 +1,6 @@
 package com.sparkchat.repository;
 
+import com.sparkchat.model.ChatCounter;
 import com.sparkchat.model.Message;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -37,6 +38,42 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     @Query("SELECT COUNT(m) FROM Message m WHERE m.chatRoom.id = :chatRoomId AND m.isDeleted = false")
     Long countByChatRoomId(@Param("chatRoomId") Long chatRoomId);
     
+    @Query("SELECT m.chatRoom.id, COUNT(m), MAX(m.id) FROM Message m WHERE m.isDeleted = false GROUP BY m.chatRoom.id")
+    List<Object[]> countLiveMessagesGroupedByRoom();
+    
+    @Query("SELECT COUNT(m) FROM Message m WHERE m.chatRoom.id = :chatRoomId AND m.id > :afterId " +
+           "AND m.sender.id <> :userId AND m.isDeleted = false")
+    Long countUnreadAfter(@Param("chatRoomId") Long chatRoomId, 
+                          @Param("userId") Long userId, 
+                          @Param("afterId") Long afterId);
+    
+    @Query("SELECT COUNT(m) FROM Message m WHERE m.chatRoom.id = :chatRoomId AND m.id > :afterId " +
+           "AND m.id <= :upToId AND m.sender.id <> :userId AND m.isDeleted = false")
+    Long countUnreadBetween(@Param("chatRoomId") Long chatRoomId,
+                            @Param("userId") Long userId,
+                            @Param("afterId") Long afterId,
+                            @Param("upToId") Long upToId);
+    
+    /**
+     * Unread counts of room members that have no chat_counters row, over the messages after
+     * the room total's last flush (all messages when the room was never flushed)
+     */
+    @Query("SELECT r.id, u.id, COUNT(m) FROM ChatRoom r JOIN r.members u, Message m " +
+           "WHERE m.chatRoom = r AND m.sender <> u AND m.isDeleted = false " +
+           "AND NOT EXISTS (SELECT c FROM ChatCounter c WHERE c.chatRoomId = r.id AND c.userId = u.id) " +
+           "AND m.id > COALESCE((SELECT t.lastMessageId FROM ChatCounter t " +
+           "WHERE t.chatRoomId = r.id AND t.userId = " + ChatCounter.ROOM_TOTAL + "), 0) " +
+           "GROUP BY r.id, u.id")
+    List<Object[]> countUnreadForMembersWithoutCounter();
+    
+    @Query("SELECT m FROM Message m WHERE m.contentDigest = :digest AND m.thumbnailUrl IS NULL " +
+           "AND m.isDeleted = false")
+    List<Message> findAwaitingPreview(@Param("digest") String digest);
+    
+    @Query("SELECT m.storedContent, m.packedContent, m.contentDictVersion FROM Message m " +
+           "WHERE m.isDeleted = false ORDER BY m.id DESC")
+    List<Object[]> findRecentStoredContent(Pageable pageable);
+    
     @Query("SELECT m FROM Message m WHERE m.sender.id = :senderId AND m.isDeleted = false ORDER BY m.sentAt DESC")
     List<Message> findBySenderId(@Param("senderId") Long senderId);
 }
\ No newline at end of file
@@ -0,0 +1,14 @@
+package com.sparkchat.repository;
+
+import com.sparkchat.model.ReadReceipt;
+import com.sparkchat.model.RoomMemberKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ReadReceiptRepository extends JpaRepository<ReadReceipt, RoomMemberKey> {
+    
+    List<ReadReceipt> findByChatRoomId(Long chatRoomId);
+}
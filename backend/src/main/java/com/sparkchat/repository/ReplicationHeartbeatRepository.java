@@ -0,0 +1,9 @@
+package com.sparkchat.repository;
+
+import com.sparkchat.model.ReplicationHeartbeat;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ReplicationHeartbeatRepository extends JpaRepository<ReplicationHeartbeat, Long> {
+}
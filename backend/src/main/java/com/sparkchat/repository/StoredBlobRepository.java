@@ -0,0 +1,40 @@
+package com.sparkchat.repository;
+
+import com.sparkchat.model.StoredBlob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface StoredBlobRepository extends JpaRepository<StoredBlob, String> {
+    
+    @Modifying
+    @Query("UPDATE StoredBlob b SET b.refCount = b.refCount + 1, b.lastUsedAt = :now WHERE b.digest = :digest")
+    int incrementRefCount(@Param("digest") String digest, @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Query("UPDATE StoredBlob b SET b.refCount = b.refCount - 1, b.lastUsedAt = :now " +
+           "WHERE b.digest = :digest AND b.refCount > 0")
+    int decrementRefCount(@Param("digest") String digest, @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Query("UPDATE StoredBlob b SET b.lastUsedAt = :now WHERE b.digest = :digest")
+    int touch(@Param("digest") String digest, @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Query("UPDATE StoredBlob b SET b.previewStatus = :status, b.thumbnailKey = :thumbnailKey, " +
+           "b.blurhash = :blurhash WHERE b.digest = :digest")
+    int updatePreview(@Param("digest") String digest,
+                      @Param("status") StoredBlob.PreviewStatus status,
+                      @Param("thumbnailKey") String thumbnailKey,
+                      @Param("blurhash") String blurhash);
+    
+    @Query("SELECT b.digest FROM StoredBlob b WHERE b.refCount = 0 AND b.lastUsedAt < :cutoff")
+    List<String> findUnreferencedSince(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+}
@@ -0,0 +1,13 @@
+package com.sparkchat.repository;
+
+import com.sparkchat.model.User;
+
+import java.util.Optional;
+
+/**
+ * Username lookups by natural id, so they are answered from the second-level cache
+ */
+public interface UserNaturalIdRepository {
+    
+    Optional<User> findByUsername(String username);
+}
@@ -0,0 +1,27 @@
+package com.sparkchat.repository;
+
+import com.sparkchat.model.User;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+
+import java.util.Optional;
+
+/**
+ * A derived findByUsername query would always go to the database; a natural id load
+ * resolves the username to an id and the id to a user through the cache first.
+ */
+class UserNaturalIdRepositoryImpl implements UserNaturalIdRepository {
+    
+    private final EntityManager entityManager;
+    
+    UserNaturalIdRepositoryImpl(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+    
+    @Override
+    public Optional<User> findByUsername(String username) {
+        return entityManager.unwrap(Session.class)
+                .bySimpleNaturalId(User.class)
+                .loadOptional(username);
+    }
+}
@@ -2,19 +2,13 @@ package com.sparkchat.repository;
 
 import com.sparkchat.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Modifying;
-import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface UserRepository extends JpaRepository<User, Long> {
-    
-    Optional<User> findByUsername(String username);
+public interface UserRepository extends JpaRepository<User, Long>, UserNaturalIdRepository {
     
     Optional<User> findByEmail(String email);
     
@@ -24,11 +18,7 @@ public interface UserRepository extends JpaRepository<User, Long> {
     
     List<User> findByUsernameContainingIgnoreCase(String username);
     
-    List<User> findByIsOnlineTrue();
+    List<User> findByUsernameIn(List<String> usernames);
     
-    @Modifying
-    @Query("UPDATE User u SET u.isOnline = :isOnline, u.lastSeen = :lastSeen WHERE u.id = :userId")
-    void updateUserOnlineStatus(@Param("userId") Long userId, 
-                               @Param("isOnline") boolean isOnline, 
-                               @Param("lastSeen") LocalDateTime lastSeen);
+    List<User> findByIsOnlineTrue();
 }
\ No newline at end of file
@@ -0,0 +1,242 @@
+package com.sparkchat.security;
+
+import com.sparkchat.config.FrameRateLimitProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admits inbound SEND frames against per-session and per-user token buckets
+ *
+ * Buckets use GCRA: each is a single long holding the theoretical arrival time of the
+ * next frame, advanced with compareAndSet, so admission is lock-free and allocates
+ * nothing. Every session and user has one slot per configured rule, held in an
+ * AtomicLongArray created on first use; the session's array lives in its attributes
+ * and is dropped with the session, a user's array is evicted once it is full again.
+ *
+ * A throttled frame is dropped. If it carries a receipt header it is answered with a
+ * RECEIPT frame with throttled and retry-after headers; otherwise a
+ * FrameThrottledException produces an ERROR frame, which ends the session.
+ */
+@Component
+public class FrameRateLimitInterceptor implements ChannelInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(FrameRateLimitInterceptor.class);
+
+    static final String SESSION_BUCKETS_ATTRIBUTE = "frameRateLimits";
+
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+    private final ObjectProvider<MessageChannel> clientOutboundChannel;
+    private final boolean enabled;
+    private final String[] destinations;
+    private final boolean[] prefixMatch;
+    private final Bucket[] sessionLimits;
+    private final Bucket[] userLimits;
+
+    // Origin of the bucket clock, so bucket times start at zero and never go negative
+    private final long startNanos = System.nanoTime();
+
+    private final ConcurrentHashMap<Long, AtomicLongArray> userBuckets = new ConcurrentHashMap<>();
+
+    private final LongAdder throttledCount = new LongAdder();
+
+    public FrameRateLimitInterceptor(FrameRateLimitProperties properties,
+                                     @Qualifier("clientOutboundChannel") ObjectProvider<MessageChannel> clientOutboundChannel) {
+        this.clientOutboundChannel = clientOutboundChannel;
+        int count = properties.getRules().size();
+        this.enabled = properties.isEnabled() && count > 0;
+        this.destinations = new String[count];
+        this.prefixMatch = new boolean[count];
+        this.sessionLimits = new Bucket[count];
+        this.userLimits = new Bucket[count];
+        for (int i = 0; i < count; i++) {
+            FrameRateLimitProperties.Rule rule = properties.getRules().get(i);
+            String destination = rule.getDestination();
+            prefixMatch[i] = destination.endsWith("*");
+            destinations[i] = prefixMatch[i] ? destination.substring(0, destination.length() - 1) : destination;
+            sessionLimits[i] = Bucket.of(rule.getSession());
+            userLimits[i] = Bucket.of(rule.getUser());
+        }
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (!enabled) {
+            return message;
+        }
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() != StompCommand.SEND) {
+            return message;
+        }
+        String destination = accessor.getDestination();
+        int rule = destination != null ? findRule(destination) : -1;
+        if (rule < 0) {
+            return message;
+        }
+        Map<String, Object> sessionAttributes = accessor.getSessionAttributes();
+        if (sessionAttributes == null) {
+            return message;
+        }
+
+        long now = System.nanoTime() - startNanos;
+        long waitNanos = 0;
+        Bucket sessionLimit = sessionLimits[rule];
+        if (sessionLimit != null) {
+            waitNanos = sessionLimit.acquire(sessionBuckets(sessionAttributes), rule, now);
+        }
+        Bucket userLimit = userLimits[rule];
+        Object userId = sessionAttributes.get("userId");
+        if (waitNanos == 0 && userLimit != null && userId instanceof Long) {
+            waitNanos = userLimit.acquire(userBuckets((Long) userId), rule, now);
+            if (waitNanos > 0 && sessionLimit != null) {
+                // Give the session back the frame the user bucket refused
+                sessionLimit.release(sessionBuckets(sessionAttributes), rule);
+            }
+        }
+        if (waitNanos == 0) {
+            return message;
+        }
+
+        throttledCount.increment();
+        long retryAfterMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1;
+        String receipt = accessor.getReceipt();
+        if (receipt == null) {
+            throw new FrameThrottledException(message, destination, retryAfterMillis);
+        }
+        sendThrottledReceipt(accessor.getSessionId(), receipt, retryAfterMillis);
+        return null;
+    }
+
+    /**
+     * Evict user buckets that have refilled completely, which are equivalent to new ones
+     */
+    @Scheduled(fixedDelayString = "${sparkchat.rate-limits.sweep-interval-ms:60000}")
+    public void evictIdleUsers() {
+        long now = System.nanoTime() - startNanos;
+        userBuckets.entrySet().removeIf(entry -> isIdle(entry.getValue(), now));
+    }
+
+    public long getThrottledCount() {
+        return throttledCount.sum();
+    }
+
+    public int getTrackedUserCount() {
+        return userBuckets.size();
+    }
+
+    private int findRule(String destination) {
+        for (int i = 0; i < destinations.length; i++) {
+            if (prefixMatch[i] ? destination.startsWith(destinations[i]) : destination.equals(destinations[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private AtomicLongArray sessionBuckets(Map<String, Object> sessionAttributes) {
+        Object buckets = sessionAttributes.get(SESSION_BUCKETS_ATTRIBUTE);
+        if (buckets == null) {
+            buckets = new AtomicLongArray(destinations.length);
+            Object existing = sessionAttributes.putIfAbsent(SESSION_BUCKETS_ATTRIBUTE, buckets);
+            if (existing != null) {
+                buckets = existing;
+            }
+        }
+        return (AtomicLongArray) buckets;
+    }
+
+    private AtomicLongArray userBuckets(Long userId) {
+        AtomicLongArray buckets = userBuckets.get(userId);
+        if (buckets == null) {
+            AtomicLongArray created = new AtomicLongArray(destinations.length);
+            buckets = userBuckets.putIfAbsent(userId, created);
+            if (buckets == null) {
+                buckets = created;
+            }
+        }
+        return buckets;
+    }
+
+    private void sendThrottledReceipt(String sessionId, String receipt, long retryAfterMillis) {
+        StompHeaderAccessor receiptAccessor = StompHeaderAccessor.create(StompCommand.RECEIPT);
+        receiptAccessor.setSessionId(sessionId);
+        receiptAccessor.setReceiptId(receipt);
+        receiptAccessor.setNativeHeader("throttled", "true");
+        receiptAccessor.setNativeHeader("retry-after", Long.toString(retryAfterMillis));
+        try {
+            clientOutboundChannel.getObject().send(
+                MessageBuilder.createMessage(EMPTY_PAYLOAD, receiptAccessor.getMessageHeaders()));
+        } catch (RuntimeException e) {
+            logger.debug("Failed to send throttled receipt to session {}: {}", sessionId, e.getMessage());
+        }
+    }
+
+    private static boolean isIdle(AtomicLongArray buckets, long now) {
+        for (int i = 0; i < buckets.length(); i++) {
+            if (buckets.get(i) > now) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The emission interval and burst tolerance of one limit, applied to a slot
+     */
+    private static final class Bucket {
+        final long intervalNanos;
+        final long toleranceNanos;
+
+        Bucket(long intervalNanos, long toleranceNanos) {
+            this.intervalNanos = intervalNanos;
+            this.toleranceNanos = toleranceNanos;
+        }
+
+        static Bucket of(FrameRateLimitProperties.Limit limit) {
+            if (limit == null || limit.getRate() <= 0) {
+                return null;
+            }
+            long interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / limit.getRate()));
+            return new Bucket(interval, interval * Math.max(1, limit.getBurst()));
+        }
+
+        /**
+         * Take one frame from the slot, returning 0 when admitted or else the time
+         * until the frame would be admitted
+         */
+        long acquire(AtomicLongArray buckets, int slot, long now) {
+            while (true) {
+                long arrival = buckets.get(slot);
+                long next = Math.max(arrival, now) + intervalNanos;
+                long wait = next - toleranceNanos - now;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (buckets.compareAndSet(slot, arrival, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        void release(AtomicLongArray buckets, int slot) {
+            buckets.addAndGet(slot, -intervalNanos);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.sparkchat.security;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+
+/**
+ * Raised for an inbound frame that exceeds its rate limit and did not ask for a receipt.
+ * It is answered with an ERROR frame carrying throttled and retry-after headers.
+ */
+public class FrameThrottledException extends MessagingException {
+
+    private final long retryAfterMillis;
+
+    public FrameThrottledException(Message<?> message, String destination, long retryAfterMillis) {
+        super(message, "Rate limit exceeded for " + destination);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -1,5 +1,7 @@
 package com.sparkchat.security;
 
+import com.sparkchat.diagnostics.JwtValidationEvent;
+import com.sparkchat.diagnostics.PipelineTrace;
 import com.sparkchat.service.UserService;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -35,23 +37,49 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                                   HttpServletResponse response, 
                                   FilterChain filterChain) throws ServletException, IOException {
         
+        // Flight recorder events of this request carry its trace id
+        PipelineTrace.set(PipelineTrace.newId());
         try {
-            String jwt = parseJwt(request);
-            if (jwt != null && jwtUtils.validateToken(jwt)) {
-                String username = jwtUtils.getUsernameFromToken(jwt);
-                
-                UserDetails userDetails = userService.loadUserByUsername(username);
-                UsernamePasswordAuthenticationToken authentication = 
-                    new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
-                authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                
-                SecurityContextHolder.getContext().setAuthentication(authentication);
+            try {
+                String jwt = parseJwt(request);
+                String username = jwt != null ? validate(jwt) : null;
+                if (username != null) {
+                    UserDetails userDetails = userService.loadUserByUsername(username);
+                    UsernamePasswordAuthenticationToken authentication = 
+                        new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
+                    authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+                    
+                    SecurityContextHolder.getContext().setAuthentication(authentication);
+                }
+            } catch (Exception e) {
+                logger.error("Cannot set user authentication: {}", e.getMessage());
             }
-        } catch (Exception e) {
-            logger.error("Cannot set user authentication: {}", e.getMessage());
+            
+            filterChain.doFilter(request, response);
+        } finally {
+            PipelineTrace.clear();
+        }
+    }
+    
+    /**
+     * Check a token, returning its username if it is valid
+     */
+    private String validate(String jwt) {
+        JwtValidationEvent event = new JwtValidationEvent();
+        event.begin();
+        String username = null;
+        try {
+            if (jwtUtils.validateToken(jwt)) {
+                username = jwtUtils.getUsernameFromToken(jwt);
+            }
+            return username;
+        } finally {
+            event.traceId = PipelineTrace.current();
+            event.source = "http";
+            event.valid = username != null;
+            event.username = username;
+            event.commit();
         }
-        
-        filterChain.doFilter(request, response);
     }
     
     private String parseJwt(HttpServletRequest request) {
@@ -1,5 +1,6 @@
 package com.sparkchat.security;
 
+import com.sparkchat.model.User;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
 import org.slf4j.Logger;
@@ -19,6 +20,8 @@ public class JwtUtils {
     
     private static final Logger logger = LoggerFactory.getLogger(JwtUtils.class);
     
+    private static final String USER_ID_CLAIM = "uid";
+    
     @Value("${jwt.secret}")
     private String jwtSecret;
     
@@ -31,6 +34,10 @@ public class JwtUtils {
     
     public String generateToken(UserDetails userDetails) {
         Map<String, Object> claims = new HashMap<>();
+        if (userDetails instanceof User) {
+            // Lets WebSocket sessions know the user id without a lookup
+            claims.put(USER_ID_CLAIM, ((User) userDetails).getId());
+        }
         return createToken(claims, userDetails.getUsername());
     }
     
@@ -48,6 +55,11 @@ public class JwtUtils {
         return getClaimFromToken(token, Claims::getSubject);
     }
     
+    public Long getUserIdFromToken(String token) {
+        Number userId = getClaimFromToken(token, claims -> claims.get(USER_ID_CLAIM, Number.class));
+        return userId != null ? userId.longValue() : null;
+    }
+    
     public Date getExpirationDateFromToken(String token) {
         return getClaimFromToken(token, Claims::getExpiration);
     }
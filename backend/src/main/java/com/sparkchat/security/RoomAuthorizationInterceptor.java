@@ -0,0 +1,110 @@
+package com.sparkchat.security;
+
+import com.sparkchat.service.RoomMembershipIndex;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Authorizes every inbound SUBSCRIBE and SEND frame that targets a chat room
+ *
+ * Room topics ({@code /topic/rooms/{id}/...}) may only be subscribed to by members, and
+ * only members may send to {@code /app/chat.room.{id}}. Room topics are server-owned, so
+ * clients may never SEND to them directly. Membership is checked against the in-memory
+ * index (a map lookup and a bitmap probe), never the database. A denied frame raises
+ * AccessDeniedException, which is answered with a STOMP ERROR frame.
+ *
+ * The simple broker matches subscriptions as Ant patterns, so {@code /topic/**} would
+ * receive every room's messages. Subscriptions must therefore name a single destination:
+ * any wildcard or template variable is rejected, for user destinations as well.
+ */
+@Component
+public class RoomAuthorizationInterceptor implements ChannelInterceptor {
+
+    static final String ROOM_TOPIC_PREFIX = "/topic/rooms/";
+    static final String ROOM_SEND_PREFIX = "/app/chat.room.";
+
+    private final RoomMembershipIndex membershipIndex;
+
+    public RoomAuthorizationInterceptor(RoomMembershipIndex membershipIndex) {
+        this.membershipIndex = membershipIndex;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null) {
+            return message;
+        }
+
+        String destination = accessor.getDestination();
+        if (destination == null) {
+            return message;
+        }
+
+        StompCommand command = accessor.getCommand();
+        if (command == StompCommand.SUBSCRIBE) {
+            if (isPattern(destination)) {
+                throw new AccessDeniedException("Subscriptions cannot use patterns: " + destination);
+            }
+            if (destination.startsWith(ROOM_TOPIC_PREFIX)) {
+                checkMember(accessor, parseRoomId(destination, ROOM_TOPIC_PREFIX.length()), destination);
+            }
+        } else if (command == StompCommand.SEND) {
+            if (destination.startsWith(ROOM_SEND_PREFIX)) {
+                checkMember(accessor, parseRoomId(destination, ROOM_SEND_PREFIX.length()), destination);
+            } else if (destination.startsWith(ROOM_TOPIC_PREFIX)) {
+                throw new AccessDeniedException("Clients cannot publish to " + destination);
+            }
+        }
+        return message;
+    }
+
+    private void checkMember(StompHeaderAccessor accessor, long chatRoomId, String destination) {
+        Map<String, Object> sessionAttributes = accessor.getSessionAttributes();
+        Object userId = sessionAttributes != null ? sessionAttributes.get("userId") : null;
+        if (!(userId instanceof Long) || chatRoomId < 0 || !membershipIndex.isMember(chatRoomId, (Long) userId)) {
+            throw new AccessDeniedException("Not a member of the chat room for " + destination);
+        }
+    }
+
+    /**
+     * Whether the broker would treat the destination as a pattern rather than one destination
+     */
+    static boolean isPattern(String destination) {
+        for (int i = 0; i < destination.length(); i++) {
+            char c = destination.charAt(i);
+            if (c == '*' || c == '?' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parse the room id that starts at the given offset and ends at '/' or the end,
+     * returning -1 when it is not a number
+     */
+    static long parseRoomId(String destination, int offset) {
+        long roomId = 0;
+        int i = offset;
+        for (; i < destination.length(); i++) {
+            char c = destination.charAt(i);
+            if (c == '/') {
+                break;
+            }
+            if (c < '0' || c > '9' || i - offset >= 18) {
+                return -1;
+            }
+            roomId = roomId * 10 + (c - '0');
+        }
+        return i > offset ? roomId : -1;
+    }
+}
@@ -0,0 +1,191 @@
+package com.sparkchat.service;
+
+import com.sparkchat.model.Attachment;
+import com.sparkchat.model.StoredBlob;
+import com.sparkchat.repository.AttachmentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+
+/**
+ * Stores chat attachments on local disk
+ *
+ * Upload bodies are streamed to a temporary file in fixed-size chunks and hashed on the
+ * way, so heap use per upload is one copy buffer regardless of file size. The content is
+ * then handed to the content-addressed BlobStore, which keeps a single copy of each
+ * distinct file. Image uploads are queued for thumbnail generation as soon as they are
+ * stored. Only members of the target room may upload to or download from it.
+ */
+@Service
+public class AttachmentService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentService.class);
+
+    static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final AttachmentRepository attachmentRepository;
+    private final RoomMembershipIndex membershipIndex;
+    private final BlobStore blobStore;
+    private final MediaPreviewService mediaPreviewService;
+    private final long maxSizeBytes;
+
+    public AttachmentService(AttachmentRepository attachmentRepository,
+                             RoomMembershipIndex membershipIndex,
+                             BlobStore blobStore,
+                             MediaPreviewService mediaPreviewService,
+                             @Value("${sparkchat.attachments.max-size-bytes:104857600}") long maxSizeBytes) {
+        this.attachmentRepository = attachmentRepository;
+        this.membershipIndex = membershipIndex;
+        this.blobStore = blobStore;
+        this.mediaPreviewService = mediaPreviewService;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Stream an upload body to disk and record it as an attachment of the room
+     */
+    public Attachment store(Long chatRoomId, Long uploaderId, String fileName, String contentType,
+                            long declaredLength, InputStream body) throws IOException {
+        checkUpload(chatRoomId, uploaderId, fileName, declaredLength);
+
+        Path tempFile = blobStore.createTempFile("upload-");
+        try {
+            MessageDigest digest = sha256();
+            long size = copyLimited(body, tempFile, digest);
+            StoredBlob blob = blobStore.store(tempFile, BlobStore.toHex(digest.digest()), size);
+            return createAttachment(chatRoomId, uploaderId, fileName, contentType, blob);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Attach already stored content to a room without uploading it again, when the uploader
+     * can already download it from one of their rooms
+     *
+     * Knowing a digest is no proof of having the content, so content the uploader cannot
+     * read must be proven first; see ChunkedUploadService.
+     */
+    public Optional<Attachment> attachReadable(Long chatRoomId, Long uploaderId, String fileName, String contentType,
+                                               String digest, long size) {
+        checkUpload(chatRoomId, uploaderId, fileName, size);
+        boolean readable = attachmentRepository.findRoomIdsByContentDigest(digest).stream()
+                .anyMatch(roomId -> membershipIndex.isMember(roomId, uploaderId));
+        if (!readable) {
+            return Optional.empty();
+        }
+        return blobStore.reuse(digest, size)
+                .map(blob -> createAttachment(chatRoomId, uploaderId, fileName, contentType, blob));
+    }
+
+    /**
+     * Record a stored blob as an attachment of a room
+     */
+    public Attachment createAttachment(Long chatRoomId, Long uploaderId, String fileName, String contentType,
+                                       StoredBlob blob) {
+        Attachment attachment = new Attachment(chatRoomId, uploaderId, sanitizeFileName(fileName),
+            contentType != null ? contentType : "application/octet-stream");
+        attachment.setSize(blob.getSize());
+        attachment.setContentDigest(blob.getDigest());
+        attachment.setStorageKey(blob.getStorageKey());
+        Attachment saved = attachmentRepository.save(attachment);
+
+        // Usually ready before the message that carries the image is sent
+        if (MediaPreviewService.isPreviewable(saved.getContentType()) && blob.getPreviewStatus() == null) {
+            mediaPreviewService.request(blob.getDigest());
+        }
+        return saved;
+    }
+
+    /**
+     * Get an attachment for download, checking that the user is a member of its room
+     */
+    public Optional<Attachment> getForDownload(Long attachmentId, Long userId) {
+        Optional<Attachment> attachment = attachmentRepository.findById(attachmentId);
+        attachment.ifPresent(found -> checkMember(found.getChatRoomId(), userId));
+        return attachment;
+    }
+
+    /**
+     * Get the file backing an attachment
+     */
+    public Path getFile(Attachment attachment) {
+        return blobStore.resolve(attachment.getStorageKey());
+    }
+
+    /**
+     * Get the thumbnail file of an image attachment once it has been generated
+     */
+    public Optional<Path> getThumbnailFile(Attachment attachment) {
+        if (attachment.getContentDigest() == null || !MediaPreviewService.isPreviewable(attachment.getContentType())) {
+            return Optional.empty();
+        }
+        return mediaPreviewService.getThumbnailFile(attachment.getContentDigest());
+    }
+
+    /**
+     * Validate an upload before any content is received
+     */
+    public void checkUpload(Long chatRoomId, Long uploaderId, String fileName, long declaredLength) {
+        checkMember(chatRoomId, uploaderId);
+        if (fileName == null || fileName.isBlank()) {
+            throw new RuntimeException("File name is required");
+        }
+        if (declaredLength > maxSizeBytes) {
+            throw new RuntimeException("Attachment exceeds the maximum size of " + maxSizeBytes + " bytes");
+        }
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long copyLimited(InputStream body, Path tempFile, MessageDigest digest) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long size = 0;
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                size += read;
+                if (size > maxSizeBytes) {
+                    throw new RuntimeException("Attachment exceeds the maximum size of " + maxSizeBytes + " bytes");
+                }
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+            }
+        }
+        if (size == 0) {
+            throw new RuntimeException("Attachment is empty");
+        }
+        logger.debug("Stored upload of {} bytes", size);
+        return size;
+    }
+
+    private void checkMember(Long chatRoomId, Long userId) {
+        if (!membershipIndex.isMember(chatRoomId, userId)) {
+            throw new AccessDeniedException("Not a member of this chat room");
+        }
+    }
+
+    private static String sanitizeFileName(String fileName) {
+        // Keep only the last path segment some browsers send
+        String name = fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1);
+        name = name.replaceAll("[\\p{Cntrl}\"]", "_");
+        return name.length() > 255 ? name.substring(name.length() - 255) : name;
+    }
+}
@@ -0,0 +1,207 @@
+package com.sparkchat.service;
+
+import com.sparkchat.model.StoredBlob;
+import com.sparkchat.repository.AttachmentRepository;
+import com.sparkchat.repository.StoredBlobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Content-addressed file storage for attachments
+ *
+ * Each distinct file is stored once under blobs/xx/yy/{sha256}. Storing content that
+ * already exists only deletes the new temporary copy. Live messages hold references
+ * through StoredBlob.refCount; blobs with no references that have not been used for
+ * the grace period are deleted together with the attachments pointing at them.
+ *
+ * Work on one digest (store, reuse, garbage collection) is serialized by striped locks,
+ * so a blob is never collected while it is being attached.
+ */
+@Service
+public class BlobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobStore.class);
+
+    private final StoredBlobRepository blobRepository;
+    private final AttachmentRepository attachmentRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Path storageRoot;
+    private final Path tempDir;
+    private final Duration orphanGrace;
+
+    private final ReentrantLock[] digestLocks = new ReentrantLock[64];
+
+    public BlobStore(StoredBlobRepository blobRepository,
+                     AttachmentRepository attachmentRepository,
+                     PlatformTransactionManager transactionManager,
+                     @Value("${sparkchat.attachments.dir:./data/attachments}") String storageDir,
+                     @Value("${sparkchat.attachments.orphan-grace-hours:24}") long orphanGraceHours) throws IOException {
+        this.blobRepository = blobRepository;
+        this.attachmentRepository = attachmentRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.storageRoot = Paths.get(storageDir).toAbsolutePath().normalize();
+        this.tempDir = storageRoot.resolve("tmp");
+        this.orphanGrace = Duration.ofHours(orphanGraceHours);
+        Files.createDirectories(tempDir);
+        for (int i = 0; i < digestLocks.length; i++) {
+            digestLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Create a temporary file for content that is still being received
+     */
+    public Path createTempFile(String prefix) throws IOException {
+        return Files.createTempFile(tempDir, prefix, ".part");
+    }
+
+    /**
+     * Store a completely received temporary file under its digest, or discard it when
+     * the same content is already stored. The temporary file is consumed either way.
+     */
+    public StoredBlob store(Path tempFile, String digest, long size) throws IOException {
+        ReentrantLock lock = lockFor(digest);
+        lock.lock();
+        try {
+            Optional<StoredBlob> existing = reuse(digest, size);
+            if (existing.isPresent()) {
+                Files.deleteIfExists(tempFile);
+                return existing.get();
+            }
+
+            String storageKey = "blobs/" + digest.substring(0, 2) + "/" + digest.substring(2, 4) + "/" + digest;
+            Path target = resolve(storageKey);
+            Files.createDirectories(target.getParent());
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return blobRepository.save(new StoredBlob(digest, size, storageKey));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Find stored content by digest and size, marking it as used so it is not collected
+     * before the caller attaches it
+     */
+    public Optional<StoredBlob> reuse(String digest, long size) {
+        if (!isDigest(digest)) {
+            return Optional.empty();
+        }
+        ReentrantLock lock = lockFor(digest);
+        lock.lock();
+        try {
+            return transactionTemplate.execute(status -> {
+                Optional<StoredBlob> blob = blobRepository.findById(digest).filter(found -> found.getSize() == size);
+                blob.ifPresent(found -> found.setLastUsedAt(LocalDateTime.now()));
+                return blob;
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add a message reference to a blob, within the caller's transaction. Returns false
+     * when the blob no longer exists.
+     */
+    public boolean retain(String digest) {
+        return blobRepository.incrementRefCount(digest, LocalDateTime.now()) > 0;
+    }
+
+    /**
+     * Drop the reference of a deleted message, within the deleting transaction
+     */
+    @EventListener
+    public void onMessageDeleted(MessageDeletedEvent event) {
+        if (event.getContentDigest() != null) {
+            blobRepository.decrementRefCount(event.getContentDigest(), LocalDateTime.now());
+        }
+    }
+
+    public Path resolve(String storageKey) {
+        Path path = storageRoot.resolve(storageKey).normalize();
+        if (!path.startsWith(storageRoot)) {
+            throw new IllegalStateException("Invalid storage key: " + storageKey);
+        }
+        return path;
+    }
+
+    /**
+     * Delete blobs that no message references and nobody used within the grace period
+     */
+    @Scheduled(fixedDelayString = "${sparkchat.attachments.gc-interval-ms:3600000}")
+    public void collectGarbage() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(orphanGrace);
+        List<String> candidates = blobRepository.findUnreferencedSince(cutoff, PageRequest.of(0, 500));
+        int deleted = 0;
+        for (String digest : candidates) {
+            ReentrantLock lock = lockFor(digest);
+            lock.lock();
+            try {
+                StoredBlob collected = transactionTemplate.execute(status -> {
+                    StoredBlob blob = blobRepository.findById(digest).orElse(null);
+                    // Re-checked under the lock: it may have been reused since the query
+                    if (blob == null || blob.getRefCount() > 0 || !blob.getLastUsedAt().isBefore(cutoff)) {
+                        return null;
+                    }
+                    attachmentRepository.deleteByContentDigest(digest);
+                    blobRepository.delete(blob);
+                    return blob;
+                });
+                if (collected != null) {
+                    Files.deleteIfExists(resolve(collected.getStorageKey()));
+                    if (collected.getThumbnailKey() != null) {
+                        Files.deleteIfExists(resolve(collected.getThumbnailKey()));
+                    }
+                    deleted++;
+                }
+            } catch (Exception e) {
+                logger.error("Failed to collect blob {}: {}", digest, e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (deleted > 0) {
+            logger.info("Collected {} unreferenced blobs", deleted);
+        }
+    }
+
+    static boolean isDigest(String value) {
+        if (value == null || value.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) < 0 || Character.isUpperCase(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String toHex(byte[] digest) {
+        return HexFormat.of().formatHex(digest);
+    }
+
+    private ReentrantLock lockFor(String digest) {
+        return digestLocks[Math.floorMod(digest.hashCode(), digestLocks.length)];
+    }
+}
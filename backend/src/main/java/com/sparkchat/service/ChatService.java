@@ -1,20 +1,37 @@
 package com.sparkchat.service;
 
+import com.sparkchat.diagnostics.MessageConvertEvent;
+import com.sparkchat.diagnostics.MessagePersistEvent;
+import com.sparkchat.diagnostics.PipelineTrace;
 import com.sparkchat.dto.MessageDto;
 import com.sparkchat.dto.UserDto;
+import com.sparkchat.model.Attachment;
 import com.sparkchat.model.ChatRoom;
 import com.sparkchat.model.Message;
+import com.sparkchat.model.StoredBlob;
 import com.sparkchat.model.User;
+import com.sparkchat.repository.AttachmentRepository;
 import com.sparkchat.repository.ChatRoomRepository;
 import com.sparkchat.repository.MessageRepository;
 import com.sparkchat.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 /**
@@ -33,22 +50,66 @@ import java.util.stream.Collectors;
 @Transactional
 public class ChatService {
     
+    private static final String ATTACHMENT_URL_PREFIX = "/api/attachments/";
+    
+    public static final String PUBLIC_ROOM_NAME = "Public Chat";
+    
+    public static final String PUBLIC_ROOM_KEY = "public";
+    
+    private static final String DM_ROOM_PREFIX = "DM_";
+    
     private final ChatRoomRepository chatRoomRepository;
     private final MessageRepository messageRepository;
     private final UserRepository userRepository;
+    private final CounterService counterService;
+    private final RoomMembershipIndex membershipIndex;
+    private final AttachmentRepository attachmentRepository;
+    private final BlobStore blobStore;
+    private final MediaPreviewService mediaPreviewService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate newTransaction;
+    private final MessagingMetrics messagingMetrics;
+    
+    // Striped locks that serialize DM room creation for the same pair of users
+    private final ReentrantLock[] dmRoomLocks = new ReentrantLock[64];
+    
+    @Value("${sparkchat.rooms.max-members:5000}")
+    private int maxGroupMembers;
     
     public ChatService(ChatRoomRepository chatRoomRepository, 
                       MessageRepository messageRepository,
-                      UserRepository userRepository) {
+                      UserRepository userRepository,
+                      CounterService counterService,
+                      RoomMembershipIndex membershipIndex,
+                      AttachmentRepository attachmentRepository,
+                      BlobStore blobStore,
+                      MediaPreviewService mediaPreviewService,
+                      ApplicationEventPublisher eventPublisher,
+                      PlatformTransactionManager transactionManager,
+                      MessagingMetrics messagingMetrics) {
         this.chatRoomRepository = chatRoomRepository;
         this.messageRepository = messageRepository;
         this.userRepository = userRepository;
+        this.counterService = counterService;
+        this.membershipIndex = membershipIndex;
+        this.attachmentRepository = attachmentRepository;
+        this.blobStore = blobStore;
+        this.mediaPreviewService = mediaPreviewService;
+        this.eventPublisher = eventPublisher;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.messagingMetrics = messagingMetrics;
+        for (int i = 0; i < dmRoomLocks.length; i++) {
+            dmRoomLocks[i] = new ReentrantLock();
+        }
     }
     
     /**
      * Save a WebSocket message to database (for DM functionality)
      */
     public Message saveMessage(MessageDto messageDto) {
+        MessagePersistEvent persistEvent = new MessagePersistEvent();
+        persistEvent.begin();
         try {
             // Find the user by username
             Optional<User> userOpt = userRepository.findByUsername(messageDto.getSender().getUsername());
@@ -57,9 +118,11 @@ public class ChatService {
             }
             
             User sender = userOpt.get();
+            User recipient = userRepository.findByUsername(messageDto.getRecipient())
+                    .orElseThrow(() -> new RuntimeException("User not found: " + messageDto.getRecipient()));
             
             // For DM messages, create a special DM chat room or use a different approach
-            ChatRoom dmRoom = getOrCreateDmChatRoom(messageDto.getSender().getUsername(), messageDto.getRecipient());
+            ChatRoom dmRoom = getOrCreateDmChatRoom(sender, recipient);
             
             // Create and save message
             Message message = new Message();
@@ -74,8 +137,15 @@ public class ChatService {
             }
             message.setMessageType(Message.MessageType.valueOf(messageTypeStr));
             message.setSentAt(LocalDateTime.now());
+            attachFile(message, messageDto, dmRoom.getId());
+            
+            Message savedMessage = messagingMetrics.recordInsert(MessagingMetrics.DM, () -> messageRepository.save(message));
+            List<Long> memberIds = List.of(sender.getId(), recipient.getId());
+            afterCommit(() -> counterService.onMessageSent(
+                dmRoom.getId(), savedMessage.getId(), sender.getId(), memberIds));
+            recordPersisted(persistEvent, MessagingMetrics.DM, dmRoom.getId(), savedMessage);
             
-            return messageRepository.save(message);
+            return savedMessage;
             
         } catch (Exception e) {
             throw new RuntimeException("Failed to save message: " + e.getMessage());
@@ -84,55 +154,120 @@ public class ChatService {
     
     /**
      * Get or create a DM chat room between two users
+     * 
+     * The room is found by its key, which only the server sets, on DIRECT rooms of exactly
+     * these two users; a room a user names like a DM room is never taken for one.
      */
-    private ChatRoom getOrCreateDmChatRoom(String user1, String user2) {
-        // Create a consistent room name regardless of order
-        String roomName = user1.compareTo(user2) < 0 ? 
-            "DM_" + user1 + "_" + user2 : 
-            "DM_" + user2 + "_" + user1;
-            
-        Optional<ChatRoom> dmRoom = chatRoomRepository.findByName(roomName);
-        
+    private ChatRoom getOrCreateDmChatRoom(User user1, User user2) {
+        String roomKey = dmRoomKey(user1.getId(), user2.getId());
+        Optional<ChatRoom> dmRoom = chatRoomRepository.findBySystemKey(roomKey);
         if (dmRoom.isPresent()) {
             return dmRoom.get();
         }
         
-        // Create new DM chat room
-        ChatRoom newRoom = new ChatRoom();
-        newRoom.setName(roomName);
-        newRoom.setDescription("Direct message between " + user1 + " and " + user2);
-        newRoom.setCreatedAt(LocalDateTime.now());
-        
-        return chatRoomRepository.save(newRoom);
+        // Concurrent first messages between the same users must not create two rooms,
+        // so creation is serialized and committed before the lock is released; the unique
+        // key stops any other instance
+        ReentrantLock lock = dmRoomLocks[Math.floorMod(roomKey.hashCode(), dmRoomLocks.length)];
+        lock.lock();
+        try {
+            Long roomId = newTransaction.execute(status -> chatRoomRepository.findBySystemKeyUncached(roomKey)
+                    .map(ChatRoom::getId)
+                    .orElseGet(() -> {
+                        // A DM room from before rooms had keys is given one
+                        ChatRoom room = findUnkeyedDmRoom(user1, user2).orElseGet(() -> {
+                            ChatRoom newRoom = new ChatRoom();
+                            newRoom.setName(dmRoomName(user1.getUsername(), user2.getUsername()));
+                            newRoom.setDescription("Direct message between " + user1.getUsername()
+                                    + " and " + user2.getUsername());
+                            newRoom.setRoomType(ChatRoom.RoomType.DIRECT);
+                            newRoom.setCreatedAt(LocalDateTime.now());
+                            return newRoom;
+                        });
+                        room.setSystemKey(roomKey);
+                        room.addMember(user1);
+                        room.addMember(user2);
+                        return chatRoomRepository.save(room).getId();
+                    }));
+            membershipIndex.memberAdded(roomId, user1.getId());
+            membershipIndex.memberAdded(roomId, user2.getId());
+            // A reference avoids re-reading a row the outer transaction's snapshot may not see
+            return chatRoomRepository.getReferenceById(roomId);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Find a DM room of two users created before rooms had keys: a DIRECT room the server
+     * named for them, holding both of them or, older still, no members at all
+     */
+    private Optional<ChatRoom> findUnkeyedDmRoom(User user1, User user2) {
+        Set<Long> pair = new HashSet<>(List.of(user1.getId(), user2.getId()));
+        return chatRoomRepository.findUnkeyedSystemRooms(dmRoomName(user1.getUsername(), user2.getUsername()),
+                        ChatRoom.RoomType.DIRECT).stream()
+                .filter(room -> room.getMembers().isEmpty()
+                        || room.getMembers().stream().map(User::getId).collect(Collectors.toSet()).equals(pair))
+                .findFirst();
+    }
+    
+    /**
+     * Get the display name of the DM room between two users, the same regardless of order
+     */
+    public static String dmRoomName(String username1, String username2) {
+        return username1.compareTo(username2) < 0 ? 
+            DM_ROOM_PREFIX + username1 + "_" + username2 : 
+            DM_ROOM_PREFIX + username2 + "_" + username1;
+    }
+    
+    /**
+     * Get the key of the DM room between two users, the same regardless of order
+     * 
+     * Ids, unlike the room name, cannot be read two ways when usernames hold underscores.
+     */
+    public static String dmRoomKey(Long userId1, Long userId2) {
+        return userId1 < userId2 ? "dm:" + userId1 + ":" + userId2 : "dm:" + userId2 + ":" + userId1;
     }
     
     /**
      * Get or create the default public chat room
      */
     private ChatRoom getOrCreatePublicChatRoom() {
-        Optional<ChatRoom> publicRoom = chatRoomRepository.findByName("Public Chat");
-        
+        Optional<ChatRoom> publicRoom = chatRoomRepository.findBySystemKeyUncached(PUBLIC_ROOM_KEY);
         if (publicRoom.isPresent()) {
             return publicRoom.get();
         }
         
-        // Create default public chat room
-        ChatRoom newRoom = new ChatRoom();
-        newRoom.setName("Public Chat");
-        newRoom.setDescription("Default public chat room for all users");
-        newRoom.setCreatedAt(LocalDateTime.now());
-        
-        return chatRoomRepository.save(newRoom);
+        // The public room from before rooms had keys is given one
+        ChatRoom room = chatRoomRepository.findUnkeyedSystemRooms(PUBLIC_ROOM_NAME, ChatRoom.RoomType.GROUP)
+                .stream().findFirst().orElseGet(() -> {
+                    ChatRoom newRoom = new ChatRoom();
+                    newRoom.setName(PUBLIC_ROOM_NAME);
+                    newRoom.setDescription("Default public chat room for all users");
+                    newRoom.setCreatedAt(LocalDateTime.now());
+                    return newRoom;
+                });
+        room.setSystemKey(PUBLIC_ROOM_KEY);
+        return chatRoomRepository.save(room);
     }
     
     /**
      * Convert Message entity to MessageDto
      */
     public MessageDto convertToDto(Message message) {
+        MessageConvertEvent convertEvent = new MessageConvertEvent();
+        convertEvent.begin();
         MessageDto dto = new MessageDto();
+        dto.setId(message.getId());
+        dto.setChatRoomId(message.getChatRoom().getId());
         dto.setContent(message.getContent());
         dto.setMessageTypeString(message.getMessageType().name());
         dto.setSentAt(message.getSentAt());
+        dto.setFileUrl(message.getFileUrl());
+        dto.setFileName(message.getFileName());
+        dto.setFileSize(message.getFileSize());
+        dto.setThumbnailUrl(message.getThumbnailUrl());
+        dto.setBlurhash(message.getBlurhash());
         
         // Set sender information
         UserDto senderDto = new UserDto();
@@ -140,6 +275,10 @@ public class ChatService {
         senderDto.setDisplayName(message.getSender().getDisplayName());
         dto.setSender(senderDto);
         
+        convertEvent.traceId = PipelineTrace.current();
+        convertEvent.format = "dto";
+        convertEvent.messageId = message.getId() != null ? message.getId() : 0;
+        convertEvent.commit();
         return dto;
     }
     
@@ -155,6 +294,7 @@ public class ChatService {
     /**
      * Get message history for a chat room
      */
+    @Transactional(readOnly = true)
     public List<MessageDto> getMessageHistory(Long chatRoomId, int page, int size) {
         try {
             ChatRoom chatRoom;
@@ -165,8 +305,10 @@ public class ChatService {
                 }
                 chatRoom = roomOpt.get();
             } else {
-                // Get or create public chat room
-                chatRoom = getOrCreatePublicChatRoom();
+                // Get or create public chat room; it is created in a transaction of its own,
+                // as this one is read-only
+                chatRoom = chatRoomRepository.findBySystemKey(PUBLIC_ROOM_KEY)
+                        .orElseGet(() -> newTransaction.execute(status -> getOrCreatePublicChatRoom()));
             }
             
             // Get recent messages (for now, get last 50 messages)
@@ -185,9 +327,23 @@ public class ChatService {
         }
     }
     
+    /**
+     * Whether a room is the public room, whose history every user may read
+     */
+    @Transactional(readOnly = true)
+    public boolean isPublicRoom(Long chatRoomId) {
+        return chatRoomRepository.findBySystemKey(PUBLIC_ROOM_KEY)
+                .map(room -> room.getId().equals(chatRoomId))
+                .orElse(false);
+    }
+    
     /**
      * Get DM history between two users
+     *
+     * The room is only looked up, as this transaction is read-only; until the first message
+     * creates it there is no history.
      */
+    @Transactional(readOnly = true)
     public List<MessageDto> getDmHistory(String user1, String user2, int page, int size) {
         try {
             // Find both users
@@ -199,7 +355,13 @@ public class ChatService {
             }
             
             // Get the DM chat room
-            ChatRoom dmRoom = getOrCreateDmChatRoom(user1, user2);
+            Optional<ChatRoom> dmRoomOpt = chatRoomRepository.findBySystemKey(
+                    dmRoomKey(user1Opt.get().getId(), user2Opt.get().getId()))
+                    .or(() -> findUnkeyedDmRoom(user1Opt.get(), user2Opt.get()));
+            if (dmRoomOpt.isEmpty()) {
+                return Collections.emptyList();
+            }
+            ChatRoom dmRoom = dmRoomOpt.get();
             
             // Get messages from the DM room
             List<Message> dmMessages = messageRepository.findByChatRoomOrderBySentAtAsc(dmRoom, 
@@ -214,13 +376,250 @@ public class ChatService {
         }
     }
     
+    /**
+     * Create a group chat room with the creator and the given users as members
+     */
+    public ChatRoom createGroupRoom(String name, String description, User creator, List<String> memberUsernames) {
+        if (isReservedRoomName(name)) {
+            throw new RuntimeException("Room name is reserved: " + name);
+        }
+        ChatRoom room = new ChatRoom(name, creator, ChatRoom.RoomType.GROUP);
+        room.setDescription(description);
+        room.setMaxMembers(maxGroupMembers);
+        
+        if (memberUsernames != null) {
+            for (User user : userRepository.findByUsernameIn(memberUsernames)) {
+                room.addMember(user);
+            }
+        }
+        
+        ChatRoom savedRoom = chatRoomRepository.save(room);
+        for (User member : savedRoom.getMembers()) {
+            publishMembershipChange(savedRoom.getId(), member.getId(), true);
+        }
+        return savedRoom;
+    }
+    
+    /**
+     * Whether a name is one the server gives its own rooms, which users may not take even
+     * though those rooms are found by key: clients tell rooms apart by name
+     */
+    static boolean isReservedRoomName(String name) {
+        String trimmed = name.strip();
+        return trimmed.regionMatches(true, 0, DM_ROOM_PREFIX, 0, DM_ROOM_PREFIX.length())
+                || trimmed.equalsIgnoreCase(PUBLIC_ROOM_NAME);
+    }
+    
+    /**
+     * Add a user to a group room; only existing members may add others
+     */
+    public void addRoomMember(Long chatRoomId, String username, User requester) {
+        ChatRoom room = getGroupRoomForMember(chatRoomId, requester);
+        User user = userRepository.findByUsername(username)
+                .orElseThrow(() -> new RuntimeException("User not found: " + username));
+        
+        if (room.isMember(user)) {
+            return;
+        }
+        room.addMember(user);
+        if (!room.isMember(user)) {
+            throw new RuntimeException("Chat room is full");
+        }
+        
+        chatRoomRepository.save(room);
+        publishMembershipChange(chatRoomId, user.getId(), true);
+    }
+    
+    /**
+     * Remove a user from a group room; members may leave, the creator may remove anyone
+     */
+    public void removeRoomMember(Long chatRoomId, String username, User requester) {
+        ChatRoom room = getGroupRoomForMember(chatRoomId, requester);
+        boolean isCreator = room.getCreatedBy() != null && room.getCreatedBy().getId().equals(requester.getId());
+        if (!requester.getUsername().equals(username) && !isCreator) {
+            throw new RuntimeException("Only the room creator can remove other members");
+        }
+        
+        User user = userRepository.findByUsername(username)
+                .orElseThrow(() -> new RuntimeException("User not found: " + username));
+        room.removeMember(user);
+        
+        chatRoomRepository.save(room);
+        publishMembershipChange(chatRoomId, user.getId(), false);
+    }
+    
+    /**
+     * Save a message sent to a group room by one of its members
+     */
+    public Message saveRoomMessage(Long chatRoomId, MessageDto messageDto, Long senderId) {
+        if (!membershipIndex.isMember(chatRoomId, senderId)) {
+            throw new RuntimeException("Not a member of this chat room");
+        }
+        
+        MessagePersistEvent persistEvent = new MessagePersistEvent();
+        persistEvent.begin();
+        Message message = new Message();
+        message.setContent(messageDto.getContent());
+        // The sender is loaded rather than proxied since the caller renders it after commit
+        message.setSender(userRepository.findById(senderId)
+                .orElseThrow(() -> new RuntimeException("Sender not found")));
+        message.setChatRoom(chatRoomRepository.getReferenceById(chatRoomId));
+        
+        String messageTypeStr = messageDto.getMessageTypeString();
+        message.setMessageType(messageTypeStr == null || messageTypeStr.isEmpty() ? 
+            Message.MessageType.TEXT : Message.MessageType.valueOf(messageTypeStr));
+        message.setSentAt(LocalDateTime.now());
+        attachFile(message, messageDto, chatRoomId);
+        
+        Message savedMessage = messagingMetrics.recordInsert(MessagingMetrics.ROOM, () -> messageRepository.save(message));
+        List<Long> memberIds = membershipIndex.getMemberIds(chatRoomId);
+        afterCommit(() -> counterService.onMessageSent(chatRoomId, savedMessage.getId(), senderId, memberIds));
+        recordPersisted(persistEvent, MessagingMetrics.ROOM, chatRoomId, savedMessage);
+        
+        return savedMessage;
+    }
+    
+    /**
+     * Copy the attachment a message refers to onto it and take a reference to its content
+     */
+    private void attachFile(Message message, MessageDto messageDto, Long chatRoomId) {
+        String fileUrl = messageDto.getFileUrl();
+        if (fileUrl == null || !fileUrl.startsWith(ATTACHMENT_URL_PREFIX)) {
+            return;
+        }
+        
+        Long attachmentId;
+        try {
+            attachmentId = Long.valueOf(fileUrl.substring(ATTACHMENT_URL_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid attachment URL");
+        }
+        // Attachments are per room; forwarding re-attaches the content to the target room by digest
+        Attachment attachment = attachmentRepository.findById(attachmentId)
+                .filter(found -> found.getChatRoomId().equals(chatRoomId))
+                .orElseThrow(() -> new RuntimeException("Attachment not found in this chat room"));
+        
+        message.setFileUrl(ATTACHMENT_URL_PREFIX + attachmentId);
+        message.setFileName(attachment.getFileName());
+        message.setFileSize(attachment.getSize());
+        if (attachment.getContentDigest() != null) {
+            if (!blobStore.retain(attachment.getContentDigest())) {
+                throw new RuntimeException("Attachment is no longer available");
+            }
+            message.setContentDigest(attachment.getContentDigest());
+            attachPreview(message, attachment);
+        }
+    }
+    
+    /**
+     * Copy the preview of an image onto its message, or have it generated once the
+     * message is committed; the send path never waits for image processing
+     */
+    private void attachPreview(Message message, Attachment attachment) {
+        if (!MediaPreviewService.isPreviewable(attachment.getContentType())) {
+            return;
+        }
+        String digest = attachment.getContentDigest();
+        Optional<StoredBlob> ready = mediaPreviewService.findReady(digest);
+        if (ready.isPresent()) {
+            message.setThumbnailUrl(MediaPreviewService.thumbnailUrl(message.getFileUrl()));
+            message.setBlurhash(ready.get().getBlurhash());
+        } else {
+            afterCommit(() -> mediaPreviewService.request(digest));
+        }
+    }
+    
+    /**
+     * Get a message as a DTO
+     */
+    public Optional<MessageDto> getMessageDto(Long messageId) {
+        return messageRepository.findById(messageId).map(this::convertToDto);
+    }
+    
+    private ChatRoom getGroupRoomForMember(Long chatRoomId, User requester) {
+        ChatRoom room = chatRoomRepository.findById(chatRoomId)
+                .orElseThrow(() -> new RuntimeException("Chat room not found"));
+        if (room.getRoomType() != ChatRoom.RoomType.GROUP) {
+            throw new RuntimeException("Members can only be changed in group rooms");
+        }
+        if (!membershipIndex.isMember(chatRoomId, requester.getId())) {
+            throw new RuntimeException("Not a member of this chat room");
+        }
+        return room;
+    }
+    
+    private void publishMembershipChange(Long chatRoomId, Long userId, boolean joined) {
+        eventPublisher.publishEvent(new RoomMembershipChangedEvent(chatRoomId, userId, joined));
+    }
+    
+    /**
+     * Soft-delete a message sent by the given user
+     */
+    public void deleteMessage(Long messageId, User requester) {
+        Message message = messageRepository.findById(messageId)
+                .orElseThrow(() -> new RuntimeException("Message not found"));
+        
+        if (!message.getSender().getId().equals(requester.getId())) {
+            throw new RuntimeException("Only the sender can delete a message");
+        }
+        if (message.isDeleted()) {
+            return;
+        }
+        
+        message.setDeleted(true);
+        messageRepository.save(message);
+        
+        Long chatRoomId = message.getChatRoom().getId();
+        eventPublisher.publishEvent(new MessageDeletedEvent(chatRoomId, messageId, message.getContentDigest()));
+        List<Long> memberIds = membershipIndex.getMemberIds(chatRoomId);
+        afterCommit(() -> counterService.onMessageDeleted(
+            chatRoomId, messageId, requester.getId(), memberIds));
+    }
+    
+    /**
+     * Mark a chat room as read by a user, up to a message id or up to the latest message
+     */
+    public void markRoomRead(Long chatRoomId, Long userId, Long upToMessageId) {
+        if (!membershipIndex.isMember(chatRoomId, userId)) {
+            throw new AccessDeniedException("Not a member of this chat room");
+        }
+        counterService.onMessagesRead(chatRoomId, userId, upToMessageId);
+    }
+    
+    /**
+     * Record the persist event once the message's transaction has committed, so its
+     * duration includes the commit
+     */
+    private void recordPersisted(MessagePersistEvent event, String kind, Long chatRoomId, Message message) {
+        event.traceId = PipelineTrace.current();
+        event.kind = kind;
+        event.chatRoomId = chatRoomId;
+        event.messageId = message.getId();
+        afterCommit(event::commit);
+    }
+    
+    /**
+     * Run an action once the current transaction has committed, or immediately without one
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+    
     /**
      * Get user's chat rooms
-     * TODO: Implement user chat room retrieval
      */
+    @Transactional(readOnly = true)
     public List<ChatRoom> getUserChatRooms(Long userId) {
-        // Implementation coming soon
-        return null;
+        return chatRoomRepository.findByMembersContaining(userId);
     }
     
     /**
@@ -0,0 +1,368 @@
+package com.sparkchat.service;
+
+import com.sparkchat.dto.CreateUploadRequest;
+import com.sparkchat.dto.AttachmentDto;
+import com.sparkchat.dto.UploadSessionDto;
+import com.sparkchat.model.Attachment;
+import com.sparkchat.model.StoredBlob;
+import com.sparkchat.model.UploadSession;
+import com.sparkchat.repository.UploadSessionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Resumable chunked uploads into the content-addressed BlobStore
+ *
+ * A client announces the file (optionally with its SHA-256), then sends fixed-size chunks
+ * in any order, each with its own SHA-256 so a corrupted chunk is rejected and resent alone. Received chunks are
+ * kept as separate files, so after a dropped connection or a restart the client asks
+ * which chunks are present and sends only the rest.
+ *
+ * Announced content that is already stored is attached without any transfer, but a digest
+ * alone would hand any stored file to whoever learns its hash. So this only happens at once
+ * when the uploader can already read the content in one of their rooms; otherwise the
+ * session carries a one-time challenge for a few byte ranges chosen from a random nonce,
+ * and only a correct answer attaches the stored content. The challenge is issued whether
+ * or not the content exists, so it reveals nothing about what is stored.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+    static final int PROOF_RANGE_COUNT = 4;
+    static final int PROOF_RANGE_LENGTH = 256;
+
+    private final UploadSessionRepository sessionRepository;
+    private final AttachmentService attachmentService;
+    private final BlobStore blobStore;
+    private final int chunkSize;
+    private final long sessionTtlHours;
+
+    private final ReentrantLock[] sessionLocks = new ReentrantLock[32];
+    private final SecureRandom random = new SecureRandom();
+
+    public ChunkedUploadService(UploadSessionRepository sessionRepository,
+                                AttachmentService attachmentService,
+                                BlobStore blobStore,
+                                @Value("${sparkchat.uploads.chunk-size-bytes:4194304}") int chunkSize,
+                                @Value("${sparkchat.uploads.session-ttl-hours:24}") long sessionTtlHours) {
+        this.sessionRepository = sessionRepository;
+        this.attachmentService = attachmentService;
+        this.blobStore = blobStore;
+        this.chunkSize = chunkSize;
+        this.sessionTtlHours = sessionTtlHours;
+        for (int i = 0; i < sessionLocks.length; i++) {
+            sessionLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Start an upload, or attach known content immediately when the uploader can already read it
+     */
+    public UploadSessionDto create(CreateUploadRequest request, Long userId) throws IOException {
+        attachmentService.checkUpload(request.getRoomId(), userId, request.getFileName(), request.getSize());
+
+        String expectedDigest = request.getSha256() != null ? request.getSha256().toLowerCase() : null;
+        if (expectedDigest != null && !BlobStore.isDigest(expectedDigest)) {
+            throw new RuntimeException("sha256 must be 64 hex characters");
+        }
+        if (expectedDigest != null) {
+            Optional<Attachment> existing = attachmentService.attachReadable(request.getRoomId(), userId,
+                request.getFileName(), request.getContentType(), expectedDigest, request.getSize());
+            if (existing.isPresent()) {
+                return UploadSessionDto.completed(new AttachmentDto(existing.get()));
+            }
+        }
+
+        UploadSession session = new UploadSession();
+        session.setId(UUID.randomUUID().toString());
+        session.setChatRoomId(request.getRoomId());
+        session.setUserId(userId);
+        session.setFileName(request.getFileName());
+        session.setContentType(request.getContentType() != null ? request.getContentType() : "application/octet-stream");
+        session.setTotalSize(request.getSize());
+        session.setChunkSize(chunkSize);
+        session.setExpectedDigest(expectedDigest);
+        if (expectedDigest != null) {
+            byte[] nonce = new byte[16];
+            random.nextBytes(nonce);
+            session.setProofNonce(BlobStore.toHex(nonce));
+        }
+        session.setExpiresAt(LocalDateTime.now().plusHours(sessionTtlHours));
+        sessionRepository.save(session);
+
+        Files.createDirectories(chunkDir(session));
+        return toDto(session, List.of());
+    }
+
+    /**
+     * Get the state of an upload, including which chunks have been received
+     */
+    public UploadSessionDto getStatus(String uploadId, Long userId) throws IOException {
+        UploadSession session = getSession(uploadId, userId);
+        return toDto(session, receivedChunks(session));
+    }
+
+    /**
+     * Receive one chunk, verifying its length and SHA-256 before it counts as received
+     */
+    public UploadSessionDto putChunk(String uploadId, int index, String chunkSha256, Long userId,
+                                     InputStream body) throws IOException {
+        UploadSession session = getSession(uploadId, userId);
+        if (index < 0 || index >= session.getTotalChunks()) {
+            throw new RuntimeException("Chunk index out of range");
+        }
+        if (chunkSha256 == null || !BlobStore.isDigest(chunkSha256.toLowerCase())) {
+            throw new RuntimeException("X-Chunk-SHA256 header with the chunk's hex digest is required");
+        }
+
+        long expectedLength = session.getChunkLength(index);
+        Path partFile = chunkDir(session).resolve(index + ".part-" + UUID.randomUUID());
+        try {
+            MessageDigest digest = AttachmentService.sha256();
+            long length = copyExactly(body, partFile, digest, expectedLength);
+            if (length != expectedLength) {
+                throw new RuntimeException("Chunk " + index + " must be " + expectedLength + " bytes, got " + length);
+            }
+            if (!BlobStore.toHex(digest.digest()).equals(chunkSha256.toLowerCase())) {
+                throw new RuntimeException("Chunk " + index + " failed its SHA-256 check, resend it");
+            }
+            Files.move(partFile, chunkDir(session).resolve(Integer.toString(index)),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(partFile);
+        }
+        return toDto(session, receivedChunks(session));
+    }
+
+    /**
+     * Answer the upload's proof-of-possession challenge. A correct proof attaches the stored
+     * content and completes the upload; otherwise the upload stays open for chunks. Each
+     * challenge can be answered once.
+     */
+    public UploadSessionDto prove(String uploadId, String proof, Long userId) throws IOException {
+        ReentrantLock lock = sessionLocks[Math.floorMod(uploadId.hashCode(), sessionLocks.length)];
+        lock.lock();
+        try {
+            UploadSession session = getSession(uploadId, userId);
+            String nonce = session.getProofNonce();
+            if (nonce == null) {
+                throw new RuntimeException("Upload has no open proof challenge");
+            }
+            session.setProofNonce(null);
+            sessionRepository.save(session);
+
+            Optional<StoredBlob> blob = blobStore.reuse(session.getExpectedDigest(), session.getTotalSize());
+            if (blob.isPresent()) {
+                String expected = computeProof(nonce, blobStore.resolve(blob.get().getStorageKey()),
+                    proofRanges(nonce, session.getTotalSize()));
+                if (proof != null && MessageDigest.isEqual(expected.getBytes(), proof.toLowerCase().getBytes())) {
+                    Attachment attachment = attachmentService.createAttachment(session.getChatRoomId(), userId,
+                        session.getFileName(), session.getContentType(), blob.get());
+                    discard(session);
+                    return UploadSessionDto.completed(new AttachmentDto(attachment));
+                }
+            }
+            logger.debug("Proof for upload {} not accepted, expecting chunks", uploadId);
+            return toDto(session, receivedChunks(session));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Assemble the received chunks into a stored blob and attach it to the room
+     */
+    public UploadSessionDto complete(String uploadId, Long userId) throws IOException {
+        ReentrantLock lock = sessionLocks[Math.floorMod(uploadId.hashCode(), sessionLocks.length)];
+        lock.lock();
+        try {
+            UploadSession session = getSession(uploadId, userId);
+            List<Integer> received = receivedChunks(session);
+            if (received.size() != session.getTotalChunks()) {
+                throw new RuntimeException("Upload is missing " + (session.getTotalChunks() - received.size()) + " chunks");
+            }
+
+            Path assembled = blobStore.createTempFile("assembled-");
+            try {
+                MessageDigest digest = AttachmentService.sha256();
+                assemble(session, assembled, digest);
+                String actualDigest = BlobStore.toHex(digest.digest());
+                if (session.getExpectedDigest() != null && !session.getExpectedDigest().equals(actualDigest)) {
+                    throw new RuntimeException("Assembled file does not match the announced sha256");
+                }
+
+                StoredBlob blob = blobStore.store(assembled, actualDigest, session.getTotalSize());
+                Attachment attachment = attachmentService.createAttachment(session.getChatRoomId(), userId,
+                    session.getFileName(), session.getContentType(), blob);
+                discard(session);
+                return UploadSessionDto.completed(new AttachmentDto(attachment));
+            } finally {
+                Files.deleteIfExists(assembled);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The [offset, length] ranges a challenge asks for, derived from its nonce so they need
+     * not be stored: the whole file when it is small, otherwise PROOF_RANGE_COUNT ranges of
+     * PROOF_RANGE_LENGTH bytes at unpredictable offsets.
+     */
+    static List<long[]> proofRanges(String nonce, long size) {
+        if (size <= (long) PROOF_RANGE_COUNT * PROOF_RANGE_LENGTH) {
+            return List.of(new long[] { 0, size });
+        }
+        SplittableRandom offsets = new SplittableRandom(HexFormat.fromHexDigitsToLong(nonce, 0, 16));
+        List<long[]> ranges = new ArrayList<>(PROOF_RANGE_COUNT);
+        for (int i = 0; i < PROOF_RANGE_COUNT; i++) {
+            ranges.add(new long[] { offsets.nextLong(size - PROOF_RANGE_LENGTH + 1), PROOF_RANGE_LENGTH });
+        }
+        return ranges;
+    }
+
+    /**
+     * Hex SHA-256 of the nonce's bytes followed by the given ranges of the file, in order
+     */
+    static String computeProof(String nonce, Path file, List<long[]> ranges) throws IOException {
+        MessageDigest digest = AttachmentService.sha256();
+        digest.update(HexFormat.of().parseHex(nonce));
+        try (FileChannel channel = FileChannel.open(file)) {
+            for (long[] range : ranges) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) range[1]);
+                long position = range[0];
+                while (buffer.hasRemaining()) {
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        throw new IOException("Stored content is shorter than its recorded size");
+                    }
+                    position += read;
+                }
+                digest.update(buffer.flip());
+            }
+        }
+        return BlobStore.toHex(digest.digest());
+    }
+
+    /**
+     * Remove uploads that were abandoned before completion
+     */
+    @Scheduled(fixedDelayString = "${sparkchat.uploads.cleanup-interval-ms:600000}")
+    public void removeExpiredSessions() {
+        List<UploadSession> expired = sessionRepository.findByExpiresAtBefore(LocalDateTime.now());
+        for (UploadSession session : expired) {
+            try {
+                discard(session);
+            } catch (Exception e) {
+                logger.error("Failed to remove expired upload {}: {}", session.getId(), e.getMessage());
+            }
+        }
+        if (!expired.isEmpty()) {
+            logger.info("Removed {} expired uploads", expired.size());
+        }
+    }
+
+    private UploadSession getSession(String uploadId, Long userId) {
+        UploadSession session = sessionRepository.findById(uploadId)
+                .filter(found -> !found.isExpired())
+                .orElseThrow(() -> new RuntimeException("Upload not found or expired"));
+        if (!session.getUserId().equals(userId)) {
+            throw new AccessDeniedException("Upload belongs to another user");
+        }
+        return session;
+    }
+
+    private void assemble(UploadSession session, Path assembled, MessageDigest digest) throws IOException {
+        byte[] buffer = new byte[AttachmentService.COPY_BUFFER_SIZE];
+        try (OutputStream out = Files.newOutputStream(assembled)) {
+            for (int index = 0; index < session.getTotalChunks(); index++) {
+                try (InputStream in = Files.newInputStream(chunkDir(session).resolve(Integer.toString(index)))) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        digest.update(buffer, 0, read);
+                        out.write(buffer, 0, read);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long copyExactly(InputStream body, Path target, MessageDigest digest, long limit) throws IOException {
+        byte[] buffer = new byte[AttachmentService.COPY_BUFFER_SIZE];
+        long length = 0;
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                length += read;
+                if (length > limit) {
+                    return length;
+                }
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+            }
+        }
+        return length;
+    }
+
+    private List<Integer> receivedChunks(UploadSession session) throws IOException {
+        Path dir = chunkDir(session);
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        List<Integer> received = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(path -> path.getFileName().toString())
+                 .filter(name -> name.chars().allMatch(Character::isDigit))
+                 .map(Integer::valueOf)
+                 .sorted()
+                 .forEach(received::add);
+        }
+        return received;
+    }
+
+    private void discard(UploadSession session) throws IOException {
+        FileSystemUtils.deleteRecursively(chunkDir(session));
+        sessionRepository.delete(session);
+    }
+
+    private Path chunkDir(UploadSession session) {
+        return blobStore.resolve("uploads/" + session.getId());
+    }
+
+    private UploadSessionDto toDto(UploadSession session, List<Integer> received) {
+        UploadSessionDto dto = UploadSessionDto.inProgress(session.getId(), session.getChunkSize(),
+            session.getTotalChunks(), received);
+        if (session.getProofNonce() != null) {
+            dto.setProofNonce(session.getProofNonce());
+            dto.setProofRanges(proofRanges(session.getProofNonce(), session.getTotalSize()));
+        }
+        return dto;
+    }
+}
@@ -0,0 +1,314 @@
+package com.sparkchat.service;
+
+import com.sparkchat.model.ChatCounter;
+import com.sparkchat.model.RoomMemberKey;
+import com.sparkchat.repository.ChatCounterRepository;
+import com.sparkchat.repository.MessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Incrementally maintained message and unread counters
+ *
+ * Per-room message counts are kept in memory as striped LongAdders, so concurrent
+ * senders never contend on a single cell. Per-user-per-room unread counts are AtomicLongs:
+ * only senders to that one member touch them, and a read must replace the value without
+ * losing increments that race with it. Changed counters are flushed to the chat_counters table in batches; badge reads
+ * are served from memory and never touch the messages table.
+ *
+ * After a restart the room totals are recomputed with one grouped query and each
+ * unread row is topped up with the messages that arrived after its last flush. Members
+ * without a row yet get the messages after their room's last flush.
+ */
+@Service
+public class CounterService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CounterService.class);
+
+    private final ChatCounterRepository counterRepository;
+    private final MessageRepository messageRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${sparkchat.counters.flush-batch-size:500}")
+    private int flushBatchSize;
+
+    private final ConcurrentHashMap<Long, RoomCounter> roomCounters = new ConcurrentHashMap<>();
+
+    // userId -> chatRoomId -> unread counter
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<Long, UnreadCounter>> unreadByUser = new ConcurrentHashMap<>();
+
+    private final Set<RoomMemberKey> dirtyKeys = ConcurrentHashMap.newKeySet();
+
+    public CounterService(ChatCounterRepository counterRepository,
+                          MessageRepository messageRepository,
+                          PlatformTransactionManager transactionManager) {
+        this.counterRepository = counterRepository;
+        this.messageRepository = messageRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Count a newly sent message for the room and as unread for every other member
+     */
+    public void onMessageSent(Long chatRoomId, Long messageId, Long senderId, Collection<Long> memberIds) {
+        RoomCounter room = room(chatRoomId);
+        room.messages.increment();
+        room.lastMessageId.accumulateAndGet(messageId, Math::max);
+        markDirty(chatRoomId, ChatCounter.ROOM_TOTAL);
+
+        for (Long memberId : memberIds) {
+            if (memberId.equals(senderId)) {
+                continue;
+            }
+            UnreadCounter counter = unread(chatRoomId, memberId);
+            if (messageId > counter.readUpTo.get()) {
+                counter.unread.incrementAndGet();
+                markDirty(chatRoomId, memberId);
+            }
+        }
+    }
+
+    /**
+     * Remove a deleted message from the room count and from the unread count of
+     * members who had not read it yet
+     */
+    public void onMessageDeleted(Long chatRoomId, Long messageId, Long senderId, Collection<Long> memberIds) {
+        room(chatRoomId).messages.decrement();
+        markDirty(chatRoomId, ChatCounter.ROOM_TOTAL);
+
+        for (Long memberId : memberIds) {
+            if (memberId.equals(senderId)) {
+                continue;
+            }
+            UnreadCounter counter = existingUnread(chatRoomId, memberId);
+            if (counter != null && messageId > counter.readUpTo.get()
+                    && counter.unread.getAndUpdate(value -> value > 0 ? value - 1 : value) > 0) {
+                markDirty(chatRoomId, memberId);
+            }
+        }
+    }
+
+    /**
+     * Mark a room as read by a user up to the given message (or up to the latest one)
+     *
+     * The position comes from the client, so it is capped at the latest message: one beyond
+     * it would otherwise stick, as the read position only moves forward, and hide every later
+     * message. The unread count is rebuilt from the highest position read so far with one
+     * query over the messages up to the latest one seen here. Sends and deletes that change
+     * the counter meanwhile are carried over onto the new count rather than lost; one landing
+     * in the instant the count runs may be counted twice, until the next read recounts.
+     */
+    public void onMessagesRead(Long chatRoomId, Long userId, Long upToMessageId) {
+        UnreadCounter counter = unread(chatRoomId, userId);
+        long observed = counter.unread.get();
+        long latest = getLastMessageId(chatRoomId);
+        long upTo = upToMessageId != null ? Math.min(upToMessageId, latest) : latest;
+
+        long previous = counter.readUpTo.getAndAccumulate(upTo, Math::max);
+        if (upTo <= previous && observed == 0) {
+            return;
+        }
+        long readUpTo = Math.max(previous, upTo);
+
+        // Partial read: only the tail after the read position is counted again
+        long remaining = readUpTo >= latest ? 0L
+                : messageRepository.countUnreadBetween(chatRoomId, userId, readUpTo, latest);
+        long current;
+        do {
+            current = counter.unread.get();
+        } while (!counter.unread.compareAndSet(current, Math.max(0L, remaining + current - observed)));
+        markDirty(chatRoomId, userId);
+    }
+
+    /**
+     * Get the id of the latest message sent to a room, or 0 if none is known
+     */
+    public long getLastMessageId(Long chatRoomId) {
+        RoomCounter room = roomCounters.get(chatRoomId);
+        return room != null ? room.lastMessageId.get() : 0L;
+    }
+
+    /**
+     * Get the number of live messages in a room
+     */
+    public long getMessageCount(Long chatRoomId) {
+        RoomCounter room = roomCounters.get(chatRoomId);
+        return room != null ? room.messages.sum() : 0L;
+    }
+
+    /**
+     * Get the unread count of one user in one room
+     */
+    public long getUnreadCount(Long chatRoomId, Long userId) {
+        UnreadCounter counter = existingUnread(chatRoomId, userId);
+        return counter != null ? Math.max(0L, counter.unread.get()) : 0L;
+    }
+
+    /**
+     * Get all non-zero unread counts of a user, keyed by chat room id
+     */
+    public Map<Long, Long> getUnreadCounts(Long userId) {
+        Map<Long, UnreadCounter> rooms = unreadByUser.get(userId);
+        if (rooms == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<Long, Long> counts = new HashMap<>();
+        rooms.forEach((chatRoomId, counter) -> {
+            long value = counter.unread.get();
+            if (value > 0) {
+                counts.put(chatRoomId, value);
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Write changed counters to the chat_counters table in batches
+     */
+    @Scheduled(fixedDelayString = "${sparkchat.counters.flush-interval-ms:5000}")
+    public void flush() {
+        if (dirtyKeys.isEmpty()) {
+            return;
+        }
+
+        List<RoomMemberKey> batch = new ArrayList<>(flushBatchSize);
+        Iterator<RoomMemberKey> iterator = dirtyKeys.iterator();
+        while (iterator.hasNext()) {
+            // Removing before the value is read means a concurrent update re-marks the key
+            batch.add(iterator.next());
+            iterator.remove();
+            if (batch.size() >= flushBatchSize) {
+                writeBatch(batch);
+                batch = new ArrayList<>(flushBatchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    /**
+     * Rebuild the in-memory counters from the database on startup
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcile() {
+        transactionTemplate.executeWithoutResult(status -> {
+            for (Object[] row : messageRepository.countLiveMessagesGroupedByRoom()) {
+                Long chatRoomId = (Long) row[0];
+                RoomCounter room = room(chatRoomId);
+                room.messages.add(((Number) row[1]).longValue());
+                room.lastMessageId.accumulateAndGet(((Number) row[2]).longValue(), Math::max);
+                markDirty(chatRoomId, ChatCounter.ROOM_TOTAL);
+            }
+
+            int unreadRows = 0;
+            for (ChatCounter row : counterRepository.findAll()) {
+                if (row.isRoomTotal()) {
+                    continue;
+                }
+                long missed = messageRepository.countUnreadAfter(
+                    row.getChatRoomId(), row.getUserId(), Math.max(row.getLastMessageId(), row.getReadUpTo()));
+
+                UnreadCounter counter = unread(row.getChatRoomId(), row.getUserId());
+                counter.unread.addAndGet(row.getValue() + missed);
+                counter.readUpTo.accumulateAndGet(row.getReadUpTo(), Math::max);
+                if (missed > 0) {
+                    markDirty(row.getChatRoomId(), row.getUserId());
+                }
+                unreadRows++;
+            }
+
+            // Members whose first unread messages never reached a flush before a crash
+            for (Object[] row : messageRepository.countUnreadForMembersWithoutCounter()) {
+                Long chatRoomId = (Long) row[0];
+                Long userId = (Long) row[1];
+                unread(chatRoomId, userId).unread.addAndGet(((Number) row[2]).longValue());
+                markDirty(chatRoomId, userId);
+                unreadRows++;
+            }
+
+            logger.info("Reconciled counters for {} rooms and {} unread entries", roomCounters.size(), unreadRows);
+        });
+    }
+
+    private void writeBatch(List<RoomMemberKey> batch) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                Map<RoomMemberKey, ChatCounter> existing = new HashMap<>();
+                for (ChatCounter row : counterRepository.findAllById(batch)) {
+                    existing.put(row.getId(), row);
+                }
+
+                List<ChatCounter> rows = new ArrayList<>(batch.size());
+                for (RoomMemberKey key : batch) {
+                    ChatCounter row = existing.get(key);
+                    if (row == null) {
+                        row = new ChatCounter(key.getChatRoomId(), key.getUserId());
+                    }
+                    copyState(key, row);
+                    rows.add(row);
+                }
+                counterRepository.saveAll(rows);
+            });
+        } catch (Exception e) {
+            logger.error("Counter flush failed, will retry {} counters: {}", batch.size(), e.getMessage());
+            dirtyKeys.addAll(batch);
+        }
+    }
+
+    private void copyState(RoomMemberKey key, ChatCounter row) {
+        RoomCounter room = roomCounters.get(key.getChatRoomId());
+        long lastMessageId = room != null ? room.lastMessageId.get() : 0L;
+        row.setLastMessageId(lastMessageId);
+
+        if (key.getUserId() == ChatCounter.ROOM_TOTAL) {
+            row.setValue(room != null ? room.messages.sum() : 0L);
+        } else {
+            UnreadCounter counter = existingUnread(key.getChatRoomId(), key.getUserId());
+            row.setValue(counter != null ? Math.max(0L, counter.unread.get()) : 0L);
+            row.setReadUpTo(counter != null ? counter.readUpTo.get() : 0L);
+        }
+    }
+
+    private void markDirty(Long chatRoomId, Long userId) {
+        dirtyKeys.add(new RoomMemberKey(chatRoomId, userId));
+    }
+
+    private RoomCounter room(Long chatRoomId) {
+        return roomCounters.computeIfAbsent(chatRoomId, id -> new RoomCounter());
+    }
+
+    private UnreadCounter unread(Long chatRoomId, Long userId) {
+        return unreadByUser
+                .computeIfAbsent(userId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(chatRoomId, id -> new UnreadCounter());
+    }
+
+    private UnreadCounter existingUnread(Long chatRoomId, Long userId) {
+        Map<Long, UnreadCounter> rooms = unreadByUser.get(userId);
+        return rooms != null ? rooms.get(chatRoomId) : null;
+    }
+
+    private static final class RoomCounter {
+        final LongAdder messages = new LongAdder();
+        final AtomicLong lastMessageId = new AtomicLong();
+    }
+
+    private static final class UnreadCounter {
+        final AtomicLong unread = new AtomicLong();
+        final AtomicLong readUpTo = new AtomicLong();
+    }
+}
@@ -0,0 +1,65 @@
+package com.sparkchat.service;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Drains a user's offline mailbox once their subscription to it is in place
+ *
+ * SessionSubscribeEvent fires before the inbound channel has processed the SUBSCRIBE,
+ * so a burst sent from it could reach the broker ahead of the subscription and be lost.
+ * This runs after the user destination handler has resolved the subscription and
+ * registered it with the broker.
+ *
+ * It also records the subscription in the session's attributes, and forgets it on
+ * UNSUBSCRIBE, so the outbound buffers know whether the client reads the mailbox.
+ *
+ * The mailbox service is looked up lazily: it needs the messaging template, which is
+ * built from the WebSocket configuration this interceptor is registered by.
+ */
+@Component
+public class MailboxDrainInterceptor implements ExecutorChannelInterceptor {
+
+    private static final String MAILBOX_DESTINATION = "/user" + OfflineMailboxService.MAILBOX_QUEUE;
+
+    private final ObjectProvider<OfflineMailboxService> mailboxServiceProvider;
+
+    public MailboxDrainInterceptor(ObjectProvider<OfflineMailboxService> mailboxServiceProvider) {
+        this.mailboxServiceProvider = mailboxServiceProvider;
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        if (ex != null || !(handler instanceof UserDestinationMessageHandler)) {
+            return;
+        }
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        Map<String, Object> attributes = SimpMessageHeaderAccessor.getSessionAttributes(message.getHeaders());
+        String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(message.getHeaders());
+        if (attributes == null || subscriptionId == null) {
+            return;
+        }
+
+        if (type == SimpMessageType.UNSUBSCRIBE) {
+            attributes.remove(OfflineMailboxService.SUBSCRIPTION_ATTRIBUTE, subscriptionId);
+            return;
+        }
+        if (type != SimpMessageType.SUBSCRIBE
+                || !MAILBOX_DESTINATION.equals(SimpMessageHeaderAccessor.getDestination(message.getHeaders()))) {
+            return;
+        }
+        attributes.put(OfflineMailboxService.SUBSCRIPTION_ATTRIBUTE, subscriptionId);
+        if (attributes.get("userId") instanceof Long && attributes.get("username") != null) {
+            mailboxServiceProvider.getObject().drain((Long) attributes.get("userId"), (String) attributes.get("username"));
+        }
+    }
+}
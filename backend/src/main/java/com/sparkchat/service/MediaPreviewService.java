@@ -0,0 +1,292 @@
+package com.sparkchat.service;
+
+import com.sparkchat.model.Message;
+import com.sparkchat.model.StoredBlob;
+import com.sparkchat.repository.MessageRepository;
+import com.sparkchat.repository.StoredBlobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Generates thumbnails and BlurHash placeholders for image attachments
+ *
+ * Work runs on the bounded media preview executor and is requested after the upload or
+ * the message has been committed, so neither path waits for image decoding. Previews
+ * belong to the stored content, so a forwarded or re-uploaded image is processed once;
+ * the thumbnail is written next to the original blob. When a preview becomes ready it is
+ * copied onto every live message carrying that content and a MessagePreviewReadyEvent
+ * is published for each, so the update can be pushed to the room.
+ */
+@Service
+public class MediaPreviewService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaPreviewService.class);
+
+    static final String THUMBNAIL_SUFFIX = ".thumb.jpg";
+
+    private static final int BLURHASH_SAMPLE_EDGE = 32;
+
+    private final StoredBlobRepository blobRepository;
+    private final MessageRepository messageRepository;
+    private final BlobStore blobStore;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ThreadPoolTaskExecutor previewExecutor;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${sparkchat.previews.max-edge-pixels:320}")
+    private int thumbnailMaxEdge;
+
+    @Value("${sparkchat.previews.max-source-pixels:100000000}")
+    private long maxSourcePixels;
+
+    @Value("${sparkchat.previews.jpeg-quality:0.8}")
+    private float jpegQuality;
+
+    private final ReentrantLock[] digestLocks = new ReentrantLock[32];
+
+    private final LongAdder generatedCount = new LongAdder();
+    private final LongAdder unsupportedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    public MediaPreviewService(StoredBlobRepository blobRepository,
+                               MessageRepository messageRepository,
+                               BlobStore blobStore,
+                               ApplicationEventPublisher eventPublisher,
+                               @Qualifier("mediaPreviewExecutor") ThreadPoolTaskExecutor previewExecutor,
+                               PlatformTransactionManager transactionManager) {
+        this.blobRepository = blobRepository;
+        this.messageRepository = messageRepository;
+        this.blobStore = blobStore;
+        this.eventPublisher = eventPublisher;
+        this.previewExecutor = previewExecutor;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        for (int i = 0; i < digestLocks.length; i++) {
+            digestLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Whether a preview can be generated for content of this type
+     */
+    public static boolean isPreviewable(String contentType) {
+        return contentType != null && contentType.startsWith("image/") && !contentType.startsWith("image/svg");
+    }
+
+    /**
+     * Get the URL of the thumbnail of an attachment URL
+     */
+    public static String thumbnailUrl(String fileUrl) {
+        return fileUrl + "/thumbnail";
+    }
+
+    /**
+     * Queue preview generation for stored content and its messages. Never blocks: when
+     * the queue is full the request is dropped and the next message carrying the same
+     * content asks again.
+     */
+    public void request(String digest) {
+        try {
+            previewExecutor.execute(() -> process(digest));
+        } catch (TaskRejectedException e) {
+            rejectedCount.increment();
+            logger.warn("Preview queue is full, skipping {}", digest);
+        }
+    }
+
+    /**
+     * Get the blob of some content if its preview is ready
+     */
+    public Optional<StoredBlob> findReady(String digest) {
+        return blobRepository.findById(digest)
+                .filter(blob -> blob.getPreviewStatus() == StoredBlob.PreviewStatus.READY);
+    }
+
+    /**
+     * Get the thumbnail file of some content if its preview is ready
+     */
+    public Optional<Path> getThumbnailFile(String digest) {
+        return findReady(digest).map(blob -> blobStore.resolve(blob.getThumbnailKey()));
+    }
+
+    public long getGeneratedCount() {
+        return generatedCount.sum();
+    }
+
+    public long getUnsupportedCount() {
+        return unsupportedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public int getQueuedCount() {
+        return previewExecutor.getThreadPoolExecutor().getQueue().size();
+    }
+
+    void process(String digest) {
+        List<MessagePreviewReadyEvent> updated;
+        // Serialized per digest so concurrent requests generate once and update each message once
+        ReentrantLock lock = digestLocks[Math.floorMod(digest.hashCode(), digestLocks.length)];
+        lock.lock();
+        try {
+            StoredBlob blob = blobRepository.findById(digest).orElse(null);
+            if (blob == null) {
+                return;
+            }
+            if (blob.getPreviewStatus() == null) {
+                generate(blob);
+            }
+            if (blob.getPreviewStatus() != StoredBlob.PreviewStatus.READY) {
+                return;
+            }
+            updated = applyToMessages(blob);
+        } catch (Exception e) {
+            // Left unprocessed so a later request retries
+            logger.error("Failed to generate preview for {}: {}", digest, e.getMessage());
+            return;
+        } finally {
+            lock.unlock();
+        }
+        updated.forEach(eventPublisher::publishEvent);
+    }
+
+    private void generate(StoredBlob blob) throws IOException {
+        BufferedImage source = decode(blobStore.resolve(blob.getStorageKey()));
+        if (source == null) {
+            unsupportedCount.increment();
+            blob.setPreviewStatus(StoredBlob.PreviewStatus.UNSUPPORTED);
+            transactionTemplate.executeWithoutResult(status ->
+                blobRepository.updatePreview(blob.getDigest(), StoredBlob.PreviewStatus.UNSUPPORTED, null, null));
+            return;
+        }
+
+        BufferedImage thumbnail = scale(source, thumbnailMaxEdge);
+        String thumbnailKey = blob.getStorageKey() + THUMBNAIL_SUFFIX;
+        Path tempFile = blobStore.createTempFile("thumb-");
+        try {
+            writeJpeg(thumbnail, tempFile);
+            Files.move(tempFile, blobStore.resolve(thumbnailKey),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        String blurhash = BlurHash.encode(scale(thumbnail, BLURHASH_SAMPLE_EDGE), 4, 3);
+
+        blob.setPreviewStatus(StoredBlob.PreviewStatus.READY);
+        blob.setThumbnailKey(thumbnailKey);
+        blob.setBlurhash(blurhash);
+        transactionTemplate.executeWithoutResult(status ->
+            blobRepository.updatePreview(blob.getDigest(), StoredBlob.PreviewStatus.READY, thumbnailKey, blurhash));
+        generatedCount.increment();
+    }
+
+    private List<MessagePreviewReadyEvent> applyToMessages(StoredBlob blob) {
+        return transactionTemplate.execute(status -> {
+            List<MessagePreviewReadyEvent> events = new ArrayList<>();
+            for (Message message : messageRepository.findAwaitingPreview(blob.getDigest())) {
+                message.setThumbnailUrl(thumbnailUrl(message.getFileUrl()));
+                message.setBlurhash(blob.getBlurhash());
+                events.add(new MessagePreviewReadyEvent(message.getChatRoom().getId(), message.getId()));
+            }
+            return events;
+        });
+    }
+
+    /**
+     * Decode an image, subsampling large ones while reading so a full-resolution photo
+     * is never held in memory. Returns null for content that is not a readable image.
+     */
+    private BufferedImage decode(Path file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxSourcePixels) {
+                    return null;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(width, height) / (thumbnailMaxEdge * 2));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Unreadable image {}: {}", file.getFileName(), e.getMessage());
+                return null;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Scale an image to fit a square of the given edge, flattening transparency onto white
+     */
+    private static BufferedImage scale(BufferedImage source, int maxEdge) {
+        double factor = Math.min(1.0, (double) maxEdge / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * factor));
+
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private void writeJpeg(BufferedImage image, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.sparkchat.service;
+
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
+import com.sparkchat.model.CompressionDictionary;
+import com.sparkchat.repository.CompressionDictionaryRepository;
+import com.sparkchat.repository.MessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compresses message content with zstd dictionaries trained on the messages themselves
+ *
+ * A single chat message is too short for a compressor to find repetition in, but a
+ * dictionary of the phrases, words and markup common across messages lets even a short
+ * message be encoded as references into it. Dictionaries are retrained periodically
+ * from recent messages and adopted only when they compress a held-out sample better;
+ * every version stays loaded so rows packed with an older one remain readable.
+ *
+ * Values are written in the PackedContent format: raw when compression would not save
+ * space, otherwise a zstd frame stripped of everything the dictionary version already
+ * identifies, which keeps the per-message overhead to a few bytes. Compression contexts
+ * are pooled.
+ */
+@Service
+public class MessageContentCompressor implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageContentCompressor.class);
+
+    // Every tenth sample is held out of training to compare dictionaries
+    private static final int HOLDOUT_EVERY = 10;
+
+    private final CompressionDictionaryRepository dictionaryRepository;
+    private final MessageRepository messageRepository;
+
+    @Value("${sparkchat.compression.enabled:true}")
+    private boolean enabled;
+
+    @Value("${sparkchat.compression.level:6}")
+    private int level;
+
+    @Value("${sparkchat.compression.dictionary-size-bytes:16384}")
+    private int dictionarySize;
+
+    @Value("${sparkchat.compression.training-samples:20000}")
+    private int trainingSamples;
+
+    @Value("${sparkchat.compression.min-samples:1000}")
+    private int minSamples;
+
+    // Relative size reduction on the held-out sample a new dictionary must achieve
+    @Value("${sparkchat.compression.min-improvement:0.02}")
+    private double minImprovement;
+
+    private final Map<Integer, Dictionary> dictionaries = new ConcurrentHashMap<>();
+    private volatile Dictionary current;
+
+    // Held while training or loading a dictionary, which query the database; not a monitor,
+    // which would pin a virtual thread for the duration
+    private final ReentrantLock dictionaryLock = new ReentrantLock();
+
+    // Pooled rather than thread-local, as virtual threads are never reused and would each
+    // allocate native contexts of their own
+    private final Queue<ZstdCompressCtx> compressContexts = new ConcurrentLinkedQueue<>();
+    private final Queue<ZstdDecompressCtx> decompressContexts = new ConcurrentLinkedQueue<>();
+
+    public MessageContentCompressor(CompressionDictionaryRepository dictionaryRepository,
+                                    MessageRepository messageRepository) {
+        this.dictionaryRepository = dictionaryRepository;
+        this.messageRepository = messageRepository;
+    }
+
+    /**
+     * Load all stored dictionaries, training the first one when there are enough messages
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        for (CompressionDictionary stored : dictionaryRepository.findAll()) {
+            register(new Dictionary(stored.getVersion(), stored.getDictionary(), level));
+        }
+        if (current != null) {
+            logger.info("Loaded {} compression dictionaries, current version {}", dictionaries.size(), current.version);
+        } else if (enabled) {
+            train();
+        }
+    }
+
+    /**
+     * Get the dictionary version new content is packed with, or null to store it uncompressed
+     */
+    public Integer getCurrentVersion() {
+        Dictionary dictionary = current;
+        return enabled && dictionary != null ? dictionary.version : null;
+    }
+
+    /**
+     * Pack text with the given dictionary version
+     */
+    public byte[] pack(String text, int version) {
+        if (text == null) {
+            return null;
+        }
+        return pack(text.getBytes(StandardCharsets.UTF_8), dictionary(version));
+    }
+
+    /**
+     * Unpack a value written by pack with the given dictionary version
+     *
+     * @throws IllegalStateException if the value is malformed or claims more than PackedContent.MAX_TEXT_BYTES
+     */
+    public String unpack(byte[] packed, int version) {
+        if (packed == null) {
+            return null;
+        }
+        return PackedContent.unpack(packed, () -> dictionary(version).decompress, decompressContexts);
+    }
+
+    /**
+     * Train a dictionary from recent messages and adopt it if it beats the current one
+     *
+     * @return the version of the adopted dictionary, or null when none was adopted
+     */
+    @Scheduled(fixedDelayString = "${sparkchat.compression.retrain-interval-ms:86400000}",
+               initialDelayString = "${sparkchat.compression.retrain-interval-ms:86400000}")
+    public Integer train() {
+        dictionaryLock.lock();
+        try {
+            return trainDictionary();
+        } finally {
+            dictionaryLock.unlock();
+        }
+    }
+
+    private Integer trainDictionary() {
+        if (!enabled) {
+            return null;
+        }
+        List<byte[]> samples = loadSamples();
+        if (samples.size() < minSamples) {
+            logger.debug("Not training a compression dictionary: {} of {} samples", samples.size(), minSamples);
+            return null;
+        }
+
+        List<byte[]> holdout = new ArrayList<>(samples.size() / HOLDOUT_EVERY + 1);
+        long trainingBytes = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            if (i % HOLDOUT_EVERY == 0) {
+                holdout.add(samples.get(i));
+            } else {
+                trainingBytes += samples.get(i).length;
+            }
+        }
+
+        ZstdDictTrainer trainer = new ZstdDictTrainer((int) Math.min(Integer.MAX_VALUE, trainingBytes), dictionarySize);
+        for (int i = 0; i < samples.size(); i++) {
+            if (i % HOLDOUT_EVERY != 0) {
+                trainer.addSample(samples.get(i));
+            }
+        }
+
+        Dictionary candidate;
+        try {
+            Dictionary latest = current;
+            int version = latest != null ? latest.version + 1 : 1;
+            candidate = new Dictionary(version, trainer.trainSamples(), level);
+        } catch (ZstdException e) {
+            logger.warn("Failed to train compression dictionary: {}", e.getMessage());
+            return null;
+        }
+
+        long rawSize = 0;
+        for (byte[] sample : holdout) {
+            rawSize += sample.length;
+        }
+        long candidateSize = packedSize(holdout, candidate);
+        long currentSize = current != null ? packedSize(holdout, current) : rawSize;
+        if (current != null && candidateSize > currentSize * (1 - minImprovement)) {
+            logger.info("Keeping compression dictionary {}: held-out sample packs to {} bytes, retrained to {}",
+                current.version, currentSize, candidateSize);
+            candidate.close();
+            return null;
+        }
+
+        dictionaryRepository.save(new CompressionDictionary(candidate.version, candidate.bytes,
+            samples.size() - holdout.size(), trainingBytes));
+        register(candidate);
+        logger.info("Adopted compression dictionary {} trained on {} messages: held-out sample {} -> {} bytes",
+            candidate.version, samples.size() - holdout.size(), rawSize, candidateSize);
+        return candidate.version;
+    }
+
+    /**
+     * Get the number of dictionary versions loaded
+     */
+    public int getDictionaryCount() {
+        return dictionaries.size();
+    }
+
+    private List<byte[]> loadSamples() {
+        List<byte[]> samples = new ArrayList<>();
+        for (Object[] row : messageRepository.findRecentStoredContent(PageRequest.of(0, trainingSamples))) {
+            String text = row[2] == null ? (String) row[0] : unpack((byte[]) row[1], (Integer) row[2]);
+            if (text != null && !text.isEmpty()) {
+                samples.add(text.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return samples;
+    }
+
+    private long packedSize(List<byte[]> samples, Dictionary dictionary) {
+        long size = 0;
+        for (byte[] sample : samples) {
+            size += pack(sample, dictionary).length;
+        }
+        return size;
+    }
+
+    private byte[] pack(byte[] text, Dictionary dictionary) {
+        // Longer text is kept raw so that unpack never has to trust a length past the limit
+        if (text.length > PackedContent.MAX_TEXT_BYTES) {
+            return raw(text);
+        }
+        int bound = text.length + (text.length >> 8) + (text.length < (128 << 10) ? ((128 << 10) - text.length) >> 11 : 0);
+        byte[] out = new byte[1 + 5 + bound];
+        out[0] = PackedContent.FORMAT_ZSTD;
+        int position = PackedContent.writeLength(out, 1, text.length);
+
+        ZstdCompressCtx context = compressContexts.poll();
+        if (context == null) {
+            context = new ZstdCompressCtx().setMagicless(true).setChecksum(false).setDictID(false).setContentSize(false);
+        }
+        int compressed;
+        try {
+            context.loadDict(dictionary.compress);
+            compressed = context.compressByteArray(out, position, out.length - position, text, 0, text.length);
+        } finally {
+            compressContexts.offer(context);
+        }
+
+        int packedLength = position + compressed;
+        if (packedLength >= 1 + text.length) {
+            return raw(text);
+        }
+        byte[] packed = new byte[packedLength];
+        System.arraycopy(out, 0, packed, 0, packedLength);
+        return packed;
+    }
+
+    private static byte[] raw(byte[] text) {
+        byte[] raw = new byte[1 + text.length];
+        raw[0] = PackedContent.FORMAT_RAW;
+        System.arraycopy(text, 0, raw, 1, text.length);
+        return raw;
+    }
+
+    private Dictionary dictionary(int version) {
+        Dictionary dictionary = dictionaries.get(version);
+        return dictionary != null ? dictionary : loadDictionary(version);
+    }
+
+    // Another instance may have trained a dictionary since this one started
+    private Dictionary loadDictionary(int version) {
+        dictionaryLock.lock();
+        try {
+            Dictionary dictionary = dictionaries.get(version);
+            if (dictionary == null) {
+                CompressionDictionary stored = dictionaryRepository.findById(version)
+                        .orElseThrow(() -> new IllegalStateException("Unknown compression dictionary version " + version));
+                dictionary = new Dictionary(version, stored.getDictionary(), level);
+                register(dictionary);
+            }
+            return dictionary;
+        } finally {
+            dictionaryLock.unlock();
+        }
+    }
+
+    private void register(Dictionary dictionary) {
+        dictionaries.put(dictionary.version, dictionary);
+        if (current == null || dictionary.version > current.version) {
+            current = dictionary;
+        }
+    }
+
+    private static final class Dictionary {
+        final int version;
+        final byte[] bytes;
+        final ZstdDictCompress compress;
+        final ZstdDictDecompress decompress;
+
+        Dictionary(int version, byte[] bytes, int level) {
+            this.version = version;
+            this.bytes = bytes;
+            this.compress = new ZstdDictCompress(bytes, level);
+            this.decompress = new ZstdDictDecompress(bytes);
+        }
+
+        void close() {
+            compress.close();
+            decompress.close();
+        }
+    }
+}
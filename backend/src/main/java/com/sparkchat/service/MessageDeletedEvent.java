@@ -0,0 +1,21 @@
+package com.sparkchat.service;
+
+/**
+ * Published inside the transaction that deletes a message
+ */
+public class MessageDeletedEvent {
+    
+    private final Long chatRoomId;
+    private final Long messageId;
+    private final String contentDigest;
+    
+    public MessageDeletedEvent(Long chatRoomId, Long messageId, String contentDigest) {
+        this.chatRoomId = chatRoomId;
+        this.messageId = messageId;
+        this.contentDigest = contentDigest;
+    }
+    
+    public Long getChatRoomId() { return chatRoomId; }
+    public Long getMessageId() { return messageId; }
+    public String getContentDigest() { return contentDigest; }
+}
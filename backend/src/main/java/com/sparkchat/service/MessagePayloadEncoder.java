@@ -0,0 +1,108 @@
+package com.sparkchat.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.sparkchat.dto.MessageDto;
+import com.sparkchat.dto.UserDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes chat messages once into immutable, ready-to-send STOMP messages
+ *
+ * The returned message carries the final JSON payload bytes and content type, so
+ * {@code SimpMessagingTemplate.send} can hand the same payload to every recipient
+ * without running message conversion or Jackson again; only the per-session STOMP
+ * headers are written for each delivery.
+ *
+ * Senders are rendered from a cache of pre-serialized JSON fragments, since the same
+ * few users send most messages and their summary rarely changes.
+ */
+@Component
+public class MessagePayloadEncoder {
+
+    private final ObjectWriter messageWriter;
+    private final ObjectMapper objectMapper;
+
+    @Value("${sparkchat.encoder.sender-cache-size:10000}")
+    private int senderCacheSize;
+
+    // "username\0displayName" -> JSON of the sender summary
+    private final ConcurrentHashMap<String, String> senderFragments = new ConcurrentHashMap<>();
+
+    public MessagePayloadEncoder(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        SimpleModule senderModule = new SimpleModule("sender-fragments");
+        senderModule.addSerializer(UserDto.class, new SenderSerializer());
+        this.messageWriter = objectMapper.copy().registerModule(senderModule).writerFor(MessageDto.class);
+    }
+
+    /**
+     * Encode a message to an immutable STOMP message that can be sent to any number of users
+     */
+    public Message<byte[]> encode(MessageDto message) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        return MessageBuilder.createMessage(toJson(message), accessor.getMessageHeaders());
+    }
+
+    /**
+     * Encode a message to its JSON payload bytes
+     */
+    public byte[] toJson(MessageDto message) {
+        try {
+            return messageWriter.writeValueAsBytes(message);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize message: " + e.getMessage());
+        }
+    }
+
+    public int getCachedSenderCount() {
+        return senderFragments.size();
+    }
+
+    private String senderFragment(UserDto sender) throws JsonProcessingException {
+        String key = sender.getUsername() + '\0' + sender.getDisplayName();
+        String fragment = senderFragments.get(key);
+        if (fragment == null) {
+            fragment = objectMapper.writeValueAsString(sender);
+            if (senderFragments.size() < senderCacheSize) {
+                senderFragments.putIfAbsent(key, fragment);
+            }
+        }
+        return fragment;
+    }
+
+    /**
+     * Only the summary a message carries (username and display name) is cached; any
+     * other sender shape is serialized normally so the output never changes.
+     */
+    private static boolean isSummary(UserDto user) {
+        return user.getId() == null && user.getEmail() == null && user.getProfilePictureUrl() == null
+            && !user.isOnline() && user.getLastSeen() == null && user.getCreatedAt() == null;
+    }
+
+    private final class SenderSerializer extends JsonSerializer<UserDto> {
+        @Override
+        public void serialize(UserDto sender, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            if (isSummary(sender)) {
+                generator.writeRawValue(senderFragment(sender));
+            } else {
+                generator.writeRawValue(objectMapper.writeValueAsString(sender));
+            }
+        }
+    }
+}
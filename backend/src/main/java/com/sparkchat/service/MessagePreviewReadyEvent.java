@@ -0,0 +1,18 @@
+package com.sparkchat.service;
+
+/**
+ * Published after the preview of a message's image has been stored on the message
+ */
+public class MessagePreviewReadyEvent {
+    
+    private final Long chatRoomId;
+    private final Long messageId;
+    
+    public MessagePreviewReadyEvent(Long chatRoomId, Long messageId) {
+        this.chatRoomId = chatRoomId;
+        this.messageId = messageId;
+    }
+    
+    public Long getChatRoomId() { return chatRoomId; }
+    public Long getMessageId() { return messageId; }
+}
@@ -0,0 +1,161 @@
+package com.sparkchat.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Meters for the path of a chat message from its SEND frame to the recipients' sockets
+ *
+ * As the first inbound interceptor it stamps every SEND frame with its arrival time, so
+ * handlers can report how long after arrival a message was persisted and handed to its
+ * recipients. Frames are also counted per destination in both directions. Destinations
+ * are normalised (ids become {id}) and capped, so clients cannot create unbounded series.
+ *
+ * Timers publish histogram buckets, so p99 latencies can be computed, and aggregated
+ * across instances, in Prometheus.
+ */
+@Component
+public class MessagingMetrics implements ChannelInterceptor {
+
+    /**
+     * Header holding the System.nanoTime() at which a SEND frame arrived
+     */
+    public static final String RECEIVED_AT_HEADER = "sparkchatReceivedAt";
+
+    public static final String DM = "dm";
+    public static final String ROOM = "room";
+
+    static final int MAX_DESTINATIONS = 100;
+
+    private static final Pattern ID = Pattern.compile("\\d+");
+
+    private final MeterRegistry registry;
+
+    private final Timer persistedDm;
+    private final Timer persistedRoom;
+    private final Timer deliveredDm;
+    private final Timer deliveredRoom;
+    private final Timer insertDm;
+    private final Timer insertRoom;
+    private final Timer outboundWait;
+
+    private final Map<String, Counter> inboundFrames = new ConcurrentHashMap<>();
+    private final Map<String, Counter> outboundFrames = new ConcurrentHashMap<>();
+
+    public MessagingMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.persistedDm = latency(DM, "persisted");
+        this.persistedRoom = latency(ROOM, "persisted");
+        this.deliveredDm = latency(DM, "delivered");
+        this.deliveredRoom = latency(ROOM, "delivered");
+        this.insertDm = insert(DM);
+        this.insertRoom = insert(ROOM);
+        this.outboundWait = Timer.builder("sparkchat.websocket.outbound.wait")
+                .description("Time a frame waited in its session's outbound buffer before being written")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(100_000))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(registry);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor != null && accessor.getCommand() == StompCommand.SEND) {
+            if (accessor.isMutable()) {
+                accessor.setHeader(RECEIVED_AT_HEADER, System.nanoTime());
+            }
+            count(inboundFrames, "sparkchat.stomp.frames.inbound", accessor.getDestination());
+        }
+        return message;
+    }
+
+    /**
+     * Get the arrival time of the frame being handled, or now if it was not stamped
+     */
+    public long receivedAt(SimpMessageHeaderAccessor accessor) {
+        Object receivedAt = accessor.getHeader(RECEIVED_AT_HEADER);
+        return receivedAt instanceof Long ? (Long) receivedAt : System.nanoTime();
+    }
+
+    /**
+     * Record that a message arriving at receivedAt is now stored and committed
+     */
+    public void recordPersisted(String kind, long receivedAt) {
+        (ROOM.equals(kind) ? persistedRoom : persistedDm).record(System.nanoTime() - receivedAt, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record that a message arriving at receivedAt has been handed to all its recipients' sessions
+     */
+    public void recordDelivered(String kind, long receivedAt) {
+        (ROOM.equals(kind) ? deliveredRoom : deliveredDm).record(System.nanoTime() - receivedAt, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time the database write of a message
+     */
+    public <T> T recordInsert(String kind, Supplier<T> insert) {
+        return (ROOM.equals(kind) ? insertRoom : insertDm).record(insert);
+    }
+
+    /**
+     * Record a frame written to a session after waiting since enqueuedNanos
+     */
+    public void recordOutbound(String destination, long enqueuedNanos) {
+        outboundWait.record(System.nanoTime() - enqueuedNanos, TimeUnit.NANOSECONDS);
+        count(outboundFrames, "sparkchat.stomp.frames.outbound", destination);
+    }
+
+    private void count(Map<String, Counter> counters, String name, String destination) {
+        String tag = destination != null ? ID.matcher(destination).replaceAll("{id}") : "none";
+        Counter counter = counters.get(tag);
+        if (counter == null) {
+            if (counters.size() >= MAX_DESTINATIONS) {
+                tag = "other";
+            }
+            counter = counters.computeIfAbsent(tag, t -> Counter.builder(name)
+                    .description("STOMP frames per destination")
+                    .tag("destination", t)
+                    .register(registry));
+        }
+        counter.increment();
+    }
+
+    private Timer latency(String kind, String stage) {
+        return Timer.builder("sparkchat.message.latency")
+                .description("Time from a message's SEND frame arriving to the given stage")
+                .tag("kind", kind)
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(registry);
+    }
+
+    private Timer insert(String kind) {
+        return Timer.builder("sparkchat.db.message.insert")
+                .description("Database write of a chat message")
+                .tag("kind", kind)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(100_000))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(registry);
+    }
+}
@@ -0,0 +1,401 @@
+package com.sparkchat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds messages for offline users and delivers them in one burst when they return
+ *
+ * Each user with pending messages has a mailbox of encoded message payloads. Recent
+ * entries are kept in memory; when a mailbox outgrows its share, the held entries are
+ * appended to the user's spill file in one write and memory starts over, so the file
+ * always holds the older entries and order is preserved. When the user subscribes to
+ * /user/queue/mailbox the file and memory are drained, in order, as a few large frames
+ * instead of one history query per room.
+ *
+ * The mailbox is a delivery shortcut; the database stays the source of truth. When a
+ * mailbox would exceed its disk limits, or has not been collected in time, further
+ * messages are dropped and the burst is flagged as truncated so the client loads the
+ * rest from history. Spill files do not survive a restart, since the memory part of
+ * their mailboxes is gone.
+ */
+@Service
+public class OfflineMailboxService {
+
+    private static final Logger logger = LoggerFactory.getLogger(OfflineMailboxService.class);
+
+    static final String MAILBOX_QUEUE = "/queue/mailbox";
+
+    /**
+     * Session attribute holding the id of the session's subscription to the mailbox queue;
+     * only such sessions have frames diverted to the mailbox or get it drained
+     */
+    public static final String SUBSCRIPTION_ATTRIBUTE = "mailboxSubscription";
+
+    private static final String SPILL_SUFFIX = ".mbox";
+
+    // Approximate memory of a held entry besides its share of the payload
+    private static final int ENTRY_OVERHEAD_BYTES = 32;
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final Path spillDir;
+
+    @Value("${sparkchat.mailbox.memory-messages:100}")
+    private int memoryMessages;
+
+    @Value("${sparkchat.mailbox.memory-budget-bytes:67108864}")
+    private long memoryBudgetBytes;
+
+    @Value("${sparkchat.mailbox.max-spill-bytes:1048576}")
+    private long maxSpillBytes;
+
+    @Value("${sparkchat.mailbox.max-total-spill-bytes:1073741824}")
+    private long maxTotalSpillBytes;
+
+    @Value("${sparkchat.mailbox.max-burst-bytes:262144}")
+    private int maxBurstBytes;
+
+    @Value("${sparkchat.mailbox.max-idle-hours:72}")
+    private long maxIdleHours;
+
+    private final ConcurrentHashMap<Long, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final AtomicLong spillBytes = new AtomicLong();
+
+    private final LongAdder heldCount = new LongAdder();
+    private final LongAdder spilledCount = new LongAdder();
+    private final LongAdder drainedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+
+    public OfflineMailboxService(SimpMessagingTemplate messagingTemplate,
+                                 @Value("${sparkchat.mailbox.dir:./data/mailbox}") String spillDir) throws IOException {
+        this.messagingTemplate = messagingTemplate;
+        this.spillDir = Paths.get(spillDir).toAbsolutePath().normalize();
+        Files.createDirectories(this.spillDir);
+        deleteStaleSpillFiles();
+    }
+
+    /**
+     * Hold one encoded message for each of the given offline users. The payload is
+     * shared by all of their mailboxes and must not be modified.
+     */
+    public void hold(Collection<Long> userIds, byte[] payload) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        int charge = payload.length / userIds.size() + ENTRY_OVERHEAD_BYTES;
+        for (Long userId : userIds) {
+            hold(userId, new Entry(payload, charge));
+        }
+    }
+
+    private void hold(Long userId, Entry entry) {
+        while (true) {
+            Mailbox mailbox = mailboxes.computeIfAbsent(userId, Mailbox::new);
+            mailbox.lock.lock();
+            try {
+                // Drained or expired since it was looked up; hold it in a new one
+                if (mailbox.closed) {
+                    continue;
+                }
+                mailbox.lastHeldAt = System.currentTimeMillis();
+                if (mailbox.truncated) {
+                    droppedCount.increment();
+                    return;
+                }
+                mailbox.memory.add(entry);
+                mailbox.memoryBytes += entry.charge;
+                heldCount.increment();
+                if (memoryBytes.addAndGet(entry.charge) > memoryBudgetBytes
+                        || mailbox.memory.size() >= memoryMessages) {
+                    spill(mailbox);
+                }
+                return;
+            } finally {
+                mailbox.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Deliver everything held for a user to /user/queue/mailbox and discard the mailbox.
+     * Called once the user's subscription to the mailbox queue is registered.
+     */
+    public void drain(Long userId, String username) {
+        Mailbox mailbox = mailboxes.remove(userId);
+        if (mailbox == null) {
+            return;
+        }
+
+        List<byte[]> payloads = new ArrayList<>();
+        boolean truncated;
+        mailbox.lock.lock();
+        try {
+            mailbox.closed = true;
+            truncated = mailbox.truncated;
+            if (mailbox.spilledBytes > 0) {
+                try {
+                    readSpillFile(mailbox, payloads);
+                } catch (IOException e) {
+                    logger.error("Failed to read mailbox of user {}: {}", userId, e.getMessage());
+                    payloads.clear();
+                    truncated = true;
+                }
+            }
+            for (Entry entry : mailbox.memory) {
+                payloads.add(entry.payload);
+            }
+            discard(mailbox);
+        } finally {
+            mailbox.lock.unlock();
+        }
+
+        if (payloads.isEmpty() && !truncated) {
+            return;
+        }
+        sendBursts(username, payloads, truncated);
+        drainedCount.add(payloads.size());
+        logger.debug("Drained {} held messages for {}{}", payloads.size(), username, truncated ? " (truncated)" : "");
+    }
+
+    /**
+     * Drop mailboxes of users who have not come back within the idle limit
+     */
+    @Scheduled(fixedDelayString = "${sparkchat.mailbox.sweep-interval-ms:3600000}")
+    public void expireIdleMailboxes() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(maxIdleHours);
+        int expired = 0;
+        for (Map.Entry<Long, Mailbox> held : mailboxes.entrySet()) {
+            Mailbox mailbox = held.getValue();
+            mailbox.lock.lock();
+            try {
+                if (mailbox.closed || mailbox.lastHeldAt >= cutoff) {
+                    continue;
+                }
+                mailboxes.remove(held.getKey(), mailbox);
+                mailbox.closed = true;
+                droppedCount.add(mailbox.memory.size() + mailbox.spilledCount);
+                discard(mailbox);
+                expired++;
+            } finally {
+                mailbox.lock.unlock();
+            }
+        }
+        if (expired > 0) {
+            logger.info("Expired {} idle mailboxes", expired);
+        }
+    }
+
+    public long getHeldCount() {
+        return heldCount.sum();
+    }
+
+    public long getSpilledCount() {
+        return spilledCount.sum();
+    }
+
+    public long getDrainedCount() {
+        return drainedCount.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public int getMailboxCount() {
+        return mailboxes.size();
+    }
+
+    public long getMemoryBytes() {
+        return memoryBytes.get();
+    }
+
+    public long getSpillBytes() {
+        return spillBytes.get();
+    }
+
+    /**
+     * Append the held entries to the spill file in one write, or mark the mailbox as
+     * truncated when they do not fit within the disk limits
+     */
+    private void spill(Mailbox mailbox) {
+        long batchBytes = 0;
+        for (Entry entry : mailbox.memory) {
+            batchBytes += Integer.BYTES + entry.payload.length;
+        }
+
+        boolean spilled = false;
+        if (mailbox.spilledBytes + batchBytes <= maxSpillBytes) {
+            if (spillBytes.addAndGet(batchBytes) <= maxTotalSpillBytes) {
+                spilled = append(mailbox);
+            }
+            if (spilled) {
+                mailbox.spilledBytes += batchBytes;
+                mailbox.spilledCount += mailbox.memory.size();
+                spilledCount.add(mailbox.memory.size());
+            } else {
+                spillBytes.addAndGet(-batchBytes);
+            }
+        }
+        if (!spilled) {
+            mailbox.truncated = true;
+            droppedCount.add(mailbox.memory.size());
+        }
+
+        memoryBytes.addAndGet(-mailbox.memoryBytes);
+        mailbox.memoryBytes = 0;
+        mailbox.memory.clear();
+    }
+
+    private boolean append(Mailbox mailbox) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                spillFile(mailbox.userId), StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            for (Entry entry : mailbox.memory) {
+                out.writeInt(entry.payload.length);
+                out.write(entry.payload);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("Failed to spill mailbox of user {}: {}", mailbox.userId, e.getMessage());
+            return false;
+        }
+    }
+
+    private void readSpillFile(Mailbox mailbox, List<byte[]> payloads) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(spillFile(mailbox.userId))))) {
+            for (int i = 0; i < mailbox.spilledCount; i++) {
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                payloads.add(payload);
+            }
+        }
+    }
+
+    private void discard(Mailbox mailbox) {
+        memoryBytes.addAndGet(-mailbox.memoryBytes);
+        mailbox.memoryBytes = 0;
+        mailbox.memory.clear();
+        if (mailbox.spilledBytes > 0) {
+            spillBytes.addAndGet(-mailbox.spilledBytes);
+            mailbox.spilledBytes = 0;
+            try {
+                Files.deleteIfExists(spillFile(mailbox.userId));
+            } catch (IOException e) {
+                logger.warn("Failed to delete mailbox of user {}: {}", mailbox.userId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Send held payloads as JSON frames of at most max-burst-bytes each:
+     * {"truncated":false,"messages":[...]}
+     */
+    private void sendBursts(String username, List<byte[]> payloads, boolean truncated) {
+        byte[] prefix = ("{\"truncated\":" + truncated + ",\"messages\":[").getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream burst = new ByteArrayOutputStream(Math.min(maxBurstBytes, 64 * 1024));
+        burst.writeBytes(prefix);
+        int count = 0;
+        for (byte[] payload : payloads) {
+            if (count > 0 && burst.size() + payload.length + 3 > maxBurstBytes) {
+                sendBurst(username, burst);
+                burst.reset();
+                burst.writeBytes(prefix);
+                count = 0;
+            }
+            if (count > 0) {
+                burst.write(',');
+            }
+            burst.writeBytes(payload);
+            count++;
+        }
+        sendBurst(username, burst);
+    }
+
+    private void sendBurst(String username, ByteArrayOutputStream burst) {
+        burst.write(']');
+        burst.write('}');
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        Message<byte[]> frame = MessageBuilder.createMessage(burst.toByteArray(), accessor.getMessageHeaders());
+        messagingTemplate.send("/user/" + username + MAILBOX_QUEUE, frame);
+    }
+
+    private Path spillFile(Long userId) {
+        return spillDir.resolve(userId + SPILL_SUFFIX);
+    }
+
+    private void deleteStaleSpillFiles() throws IOException {
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spillDir, "*" + SPILL_SUFFIX)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            logger.info("Deleted {} mailbox spill files from a previous run", deleted);
+        }
+    }
+
+    private static final class Entry {
+        final byte[] payload;
+        final int charge;
+
+        Entry(byte[] payload, int charge) {
+            this.payload = payload;
+            this.charge = charge;
+        }
+    }
+
+    // Guarded by its lock rather than its monitor, as spill files are read and written
+    // while it is held and blocking inside a monitor pins a virtual thread
+    private static final class Mailbox {
+        final ReentrantLock lock = new ReentrantLock();
+        final Long userId;
+        final ArrayDeque<Entry> memory = new ArrayDeque<>();
+        long memoryBytes;
+        long spilledBytes;
+        int spilledCount;
+        long lastHeldAt;
+        boolean truncated;
+        boolean closed;
+
+        Mailbox(Long userId) {
+            this.userId = userId;
+        }
+    }
+}
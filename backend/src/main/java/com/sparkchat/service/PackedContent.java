@@ -0,0 +1,91 @@
+package com.sparkchat.service;
+
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictDecompress;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.function.Supplier;
+
+/**
+ * The format of message content packed by MessageContentCompressor
+ *
+ * A packed value starts with a format byte: FORMAT_RAW is followed by the UTF-8 text,
+ * FORMAT_ZSTD by the text length as a varint and a magicless zstd frame without checksum
+ * or dictionary id. Reading it depends only on zstd, so the reactive stack, which reads
+ * the same rows without the backend's Spring context, shares it.
+ */
+public final class PackedContent {
+
+    public static final byte FORMAT_RAW = 0;
+    public static final byte FORMAT_ZSTD = 1;
+
+    // Largest text the content column (MySQL TEXT) holds, and so the largest length a packed value may claim
+    public static final int MAX_TEXT_BYTES = 65_535;
+
+    private PackedContent() {
+    }
+
+    /**
+     * Unpack a value, taking a decompression context from the pool and returning it
+     *
+     * @param dictionary the dictionary the value was packed with; only looked up for zstd values
+     * @throws IllegalStateException if the value is malformed or claims more than MAX_TEXT_BYTES
+     */
+    public static String unpack(byte[] packed, Supplier<ZstdDictDecompress> dictionary,
+                                Queue<ZstdDecompressCtx> contexts) {
+        if (packed.length == 0) {
+            throw new IllegalStateException("Malformed packed content length");
+        }
+        if (packed[0] == FORMAT_RAW) {
+            return new String(packed, 1, packed.length - 1, StandardCharsets.UTF_8);
+        }
+
+        // At most three varint bytes encode a length within the column limit
+        int length = 0;
+        int position = 1;
+        int shift = 0;
+        byte b;
+        do {
+            if (position >= packed.length || shift > 14) {
+                throw new IllegalStateException("Malformed packed content length");
+            }
+            b = packed[position++];
+            length |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        if (length > MAX_TEXT_BYTES) {
+            throw new IllegalStateException("Packed content length " + length + " exceeds " + MAX_TEXT_BYTES + " bytes");
+        }
+
+        byte[] text = new byte[length];
+        ZstdDictDecompress decompress = dictionary.get();
+        ZstdDecompressCtx context = contexts.poll();
+        if (context == null) {
+            context = new ZstdDecompressCtx().setMagicless(true);
+        }
+        int decompressed;
+        try {
+            context.loadDict(decompress);
+            decompressed = context.decompressByteArray(text, 0, length, packed, position, packed.length - position);
+        } finally {
+            contexts.offer(context);
+        }
+        if (decompressed != length) {
+            throw new IllegalStateException("Packed content holds " + decompressed + " bytes, not " + length);
+        }
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write the varint length that follows FORMAT_ZSTD, returning the position after it
+     */
+    static int writeLength(byte[] out, int position, int length) {
+        while ((length & ~0x7f) != 0) {
+            out[position++] = (byte) ((length & 0x7f) | 0x80);
+            length >>>= 7;
+        }
+        out[position++] = (byte) length;
+        return position;
+    }
+}
@@ -0,0 +1,95 @@
+package com.sparkchat.service;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks which users currently hold at least one STOMP session
+ * 
+ * Keyed by user id so that fan-out can filter a room's member bitmap down to
+ * online members without touching the database.
+ */
+@Service
+public class PresenceService {
+    
+    // sessionId -> userId
+    private final ConcurrentHashMap<String, Long> sessions = new ConcurrentHashMap<>();
+    
+    private final ConcurrentHashMap<Long, OnlineUser> onlineUsers = new ConcurrentHashMap<>();
+    
+    @EventListener
+    public void onSessionConnected(SessionConnectedEvent event) {
+        Message<?> connectMessage = (Message<?>) event.getMessage().getHeaders()
+                .get(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER);
+        if (connectMessage == null) {
+            return;
+        }
+        
+        Map<String, Object> attributes = SimpMessageHeaderAccessor.getSessionAttributes(connectMessage.getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(connectMessage.getHeaders());
+        if (attributes != null && attributes.get("userId") instanceof Long && sessionId != null) {
+            userConnected(sessionId, (Long) attributes.get("userId"), (String) attributes.get("username"));
+        }
+    }
+    
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        userDisconnected(event.getSessionId());
+    }
+    
+    public void userConnected(String sessionId, Long userId, String username) {
+        if (sessions.putIfAbsent(sessionId, userId) != null) {
+            return;
+        }
+        onlineUsers.compute(userId, (id, user) -> {
+            OnlineUser online = user != null ? user : new OnlineUser(username);
+            online.sessions.incrementAndGet();
+            return online;
+        });
+    }
+    
+    public void userDisconnected(String sessionId) {
+        Long userId = sessions.remove(sessionId);
+        if (userId == null) {
+            return;
+        }
+        onlineUsers.computeIfPresent(userId, (id, user) -> user.sessions.decrementAndGet() <= 0 ? null : user);
+    }
+    
+    /**
+     * Get the username of an online user, or null if the user has no open session
+     */
+    public String getOnlineUsername(long userId) {
+        OnlineUser user = onlineUsers.get(userId);
+        return user != null ? user.username : null;
+    }
+    
+    public boolean isOnline(long userId) {
+        return onlineUsers.containsKey(userId);
+    }
+    
+    public int getOnlineUserCount() {
+        return onlineUsers.size();
+    }
+    
+    public int getSessionCount() {
+        return sessions.size();
+    }
+    
+    private static final class OnlineUser {
+        final String username;
+        final AtomicInteger sessions = new AtomicInteger();
+        
+        OnlineUser(String username) {
+            this.username = username;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.sparkchat.service;
+
+import com.sparkchat.dto.ReceiptDto;
+import com.sparkchat.model.ReadReceipt;
+import com.sparkchat.model.RoomMemberKey;
+import com.sparkchat.repository.ReadReceiptRepository;
+import com.sparkchat.web.OutboundSessionBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read and delivery receipts kept as per-member, per-room high-water marks
+ *
+ * Client acknowledgements only move two in-memory marks forward, so any number of
+ * acks for the same room collapse into one pending change. Changed marks are
+ * persisted to read_receipts in periodic batches, and pushed to the room's receipt
+ * topic at most once per push interval, giving O(members) work per interval instead
+ * of O(messages x members).
+ *
+ * The marks of a room are loaded from read_receipts the first time it is acknowledged,
+ * so after a restart or an eviction only real progress counts as a change. Rooms whose
+ * marks are all flushed and pushed are evicted once idle, oldest first beyond max-rooms.
+ */
+@Service
+public class ReceiptService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReceiptService.class);
+
+    private final ReadReceiptRepository receiptRepository;
+    private final CounterService counterService;
+    private final RoomMembershipIndex membershipIndex;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${sparkchat.receipts.flush-batch-size:500}")
+    private int flushBatchSize;
+
+    @Value("${sparkchat.receipts.max-rooms:10000}")
+    private int maxRooms;
+
+    @Value("${sparkchat.receipts.idle-minutes:30}")
+    private long idleMinutes;
+
+    private final ConcurrentHashMap<Long, RoomMarks> marksByRoom = new ConcurrentHashMap<>();
+    private final Set<RoomMemberKey> dirtyKeys = ConcurrentHashMap.newKeySet();
+
+    // chatRoomId -> members whose marks moved since the last push; only changed inside
+    // compute() and taken whole with remove(), so no member added meanwhile is missed
+    private final ConcurrentHashMap<Long, Set<Long>> pendingPush = new ConcurrentHashMap<>();
+
+    // Serialises push, flush and eviction: the first two read the marks of keys they have
+    // already dequeued, which eviction must not drop meanwhile
+    private final ReentrantLock maintenanceLock = new ReentrantLock();
+
+    public ReceiptService(ReadReceiptRepository receiptRepository,
+                          CounterService counterService,
+                          RoomMembershipIndex membershipIndex,
+                          SimpMessagingTemplate messagingTemplate,
+                          PlatformTransactionManager transactionManager) {
+        this.receiptRepository = receiptRepository;
+        this.counterService = counterService;
+        this.membershipIndex = membershipIndex;
+        this.messagingTemplate = messagingTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Record a delivery and/or read acknowledgement from a room member
+     *
+     * Acks from non-members are ignored. The marks come from the client, and never move
+     * back, so they are capped at the room's latest message: an id beyond it would
+     * otherwise stick and hide every later message.
+     */
+    public void acknowledge(Long chatRoomId, Long userId, String username, Long deliveredUpTo, Long readUpTo) {
+        if (!membershipIndex.isMember(chatRoomId, userId)) {
+            return;
+        }
+        long latest = counterService.getLastMessageId(chatRoomId);
+        long read = Math.min(readUpTo != null ? readUpTo : 0L, latest);
+        // A read message has necessarily been delivered
+        long delivered = Math.min(Math.max(deliveredUpTo != null ? deliveredUpTo : 0L, read), latest);
+        if (delivered <= 0L) {
+            return;
+        }
+
+        boolean readMoved;
+        while (true) {
+            RoomMarks room = room(chatRoomId);
+            room.lock.lock();
+            try {
+                // Evicted since it was looked up; apply the ack to a freshly loaded one
+                if (room.evicted) {
+                    continue;
+                }
+                room.lastAcknowledgedAt = System.currentTimeMillis();
+                Marks current = room.members.computeIfAbsent(userId, id -> new Marks());
+                current.username = username;
+                boolean deliveredMoved = advance(current.delivered, delivered);
+                readMoved = advance(current.read, read);
+
+                if (deliveredMoved || readMoved) {
+                    dirtyKeys.add(new RoomMemberKey(chatRoomId, userId));
+                    pendingPush.compute(chatRoomId, (id, members) -> {
+                        Set<Long> pending = members != null ? members : new HashSet<>();
+                        pending.add(userId);
+                        return pending;
+                    });
+                }
+                break;
+            } finally {
+                room.lock.unlock();
+            }
+        }
+
+        if (readMoved) {
+            counterService.onMessagesRead(chatRoomId, userId, read);
+        }
+    }
+
+    /**
+     * Get the receipt marks of every member of a room
+     */
+    public List<ReceiptDto> getReceipts(Long chatRoomId) {
+        Map<Long, ReceiptDto> receipts = new LinkedHashMap<>();
+        for (ReadReceipt row : receiptRepository.findByChatRoomId(chatRoomId)) {
+            receipts.put(row.getUserId(), new ReceiptDto(chatRoomId, row.getUserId(), null,
+                row.getDeliveredMessageId(), row.getReadMessageId()));
+        }
+
+        // Overlay unflushed marks, keeping whichever mark is further ahead
+        RoomMarks roomMarks = marksByRoom.get(chatRoomId);
+        if (roomMarks != null) {
+            roomMarks.members.forEach((userId, current) -> {
+                ReceiptDto receipt = toDto(chatRoomId, userId, current);
+                ReceiptDto stored = receipts.get(userId);
+                if (stored != null) {
+                    receipt.setDeliveredMessageId(Math.max(receipt.getDeliveredMessageId(), stored.getDeliveredMessageId()));
+                    receipt.setReadMessageId(Math.max(receipt.getReadMessageId(), stored.getReadMessageId()));
+                }
+                receipts.put(userId, receipt);
+            });
+        }
+        return new ArrayList<>(receipts.values());
+    }
+
+    /**
+     * Push changed marks to each room's receipt topic, at most once per interval
+     */
+    @Scheduled(fixedDelayString = "${sparkchat.receipts.push-interval-ms:1000}")
+    public void pushReceipts() {
+        maintenanceLock.lock();
+        try {
+            pushPending();
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    private void pushPending() {
+        for (Long chatRoomId : pendingPush.keySet()) {
+            Set<Long> members = pendingPush.remove(chatRoomId);
+            if (members == null) {
+                continue;
+            }
+
+            List<ReceiptDto> updates = new ArrayList<>(members.size());
+            for (Long userId : members) {
+                Marks current = marks(chatRoomId, userId);
+                if (current != null) {
+                    updates.add(toDto(chatRoomId, userId, current));
+                }
+            }
+            if (!updates.isEmpty()) {
+                // Marks only move forward, so queued pushes for a slow subscriber can be merged
+                messagingTemplate.convertAndSend("/topic/rooms/" + chatRoomId + "/receipts", updates,
+                    Map.of(OutboundSessionBuffers.CONFLATE_HEADER, "receipts/" + chatRoomId));
+            }
+        }
+    }
+
+    /**
+     * Persist changed marks to the read_receipts table in batches
+     */
+    @Scheduled(fixedDelayString = "${sparkchat.receipts.flush-interval-ms:2000}")
+    public void flush() {
+        if (dirtyKeys.isEmpty()) {
+            return;
+        }
+        maintenanceLock.lock();
+        try {
+            flushDirty();
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    private void flushDirty() {
+        List<RoomMemberKey> batch = new ArrayList<>(flushBatchSize);
+        Iterator<RoomMemberKey> iterator = dirtyKeys.iterator();
+        while (iterator.hasNext()) {
+            batch.add(iterator.next());
+            iterator.remove();
+            if (batch.size() >= flushBatchSize) {
+                writeBatch(batch);
+                batch = new ArrayList<>(flushBatchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    /**
+     * Drop the marks of rooms that are fully flushed and pushed, when idle or when there are
+     * more rooms than max-rooms, least recently acknowledged first
+     */
+    @Scheduled(fixedDelayString = "${sparkchat.receipts.evict-interval-ms:60000}")
+    public void evictRooms() {
+        maintenanceLock.lock();
+        try {
+            evictClean();
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    private void evictClean() {
+        Map<Long, Long> acknowledgedAt = new HashMap<>();
+        marksByRoom.forEach((chatRoomId, room) -> acknowledgedAt.put(chatRoomId, room.lastAcknowledgedAt));
+        // Rooms acknowledged after the snapshot above are skipped, so these sets are complete
+        Set<Long> busy = new HashSet<>(pendingPush.keySet());
+        for (RoomMemberKey key : dirtyKeys) {
+            busy.add(key.getChatRoomId());
+        }
+
+        List<Map.Entry<Long, Long>> candidates = new ArrayList<>();
+        for (Map.Entry<Long, Long> entry : acknowledgedAt.entrySet()) {
+            if (!busy.contains(entry.getKey())) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort(Map.Entry.comparingByValue());
+
+        long idleBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(idleMinutes);
+        int evicted = 0;
+        for (Map.Entry<Long, Long> candidate : candidates) {
+            if (candidate.getValue() >= idleBefore && marksByRoom.size() <= maxRooms) {
+                break;
+            }
+            RoomMarks room = marksByRoom.get(candidate.getKey());
+            if (room == null) {
+                continue;
+            }
+            room.lock.lock();
+            try {
+                if (room.lastAcknowledgedAt == candidate.getValue()) {
+                    room.evicted = true;
+                    marksByRoom.remove(candidate.getKey(), room);
+                    evicted++;
+                }
+            } finally {
+                room.lock.unlock();
+            }
+        }
+        if (evicted > 0) {
+            logger.debug("Evicted receipt marks of {} rooms", evicted);
+        }
+    }
+
+    private void writeBatch(List<RoomMemberKey> batch) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                Map<RoomMemberKey, ReadReceipt> existing = new HashMap<>();
+                for (ReadReceipt row : receiptRepository.findAllById(batch)) {
+                    existing.put(row.getId(), row);
+                }
+
+                List<ReadReceipt> rows = new ArrayList<>(batch.size());
+                for (RoomMemberKey key : batch) {
+                    Marks current = marks(key.getChatRoomId(), key.getUserId());
+                    if (current == null) {
+                        continue;
+                    }
+                    ReadReceipt row = existing.get(key);
+                    if (row == null) {
+                        row = new ReadReceipt(key.getChatRoomId(), key.getUserId());
+                    }
+                    // Never move a stored mark backwards, e.g. after a restart lost newer marks
+                    row.advanceTo(current.delivered.get(), current.read.get());
+                    rows.add(row);
+                }
+                receiptRepository.saveAll(rows);
+            });
+        } catch (Exception e) {
+            logger.error("Receipt flush failed, will retry {} receipts: {}", batch.size(), e.getMessage());
+            dirtyKeys.addAll(batch);
+        }
+    }
+
+    private static boolean advance(AtomicLong mark, long value) {
+        long previous = mark.getAndAccumulate(value, Math::max);
+        return value > previous;
+    }
+
+    private Marks marks(Long chatRoomId, Long userId) {
+        RoomMarks roomMarks = marksByRoom.get(chatRoomId);
+        return roomMarks != null ? roomMarks.members.get(userId) : null;
+    }
+
+    /**
+     * The marks of a room, loaded from read_receipts when not in memory
+     */
+    private RoomMarks room(Long chatRoomId) {
+        RoomMarks room = marksByRoom.get(chatRoomId);
+        if (room != null) {
+            return room;
+        }
+        RoomMarks loaded = new RoomMarks();
+        for (ReadReceipt row : receiptRepository.findByChatRoomId(chatRoomId)) {
+            Marks stored = new Marks();
+            stored.delivered.set(row.getDeliveredMessageId());
+            stored.read.set(row.getReadMessageId());
+            loaded.members.put(row.getUserId(), stored);
+        }
+        room = marksByRoom.putIfAbsent(chatRoomId, loaded);
+        return room != null ? room : loaded;
+    }
+
+    private static ReceiptDto toDto(Long chatRoomId, Long userId, Marks current) {
+        return new ReceiptDto(chatRoomId, userId, current.username,
+            current.delivered.get(), current.read.get());
+    }
+
+    private static final class Marks {
+        // Unknown for marks loaded from the database until the member acknowledges again
+        volatile String username;
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong read = new AtomicLong();
+    }
+
+    // Guarded by its lock rather than its monitor, like the mailboxes, so an acknowledgement
+    // on a virtual thread never pins its carrier
+    private static final class RoomMarks {
+        final ReentrantLock lock = new ReentrantLock();
+        final ConcurrentHashMap<Long, Marks> members = new ConcurrentHashMap<>();
+        volatile long lastAcknowledgedAt;
+        boolean evicted;
+    }
+}
@@ -0,0 +1,90 @@
+package com.sparkchat.service;
+
+import com.sparkchat.model.RefreshToken;
+import com.sparkchat.repository.RefreshTokenRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * Issues and rotates refresh tokens, so that reconnecting clients get a new access token
+ * without a password check
+ *
+ * A token is 256 random bits. Exchanging one deletes it and issues the next, so a token
+ * that was copied stops working once either copy has been used. A token is hashed with
+ * SHA-256 rather than BCrypt: it is random, not a password that can be guessed, and
+ * skipping BCrypt is the point of it.
+ */
+@Service
+@Transactional
+public class RefreshTokenService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RefreshTokenService.class);
+
+    private static final int TOKEN_BYTES = 32;
+
+    private final RefreshTokenRepository refreshTokenRepository;
+    private final SecureRandom random = new SecureRandom();
+
+    @Value("${sparkchat.auth.refresh-token-days:30}")
+    private long refreshTokenDays;
+
+    public RefreshTokenService(RefreshTokenRepository refreshTokenRepository) {
+        this.refreshTokenRepository = refreshTokenRepository;
+    }
+
+    /**
+     * Issue a new refresh token to a user, returning the token itself; only its hash is kept
+     */
+    public String issue(Long userId) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        refreshTokenRepository.save(new RefreshToken(hash(token), userId,
+                LocalDateTime.now().plusDays(refreshTokenDays)));
+        return token;
+    }
+
+    /**
+     * Exchange a refresh token for the id of the user it was issued to, deleting it
+     *
+     * @return the user id, or empty when the token is unknown, expired or already used
+     */
+    public Optional<Long> redeem(String token) {
+        Optional<RefreshToken> stored = refreshTokenRepository.findByTokenHash(hash(token));
+        // Two exchanges of the same token may both find it; only one deletes it
+        if (stored.isEmpty() || refreshTokenRepository.deleteTokenById(stored.get().getId()) == 0) {
+            return Optional.empty();
+        }
+        if (stored.get().isExpired()) {
+            return Optional.empty();
+        }
+        return Optional.of(stored.get().getUserId());
+    }
+
+    public void revoke(String token) {
+        refreshTokenRepository.deleteByTokenHash(hash(token));
+    }
+
+    @Scheduled(fixedDelayString = "${sparkchat.auth.refresh-token-cleanup-interval-ms:3600000}")
+    public void removeExpiredTokens() {
+        int removed = refreshTokenRepository.deleteExpired(LocalDateTime.now());
+        if (removed > 0) {
+            logger.info("Removed {} expired refresh tokens", removed);
+        }
+    }
+
+    private static String hash(String token) {
+        return HexFormat.of().formatHex(AttachmentService.sha256().digest(token.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
@@ -0,0 +1,178 @@
+package com.sparkchat.service;
+
+import com.sparkchat.diagnostics.MessageConvertEvent;
+import com.sparkchat.diagnostics.MessageDeliverEvent;
+import com.sparkchat.diagnostics.PipelineTrace;
+import com.sparkchat.dto.MessageDto;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivers group room messages to the online members of a room
+ * 
+ * The message is serialized to JSON once and the same immutable payload is handed
+ * to every recipient. Members come from the in-memory membership index and are
+ * filtered to online users before any send; large rooms are split into batches
+ * that are delivered in parallel on the room fan-out executor. New messages for
+ * members who are offline are held in their mailboxes.
+ */
+@Service
+public class RoomFanoutService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(RoomFanoutService.class);
+    
+    private static final String MESSAGES_QUEUE = "/queue/messages";
+    private static final String UPDATES_QUEUE = "/queue/message-updates";
+    
+    private final RoomMembershipIndex membershipIndex;
+    private final PresenceService presenceService;
+    private final OfflineMailboxService mailboxService;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final MessagePayloadEncoder payloadEncoder;
+    private final ThreadPoolTaskExecutor fanoutExecutor;
+    
+    @Value("${sparkchat.fanout.batch-size:250}")
+    private int batchSize;
+    
+    private final LongAdder fanoutCount = new LongAdder();
+    private final LongAdder recipientCount = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    
+    public RoomFanoutService(RoomMembershipIndex membershipIndex,
+                             PresenceService presenceService,
+                             OfflineMailboxService mailboxService,
+                             SimpMessagingTemplate messagingTemplate,
+                             MessagePayloadEncoder payloadEncoder,
+                             @Qualifier("roomFanoutExecutor") ThreadPoolTaskExecutor fanoutExecutor) {
+        this.membershipIndex = membershipIndex;
+        this.presenceService = presenceService;
+        this.mailboxService = mailboxService;
+        this.messagingTemplate = messagingTemplate;
+        this.payloadEncoder = payloadEncoder;
+        this.fanoutExecutor = fanoutExecutor;
+    }
+    
+    /**
+     * Deliver a message to every online member of a room except its sender, completing
+     * once it has been handed to all of their sessions
+     */
+    public CompletableFuture<Void> deliver(Long chatRoomId, Long senderId, MessageDto message) {
+        return deliver(chatRoomId, senderId, message, MESSAGES_QUEUE);
+    }
+    
+    /**
+     * Deliver a changed message to every online member of a room, including its sender
+     */
+    public void deliverUpdate(Long chatRoomId, MessageDto message) {
+        deliver(chatRoomId, null, message, UPDATES_QUEUE);
+    }
+    
+    private CompletableFuture<Void> deliver(Long chatRoomId, Long senderId, MessageDto message, String queue) {
+        long startNanos = System.nanoTime();
+        long traceId = PipelineTrace.current();
+        MessageDeliverEvent deliverEvent = new MessageDeliverEvent();
+        deliverEvent.begin();
+        MessageConvertEvent encodeEvent = new MessageConvertEvent();
+        encodeEvent.begin();
+        Message<byte[]> frame = payloadEncoder.encode(message);
+        encodeEvent.traceId = traceId;
+        encodeEvent.format = "json";
+        encodeEvent.messageId = message.getId() != null ? message.getId() : 0;
+        encodeEvent.commit();
+        
+        List<Long> offline = new ArrayList<>();
+        List<String> recipients = onlineRecipients(chatRoomId, senderId, offline);
+        if (queue.equals(MESSAGES_QUEUE)) {
+            mailboxService.hold(offline, frame.getPayload());
+        }
+        deliverEvent.traceId = traceId;
+        deliverEvent.chatRoomId = chatRoomId;
+        deliverEvent.messageId = encodeEvent.messageId;
+        deliverEvent.recipients = recipients.size();
+        deliverEvent.offline = offline.size();
+        if (recipients.size() <= batchSize) {
+            sendBatch(recipients, frame, queue);
+            record(startNanos, recipients.size());
+            deliverEvent.commit();
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        List<CompletableFuture<Void>> batches = new ArrayList<>(recipients.size() / batchSize + 1);
+        for (int from = 0; from < recipients.size(); from += batchSize) {
+            List<String> batch = recipients.subList(from, Math.min(from + batchSize, recipients.size()));
+            batches.add(CompletableFuture.runAsync(() -> sendBatch(batch, frame, queue), fanoutExecutor));
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).whenComplete((result, error) -> {
+            if (error != null) {
+                logger.error("Fan-out to room {} failed: {}", chatRoomId, error.getMessage());
+            }
+            record(startNanos, recipients.size());
+            // Committed on the thread finishing the last batch; the trace id ties it back
+            deliverEvent.commit();
+        });
+    }
+    
+    public long getFanoutCount() {
+        return fanoutCount.sum();
+    }
+    
+    public long getRecipientCount() {
+        return recipientCount.sum();
+    }
+    
+    public double getAverageLatencyMicros() {
+        long count = fanoutCount.sum();
+        return count == 0 ? 0.0 : totalLatencyNanos.sum() / 1000.0 / count;
+    }
+    
+    public double getMaxLatencyMicros() {
+        return maxLatencyNanos.get() / 1000.0;
+    }
+    
+    private List<String> onlineRecipients(Long chatRoomId, Long senderId, List<Long> offline) {
+        RoaringBitmap members = membershipIndex.getMembers(chatRoomId);
+        int sender = senderId != null ? RoomMembershipIndex.toIndex(senderId) : -1;
+        
+        List<String> recipients = new ArrayList<>();
+        members.forEach((int userId) -> {
+            if (userId != sender) {
+                String username = presenceService.getOnlineUsername(userId);
+                if (username != null) {
+                    recipients.add(username);
+                } else {
+                    offline.add((long) userId);
+                }
+            }
+        });
+        return recipients;
+    }
+    
+    private void sendBatch(List<String> usernames, Message<byte[]> frame, String queue) {
+        for (String username : usernames) {
+            // The frame is immutable, so the template copies headers but shares the payload
+            messagingTemplate.send("/user/" + username + queue, frame);
+        }
+    }
+    
+    private void record(long startNanos, int recipients) {
+        long elapsed = System.nanoTime() - startNanos;
+        fanoutCount.increment();
+        recipientCount.add(recipients);
+        totalLatencyNanos.add(elapsed);
+        maxLatencyNanos.accumulateAndGet(elapsed, Math::max);
+    }
+}
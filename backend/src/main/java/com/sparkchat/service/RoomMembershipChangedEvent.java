@@ -0,0 +1,21 @@
+package com.sparkchat.service;
+
+/**
+ * Published inside the transaction that adds a user to or removes a user from a chat room
+ */
+public class RoomMembershipChangedEvent {
+    
+    private final Long chatRoomId;
+    private final Long userId;
+    private final boolean joined;
+    
+    public RoomMembershipChangedEvent(Long chatRoomId, Long userId, boolean joined) {
+        this.chatRoomId = chatRoomId;
+        this.userId = userId;
+        this.joined = joined;
+    }
+    
+    public Long getChatRoomId() { return chatRoomId; }
+    public Long getUserId() { return userId; }
+    public boolean isJoined() { return joined; }
+}
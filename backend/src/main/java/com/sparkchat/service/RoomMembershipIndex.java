@@ -0,0 +1,168 @@
+package com.sparkchat.service;
+
+import com.sparkchat.repository.ChatRoomRepository;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of chat room membership, in both directions
+ *
+ * Room members and the rooms of each user are held as compact RoaringBitmaps. The
+ * index is loaded with one id-only query at startup and then kept in sync by applying
+ * each committed membership change, so fan-out and per-frame authorization never
+ * touch the database. Bitmaps are copy-on-write: readers iterate or probe them
+ * without locking, writers (rare) replace them under a single lock.
+ */
+@Service
+public class RoomMembershipIndex implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomMembershipIndex.class);
+
+    private static final RoaringBitmap EMPTY = new RoaringBitmap();
+
+    private final ChatRoomRepository chatRoomRepository;
+
+    private final ConcurrentHashMap<Long, RoaringBitmap> membersByRoom = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, RoaringBitmap> roomsByUser = new ConcurrentHashMap<>();
+
+    // Serializes writers; a change committed during warm-up is applied right after it
+    private final Object writeLock = new Object();
+
+    public RoomMembershipIndex(ChatRoomRepository chatRoomRepository) {
+        this.chatRoomRepository = chatRoomRepository;
+    }
+
+    /**
+     * Load every membership before the web server starts accepting connections
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        synchronized (writeLock) {
+            Map<Long, RoaringBitmap> rooms = new HashMap<>();
+            Map<Long, RoaringBitmap> users = new HashMap<>();
+            int memberships = 0;
+            for (Object[] row : chatRoomRepository.findAllMemberships()) {
+                Long chatRoomId = (Long) row[0];
+                Long userId = (Long) row[1];
+                rooms.computeIfAbsent(chatRoomId, id -> new RoaringBitmap()).add(toIndex(userId));
+                users.computeIfAbsent(userId, id -> new RoaringBitmap()).add(toIndex(chatRoomId));
+                memberships++;
+            }
+            rooms.values().forEach(RoaringBitmap::runOptimize);
+            users.values().forEach(RoaringBitmap::runOptimize);
+
+            membersByRoom.putAll(rooms);
+            roomsByUser.putAll(users);
+            logger.info("Indexed {} memberships across {} rooms", memberships, rooms.size());
+        }
+    }
+
+    /**
+     * Get the member ids of a room. The returned bitmap must not be modified.
+     */
+    public RoaringBitmap getMembers(Long chatRoomId) {
+        return membersByRoom.getOrDefault(chatRoomId, EMPTY);
+    }
+
+    /**
+     * Get the room ids of a user. The returned bitmap must not be modified.
+     */
+    public RoaringBitmap getRooms(Long userId) {
+        return roomsByUser.getOrDefault(userId, EMPTY);
+    }
+
+    /**
+     * Get the member ids of a room as a list, e.g. for counter updates
+     */
+    public List<Long> getMemberIds(Long chatRoomId) {
+        RoaringBitmap members = getMembers(chatRoomId);
+        List<Long> memberIds = new ArrayList<>(members.getCardinality());
+        members.forEach((int userId) -> memberIds.add((long) userId));
+        return memberIds;
+    }
+
+    /**
+     * Check membership with one map lookup and one bitmap probe
+     */
+    public boolean isMember(Long chatRoomId, Long userId) {
+        if (chatRoomId == null || userId == null) {
+            return false;
+        }
+        RoaringBitmap rooms = roomsByUser.get(userId);
+        return rooms != null && rooms.contains(toIndex(chatRoomId));
+    }
+
+    public int getMemberCount(Long chatRoomId) {
+        return getMembers(chatRoomId).getCardinality();
+    }
+
+    /**
+     * Apply a membership change once its transaction has committed
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onMembershipChanged(RoomMembershipChangedEvent event) {
+        if (event.isJoined()) {
+            memberAdded(event.getChatRoomId(), event.getUserId());
+        } else {
+            memberRemoved(event.getChatRoomId(), event.getUserId());
+        }
+    }
+
+    /**
+     * Record a membership that is already committed, e.g. by a separate transaction
+     */
+    public void memberAdded(Long chatRoomId, Long userId) {
+        synchronized (writeLock) {
+            membersByRoom.put(chatRoomId, with(membersByRoom.get(chatRoomId), toIndex(userId)));
+            roomsByUser.put(userId, with(roomsByUser.get(userId), toIndex(chatRoomId)));
+        }
+    }
+
+    public void memberRemoved(Long chatRoomId, Long userId) {
+        synchronized (writeLock) {
+            replaceOrRemove(membersByRoom, chatRoomId, without(membersByRoom.get(chatRoomId), toIndex(userId)));
+            replaceOrRemove(roomsByUser, userId, without(roomsByUser.get(userId), toIndex(chatRoomId)));
+        }
+    }
+
+    private static RoaringBitmap with(RoaringBitmap current, int value) {
+        if (current != null && current.contains(value)) {
+            return current;
+        }
+        RoaringBitmap updated = current != null ? current.clone() : new RoaringBitmap();
+        updated.add(value);
+        return updated;
+    }
+
+    private static RoaringBitmap without(RoaringBitmap current, int value) {
+        if (current == null || !current.contains(value)) {
+            return current;
+        }
+        RoaringBitmap updated = current.clone();
+        updated.remove(value);
+        return updated;
+    }
+
+    private static void replaceOrRemove(Map<Long, RoaringBitmap> map, Long key, RoaringBitmap bitmap) {
+        if (bitmap == null || bitmap.isEmpty()) {
+            map.remove(key);
+        } else {
+            map.put(key, bitmap);
+        }
+    }
+
+    static int toIndex(Long id) {
+        return Math.toIntExact(id);
+    }
+}
@@ -4,7 +4,10 @@ import com.sparkchat.dto.RegisterRequest;
 import com.sparkchat.dto.UserDto;
 import com.sparkchat.model.User;
 import com.sparkchat.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -13,11 +16,14 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 @Service
 @Transactional
-public class UserService implements UserDetailsService {
+public class UserService implements UserDetailsService, UserDetailsPasswordService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(UserService.class);
     
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
@@ -27,15 +33,24 @@ public class UserService implements UserDetailsService {
         this.passwordEncoder = passwordEncoder;
     }
     
+    // Not read-only: logins right after registering, and every authenticated request,
+    // must see the user before a replica has it
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        System.out.println("Loading user by username: " + username);
-        User user = userRepository.findByUsername(username)
-                .orElseThrow(() -> {
-                    System.out.println("User not found: " + username);
-                    return new UsernameNotFoundException("User not found: " + username);
-                });
-        System.out.println("User found: " + user.getUsername() + ", password hash: " + user.getPassword().substring(0, 10) + "...");
+        return userRepository.findByUsername(username)
+                .orElseThrow(() -> new UsernameNotFoundException("User not found: " + username));
+    }
+    
+    /**
+     * Store a password hashed again at the configured BCrypt cost, called by the
+     * authentication provider after a login whose stored hash used another cost
+     */
+    @Override
+    public UserDetails updatePassword(UserDetails userDetails, String newPassword) {
+        User user = userRepository.findById(((User) userDetails).getId())
+                .orElseThrow(() -> new UsernameNotFoundException("User not found: " + userDetails.getUsername()));
+        user.setPassword(newPassword);
+        logger.debug("Rehashed the password of user {}", user.getId());
         return user;
     }
     
@@ -61,18 +76,21 @@ public class UserService implements UserDetailsService {
         return userRepository.save(user);
     }
     
+    @Transactional(readOnly = true)
     public UserDto getUserById(Long id) {
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("User not found"));
         return UserDto.fromUser(user);
     }
     
+    @Transactional(readOnly = true)
     public UserDto getUserByUsername(String username) {
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found"));
         return UserDto.fromUser(user);
     }
     
+    @Transactional(readOnly = true)
     public List<UserDto> searchUsers(String query) {
         List<User> users = userRepository.findByUsernameContainingIgnoreCase(query);
         return users.stream()
@@ -80,6 +98,7 @@ public class UserService implements UserDetailsService {
                 .collect(Collectors.toList());
     }
     
+    @Transactional(readOnly = true)
     public List<UserDto> getOnlineUsers() {
         List<User> users = userRepository.findByIsOnlineTrue();
         return users.stream()
@@ -88,7 +107,12 @@ public class UserService implements UserDetailsService {
     }
     
     public void updateUserOnlineStatus(Long userId, boolean isOnline) {
-        userRepository.updateUserOnlineStatus(userId, isOnline, LocalDateTime.now());
+        // Updated through the entity rather than a bulk UPDATE, which would evict every
+        // cached user; this only replaces the cached copy of this one
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+        user.setOnline(isOnline);
+        user.setLastSeen(LocalDateTime.now());
     }
     
     public UserDto updateUserProfile(Long userId, String displayName, String profilePictureUrl) {
@@ -106,10 +130,16 @@ public class UserService implements UserDetailsService {
         return UserDto.fromUser(updatedUser);
     }
     
+    public Optional<User> findById(Long id) {
+        return userRepository.findById(id);
+    }
+    
+    // Stays on the primary, as callers go on to write with the user it returns
     public User findByUsername(String username) {
         return userRepository.findByUsername(username).orElse(null);
     }
     
+    @Transactional(readOnly = true)
     public List<User> getAllUsersExcept(String username) {
         return userRepository.findAll().stream()
                 .filter(user -> !user.getUsername().equals(username))
@@ -0,0 +1,243 @@
+package com.sparkchat.web;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of REST requests in flight to what the server can serve without queueing
+ *
+ * The limit adapts to observed latency with a gradient: each window compares the average
+ * latency of the window with a baseline, the unloaded latency. While latency stays within
+ * a tolerance of the baseline the limit grows by a small headroom; when requests start to
+ * queue (on database connections, say) latency rises and the limit shrinks in proportion.
+ *
+ * Requests are prioritised by sharing the limit: login, registration and sending may use
+ * all of it, most other requests a part, history, listings and search a smaller part, so
+ * those are shed first. Excess requests are rejected at once with 503 and Retry-After
+ * rather than waiting for a Tomcat thread or a database connection. It runs before Spring
+ * Security, so shed requests do not even cost a token check.
+ *
+ * Health checks, attachment transfers (whose duration is the client's bandwidth, not
+ * server load) and the WebSocket endpoint are not limited.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class AdaptiveConcurrencyLimitFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyLimitFilter.class);
+
+    enum Priority {
+        CRITICAL(1.0), NORMAL(0.8), SHEDDABLE(0.5);
+
+        // Share of the limit requests of this priority may fill
+        final double share;
+
+        Priority(double share) {
+            this.share = share;
+        }
+    }
+
+    @Value("${sparkchat.concurrency.enabled:true}")
+    private boolean enabled;
+
+    @Value("${sparkchat.concurrency.min-limit:4}")
+    private int minLimit;
+
+    @Value("${sparkchat.concurrency.max-limit:200}")
+    private int maxLimit;
+
+    // Latency ratio to the baseline that still counts as unloaded
+    @Value("${sparkchat.concurrency.tolerance:1.5}")
+    private double tolerance;
+
+    @Value("${sparkchat.concurrency.smoothing:0.2}")
+    private double smoothing;
+
+    @Value("${sparkchat.concurrency.window-ms:100}")
+    private long windowMillis;
+
+    @Value("${sparkchat.concurrency.window-min-samples:10}")
+    private int windowMinSamples;
+
+    // Number of windows over which the baseline rises to a slower workload
+    @Value("${sparkchat.concurrency.long-window:600}")
+    private int longWindow;
+
+    @Value("${sparkchat.concurrency.retry-after-seconds:1}")
+    private int retryAfterSeconds;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private volatile double limit;
+
+    // Window state, guarded by this filter's monitor
+    private long windowStartNanos = System.nanoTime();
+    private long windowLatencyNanos;
+    private int windowSamples;
+    private int windowMaxInflight;
+    private double baselineLatencyNanos;
+
+    private final LongAdder rejectedCritical = new LongAdder();
+    private final LongAdder rejectedNormal = new LongAdder();
+    private final LongAdder rejectedSheddable = new LongAdder();
+
+    public AdaptiveConcurrencyLimitFilter(@Value("${sparkchat.concurrency.initial-limit:20}") int initialLimit) {
+        this.limit = initialLimit;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        return !enabled || !path.startsWith("/api/")
+            || path.startsWith("/api/health") || path.startsWith("/api/attachments");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        Priority priority = classify(request);
+        int admittedInflight = tryAcquire(priority);
+        if (admittedInflight < 0) {
+            reject(priority, response);
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            inflight.decrementAndGet();
+            // A login continues on the auth executor, which bounds it instead; the time
+            // until then says nothing about load
+            if (!request.isAsyncStarted()) {
+                onSample(System.nanoTime() - startNanos, admittedInflight);
+            }
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCritical.sum() + rejectedNormal.sum() + rejectedSheddable.sum();
+    }
+
+    public long getRejectedSheddableCount() {
+        return rejectedSheddable.sum();
+    }
+
+    /**
+     * Login, registration and sending must keep working under load; history, listings and
+     * search can be retried and are shed first
+     */
+    static Priority classify(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        boolean get = "GET".equals(request.getMethod());
+        if (path.startsWith("/api/auth/") && !get) {
+            return Priority.CRITICAL;
+        }
+        if (!get && (path.equals("/api/chat/messages") || path.endsWith("/read"))) {
+            return Priority.CRITICAL;
+        }
+        if (get && (path.startsWith("/api/chat/dm/") || path.equals("/api/chat/messages")
+                || path.startsWith("/api/users") || path.endsWith("/receipts"))) {
+            return Priority.SHEDDABLE;
+        }
+        return Priority.NORMAL;
+    }
+
+    /**
+     * Take an in-flight slot if the priority's share of the limit allows it, returning
+     * the in-flight count including this request, or -1 when rejected
+     */
+    private int tryAcquire(Priority priority) {
+        int allowed = Math.max(1, (int) (limit * priority.share));
+        while (true) {
+            int current = inflight.get();
+            if (current >= allowed) {
+                return -1;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
+    }
+
+    private void reject(Priority priority, HttpServletResponse response) throws IOException {
+        switch (priority) {
+            case CRITICAL -> rejectedCritical.increment();
+            case NORMAL -> rejectedNormal.increment();
+            default -> rejectedSheddable.increment();
+        }
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader("Retry-After", Integer.toString(retryAfterSeconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"message\":\"Server is busy, please retry\"}");
+    }
+
+    synchronized void onSample(long latencyNanos, int sampleInflight) {
+        windowLatencyNanos += latencyNanos;
+        windowSamples++;
+        windowMaxInflight = Math.max(windowMaxInflight, sampleInflight);
+
+        long now = System.nanoTime();
+        if (now - windowStartNanos < TimeUnit.MILLISECONDS.toNanos(windowMillis) || windowSamples < windowMinSamples) {
+            return;
+        }
+        double shortLatency = (double) windowLatencyNanos / windowSamples;
+        int maxInflight = windowMaxInflight;
+        windowStartNanos = now;
+        windowLatencyNanos = 0;
+        windowSamples = 0;
+        windowMaxInflight = 0;
+        updateLimit(shortLatency, maxInflight);
+    }
+
+    private void updateLimit(double shortLatency, int maxInflight) {
+        // Follows faster windows at once and slower ones gradually, so a burst of load does
+        // not become the baseline, while a lasting change in the workload eventually does
+        if (baselineLatencyNanos == 0 || shortLatency < baselineLatencyNanos) {
+            baselineLatencyNanos = shortLatency;
+        } else {
+            baselineLatencyNanos += (shortLatency - baselineLatencyNanos) / longWindow;
+        }
+
+        double current = limit;
+        // Not enough load to tell whether a higher limit would be served well
+        if (maxInflight < current / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * baselineLatencyNanos / shortLatency));
+        double headroom = Math.sqrt(current);
+        double target = current * gradient + headroom;
+        double updated = current * (1 - smoothing) + target * smoothing;
+        updated = Math.max(minLimit, Math.min(maxLimit, updated));
+        if ((int) updated != (int) current) {
+            logger.debug("Concurrency limit {} -> {} (latency {} ms, baseline {} ms)", (int) current, (int) updated,
+                String.format("%.1f", shortLatency / 1e6), String.format("%.1f", baselineLatencyNanos / 1e6));
+        }
+        limit = updated;
+    }
+}
@@ -0,0 +1,106 @@
+package com.sparkchat.web;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closes WebSocket connections that have sent nothing for a long time
+ *
+ * Clients that negotiate STOMP heartbeats are disconnected by the broker as soon as their
+ * heartbeats stop. This covers the rest: a client that asked for no heartbeats and then
+ * went away without closing its socket (a phone losing its network, say) would otherwise
+ * hold its session, buffers and subscriptions until the TCP connection times out.
+ * Any inbound frame, heartbeats included, counts as activity.
+ */
+@Component
+public class IdleSessionReaper {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdleSessionReaper.class);
+
+    private static final CloseStatus IDLE = CloseStatus.GOING_AWAY.withReason("Idle timeout");
+
+    @Value("${sparkchat.websocket.idle-timeout-ms:300000}")
+    private long idleTimeoutMillis;
+
+    private final Map<String, TrackedSession> sessions = new ConcurrentHashMap<>();
+
+    private final LongAdder reapedCount = new LongAdder();
+
+    /**
+     * Decorate the STOMP WebSocket handler so inbound activity of each session is tracked
+     */
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                sessions.put(session.getId(), new TrackedSession(session));
+                super.afterConnectionEstablished(session);
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                TrackedSession tracked = sessions.get(session.getId());
+                if (tracked != null) {
+                    tracked.lastInboundNanos = System.nanoTime();
+                }
+                super.handleMessage(session, message);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                sessions.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    @Scheduled(fixedDelayString = "${sparkchat.websocket.idle-sweep-interval-ms:30000}")
+    public void reapIdleSessions() {
+        long now = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        for (TrackedSession tracked : sessions.values()) {
+            if (now - tracked.lastInboundNanos <= timeoutNanos) {
+                continue;
+            }
+            sessions.remove(tracked.session.getId());
+            reapedCount.increment();
+            logger.debug("Closing idle WebSocket session {}", tracked.session.getId());
+            try {
+                tracked.session.close(IDLE);
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Failed to close idle session {}: {}", tracked.session.getId(), e.getMessage());
+            }
+        }
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public long getReapedCount() {
+        return reapedCount.sum();
+    }
+
+    private static final class TrackedSession {
+        final WebSocketSession session;
+        volatile long lastInboundNanos = System.nanoTime();
+
+        TrackedSession(WebSocketSession session) {
+            this.session = session;
+        }
+    }
+}
@@ -0,0 +1,791 @@
+package com.sparkchat.web;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sparkchat.service.MessagingMetrics;
+import com.sparkchat.service.OfflineMailboxService;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.adapter.standard.StandardWebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-session outbound buffers that keep slow clients from holding up anyone else
+ *
+ * Every WebSocket session is wrapped so that sending only queues the encoded frame; the
+ * frames of a session are written in order by one task at a time on the dedicated
+ * WebSocket writer pool. The outbound channel threads that deliver to all sessions never
+ * wait on a socket, and a slow session holds at most one writer thread, only while its
+ * socket is actually blocked.
+ *
+ * Frames sent with a {@value #CONFLATE_HEADER} header are state, not history: while one
+ * is queued, a newer frame with the same key takes its place (typing indicators), or is
+ * merged into it when both bodies are JSON arrays of per-user updates (receipt marks),
+ * keeping the latest entry for each user. The header is internal and never written to
+ * the client.
+ *
+ * Chat messages are never silently dropped. When a session's queue exceeds its byte limit
+ * and the client has subscribed to its offline mailbox, its queued chat messages, and any
+ * that arrive until it has caught up, are moved to the mailbox, which is drained back to
+ * the user once the queue is empty: the mailbox burst is the overflow signal. A client
+ * without that subscription could never see them, so its session is closed instead and
+ * the client reloads history when it reconnects. When a single write takes longer than
+ * the send time limit, the session is closed and its queued chat messages are held the
+ * same way, for mailbox readers only.
+ *
+ * Plain WebSocket sessions are written asynchronously, so a client that stopped reading
+ * holds no writer thread at all. SockJS sessions frame messages themselves and are written
+ * through them, blocking; enough of those stalled at once could hold the whole pool, so
+ * their writes give up at the send time limit. A watchdog closes sessions whose write has
+ * run past the limit either way, and every close is made on the thread that decided it,
+ * never queued behind the writes it is meant to end.
+ *
+ * A client may opt in to batching with a {@value #BATCHING_HEADER}:true header on CONNECT.
+ * Chat messages and room topic frames for such a session are then held for a short window
+ * (or until enough bytes are queued) and written together as consecutive STOMP frames in a
+ * single WebSocket message, which any STOMP parser reads as separate frames.
+ */
+@Component
+public class OutboundSessionBuffers {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundSessionBuffers.class);
+
+    /**
+     * Native header marking a frame as conflatable, with the key of the state it carries
+     */
+    public static final String CONFLATE_HEADER = "conflate";
+
+    /**
+     * CONNECT header with which a client opts in to batched frames
+     */
+    public static final String BATCHING_HEADER = "frame-batching";
+
+    /**
+     * Session attribute set when the client opted in to batched frames
+     */
+    public static final String BATCHING_ATTRIBUTE = "frameBatching";
+
+    static final String CHAT_DESTINATION = "/user/queue/messages";
+
+    static final String MAILBOX_DESTINATION = "/user/queue/mailbox";
+
+    static final String ROOM_TOPIC_PREFIX = "/topic/rooms/";
+
+    // Tomcat's timeout for blocking sends on a session, read at the start of every send
+    static final String BLOCKING_SEND_TIMEOUT_PROPERTY = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    private final ThreadPoolTaskExecutor writerExecutor;
+    private final ObjectProvider<OfflineMailboxService> mailboxServiceProvider;
+    private final ObjectProvider<TaskScheduler> taskSchedulerProvider;
+    private final MessagingMetrics messagingMetrics;
+    private final ObjectMapper objectMapper;
+
+    private final Map<String, BufferedSession> sessions = new ConcurrentHashMap<>();
+
+    @Value("${sparkchat.websocket.send-buffer-bytes:524288}")
+    private int sendBufferBytes;
+
+    @Value("${sparkchat.websocket.send-time-limit-ms:10000}")
+    private long sendTimeLimitMillis;
+
+    @Value("${sparkchat.websocket.batching.enabled:true}")
+    private boolean batchingEnabled;
+
+    @Value("${sparkchat.websocket.batching.window-ms:3}")
+    private long batchWindowMillis;
+
+    @Value("${sparkchat.websocket.batching.max-bytes:16384}")
+    private int batchMaxBytes;
+
+    private final LongAdder conflatedCount = new LongAdder();
+    private final LongAdder divertedCount = new LongAdder();
+    private final LongAdder overflowCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder writeCount = new LongAdder();
+    private final LongAdder writtenFrameCount = new LongAdder();
+
+    public OutboundSessionBuffers(@Qualifier("websocketWriterExecutor") ThreadPoolTaskExecutor writerExecutor,
+                                  ObjectProvider<OfflineMailboxService> mailboxServiceProvider,
+                                  @Qualifier("messageBrokerTaskScheduler") ObjectProvider<TaskScheduler> taskSchedulerProvider,
+                                  MessagingMetrics messagingMetrics, ObjectMapper objectMapper) {
+        this.writerExecutor = writerExecutor;
+        this.mailboxServiceProvider = mailboxServiceProvider;
+        this.taskSchedulerProvider = taskSchedulerProvider;
+        this.messagingMetrics = messagingMetrics;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Whether a client asking for batched frames on CONNECT gets them
+     */
+    public boolean isBatchingEnabled() {
+        return batchingEnabled;
+    }
+
+    /**
+     * Decorate the STOMP WebSocket handler so each session it sees is buffered
+     */
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                BufferedSession buffered = new BufferedSession(session);
+                sessions.put(session.getId(), buffered);
+                super.afterConnectionEstablished(buffered);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                BufferedSession buffered = sessions.remove(session.getId());
+                if (buffered != null) {
+                    buffered.closed();
+                }
+                super.afterConnectionClosed(buffered != null ? buffered : session, closeStatus);
+            }
+        };
+    }
+
+    /**
+     * Close sessions whose current write has taken longer than the send time limit;
+     * the frames sent to a stalled session are no longer what would notice it
+     */
+    @Scheduled(fixedDelayString = "${sparkchat.websocket.stall-check-interval-ms:1000}")
+    public void closeStalledSessions() {
+        for (BufferedSession session : sessions.values()) {
+            session.closeIfStalled();
+        }
+    }
+
+    public long getConflatedCount() {
+        return conflatedCount.sum();
+    }
+
+    public long getDivertedCount() {
+        return divertedCount.sum();
+    }
+
+    public long getOverflowCount() {
+        return overflowCount.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    /**
+     * WebSocket messages written; below the frame count when frames were batched
+     */
+    public long getWriteCount() {
+        return writeCount.sum();
+    }
+
+    public long getWrittenFrameCount() {
+        return writtenFrameCount.sum();
+    }
+
+    private final class BufferedSession extends WebSocketSessionDecorator {
+
+        // Guarded by this session's monitor
+        private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+        private final Map<String, Frame> conflatable = new HashMap<>();
+        private long bufferedBytes;
+        private boolean flushScheduled;
+        // The scheduled flush is waiting for the batch window of the frame at the head
+        private boolean awaitingBatch;
+        private boolean overflowed;
+        private boolean closed;
+
+        private volatile long writeStartedNanos;
+
+        BufferedSession(WebSocketSession delegate) {
+            super(delegate);
+            setBlockingSendTimeout(sendTimeLimitMillis);
+            WebSocketSession session = WebSocketSessionDecorator.unwrap(delegate);
+            if (session instanceof StandardWebSocketSession) {
+                ((StandardWebSocketSession) session).getNativeSession().getAsyncRemote().setSendTimeout(sendTimeLimitMillis);
+            }
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            closeIfStalled();
+            Frame frame = Frame.of(message);
+            List<Frame> diverted = new ArrayList<>();
+            boolean schedule = false;
+            boolean overflowClosed = false;
+
+            synchronized (this) {
+                if (closed || (overflowed && frame.isChat())) {
+                    diverted.add(frame);
+                } else {
+                    enqueue(frame);
+                    if (bufferedBytes > sendBufferBytes) {
+                        overflowClosed = overflow(diverted);
+                    }
+                    if (!flushScheduled) {
+                        flushScheduled = true;
+                        schedule = true;
+                    } else if (awaitingBatch && (bufferedBytes >= batchMaxBytes || !isBatchable(frame))) {
+                        awaitingBatch = false;
+                        schedule = true;
+                    }
+                }
+            }
+
+            hold(diverted);
+            if (overflowClosed) {
+                closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+            }
+            if (schedule) {
+                execute(this::flush);
+            }
+        }
+
+        void closeIfStalled() {
+            List<Frame> diverted = new ArrayList<>();
+            synchronized (this) {
+                long started = writeStartedNanos;
+                if (closed || started == 0
+                        || System.nanoTime() - started <= TimeUnit.MILLISECONDS.toNanos(sendTimeLimitMillis)) {
+                    return;
+                }
+                closed = true;
+                drainQueue(diverted);
+            }
+            hold(diverted);
+            timeoutCount.increment();
+            logger.warn("Closing session {}: a write has taken over {} ms", getId(), sendTimeLimitMillis);
+            closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+        }
+
+        private void enqueue(Frame frame) {
+            Frame pending = frame.conflateKey != null ? conflatable.get(frame.conflateKey) : null;
+            if (pending != null) {
+                bufferedBytes -= pending.size;
+                pending.absorb(frame, objectMapper);
+                bufferedBytes += pending.size;
+                conflatedCount.increment();
+                return;
+            }
+            queue.add(frame);
+            if (frame.conflateKey != null) {
+                conflatable.put(frame.conflateKey, frame);
+            }
+            bufferedBytes += frame.size;
+        }
+
+        /**
+         * Move queued chat messages to the mailbox; if the client does not read the mailbox,
+         * or other frames alone still exceed the limit, the session is marked closed and
+         * true returned, for the caller to close it. Mailbox bursts being delivered do not
+         * count: they are bounded by the mailbox's own limits, and closing would lose them.
+         */
+        private boolean overflow(List<Frame> diverted) {
+            if (!readsMailbox()) {
+                overflowCount.increment();
+                closed = true;
+                drainQueue(diverted);
+                logger.warn("Closing session {}: over {} bytes are queued and it has no mailbox subscription",
+                    getId(), sendBufferBytes);
+                return true;
+            }
+            if (!overflowed) {
+                overflowed = true;
+                overflowCount.increment();
+            }
+            long otherBytes = 0;
+            for (Iterator<Frame> pending = queue.iterator(); pending.hasNext(); ) {
+                Frame frame = pending.next();
+                if (frame.isChat()) {
+                    pending.remove();
+                    bufferedBytes -= frame.size;
+                    diverted.add(frame);
+                } else if (!frame.isMailbox()) {
+                    otherBytes += frame.size;
+                }
+            }
+            if (otherBytes > sendBufferBytes) {
+                closed = true;
+                drainQueue(diverted);
+                logger.warn("Closing session {}: {} bytes of non-chat frames are queued", getId(), otherBytes);
+                return true;
+            }
+            return false;
+        }
+
+        private void flush() {
+            boolean caughtUp = false;
+            while (true) {
+                List<Frame> batch = new ArrayList<>();
+                synchronized (this) {
+                    Frame head = queue.peek();
+                    if (head == null || closed) {
+                        flushScheduled = false;
+                        caughtUp = overflowed && !closed;
+                        overflowed = false;
+                        break;
+                    }
+                    long waitNanos = head.enqueuedNanos + TimeUnit.MILLISECONDS.toNanos(batchWindowMillis) - System.nanoTime();
+                    if (waitNanos > 0 && bufferedBytes < batchMaxBytes && allBatchable()) {
+                        awaitingBatch = true;
+                        scheduleBatch(waitNanos);
+                        return;
+                    }
+                    long batchBytes = 0;
+                    while (head != null && (batch.isEmpty() || (head.isText() && batchBytes + head.size <= batchMaxBytes))) {
+                        queue.poll();
+                        if (head.conflateKey != null) {
+                            conflatable.remove(head.conflateKey, head);
+                        }
+                        bufferedBytes -= head.size;
+                        batchBytes += head.size;
+                        batch.add(head);
+                        if (!batching() || !head.isText()) {
+                            break;
+                        }
+                        head = queue.peek();
+                    }
+                }
+
+                WebSocketMessage<?> message = batch.size() == 1 ? batch.get(0).message() : Frame.concat(batch);
+                Session asyncSession = asyncSession(message);
+                writeStartedNanos = System.nanoTime();
+                if (asyncSession != null) {
+                    sendAsync(asyncSession, message, batch);
+                    return;
+                }
+                try {
+                    getDelegate().sendMessage(message);
+                    written(batch);
+                } catch (IOException | RuntimeException e) {
+                    failed(batch, e);
+                    return;
+                } finally {
+                    writeStartedNanos = 0;
+                }
+            }
+
+            // Without a mailbox subscription now, the held messages wait for the next one
+            if (caughtUp && readsMailbox()) {
+                Object userId = getAttributes().get("userId");
+                Object username = getAttributes().get("username");
+                if (userId instanceof Long && username != null) {
+                    mailboxServiceProvider.getObject().drain((Long) userId, (String) username);
+                }
+            }
+        }
+
+        /**
+         * Hand the batch to the container without waiting for the socket; a client that
+         * stopped reading then holds no writer thread, and the flush carries on once the
+         * batch is out
+         */
+        private void sendAsync(Session session, WebSocketMessage<?> message, List<Frame> batch) {
+            SendHandler handler = result -> {
+                writeStartedNanos = 0;
+                if (result.isOK()) {
+                    written(batch);
+                    execute(this::flush);
+                } else {
+                    failed(batch, result.getException());
+                }
+            };
+            try {
+                if (message instanceof TextMessage) {
+                    session.getAsyncRemote().sendText(((TextMessage) message).getPayload(), handler);
+                } else {
+                    session.getAsyncRemote().sendBinary(((BinaryMessage) message).getPayload(), handler);
+                }
+            } catch (RuntimeException e) {
+                writeStartedNanos = 0;
+                failed(batch, e);
+            }
+        }
+
+        private void written(List<Frame> batch) {
+            writeCount.increment();
+            writtenFrameCount.add(batch.size());
+            for (Frame frame : batch) {
+                messagingMetrics.recordOutbound(frame.destination, frame.enqueuedNanos);
+            }
+        }
+
+        private void failed(List<Frame> batch, Throwable e) {
+            List<Frame> diverted = new ArrayList<>();
+            for (Frame frame : batch) {
+                if (frame.isChat()) {
+                    diverted.add(frame);
+                }
+            }
+            boolean wasClosed;
+            synchronized (this) {
+                wasClosed = closed;
+                closed = true;
+                flushScheduled = false;
+                drainQueue(diverted);
+            }
+            // SockJS sessions wrap the container's exception; a session the watchdog closed
+            // has been counted already
+            if (!wasClosed && NestedExceptionUtils.getMostSpecificCause(e) instanceof SocketTimeoutException) {
+                timeoutCount.increment();
+                logger.warn("Closing session {}: a write has taken over {} ms", getId(), sendTimeLimitMillis);
+            } else {
+                logger.debug("Failed to write to session {}: {}", getId(), e.getMessage());
+            }
+            hold(diverted);
+            if (!wasClosed) {
+                closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+            }
+        }
+
+        private boolean readsMailbox() {
+            return getAttributes().get(OfflineMailboxService.SUBSCRIPTION_ATTRIBUTE) != null;
+        }
+
+        private boolean batching() {
+            return batchingEnabled && Boolean.TRUE.equals(getAttributes().get(BATCHING_ATTRIBUTE));
+        }
+
+        private boolean isBatchable(Frame frame) {
+            return batching() && frame.isBatchable();
+        }
+
+        /**
+         * Whether everything queued may wait for the batch window; anything else, a
+         * receipt or an error say, goes out at once together with what is queued before it
+         */
+        private boolean allBatchable() {
+            if (!batching()) {
+                return false;
+            }
+            for (Frame frame : queue) {
+                if (!frame.isBatchable()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void scheduleBatch(long waitNanos) {
+            taskSchedulerProvider.getObject().schedule(() -> {
+                synchronized (this) {
+                    if (!awaitingBatch) {
+                        // A full batch or an urgent frame already rescheduled the flush
+                        return;
+                    }
+                    awaitingBatch = false;
+                }
+                execute(this::flush);
+            }, Instant.now().plusNanos(waitNanos));
+        }
+
+        /**
+         * The connection is gone; anything still queued for it is undelivered
+         */
+        void closed() {
+            List<Frame> diverted = new ArrayList<>();
+            synchronized (this) {
+                closed = true;
+                drainQueue(diverted);
+            }
+            hold(diverted);
+        }
+
+        private void drainQueue(List<Frame> diverted) {
+            for (Frame frame : queue) {
+                if (frame.isChat()) {
+                    diverted.add(frame);
+                }
+            }
+            queue.clear();
+            conflatable.clear();
+            awaitingBatch = false;
+            bufferedBytes = 0;
+        }
+
+        /**
+         * Hold undelivered chat messages for a client that reads the mailbox; any other
+         * client loads them from history when it reconnects
+         */
+        private void hold(List<Frame> diverted) {
+            Object userId = getAttributes().get("userId");
+            if (diverted.isEmpty() || !(userId instanceof Long) || !readsMailbox()) {
+                return;
+            }
+            OfflineMailboxService mailboxService = mailboxServiceProvider.getObject();
+            List<Long> recipient = List.of((Long) userId);
+            for (Frame frame : diverted) {
+                if (frame.isChat()) {
+                    mailboxService.hold(recipient, frame.body().getBytes(StandardCharsets.UTF_8));
+                    divertedCount.increment();
+                }
+            }
+        }
+
+        private void execute(Runnable task) {
+            try {
+                writerExecutor.execute(task);
+            } catch (TaskRejectedException e) {
+                // Picked up again by the next frame sent to this session
+                synchronized (this) {
+                    flushScheduled = false;
+                }
+                logger.warn("WebSocket writer queue is full, delaying session {}", getId());
+            }
+        }
+
+        /**
+         * Close without waiting on the socket: a close frame queued behind a stalled write
+         * gives up at once and the container drops the connection. A blocking write already
+         * under way still runs until its own timeout.
+         */
+        private void closeQuietly(CloseStatus status) {
+            setBlockingSendTimeout(1);
+            try {
+                getDelegate().close(status);
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Failed to close session {}: {}", getId(), e.getMessage());
+            }
+        }
+
+        /**
+         * The container session of a plain WebSocket connection, for writes that do not
+         * block; SockJS sessions frame each message themselves and are written through
+         */
+        private Session asyncSession(WebSocketMessage<?> message) {
+            WebSocketSession session = WebSocketSessionDecorator.unwrap(getDelegate());
+            if (!(session instanceof StandardWebSocketSession)
+                    || !(message instanceof TextMessage || message instanceof BinaryMessage)) {
+                return null;
+            }
+            return ((StandardWebSocketSession) session).getNativeSession();
+        }
+
+        private void setBlockingSendTimeout(long millis) {
+            WebSocketSession session = WebSocketSessionDecorator.unwrap(getDelegate());
+            if (session instanceof NativeWebSocketSession) {
+                Object nativeSession = ((NativeWebSocketSession) session).getNativeSession();
+                if (nativeSession instanceof Session) {
+                    ((Session) nativeSession).getUserProperties().put(BLOCKING_SEND_TIMEOUT_PROPERTY, millis);
+                }
+            }
+        }
+    }
+
+    /**
+     * A queued outbound message. Only the destination is read from STOMP text frames;
+     * conflatable frames, the only ones ever rewritten, are split into headers
+     * and body, and lose their {@value #CONFLATE_HEADER} header on the way
+     */
+    private static final class Frame {
+        private WebSocketMessage<?> message;
+        final String destination;
+        final String conflateKey;
+        // Conflatable frames only
+        private String headers;
+        private String body;
+        int size;
+        final long enqueuedNanos = System.nanoTime();
+
+        private Frame(WebSocketMessage<?> message, String destination, String conflateKey, String headers, String body,
+                      int size) {
+            this.message = message;
+            this.destination = destination;
+            this.conflateKey = conflateKey;
+            this.headers = headers;
+            this.body = body;
+            this.size = size;
+        }
+
+        static Frame of(WebSocketMessage<?> message) {
+            // Frames from the STOMP handler keep the bytes they were made from; this is no encode
+            int size = message.getPayloadLength();
+            if (!(message instanceof TextMessage)) {
+                return new Frame(message, null, null, null, null, size);
+            }
+            String text = ((TextMessage) message).getPayload();
+            int headerEnd = text.indexOf("\n\n");
+            if (!text.startsWith("MESSAGE\n") || headerEnd < 0) {
+                return new Frame(message, null, null, null, null, size);
+            }
+            String destination = header(text, "destination", headerEnd);
+            int conflate = text.lastIndexOf("\n" + CONFLATE_HEADER + ":", headerEnd);
+            if (conflate < 0) {
+                return new Frame(message, destination, null, null, null, size);
+            }
+
+            int conflateEnd = text.indexOf('\n', conflate + 1);
+            String conflateKey = text.substring(conflate + CONFLATE_HEADER.length() + 2, conflateEnd);
+            String headers = text.substring(0, conflate) + text.substring(conflateEnd, headerEnd);
+            int bodyEnd = text.endsWith("\0") ? text.length() - 1 : text.length();
+            String body = text.substring(headerEnd + 2, bodyEnd);
+            size -= text.substring(conflate, conflateEnd).getBytes(StandardCharsets.UTF_8).length;
+            return new Frame(new TextMessage(headers + "\n\n" + body + "\0"), destination, conflateKey, headers, body, size);
+        }
+
+        private static String header(String text, String name, int headerEnd) {
+            String prefix = "\n" + name + ":";
+            int start = text.indexOf(prefix);
+            if (start < 0 || start > headerEnd) {
+                return null;
+            }
+            start += prefix.length();
+            return text.substring(start, text.indexOf('\n', start));
+        }
+
+        boolean isChat() {
+            return CHAT_DESTINATION.equals(destination);
+        }
+
+        boolean isMailbox() {
+            return MAILBOX_DESTINATION.equals(destination);
+        }
+
+        boolean isBatchable() {
+            return destination != null && (isChat() || destination.startsWith(ROOM_TOPIC_PREFIX));
+        }
+
+        boolean isText() {
+            return message instanceof TextMessage;
+        }
+
+        /**
+         * The frame's body, taken out of the frame for the rare callers that need it alone
+         */
+        String body() {
+            if (body != null) {
+                return body;
+            }
+            String text = ((TextMessage) message).getPayload();
+            int bodyEnd = text.endsWith("\0") ? text.length() - 1 : text.length();
+            return text.substring(text.indexOf("\n\n") + 2, bodyEnd);
+        }
+
+        /**
+         * One WebSocket message carrying the frames back to back; each STOMP frame ends
+         * with a NULL octet, so the client's decoder splits them again
+         */
+        static TextMessage concat(List<Frame> frames) {
+            StringBuilder text = new StringBuilder();
+            for (Frame frame : frames) {
+                text.append(((TextMessage) frame.message()).getPayload());
+            }
+            return new TextMessage(text);
+        }
+
+        WebSocketMessage<?> message() {
+            return message;
+        }
+
+        /**
+         * Take the state of a newer frame with the same key: JSON arrays of updates keep the
+         * latest entry for each user, anything else is replaced
+         */
+        void absorb(Frame newer, ObjectMapper objectMapper) {
+            JsonNode updates = updates(body, objectMapper);
+            JsonNode newerUpdates = updates(newer.body, objectMapper);
+            if (updates == null || newerUpdates == null) {
+                message = newer.message;
+                headers = newer.headers;
+                body = newer.body;
+                size = newer.size;
+                return;
+            }
+            if (newerUpdates.isEmpty()) {
+                return;
+            }
+
+            Map<Object, JsonNode> latest = new LinkedHashMap<>();
+            for (JsonNode update : updates) {
+                latest.put(userKey(update), update);
+            }
+            for (JsonNode update : newerUpdates) {
+                Object key = userKey(update);
+                // Moved to the end, so the merged array lists updates in the order they were made
+                latest.remove(key);
+                latest.put(key, update);
+            }
+            byte[] merged;
+            try {
+                merged = objectMapper.writeValueAsBytes(objectMapper.createArrayNode().addAll(latest.values()));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+
+            body = new String(merged, StandardCharsets.UTF_8);
+            headers = withContentLength(headers, merged.length);
+            byte[] head = (headers + "\n\n").getBytes(StandardCharsets.UTF_8);
+            byte[] frame = new byte[head.length + merged.length + 1];
+            System.arraycopy(head, 0, frame, 0, head.length);
+            System.arraycopy(merged, 0, frame, head.length, merged.length);
+            message = new TextMessage(frame);
+            size = frame.length;
+        }
+
+        /**
+         * The body as a JSON array, or null for anything else
+         */
+        private static JsonNode updates(String body, ObjectMapper objectMapper) {
+            if (!body.startsWith("[")) {
+                return null;
+            }
+            try {
+                JsonNode updates = objectMapper.readTree(body);
+                return updates.isArray() ? updates : null;
+            } catch (JsonProcessingException e) {
+                return null;
+            }
+        }
+
+        private static Object userKey(JsonNode update) {
+            JsonNode userId = update.get("userId");
+            // An update for no particular user is kept as it is
+            return userId != null ? userId : new Object();
+        }
+
+        private static String withContentLength(String headers, int length) {
+            String prefix = "\ncontent-length:";
+            int start = headers.indexOf(prefix);
+            if (start < 0) {
+                return headers + prefix + length;
+            }
+            int end = headers.indexOf('\n', start + prefix.length());
+            return headers.substring(0, start) + prefix + length + (end < 0 ? "" : headers.substring(end));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.sparkchat.controller;
+
+import com.sparkchat.model.Attachment;
+import com.sparkchat.model.User;
+import com.sparkchat.service.AttachmentService;
+import com.sparkchat.service.ChunkedUploadService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class AttachmentControllerRangeTest {
+
+    private static final String BODY = "0123456789";
+    private static final String ETAG = "\"" + "ab".repeat(32) + "\"";
+
+    @TempDir
+    Path dir;
+
+    private AttachmentController controller;
+    private Authentication authentication;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Attachment attachment = new Attachment(3L, 1L, "notes.txt", "text/plain");
+        attachment.setId(9L);
+        attachment.setSize(BODY.length());
+        attachment.setContentDigest("ab".repeat(32));
+        Path file = Files.writeString(dir.resolve("notes.txt"), BODY);
+
+        AttachmentService attachmentService = mock(AttachmentService.class);
+        when(attachmentService.getForDownload(9L, 1L)).thenReturn(Optional.of(attachment));
+        when(attachmentService.getFile(attachment)).thenReturn(file);
+        controller = new AttachmentController(attachmentService, mock(ChunkedUploadService.class));
+
+        User user = new User("ann", "ann@example.com", "password123");
+        user.setId(1L);
+        authentication = new UsernamePasswordAuthenticationToken(user, null, List.of());
+    }
+
+    @Test
+    void parsesSingleRanges() {
+        assertThat(AttachmentController.parseRange("bytes=2-5", 10)).containsExactly(2, 5);
+        assertThat(AttachmentController.parseRange(" bytes= 2 - 5 ", 10)).containsExactly(2, 5);
+        assertThat(AttachmentController.parseRange("bytes=4-", 10)).containsExactly(4, 9);
+        assertThat(AttachmentController.parseRange("bytes=-3", 10)).containsExactly(7, 9);
+        // Ends past the file and suffixes longer than it are clamped
+        assertThat(AttachmentController.parseRange("bytes=8-100", 10)).containsExactly(8, 9);
+        assertThat(AttachmentController.parseRange("bytes=-50", 10)).containsExactly(0, 9);
+    }
+
+    @Test
+    void ignoresRangesItCannotParse() {
+        for (String header : new String[] {"items=0-5", "bytes=0-1,4-5", "bytes=5", "bytes=-", "bytes=5-2",
+                "bytes=a-b", "bytes=--5", "bytes=+1-2", "bytes=1-+2", "bytes=99999999999999999999-"}) {
+            assertThat(AttachmentController.parseRange(header, 10)).as(header).isNull();
+        }
+    }
+
+    @Test
+    void rejectsRangesOutsideTheFile() {
+        long[] unsatisfiable = AttachmentController.parseRange("bytes=10-", 10);
+        assertThat(unsatisfiable).isEmpty();
+        assertThat(AttachmentController.parseRange("bytes=-0", 10)).isSameAs(unsatisfiable);
+        assertThat(AttachmentController.parseRange("bytes=-5", 0)).isSameAs(unsatisfiable);
+    }
+
+    @Test
+    void servesTheRangeWhenIfRangeMatches() throws IOException {
+        MockHttpServletResponse response = download("bytes=2-5", ETAG);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/10");
+        assertThat(response.getContentAsString(StandardCharsets.UTF_8)).isEqualTo("2345");
+    }
+
+    @Test
+    void servesTheWholeFileWhenIfRangeIsStale() throws IOException {
+        MockHttpServletResponse response = download("bytes=2-5", "\"stale\"");
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+        assertThat(response.getContentAsString(StandardCharsets.UTF_8)).isEqualTo(BODY);
+    }
+
+    @Test
+    void answersUnsatisfiableRangesWith416() throws IOException {
+        MockHttpServletResponse response = download("bytes=20-", null);
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */10");
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void ignoresMalformedRanges() throws IOException {
+        MockHttpServletResponse response = download("bytes=--5", null);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsString(StandardCharsets.UTF_8)).isEqualTo(BODY);
+    }
+
+    private MockHttpServletResponse download(String range, String ifRange) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.download(9L, range, null, ifRange, authentication, new MockHttpServletRequest("GET", "/"), response);
+        return response;
+    }
+}
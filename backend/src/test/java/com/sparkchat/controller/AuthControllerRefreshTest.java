@@ -0,0 +1,79 @@
+package com.sparkchat.controller;
+
+import com.sparkchat.dto.AuthResponse;
+import com.sparkchat.dto.RefreshRequest;
+import com.sparkchat.model.User;
+import com.sparkchat.security.JwtUtils;
+import com.sparkchat.service.RefreshTokenService;
+import com.sparkchat.service.UserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.security.authentication.AuthenticationManager;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+class AuthControllerRefreshTest {
+
+    private AuthenticationManager authenticationManager;
+    private RefreshTokenService refreshTokenService;
+    private UserService userService;
+    private AuthController controller;
+
+    @BeforeEach
+    void setUp() {
+        User user = new User("ann", "ann@example.com", "password123");
+        user.setId(1L);
+        authenticationManager = mock(AuthenticationManager.class);
+        refreshTokenService = mock(RefreshTokenService.class);
+        userService = mock(UserService.class);
+        when(userService.findById(1L)).thenReturn(Optional.of(user));
+        JwtUtils jwtUtils = mock(JwtUtils.class);
+        when(jwtUtils.generateToken(user)).thenReturn("access-token");
+
+        controller = new AuthController(authenticationManager, userService, jwtUtils, refreshTokenService,
+            mock(ThreadPoolTaskExecutor.class));
+    }
+
+    @Test
+    void aRefreshTokenIsExchangedForANewPairWithoutAPasswordCheck() {
+        when(refreshTokenService.redeem("old")).thenReturn(Optional.of(1L));
+        when(refreshTokenService.issue(1L)).thenReturn("next");
+
+        ResponseEntity<?> response = controller.refresh(new RefreshRequest("old"));
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        AuthResponse body = (AuthResponse) response.getBody();
+        assertThat(body.getToken()).isEqualTo("access-token");
+        assertThat(body.getRefreshToken()).isEqualTo("next");
+        assertThat(body.getUser().getUsername()).isEqualTo("ann");
+        assertThat(controller.getRefreshedLoginCount()).isEqualTo(1);
+        verifyNoInteractions(authenticationManager);
+    }
+
+    @Test
+    void anUnknownOrUsedTokenIsRejected() {
+        when(refreshTokenService.redeem(any())).thenReturn(Optional.empty());
+
+        ResponseEntity<?> response = controller.refresh(new RefreshRequest("used"));
+
+        assertThat(response.getStatusCode().value()).isEqualTo(401);
+        verify(refreshTokenService, never()).issue(anyLong());
+        assertThat(controller.getRefreshedLoginCount()).isZero();
+    }
+
+    @Test
+    void aTokenOfADeletedUserIsRejected() {
+        when(refreshTokenService.redeem("orphan")).thenReturn(Optional.of(2L));
+        when(userService.findById(2L)).thenReturn(Optional.empty());
+
+        assertThat(controller.refresh(new RefreshRequest("orphan")).getStatusCode().value()).isEqualTo(401);
+        verify(refreshTokenService, never()).issue(anyLong());
+    }
+}
@@ -0,0 +1,62 @@
+package com.sparkchat.controller;
+
+import com.sparkchat.model.User;
+import com.sparkchat.service.ChatService;
+import com.sparkchat.service.CounterService;
+import com.sparkchat.service.ReceiptService;
+import com.sparkchat.service.RoomMembershipIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+class ChatControllerHistoryTest {
+
+    private ChatService chatService;
+    private RoomMembershipIndex membershipIndex;
+    private ChatController controller;
+    private Authentication authentication;
+
+    @BeforeEach
+    void setUp() {
+        chatService = mock(ChatService.class);
+        when(chatService.getMessageHistory(any(), anyInt(), anyInt())).thenReturn(List.of());
+        membershipIndex = mock(RoomMembershipIndex.class);
+        controller = new ChatController(chatService, mock(CounterService.class), mock(ReceiptService.class),
+            membershipIndex);
+
+        User user = new User("ann", "ann@example.com", "password123");
+        user.setId(1L);
+        authentication = new UsernamePasswordAuthenticationToken(user, null, List.of());
+    }
+
+    @Test
+    void membersReadTheirRoomsHistory() {
+        when(membershipIndex.isMember(7L, 1L)).thenReturn(true);
+
+        assertThat(controller.getMessageHistory(7L, 0, 50, authentication).getStatusCode().value()).isEqualTo(200);
+        verify(chatService).getMessageHistory(7L, 0, 50);
+    }
+
+    @Test
+    void othersAreRefused() {
+        assertThat(controller.getMessageHistory(7L, 0, 50, authentication).getStatusCode().value()).isEqualTo(403);
+        verify(chatService, never()).getMessageHistory(anyLong(), anyInt(), anyInt());
+    }
+
+    @Test
+    void everyoneReadsThePublicRoom() {
+        when(chatService.isPublicRoom(2L)).thenReturn(true);
+
+        assertThat(controller.getMessageHistory(2L, 0, 50, authentication).getStatusCode().value()).isEqualTo(200);
+        assertThat(controller.getMessageHistory(null, 0, 50, authentication).getStatusCode().value()).isEqualTo(200);
+    }
+}
@@ -0,0 +1,87 @@
+package com.sparkchat.diagnostics;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FlightRecorderServiceTest {
+
+    private FlightRecorderService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new FlightRecorderService();
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "settings", new ClassPathResource("jfr/sparkchat.jfc"));
+        ReflectionTestUtils.setField(service, "maxAgeMinutes", 30L);
+        ReflectionTestUtils.setField(service, "maxSizeMegabytes", 100L);
+        service.afterSingletonsInstantiated();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.destroy();
+    }
+
+    @Test
+    void aDumpStartsAtTheChunkHoldingTheWindowsBeginning() throws Exception {
+        assertThat(service.isRecording()).isTrue();
+        validation("early");
+        Thread.sleep(1500);
+
+        Instant rotated = Instant.now();
+        service.rotateChunk();
+        Thread.sleep(1000);
+        validation("late");
+
+        Path file = service.dump(Duration.ofMillis(500));
+        try {
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            List<String> validations = events.stream()
+                .filter(event -> event.getEventType().getName().equals("sparkchat.JwtValidation"))
+                .map(event -> event.getString("username"))
+                .toList();
+            assertThat(validations).containsExactly("late");
+
+            // Everything in the file was written in the chunk begun by the rotation
+            Instant earliest = events.stream()
+                .map(RecordedEvent::getEndTime)
+                .min(Comparator.naturalOrder())
+                .orElseThrow();
+            assertThat(earliest).isAfterOrEqualTo(rotated.minusMillis(100));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void dumpsNeedTheRecording() throws Exception {
+        service.destroy();
+
+        assertThat(service.isRecording()).isFalse();
+        assertThatThrownBy(() -> service.dump(5))
+            .isInstanceOf(IllegalStateException.class);
+    }
+
+    private static void validation(String username) {
+        JwtValidationEvent event = new JwtValidationEvent();
+        event.source = "http";
+        event.valid = true;
+        event.username = username;
+        event.commit();
+    }
+}
@@ -0,0 +1,219 @@
+package com.sparkchat.security;
+
+import com.sparkchat.config.FrameRateLimitProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class FrameRateLimitInterceptorTest {
+
+    private static final String SEND = "/app/chat.sendMessage";
+    private static final String TYPING = "/app/chat.typing";
+
+    private FrameRateLimitProperties properties;
+    private MessageChannel outboundChannel;
+    private ObjectProvider<MessageChannel> outboundChannelProvider;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        properties = new FrameRateLimitProperties();
+        outboundChannel = mock(MessageChannel.class);
+        outboundChannelProvider = mock(ObjectProvider.class);
+        when(outboundChannelProvider.getObject()).thenReturn(outboundChannel);
+    }
+
+    @Test
+    void admitsABurstThenThrottles() {
+        rule(SEND, limit(1, 3), null);
+        FrameRateLimitInterceptor interceptor = interceptor();
+        Map<String, Object> session = session(1L);
+
+        for (int i = 0; i < 3; i++) {
+            Message<?> frame = frame(SEND, session, null);
+            assertThat(interceptor.preSend(frame, null)).isSameAs(frame);
+        }
+        assertThatThrownBy(() -> interceptor.preSend(frame(SEND, session, null), null))
+            .isInstanceOfSatisfying(FrameThrottledException.class,
+                e -> assertThat(e.getRetryAfterMillis()).isBetween(1L, 1001L));
+        assertThat(interceptor.getThrottledCount()).isEqualTo(1);
+    }
+
+    @Test
+    void refillsAtTheConfiguredRate() throws InterruptedException {
+        rule(SEND, limit(4, 1), null);
+        FrameRateLimitInterceptor interceptor = interceptor();
+        Map<String, Object> session = session(1L);
+
+        interceptor.preSend(frame(SEND, session, null), null);
+        assertThatThrownBy(() -> interceptor.preSend(frame(SEND, session, null), null))
+            .isInstanceOfSatisfying(FrameThrottledException.class,
+                e -> assertThat(e.getRetryAfterMillis()).isBetween(1L, 251L));
+
+        Thread.sleep(260);
+        Message<?> frame = frame(SEND, session, null);
+        assertThat(interceptor.preSend(frame, null)).isSameAs(frame);
+    }
+
+    @Test
+    void throttledFramesWithAReceiptAreDroppedAndAcknowledged() {
+        rule(SEND, limit(1, 1), null);
+        FrameRateLimitInterceptor interceptor = interceptor();
+        Map<String, Object> session = session(1L);
+        interceptor.preSend(frame(SEND, session, null), null);
+
+        assertThat(interceptor.preSend(frame(SEND, session, "r-7"), null)).isNull();
+
+        ArgumentCaptor<Message<?>> sent = ArgumentCaptor.forClass(Message.class);
+        verify(outboundChannel).send(sent.capture());
+        StompHeaderAccessor receipt = StompHeaderAccessor.wrap(sent.getValue());
+        assertThat(receipt.getCommand()).isEqualTo(StompCommand.RECEIPT);
+        assertThat(receipt.getReceiptId()).isEqualTo("r-7");
+        assertThat(receipt.getSessionId()).isEqualTo("session-1");
+        assertThat(receipt.getFirstNativeHeader("throttled")).isEqualTo("true");
+        assertThat(Long.parseLong(receipt.getFirstNativeHeader("retry-after"))).isPositive();
+    }
+
+    @Test
+    void userBucketsAreSharedAcrossSessions() {
+        rule(SEND, limit(1, 5), limit(1, 3));
+        FrameRateLimitInterceptor interceptor = interceptor();
+        Map<String, Object> first = session(1L);
+        Map<String, Object> second = session(1L);
+
+        interceptor.preSend(frame(SEND, first, null), null);
+        interceptor.preSend(frame(SEND, first, null), null);
+        interceptor.preSend(frame(SEND, second, null), null);
+        long secondSession = sessionBucket(second);
+
+        assertThatThrownBy(() -> interceptor.preSend(frame(SEND, second, null), null))
+            .isInstanceOf(FrameThrottledException.class);
+        // The frame the user bucket refused is given back to the session
+        assertThat(sessionBucket(second)).isEqualTo(secondSession);
+
+        Message<?> otherUser = frame(SEND, session(2L), null);
+        assertThat(interceptor.preSend(otherUser, null)).isSameAs(otherUser);
+    }
+
+    @Test
+    void theFirstMatchingRuleApplies() {
+        rule(TYPING, limit(1, 1), null);
+        rule("/app/*", limit(1, 2), null);
+        FrameRateLimitInterceptor interceptor = interceptor();
+        Map<String, Object> session = session(1L);
+
+        interceptor.preSend(frame(TYPING, session, null), null);
+        assertThatThrownBy(() -> interceptor.preSend(frame(TYPING, session, null), null))
+            .isInstanceOf(FrameThrottledException.class);
+
+        // Other destinations under the prefix have a bucket of their own
+        interceptor.preSend(frame(SEND, session, null), null);
+        interceptor.preSend(frame(SEND, session, null), null);
+        assertThatThrownBy(() -> interceptor.preSend(frame(SEND, session, null), null))
+            .isInstanceOf(FrameThrottledException.class);
+
+        Message<?> unmatched = frame("/topic/rooms/3/messages", session, null);
+        for (int i = 0; i < 10; i++) {
+            assertThat(interceptor.preSend(unmatched, null)).isSameAs(unmatched);
+        }
+    }
+
+    @Test
+    void onlySendFramesAreLimited() {
+        rule("/*", limit(1, 1), null);
+        FrameRateLimitInterceptor interceptor = interceptor();
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setDestination("/user/queue/messages");
+        accessor.setSessionAttributes(session(1L));
+        Message<?> subscribe = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(interceptor.preSend(subscribe, null)).isSameAs(subscribe);
+        }
+    }
+
+    @Test
+    void refilledUserBucketsAreEvicted() throws InterruptedException {
+        rule(SEND, null, limit(1000, 1));
+        rule(TYPING, null, limit(0.01, 1));
+        FrameRateLimitInterceptor interceptor = interceptor();
+        interceptor.preSend(frame(SEND, session(1L), null), null);
+        interceptor.preSend(frame(TYPING, session(2L), null), null);
+        assertThat(interceptor.getTrackedUserCount()).isEqualTo(2);
+
+        Thread.sleep(5);
+        interceptor.evictIdleUsers();
+
+        // User 2 still has to wait for its bucket to refill
+        assertThat(interceptor.getTrackedUserCount()).isEqualTo(1);
+    }
+
+    @Test
+    void disabledLimitsAdmitEverything() {
+        rule(SEND, limit(1, 1), null);
+        properties.setEnabled(false);
+        FrameRateLimitInterceptor interceptor = interceptor();
+        Map<String, Object> session = session(1L);
+
+        for (int i = 0; i < 5; i++) {
+            Message<?> frame = frame(SEND, session, null);
+            assertThat(interceptor.preSend(frame, null)).isSameAs(frame);
+        }
+        verify(outboundChannel, never()).send(any());
+    }
+
+    private FrameRateLimitInterceptor interceptor() {
+        return new FrameRateLimitInterceptor(properties, outboundChannelProvider);
+    }
+
+    private void rule(String destination, FrameRateLimitProperties.Limit session, FrameRateLimitProperties.Limit user) {
+        FrameRateLimitProperties.Rule rule = new FrameRateLimitProperties.Rule();
+        rule.setDestination(destination);
+        rule.setSession(session);
+        rule.setUser(user);
+        properties.getRules().add(rule);
+    }
+
+    private static FrameRateLimitProperties.Limit limit(double rate, int burst) {
+        FrameRateLimitProperties.Limit limit = new FrameRateLimitProperties.Limit();
+        limit.setRate(rate);
+        limit.setBurst(burst);
+        return limit;
+    }
+
+    private static Map<String, Object> session(Long userId) {
+        Map<String, Object> attributes = new ConcurrentHashMap<>();
+        attributes.put("userId", userId);
+        return attributes;
+    }
+
+    private static long sessionBucket(Map<String, Object> session) {
+        return ((AtomicLongArray) session.get(FrameRateLimitInterceptor.SESSION_BUCKETS_ATTRIBUTE)).get(0);
+    }
+
+    private static Message<?> frame(String destination, Map<String, Object> session, String receipt) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SEND);
+        accessor.setDestination(destination);
+        accessor.setSessionId("session-1");
+        accessor.setSessionAttributes(session);
+        if (receipt != null) {
+            accessor.setReceipt(receipt);
+        }
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
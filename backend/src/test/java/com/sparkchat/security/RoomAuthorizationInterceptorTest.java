@@ -0,0 +1,97 @@
+package com.sparkchat.security;
+
+import com.sparkchat.service.RoomMembershipIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.access.AccessDeniedException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RoomAuthorizationInterceptorTest {
+
+    private static final long MEMBER = 1L;
+    private static final long OUTSIDER = 2L;
+    private static final long ROOM = 42L;
+
+    private RoomAuthorizationInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        RoomMembershipIndex membershipIndex = new RoomMembershipIndex(null);
+        membershipIndex.memberAdded(ROOM, MEMBER);
+        interceptor = new RoomAuthorizationInterceptor(membershipIndex);
+    }
+
+    @Test
+    void membersMaySubscribeToTheirRoom() {
+        Message<?> message = frame(StompCommand.SUBSCRIBE, "/topic/rooms/42/messages", MEMBER);
+        assertThat(interceptor.preSend(message, null)).isSameAs(message);
+    }
+
+    @Test
+    void outsidersMayNotSubscribeToARoom() {
+        assertDenied(StompCommand.SUBSCRIBE, "/topic/rooms/42/messages", OUTSIDER);
+        assertDenied(StompCommand.SUBSCRIBE, "/topic/rooms/x/messages", MEMBER);
+    }
+
+    @Test
+    void wildcardSubscriptionsAreRejected() {
+        assertDenied(StompCommand.SUBSCRIBE, "/topic/**", OUTSIDER);
+        assertDenied(StompCommand.SUBSCRIBE, "/topic/*/42/receipts", OUTSIDER);
+        assertDenied(StompCommand.SUBSCRIBE, "/topic/rooms/4?/messages", OUTSIDER);
+        assertDenied(StompCommand.SUBSCRIBE, "/topic/rooms/{id}/messages", OUTSIDER);
+        assertDenied(StompCommand.SUBSCRIBE, "/user/**", OUTSIDER);
+        // Even members may not widen their own room subscription
+        assertDenied(StompCommand.SUBSCRIBE, "/topic/rooms/42/**", MEMBER);
+    }
+
+    @Test
+    void otherSubscriptionsPass() {
+        Message<?> message = frame(StompCommand.SUBSCRIBE, "/user/queue/messages", OUTSIDER);
+        assertThat(interceptor.preSend(message, null)).isSameAs(message);
+    }
+
+    @Test
+    void onlyMembersMaySendToARoom() {
+        Message<?> message = frame(StompCommand.SEND, "/app/chat.room.42", MEMBER);
+        assertThat(interceptor.preSend(message, null)).isSameAs(message);
+        assertDenied(StompCommand.SEND, "/app/chat.room.42", OUTSIDER);
+    }
+
+    @Test
+    void nobodyMayPublishToARoomTopic() {
+        assertDenied(StompCommand.SEND, "/topic/rooms/42/messages", MEMBER);
+    }
+
+    @Test
+    void parsesRoomIds() {
+        assertThat(RoomAuthorizationInterceptor.parseRoomId("/topic/rooms/42/messages", 13)).isEqualTo(42);
+        assertThat(RoomAuthorizationInterceptor.parseRoomId("/topic/rooms/42", 13)).isEqualTo(42);
+        assertThat(RoomAuthorizationInterceptor.parseRoomId("/topic/rooms/", 13)).isEqualTo(-1);
+        assertThat(RoomAuthorizationInterceptor.parseRoomId("/topic/rooms/4a", 13)).isEqualTo(-1);
+        assertThat(RoomAuthorizationInterceptor.parseRoomId("/topic/rooms/1234567890123456789", 13)).isEqualTo(-1);
+    }
+
+    private void assertDenied(StompCommand command, String destination, long userId) {
+        Message<?> message = frame(command, destination, userId);
+        assertThatThrownBy(() -> interceptor.preSend(message, null))
+                .isInstanceOf(AccessDeniedException.class);
+    }
+
+    private static Message<?> frame(StompCommand command, String destination, long userId) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setDestination(destination);
+        Map<String, Object> sessionAttributes = new HashMap<>();
+        sessionAttributes.put("userId", userId);
+        accessor.setSessionAttributes(sessionAttributes);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
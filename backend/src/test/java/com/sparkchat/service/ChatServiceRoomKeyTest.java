@@ -0,0 +1,145 @@
+package com.sparkchat.service;
+
+import com.sparkchat.dto.MessageDto;
+import com.sparkchat.dto.UserDto;
+import com.sparkchat.model.ChatRoom;
+import com.sparkchat.model.Message;
+import com.sparkchat.model.User;
+import com.sparkchat.repository.AttachmentRepository;
+import com.sparkchat.repository.ChatRoomRepository;
+import com.sparkchat.repository.MessageRepository;
+import com.sparkchat.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ChatServiceRoomKeyTest {
+
+    private ChatRoomRepository chatRoomRepository;
+    private ChatService chatService;
+    private User alice;
+    private User bob;
+
+    @BeforeEach
+    void setUp() {
+        chatRoomRepository = mock(ChatRoomRepository.class);
+        when(chatRoomRepository.findBySystemKey(anyString())).thenReturn(Optional.empty());
+        when(chatRoomRepository.findBySystemKeyUncached(anyString())).thenReturn(Optional.empty());
+        when(chatRoomRepository.save(any())).thenAnswer(invocation -> {
+            ChatRoom room = invocation.getArgument(0);
+            room.setId(41L);
+            return room;
+        });
+        when(chatRoomRepository.getReferenceById(41L)).thenAnswer(invocation -> {
+            ChatRoom room = new ChatRoom();
+            room.setId(41L);
+            return room;
+        });
+        MessageRepository messageRepository = mock(MessageRepository.class);
+        when(messageRepository.save(any())).thenAnswer(invocation -> {
+            Message message = invocation.getArgument(0);
+            message.setId(99L);
+            return message;
+        });
+
+        alice = user(1L, "alice");
+        bob = user(2L, "bob");
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findByUsername("alice")).thenReturn(Optional.of(alice));
+        when(userRepository.findByUsername("bob")).thenReturn(Optional.of(bob));
+
+        MessagingMetrics messagingMetrics = mock(MessagingMetrics.class);
+        when(messagingMetrics.recordInsert(anyString(), any())).thenAnswer(invocation ->
+            ((Supplier<?>) invocation.getArgument(1)).get());
+
+        chatService = new ChatService(chatRoomRepository, messageRepository, userRepository,
+            mock(CounterService.class), mock(RoomMembershipIndex.class), mock(AttachmentRepository.class),
+            mock(BlobStore.class), mock(MediaPreviewService.class), mock(ApplicationEventPublisher.class),
+            mock(PlatformTransactionManager.class), messagingMetrics);
+    }
+
+    @Test
+    void dmRoomKeysAreOrderFreeAndUnambiguous() {
+        assertThat(ChatService.dmRoomKey(2L, 17L)).isEqualTo("dm:2:17").isEqualTo(ChatService.dmRoomKey(17L, 2L));
+        // Names of users with underscores collide; keys do not
+        assertThat(ChatService.dmRoomName("a_b", "c")).isEqualTo(ChatService.dmRoomName("a", "b_c"));
+        assertThat(ChatService.dmRoomKey(1L, 23L)).isNotEqualTo(ChatService.dmRoomKey(12L, 3L));
+    }
+
+    @Test
+    void reservedNamesAreRejectedForGroupRooms() {
+        for (String name : new String[] {"DM_alice_bob", "dm_alice_bob", " DM_x", "Public Chat", "public chat "}) {
+            assertThatThrownBy(() -> chatService.createGroupRoom(name, null, alice, List.of()))
+                .as(name)
+                .hasMessageContaining("reserved");
+        }
+        verify(chatRoomRepository, never()).save(any());
+
+        assertThat(chatService.createGroupRoom("DMs about lunch", null, alice, List.of()).getSystemKey()).isNull();
+    }
+
+    @Test
+    void aGroupRoomNamedLikeTheDmIsNeverUsedForIt() {
+        // Only unkeyed DIRECT rooms without a creator are looked at by name; this one holds a third user
+        ChatRoom legacy = new ChatRoom();
+        legacy.setName("DM_alice_bob");
+        legacy.setRoomType(ChatRoom.RoomType.DIRECT);
+        legacy.addMember(alice);
+        legacy.addMember(user(3L, "mallory"));
+        when(chatRoomRepository.findUnkeyedSystemRooms("DM_alice_bob", ChatRoom.RoomType.DIRECT))
+            .thenReturn(List.of(legacy));
+
+        chatService.saveMessage(dm("alice", "bob"));
+
+        ArgumentCaptor<ChatRoom> saved = ArgumentCaptor.forClass(ChatRoom.class);
+        verify(chatRoomRepository).save(saved.capture());
+        ChatRoom room = saved.getValue();
+        assertThat(room).isNotSameAs(legacy);
+        assertThat(room.getSystemKey()).isEqualTo("dm:1:2");
+        assertThat(room.getRoomType()).isEqualTo(ChatRoom.RoomType.DIRECT);
+        assertThat(room.getMembers()).containsExactlyInAnyOrder(alice, bob);
+    }
+
+    @Test
+    void aDmRoomFromBeforeKeysIsGivenOne() {
+        ChatRoom legacy = new ChatRoom();
+        legacy.setName("DM_alice_bob");
+        legacy.setRoomType(ChatRoom.RoomType.DIRECT);
+        when(chatRoomRepository.findUnkeyedSystemRooms("DM_alice_bob", ChatRoom.RoomType.DIRECT))
+            .thenReturn(List.of(legacy));
+
+        chatService.saveMessage(dm("bob", "alice"));
+
+        verify(chatRoomRepository).save(legacy);
+        assertThat(legacy.getSystemKey()).isEqualTo("dm:1:2");
+        assertThat(legacy.getMembers()).containsExactlyInAnyOrder(alice, bob);
+    }
+
+    private static MessageDto dm(String sender, String recipient) {
+        UserDto senderDto = new UserDto();
+        senderDto.setUsername(sender);
+        MessageDto message = new MessageDto();
+        message.setSender(senderDto);
+        message.setRecipient(recipient);
+        message.setContent("hi");
+        return message;
+    }
+
+    private static User user(Long id, String username) {
+        User user = new User(username, username + "@example.com", "password123");
+        user.setId(id);
+        return user;
+    }
+}
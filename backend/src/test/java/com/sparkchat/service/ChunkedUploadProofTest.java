@@ -0,0 +1,89 @@
+package com.sparkchat.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChunkedUploadProofTest {
+
+    private static final String NONCE = "5f0c2a7e9b1d4c3a8e6f0b2d4a6c8e0f";
+
+    @Test
+    void smallFilesAreProvenWhole() {
+        List<long[]> ranges = ChunkedUploadService.proofRanges(NONCE, 1000);
+
+        assertThat(ranges).hasSize(1);
+        assertThat(ranges.get(0)).containsExactly(0, 1000);
+    }
+
+    @Test
+    void largeFilesGetFixedLengthRangesInsideTheFile() {
+        long size = 52_428_800;
+        List<long[]> ranges = ChunkedUploadService.proofRanges(NONCE, size);
+
+        assertThat(ranges).hasSize(ChunkedUploadService.PROOF_RANGE_COUNT);
+        for (long[] range : ranges) {
+            assertThat(range[1]).isEqualTo(ChunkedUploadService.PROOF_RANGE_LENGTH);
+            assertThat(range[0]).isBetween(0L, size - range[1]);
+        }
+    }
+
+    @Test
+    void rangesFollowFromTheNonce() {
+        long size = 10_000_000;
+        List<long[]> first = ChunkedUploadService.proofRanges(NONCE, size);
+        List<long[]> again = ChunkedUploadService.proofRanges(NONCE, size);
+        List<long[]> other = ChunkedUploadService.proofRanges("0123456789abcdef0123456789abcdef", size);
+
+        assertThat(again).usingRecursiveComparison().isEqualTo(first);
+        assertThat(other.get(0)[0]).isNotEqualTo(first.get(0)[0]);
+    }
+
+    @Test
+    void proofHashesNonceThenRanges(@TempDir Path dir) throws Exception {
+        byte[] content = new byte[5000];
+        new Random(7).nextBytes(content);
+        Path file = Files.write(dir.resolve("blob"), content);
+        List<long[]> ranges = ChunkedUploadService.proofRanges(NONCE, content.length);
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(HexFormat.of().parseHex(NONCE));
+        for (long[] range : ranges) {
+            digest.update(content, (int) range[0], (int) range[1]);
+        }
+
+        assertThat(ChunkedUploadService.computeProof(NONCE, file, ranges))
+            .isEqualTo(HexFormat.of().formatHex(digest.digest()));
+    }
+
+    @Test
+    void proofDependsOnTheContent(@TempDir Path dir) throws Exception {
+        byte[] content = new byte[2000];
+        Path original = Files.write(dir.resolve("original"), content);
+        content[1500] = 1;
+        Path changed = Files.write(dir.resolve("changed"), content);
+        List<long[]> ranges = ChunkedUploadService.proofRanges(NONCE, content.length);
+
+        assertThat(ChunkedUploadService.computeProof(NONCE, changed, ranges))
+            .isNotEqualTo(ChunkedUploadService.computeProof(NONCE, original, ranges));
+    }
+
+    @Test
+    void truncatedContentIsNotProven(@TempDir Path dir) throws Exception {
+        Path file = Files.write(dir.resolve("short"), new byte[10]);
+
+        assertThatThrownBy(() ->
+                ChunkedUploadService.computeProof(NONCE, file, List.of(new long[] { 0, 20 })))
+            .isInstanceOf(IOException.class);
+    }
+}
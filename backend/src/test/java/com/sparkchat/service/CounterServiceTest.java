@@ -0,0 +1,162 @@
+package com.sparkchat.service;
+
+import com.sparkchat.model.ChatCounter;
+import com.sparkchat.repository.ChatCounterRepository;
+import com.sparkchat.repository.MessageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+class CounterServiceTest {
+
+    private static final Long ROOM = 7L;
+    private static final Long ALICE = 1L;
+    private static final Long BOB = 2L;
+    private static final List<Long> MEMBERS = List.of(ALICE, BOB);
+
+    private MessageRepository messageRepository;
+    private ChatCounterRepository counterRepository;
+    private CounterService counters;
+
+    @BeforeEach
+    void setUp() {
+        messageRepository = mock(MessageRepository.class);
+        counterRepository = mock(ChatCounterRepository.class);
+        counters = new CounterService(counterRepository, messageRepository, mock(PlatformTransactionManager.class));
+    }
+
+    @Test
+    void sentMessagesAreUnreadForEveryoneButTheSender() {
+        counters.onMessageSent(ROOM, 10L, ALICE, MEMBERS);
+        counters.onMessageSent(ROOM, 11L, ALICE, MEMBERS);
+
+        assertThat(counters.getMessageCount(ROOM)).isEqualTo(2);
+        assertThat(counters.getUnreadCount(ROOM, BOB)).isEqualTo(2);
+        assertThat(counters.getUnreadCount(ROOM, ALICE)).isZero();
+        assertThat(counters.getUnreadCounts(BOB)).containsEntry(ROOM, 2L);
+    }
+
+    @Test
+    void readingToTheLatestMessageClearsWithoutAQuery() {
+        counters.onMessageSent(ROOM, 10L, ALICE, MEMBERS);
+        counters.onMessageSent(ROOM, 11L, ALICE, MEMBERS);
+
+        counters.onMessagesRead(ROOM, BOB, null);
+
+        assertThat(counters.getUnreadCount(ROOM, BOB)).isZero();
+        verifyNoInteractions(messageRepository);
+    }
+
+    @Test
+    void partialReadRecountsUpToTheLatestMessage() {
+        for (long id = 10; id <= 13; id++) {
+            counters.onMessageSent(ROOM, id, ALICE, MEMBERS);
+        }
+        when(messageRepository.countUnreadBetween(ROOM, BOB, 11L, 13L)).thenReturn(2L);
+
+        counters.onMessagesRead(ROOM, BOB, 11L);
+
+        assertThat(counters.getUnreadCount(ROOM, BOB)).isEqualTo(2);
+    }
+
+    @Test
+    void staleReadPositionRecountsFromTheHighestOne() {
+        for (long id = 10; id <= 13; id++) {
+            counters.onMessageSent(ROOM, id, ALICE, MEMBERS);
+        }
+        when(messageRepository.countUnreadBetween(ROOM, BOB, 12L, 13L)).thenReturn(1L);
+        counters.onMessagesRead(ROOM, BOB, 12L);
+
+        counters.onMessageSent(ROOM, 14L, ALICE, MEMBERS);
+        when(messageRepository.countUnreadBetween(ROOM, BOB, 12L, 14L)).thenReturn(2L);
+        counters.onMessagesRead(ROOM, BOB, 10L);
+
+        assertThat(counters.getUnreadCount(ROOM, BOB)).isEqualTo(2);
+        verify(messageRepository, never()).countUnreadBetween(ROOM, BOB, 10L, 14L);
+    }
+
+    @Test
+    void messagesAlreadyReadAreNotCountedAgain() {
+        counters.onMessageSent(ROOM, 12L, ALICE, MEMBERS);
+        counters.onMessagesRead(ROOM, BOB, null);
+
+        // A send that is reported after the read position passed it
+        counters.onMessageSent(ROOM, 11L, ALICE, MEMBERS);
+
+        assertThat(counters.getUnreadCount(ROOM, BOB)).isZero();
+    }
+
+    @Test
+    void deletingAnUnreadMessageLowersTheCountButNotBelowZero() {
+        counters.onMessageSent(ROOM, 10L, ALICE, MEMBERS);
+
+        counters.onMessageDeleted(ROOM, 10L, ALICE, MEMBERS);
+        counters.onMessageDeleted(ROOM, 10L, ALICE, MEMBERS);
+
+        assertThat(counters.getUnreadCount(ROOM, BOB)).isZero();
+    }
+
+    @Test
+    void deletingAReadMessageKeepsTheUnreadCount() {
+        counters.onMessageSent(ROOM, 10L, ALICE, MEMBERS);
+        counters.onMessagesRead(ROOM, BOB, null);
+        counters.onMessageSent(ROOM, 11L, ALICE, MEMBERS);
+
+        counters.onMessageDeleted(ROOM, 10L, ALICE, MEMBERS);
+
+        assertThat(counters.getUnreadCount(ROOM, BOB)).isEqualTo(1);
+    }
+
+    @Test
+    void aReadPositionBeyondTheLatestMessageIsCapped() {
+        counters.onMessageSent(ROOM, 10L, ALICE, MEMBERS);
+
+        counters.onMessagesRead(ROOM, BOB, Long.MAX_VALUE);
+        counters.onMessageSent(ROOM, 11L, ALICE, MEMBERS);
+
+        assertThat(counters.getUnreadCount(ROOM, BOB)).isEqualTo(1);
+    }
+
+    @Test
+    void aSendDuringTheRecountIsKeptWithoutCountingAgain() {
+        for (long id = 10; id <= 13; id++) {
+            counters.onMessageSent(ROOM, id, ALICE, MEMBERS);
+        }
+        when(messageRepository.countUnreadBetween(ROOM, BOB, 11L, 13L)).thenAnswer(invocation -> {
+            counters.onMessageSent(ROOM, 14L, ALICE, MEMBERS);
+            return 2L;
+        });
+
+        counters.onMessagesRead(ROOM, BOB, 11L);
+
+        assertThat(counters.getUnreadCount(ROOM, BOB)).isEqualTo(3);
+        verify(messageRepository, times(1)).countUnreadBetween(anyLong(), anyLong(), anyLong(), anyLong());
+    }
+
+    @Test
+    void reconcileTopsUpRowsAndMembersWithoutOne() {
+        ChatCounter row = new ChatCounter(ROOM, BOB);
+        row.setValue(3);
+        row.setLastMessageId(20);
+        row.setReadUpTo(15);
+        when(counterRepository.findAll()).thenReturn(List.of(row));
+        when(messageRepository.countLiveMessagesGroupedByRoom())
+            .thenReturn(List.<Object[]>of(new Object[] { ROOM, 25L, 24L }));
+        when(messageRepository.countUnreadAfter(ROOM, BOB, 20L)).thenReturn(4L);
+        when(messageRepository.countUnreadForMembersWithoutCounter())
+            .thenReturn(List.<Object[]>of(new Object[] { ROOM, ALICE, 2L }));
+
+        counters.reconcile();
+
+        assertThat(counters.getMessageCount(ROOM)).isEqualTo(25);
+        assertThat(counters.getUnreadCount(ROOM, BOB)).isEqualTo(7);
+        assertThat(counters.getUnreadCount(ROOM, ALICE)).isEqualTo(2);
+        verify(messageRepository, never()).countUnreadAfter(anyLong(), anyLong(), eq(15L));
+    }
+}
@@ -0,0 +1,91 @@
+package com.sparkchat.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class MailboxDrainInterceptorTest {
+
+    private OfflineMailboxService mailboxService;
+    private MailboxDrainInterceptor interceptor;
+    private MessageHandler userDestinationHandler;
+    private Map<String, Object> attributes;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        mailboxService = mock(OfflineMailboxService.class);
+        ObjectProvider<OfflineMailboxService> provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(mailboxService);
+        interceptor = new MailboxDrainInterceptor(provider);
+        userDestinationHandler = mock(UserDestinationMessageHandler.class);
+        attributes = new ConcurrentHashMap<>();
+        attributes.put("userId", 5L);
+        attributes.put("username", "bob");
+    }
+
+    @Test
+    void subscribingToTheMailboxRecordsItAndDrains() {
+        interceptor.afterMessageHandled(frame(StompCommand.SUBSCRIBE, "sub-1", "/user/queue/mailbox"),
+            null, userDestinationHandler, null);
+
+        assertThat(attributes).containsEntry(OfflineMailboxService.SUBSCRIPTION_ATTRIBUTE, "sub-1");
+        verify(mailboxService).drain(5L, "bob");
+    }
+
+    @Test
+    void otherSubscriptionsAreIgnored() {
+        interceptor.afterMessageHandled(frame(StompCommand.SUBSCRIBE, "sub-0", "/user/queue/messages"),
+            null, userDestinationHandler, null);
+
+        assertThat(attributes).doesNotContainKey(OfflineMailboxService.SUBSCRIPTION_ATTRIBUTE);
+        verify(mailboxService, never()).drain(any(), any());
+    }
+
+    @Test
+    void unsubscribingFromTheMailboxForgetsIt() {
+        interceptor.afterMessageHandled(frame(StompCommand.SUBSCRIBE, "sub-1", "/user/queue/mailbox"),
+            null, userDestinationHandler, null);
+        interceptor.afterMessageHandled(frame(StompCommand.UNSUBSCRIBE, "sub-0", null),
+            null, userDestinationHandler, null);
+        assertThat(attributes).containsKey(OfflineMailboxService.SUBSCRIPTION_ATTRIBUTE);
+
+        interceptor.afterMessageHandled(frame(StompCommand.UNSUBSCRIBE, "sub-1", null),
+            null, userDestinationHandler, null);
+        assertThat(attributes).doesNotContainKey(OfflineMailboxService.SUBSCRIPTION_ATTRIBUTE);
+    }
+
+    @Test
+    void onlyActsOnceTheUserDestinationHandlerRegisteredIt() {
+        interceptor.afterMessageHandled(frame(StompCommand.SUBSCRIBE, "sub-1", "/user/queue/mailbox"),
+            null, mock(MessageHandler.class), null);
+        interceptor.afterMessageHandled(frame(StompCommand.SUBSCRIBE, "sub-1", "/user/queue/mailbox"),
+            null, userDestinationHandler, new IllegalStateException("rejected"));
+
+        assertThat(attributes).doesNotContainKey(OfflineMailboxService.SUBSCRIPTION_ATTRIBUTE);
+        verify(mailboxService, never()).drain(any(), any());
+    }
+
+    private Message<byte[]> frame(StompCommand command, String subscriptionId, String destination) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSubscriptionId(subscriptionId);
+        if (destination != null) {
+            accessor.setDestination(destination);
+        }
+        accessor.setSessionAttributes(attributes);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,145 @@
+package com.sparkchat.service;
+
+import com.sparkchat.model.Message;
+import com.sparkchat.model.MessageContentListener;
+import com.sparkchat.repository.CompressionDictionaryRepository;
+import com.sparkchat.repository.MessageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class MessageContentCompressorTest {
+
+    private static final String[] WORDS = {"hey", "are", "we", "still", "on", "for", "lunch", "tomorrow",
+        "the", "meeting", "moved", "to", "three", "thanks", "sounds", "good", "see", "you", "there"};
+
+    private MessageContentCompressor compressor;
+    private int version;
+
+    @BeforeEach
+    void setUp() {
+        MessageRepository messageRepository = mock(MessageRepository.class);
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            rows.add(new Object[] {sentence(i), null, null});
+        }
+        when(messageRepository.findRecentStoredContent(any())).thenReturn(rows);
+
+        compressor = new MessageContentCompressor(mock(CompressionDictionaryRepository.class), messageRepository);
+        ReflectionTestUtils.setField(compressor, "enabled", true);
+        ReflectionTestUtils.setField(compressor, "level", 6);
+        ReflectionTestUtils.setField(compressor, "dictionarySize", 4096);
+        ReflectionTestUtils.setField(compressor, "trainingSamples", 2000);
+        ReflectionTestUtils.setField(compressor, "minSamples", 100);
+        version = compressor.train();
+    }
+
+    @Test
+    void textRoundTripsThroughTheDictionary() {
+        String text = sentence(7) + " " + sentence(11);
+        byte[] packed = compressor.pack(text, version);
+
+        assertThat(packed[0]).isEqualTo(PackedContent.FORMAT_ZSTD);
+        assertThat(packed.length).isLessThan(text.length());
+        assertThat(compressor.unpack(packed, version)).isEqualTo(text);
+    }
+
+    @Test
+    void incompressibleTextIsKeptRaw() {
+        String text = "q7Zx";
+        byte[] packed = compressor.pack(text, version);
+
+        assertThat(packed[0]).isEqualTo(PackedContent.FORMAT_RAW);
+        assertThat(compressor.unpack(packed, version)).isEqualTo(text);
+    }
+
+    @Test
+    void textOverTheColumnLimitIsKeptRaw() {
+        String text = "lunch ".repeat(PackedContent.MAX_TEXT_BYTES / 6 + 1);
+        byte[] packed = compressor.pack(text, version);
+
+        assertThat(packed[0]).isEqualTo(PackedContent.FORMAT_RAW);
+        assertThat(compressor.unpack(packed, version)).isEqualTo(text);
+    }
+
+    @Test
+    void lengthsOverTheColumnLimitAreRejected() {
+        // 2^31 - 1 as a varint, followed by a tiny frame
+        byte[] packed = {PackedContent.FORMAT_ZSTD, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 0};
+        assertThatThrownBy(() -> compressor.unpack(packed, version)).isInstanceOf(IllegalStateException.class);
+
+        byte[] justOver = {PackedContent.FORMAT_ZSTD, (byte) 0x80, (byte) 0x80, 0x04, 0};
+        assertThatThrownBy(() -> compressor.unpack(justOver, version))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("exceeds");
+    }
+
+    @Test
+    void truncatedAndMismatchedValuesAreRejected() {
+        byte[] truncated = {PackedContent.FORMAT_ZSTD, (byte) 0x80};
+        assertThatThrownBy(() -> compressor.unpack(truncated, version)).isInstanceOf(IllegalStateException.class);
+
+        byte[] packed = compressor.pack(sentence(3) + " " + sentence(4), version);
+        byte[] longer = Arrays.copyOf(packed, packed.length);
+        longer[1]++;
+        assertThatThrownBy(() -> compressor.unpack(longer, version)).isInstanceOf(RuntimeException.class);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void ciphertextIsStoredRawAndLegacyPackedCiphertextStillReads() {
+        ObjectProvider<MessageContentCompressor> provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(compressor);
+        MessageContentListener listener = new MessageContentListener(provider);
+
+        Message message = new Message();
+        message.setContent(sentence(5));
+        message.setEncryptedContent("c2VjcmV0IGNpcGhlcnRleHQ=");
+        listener.pack(message);
+
+        assertThat(message.getPackedContent()).isNotNull();
+        assertThat(message.getStoredContent()).isNull();
+        assertThat(message.getStoredEncryptedContent()).isEqualTo("c2VjcmV0IGNpcGhlcnRleHQ=");
+        assertThat(message.getPackedEncryptedContent()).isNull();
+
+        Message legacy = new Message();
+        legacy.setContentDictVersion(version);
+        legacy.setPackedContent(compressor.pack(sentence(6), version));
+        legacy.setPackedEncryptedContent(compressor.pack("b2xkIGNpcGhlcnRleHQ=", version));
+        listener.unpack(legacy);
+
+        assertThat(legacy.getContent()).isEqualTo(sentence(6));
+        assertThat(legacy.getEncryptedContent()).isEqualTo("b2xkIGNpcGhlcnRleHQ=");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void blankContentIsRejected() {
+        MessageContentListener listener = new MessageContentListener(mock(ObjectProvider.class));
+        Message message = new Message();
+        message.setContent("  ");
+
+        assertThatThrownBy(() -> listener.pack(message)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static String sentence(int seed) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(WORDS[(seed * 7 + i * (seed % 5 + 1)) % WORDS.length]);
+        }
+        return sentence.toString();
+    }
+}
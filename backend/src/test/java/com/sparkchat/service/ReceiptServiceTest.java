@@ -0,0 +1,157 @@
+package com.sparkchat.service;
+
+import com.sparkchat.dto.ReceiptDto;
+import com.sparkchat.model.ReadReceipt;
+import com.sparkchat.repository.ReadReceiptRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ReceiptServiceTest {
+
+    private static final Long ROOM = 3L;
+    private static final String TOPIC = "/topic/rooms/3/receipts";
+
+    private ReadReceiptRepository receiptRepository;
+    private CounterService counterService;
+    private RoomMembershipIndex membershipIndex;
+    private SimpMessagingTemplate messagingTemplate;
+    private ReceiptService receipts;
+
+    @BeforeEach
+    void setUp() {
+        receiptRepository = mock(ReadReceiptRepository.class);
+        counterService = mock(CounterService.class);
+        messagingTemplate = mock(SimpMessagingTemplate.class);
+        when(counterService.getLastMessageId(ROOM)).thenReturn(100L);
+        membershipIndex = mock(RoomMembershipIndex.class);
+        when(membershipIndex.isMember(eq(ROOM), anyLong())).thenReturn(true);
+        receipts = new ReceiptService(receiptRepository, counterService, membershipIndex, messagingTemplate,
+            mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(receipts, "flushBatchSize", 500);
+        ReflectionTestUtils.setField(receipts, "maxRooms", 10);
+        ReflectionTestUtils.setField(receipts, "idleMinutes", 30L);
+    }
+
+    @Test
+    void acksOfAnIntervalArePushedOnceWithTheLatestMarks() {
+        receipts.acknowledge(ROOM, 1L, "ann", 5L, null);
+        receipts.acknowledge(ROOM, 1L, "ann", 7L, 6L);
+        receipts.acknowledge(ROOM, 2L, "ben", 7L, null);
+
+        receipts.pushReceipts();
+
+        List<ReceiptDto> pushed = pushed(1).get(0);
+        assertThat(pushed).extracting(ReceiptDto::getUserId).containsExactlyInAnyOrder(1L, 2L);
+        ReceiptDto ann = pushed.stream().filter(r -> r.getUserId() == 1L).findFirst().orElseThrow();
+        assertThat(ann.getDeliveredMessageId()).isEqualTo(7);
+        assertThat(ann.getReadMessageId()).isEqualTo(6);
+        verify(counterService).onMessagesRead(ROOM, 1L, 6L);
+    }
+
+    @Test
+    void acksAfterAPushGoOutWithTheNextOne() {
+        receipts.acknowledge(ROOM, 1L, "ann", 5L, null);
+        receipts.pushReceipts();
+        receipts.pushReceipts();
+        receipts.acknowledge(ROOM, 2L, "ben", 5L, null);
+        receipts.pushReceipts();
+
+        List<List<ReceiptDto>> pushes = pushed(2);
+        assertThat(pushes.get(1)).extracting(ReceiptDto::getUserId).containsExactly(2L);
+    }
+
+    @Test
+    void marksBehindTheStoredOnesAreNoChange() {
+        ReadReceipt stored = new ReadReceipt(ROOM, 1L);
+        stored.advanceTo(20L, 10L);
+        when(receiptRepository.findByChatRoomId(ROOM)).thenReturn(List.of(stored));
+
+        receipts.acknowledge(ROOM, 1L, "ann", 15L, 8L);
+        receipts.pushReceipts();
+
+        verifyNoInteractions(messagingTemplate);
+        verify(counterService, never()).onMessagesRead(any(), any(), any());
+
+        receipts.acknowledge(ROOM, 1L, "ann", 21L, 12L);
+        receipts.pushReceipts();
+
+        assertThat(pushed(1).get(0).get(0).getDeliveredMessageId()).isEqualTo(21);
+        verify(counterService).onMessagesRead(ROOM, 1L, 12L);
+    }
+
+    @Test
+    void evictedRoomsAreReloadedFromTheDatabase() {
+        ReflectionTestUtils.setField(receipts, "maxRooms", 0);
+        receipts.acknowledge(ROOM, 1L, "ann", 5L, null);
+
+        // Not yet flushed or pushed, so kept
+        receipts.evictRooms();
+        receipts.acknowledge(ROOM, 1L, "ann", 5L, null);
+        verify(receiptRepository, times(1)).findByChatRoomId(ROOM);
+
+        receipts.flush();
+        receipts.pushReceipts();
+        receipts.evictRooms();
+        receipts.acknowledge(ROOM, 1L, "ann", 5L, null);
+        verify(receiptRepository, times(2)).findByChatRoomId(ROOM);
+    }
+
+    @Test
+    void recentlyAcknowledgedRoomsStayWithinTheLimit() {
+        receipts.acknowledge(ROOM, 1L, "ann", 5L, null);
+        receipts.flush();
+        receipts.pushReceipts();
+
+        receipts.evictRooms();
+        receipts.acknowledge(ROOM, 1L, "ann", 6L, null);
+
+        verify(receiptRepository, times(1)).findByChatRoomId(ROOM);
+    }
+
+    @Test
+    void marksAreCappedAtTheLatestMessage() {
+        receipts.acknowledge(ROOM, 1L, "ann", Long.MAX_VALUE, Long.MAX_VALUE);
+        receipts.pushReceipts();
+
+        ReceiptDto ann = pushed(1).get(0).get(0);
+        assertThat(ann.getDeliveredMessageId()).isEqualTo(100);
+        assertThat(ann.getReadMessageId()).isEqualTo(100);
+        verify(counterService).onMessagesRead(ROOM, 1L, 100L);
+
+        // Later messages can still be acknowledged
+        when(counterService.getLastMessageId(ROOM)).thenReturn(101L);
+        receipts.acknowledge(ROOM, 1L, "ann", null, 101L);
+        receipts.pushReceipts();
+        assertThat(pushed(2).get(1).get(0).getReadMessageId()).isEqualTo(101);
+    }
+
+    @Test
+    void acksFromNonMembersAreIgnored() {
+        when(membershipIndex.isMember(ROOM, 9L)).thenReturn(false);
+
+        receipts.acknowledge(ROOM, 9L, "eve", 5L, 5L);
+        receipts.pushReceipts();
+        receipts.flush();
+
+        verifyNoInteractions(messagingTemplate, receiptRepository);
+        verify(counterService, never()).onMessagesRead(any(), any(), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<ReceiptDto>> pushed(int times) {
+        ArgumentCaptor<Object> payloads = ArgumentCaptor.forClass(Object.class);
+        verify(messagingTemplate, times(times)).convertAndSend(eq(TOPIC), payloads.capture(), any(Map.class));
+        return payloads.getAllValues().stream().map(payload -> (List<ReceiptDto>) payload).toList();
+    }
+}
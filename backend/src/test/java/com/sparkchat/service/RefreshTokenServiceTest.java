@@ -0,0 +1,105 @@
+package com.sparkchat.service;
+
+import com.sparkchat.model.RefreshToken;
+import com.sparkchat.repository.RefreshTokenRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class RefreshTokenServiceTest {
+
+    // Stored tokens by hash, standing in for the table
+    private final Map<String, RefreshToken> stored = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+
+    private RefreshTokenRepository repository;
+    private RefreshTokenService service;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(RefreshTokenRepository.class);
+        when(repository.save(any())).thenAnswer(invocation -> {
+            RefreshToken token = invocation.getArgument(0);
+            token.setId(ids.incrementAndGet());
+            stored.put(token.getTokenHash(), token);
+            return token;
+        });
+        when(repository.findByTokenHash(anyString()))
+            .thenAnswer(invocation -> Optional.ofNullable(stored.get((String) invocation.getArgument(0))));
+        when(repository.deleteTokenById(anyLong())).thenAnswer(invocation -> {
+            Long id = invocation.getArgument(0);
+            return stored.values().removeIf(token -> token.getId().equals(id)) ? 1 : 0;
+        });
+        when(repository.deleteByTokenHash(anyString()))
+            .thenAnswer(invocation -> stored.remove((String) invocation.getArgument(0)) != null ? 1 : 0);
+
+        service = new RefreshTokenService(repository);
+        ReflectionTestUtils.setField(service, "refreshTokenDays", 30L);
+    }
+
+    @Test
+    void issuedTokensAreRandomAndOnlyTheirHashIsKept() {
+        String first = service.issue(1L);
+        String second = service.issue(1L);
+
+        // 256 bits, URL-safe base64 without padding
+        assertThat(first).hasSize(43).matches("[A-Za-z0-9_-]+").isNotEqualTo(second);
+        assertThat(stored).hasSize(2).doesNotContainKeys(first, second);
+        RefreshToken token = stored.values().iterator().next();
+        assertThat(token.getTokenHash()).hasSize(64);
+        assertThat(token.getUserId()).isEqualTo(1L);
+        assertThat(token.getExpiresAt()).isBetween(LocalDateTime.now().plusDays(29), LocalDateTime.now().plusDays(31));
+    }
+
+    @Test
+    void aTokenCanBeRedeemedOnlyOnce() {
+        String token = service.issue(7L);
+
+        assertThat(service.redeem(token)).contains(7L);
+        assertThat(stored).isEmpty();
+        // A copy replayed after the exchange no longer works
+        assertThat(service.redeem(token)).isEmpty();
+    }
+
+    @Test
+    void onlyOneOfTwoConcurrentExchangesWins() {
+        String token = service.issue(7L);
+        // The other exchange found the same row and deleted it first
+        when(repository.deleteTokenById(anyLong())).thenReturn(0);
+
+        assertThat(service.redeem(token)).isEmpty();
+    }
+
+    @Test
+    void expiredTokensAreRejectedAndRemoved() {
+        String token = service.issue(7L);
+        stored.values().forEach(row -> row.setExpiresAt(LocalDateTime.now().minusSeconds(1)));
+
+        assertThat(service.redeem(token)).isEmpty();
+        assertThat(stored).isEmpty();
+    }
+
+    @Test
+    void unknownAndRevokedTokensAreRejected() {
+        assertThat(service.redeem("not-a-token")).isEmpty();
+
+        String token = service.issue(7L);
+        String other = service.issue(7L);
+        service.revoke(token);
+
+        assertThat(service.redeem(token)).isEmpty();
+        assertThat(service.redeem(other)).contains(7L);
+    }
+}
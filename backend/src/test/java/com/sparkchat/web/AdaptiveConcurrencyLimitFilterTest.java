@@ -0,0 +1,174 @@
+package com.sparkchat.web;
+
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimitFilterTest {
+
+    private static final long BASELINE = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private AdaptiveConcurrencyLimitFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        filter = new AdaptiveConcurrencyLimitFilter(20);
+        ReflectionTestUtils.setField(filter, "enabled", true);
+        ReflectionTestUtils.setField(filter, "minLimit", 4);
+        ReflectionTestUtils.setField(filter, "maxLimit", 200);
+        ReflectionTestUtils.setField(filter, "tolerance", 1.5);
+        ReflectionTestUtils.setField(filter, "smoothing", 0.2);
+        // Every sample closes a window
+        ReflectionTestUtils.setField(filter, "windowMillis", 0L);
+        ReflectionTestUtils.setField(filter, "windowMinSamples", 1);
+        ReflectionTestUtils.setField(filter, "longWindow", 600);
+        ReflectionTestUtils.setField(filter, "retryAfterSeconds", 1);
+    }
+
+    @Test
+    void growsWhileLatencyStaysNearTheBaseline() {
+        filter.onSample(BASELINE, 20);
+        int previous = filter.getLimit();
+        for (int i = 0; i < 20; i++) {
+            filter.onSample(BASELINE * 14 / 10, filter.getLimit());
+            assertThat(filter.getLimit()).isGreaterThanOrEqualTo(previous);
+            previous = filter.getLimit();
+        }
+        assertThat(filter.getLimit()).isGreaterThan(30);
+    }
+
+    @Test
+    void shrinksInProportionOnceRequestsQueue() {
+        ReflectionTestUtils.setField(filter, "limit", 100.0);
+        filter.onSample(BASELINE, 100);
+        int unloaded = filter.getLimit();
+
+        filter.onSample(BASELINE * 2, 100);
+        int slower = filter.getLimit();
+        filter.onSample(BASELINE * 8, 100);
+        int queued = filter.getLimit();
+
+        assertThat(slower).isLessThan(unloaded);
+        // The gradient is floored at one half, so a single window cuts by at most a tenth
+        assertThat(queued).isLessThan(slower).isGreaterThanOrEqualTo((int) (slower * 0.9));
+    }
+
+    @Test
+    void keepsTheLimitWithoutEnoughLoadToJudgeIt() {
+        filter.onSample(BASELINE, 20);
+        int limit = filter.getLimit();
+
+        filter.onSample(BASELINE * 10, 5);
+        filter.onSample(BASELINE, 5);
+
+        assertThat(filter.getLimit()).isEqualTo(limit);
+    }
+
+    @Test
+    void staysWithinItsBounds() {
+        filter.onSample(BASELINE, 20);
+        for (int i = 0; i < 200; i++) {
+            filter.onSample(BASELINE * 100, filter.getLimit());
+        }
+        assertThat(filter.getLimit()).isEqualTo(4);
+
+        ReflectionTestUtils.setField(filter, "maxLimit", 40);
+        for (int i = 0; i < 200; i++) {
+            filter.onSample(1, filter.getLimit());
+        }
+        assertThat(filter.getLimit()).isEqualTo(40);
+    }
+
+    @Test
+    void shedsLowPriorityRequestsFirst() throws Exception {
+        ReflectionTestUtils.setField(filter, "limit", 10.0);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch admitted = new CountDownLatch(5);
+        FilterChain blocking = (request, response) -> {
+            admitted.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    filter.doFilter(request("POST", "/api/chat/messages"), new MockHttpServletResponse(), blocking);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        assertThat(admitted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(filter.getInflight()).isEqualTo(5);
+
+        try {
+            // History may fill half of the limit, which the five sends already hold
+            MockHttpServletResponse history = pass(request("GET", "/api/chat/dm/bob"));
+            assertThat(history.getStatus()).isEqualTo(503);
+            assertThat(history.getHeader("Retry-After")).isEqualTo("1");
+            assertThat(pass(request("GET", "/api/rooms")).getStatus()).isEqualTo(200);
+            assertThat(pass(request("POST", "/api/auth/login")).getStatus()).isEqualTo(200);
+            assertThat(filter.getRejectedSheddableCount()).isEqualTo(1);
+        } finally {
+            release.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        assertThat(filter.getInflight()).isZero();
+    }
+
+    @Test
+    void classifiesRequests() {
+        assertThat(AdaptiveConcurrencyLimitFilter.classify(request("POST", "/api/auth/login")))
+            .isEqualTo(AdaptiveConcurrencyLimitFilter.Priority.CRITICAL);
+        assertThat(AdaptiveConcurrencyLimitFilter.classify(request("POST", "/api/chat/rooms/3/read")))
+            .isEqualTo(AdaptiveConcurrencyLimitFilter.Priority.CRITICAL);
+        assertThat(AdaptiveConcurrencyLimitFilter.classify(request("GET", "/api/users/search")))
+            .isEqualTo(AdaptiveConcurrencyLimitFilter.Priority.SHEDDABLE);
+        assertThat(AdaptiveConcurrencyLimitFilter.classify(request("GET", "/api/chat/rooms/3/receipts")))
+            .isEqualTo(AdaptiveConcurrencyLimitFilter.Priority.SHEDDABLE);
+        assertThat(AdaptiveConcurrencyLimitFilter.classify(request("GET", "/api/auth/me")))
+            .isEqualTo(AdaptiveConcurrencyLimitFilter.Priority.NORMAL);
+    }
+
+    @Test
+    void healthAttachmentsAndWebSocketsAreNotLimited() throws Exception {
+        ((AtomicInteger) ReflectionTestUtils.getField(filter, "inflight")).set(1000);
+
+        assertThat(pass(request("GET", "/api/health")).getStatus()).isEqualTo(200);
+        assertThat(pass(request("GET", "/api/attachments/4")).getStatus()).isEqualTo(200);
+        assertThat(pass(request("GET", "/ws")).getStatus()).isEqualTo(200);
+        assertThat(pass(request("GET", "/api/rooms")).getStatus()).isEqualTo(503);
+    }
+
+    private MockHttpServletResponse pass(MockHttpServletRequest request) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, (req, res) -> { });
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String method, String path) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, path);
+        request.setRequestURI(path);
+        return request;
+    }
+}
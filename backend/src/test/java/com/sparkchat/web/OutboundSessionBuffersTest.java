@@ -0,0 +1,454 @@
+package com.sparkchat.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sparkchat.service.MessagingMetrics;
+import com.sparkchat.service.OfflineMailboxService;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.standard.StandardWebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+class OutboundSessionBuffersTest {
+
+    private final List<Runnable> writerTasks = new ArrayList<>();
+    private final List<String> written = new ArrayList<>();
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+    private OutboundSessionBuffers buffers;
+    private TaskScheduler scheduler;
+    private ObjectProvider<TaskScheduler> schedulerProvider;
+    private OfflineMailboxService mailboxService;
+    private ObjectProvider<OfflineMailboxService> mailboxProvider;
+    private WebSocketSession session;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        // Writer tasks are queued and only run when the test says so
+        ThreadPoolTaskExecutor writerExecutor = mock(ThreadPoolTaskExecutor.class);
+        doAnswer(invocation -> writerTasks.add(invocation.getArgument(0))).when(writerExecutor).execute(any());
+        scheduler = mock(TaskScheduler.class);
+        schedulerProvider = mock(ObjectProvider.class);
+        when(schedulerProvider.getObject()).thenReturn(scheduler);
+        mailboxService = mock(OfflineMailboxService.class);
+        mailboxProvider = mock(ObjectProvider.class);
+        when(mailboxProvider.getObject()).thenReturn(mailboxService);
+
+        buffers = buffers(writerExecutor, 10000L);
+
+        attributes.put("userId", 1L);
+        attributes.put("username", "ann");
+        WebSocketSession delegate = mock(WebSocketSession.class);
+        when(delegate.getId()).thenReturn("session-1");
+        when(delegate.getAttributes()).thenReturn(attributes);
+        doAnswer(invocation -> written.add(((TextMessage) invocation.getArgument(0)).getPayload()))
+            .when(delegate).sendMessage(any());
+        session = connect(buffers, delegate);
+    }
+
+    @Test
+    void aNewerTypingFrameReplacesTheQueuedOne() throws Exception {
+        session.sendMessage(frame("/topic/rooms/3/typing", "typing-3", "{\"user\":\"bob\",\"typing\":true}"));
+        session.sendMessage(frame("/topic/rooms/3/typing", "typing-3", "{\"user\":\"bob\",\"typing\":false}"));
+        session.sendMessage(frame("/topic/rooms/4/typing", "typing-4", "{\"user\":\"cat\",\"typing\":true}"));
+
+        runWriterTasks();
+
+        assertThat(written).hasSize(2);
+        assertThat(body(written.get(0))).isEqualTo("{\"user\":\"bob\",\"typing\":false}");
+        assertThat(body(written.get(1))).isEqualTo("{\"user\":\"cat\",\"typing\":true}");
+        assertThat(buffers.getConflatedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void queuedReceiptUpdatesKeepTheLatestEntryPerUser() throws Exception {
+        session.sendMessage(frame("/topic/rooms/3/receipts", "receipts/3", "[{\"userId\":1,\"readMessageId\":10}]"));
+        session.sendMessage(frame("/topic/rooms/3/receipts", "receipts/3", "[]"));
+        session.sendMessage(frame("/topic/rooms/3/receipts", "receipts/3",
+            "[{\"userId\":2,\"readMessageId\":11},{\"userId\":3,\"readMessageId\":12}]"));
+        session.sendMessage(frame("/topic/rooms/3/receipts", "receipts/3", "[{\"userId\":1,\"readMessageId\":13}]"));
+
+        runWriterTasks();
+
+        assertThat(written).hasSize(1);
+        String merged = "[{\"userId\":2,\"readMessageId\":11},{\"userId\":3,\"readMessageId\":12},"
+            + "{\"userId\":1,\"readMessageId\":13}]";
+        assertThat(body(written.get(0))).isEqualTo(merged);
+        // The merged frame carries the length of its new body
+        assertThat(written.get(0)).contains("\ncontent-length:" + merged.getBytes(StandardCharsets.UTF_8).length + "\n");
+        assertThat(buffers.getConflatedCount()).isEqualTo(3);
+    }
+
+    @Test
+    void theConflateHeaderIsNotWrittenToTheClient() throws Exception {
+        session.sendMessage(frame("/topic/rooms/3/typing", "typing-3", "{\"typing\":true}"));
+        session.sendMessage(frame("/topic/rooms/3/receipts", "receipts/3", "[{\"userId\":1}]"));
+        session.sendMessage(frame("/topic/rooms/3/receipts", "receipts/3", "[{\"userId\":2}]"));
+
+        runWriterTasks();
+
+        assertThat(written).hasSize(2);
+        for (String frame : written) {
+            assertThat(frame).doesNotContain("\n" + OutboundSessionBuffers.CONFLATE_HEADER + ":")
+                .startsWith("MESSAGE\ndestination:/topic/rooms/3/")
+                .contains("\nsubscription:sub-0\n");
+        }
+        assertThat(body(written.get(0))).isEqualTo("{\"typing\":true}");
+    }
+
+    @Test
+    void framesAlreadyWrittenAreNotConflated() throws Exception {
+        session.sendMessage(frame("/topic/rooms/3/typing", "typing-3", "{\"typing\":true}"));
+        runWriterTasks();
+        session.sendMessage(frame("/topic/rooms/3/typing", "typing-3", "{\"typing\":false}"));
+        runWriterTasks();
+
+        assertThat(written).extracting(OutboundSessionBuffersTest::body)
+            .containsExactly("{\"typing\":true}", "{\"typing\":false}");
+        assertThat(buffers.getConflatedCount()).isZero();
+    }
+
+    @Test
+    void framesWithoutAKeyAreNeverConflated() throws Exception {
+        session.sendMessage(frame("/user/queue/messages", null, "{\"id\":1}"));
+        session.sendMessage(frame("/user/queue/messages", null, "{\"id\":1}"));
+
+        runWriterTasks();
+
+        assertThat(written).hasSize(2);
+        assertThat(buffers.getConflatedCount()).isZero();
+    }
+
+    @Test
+    void conflatedFramesKeepTheirPlaceInTheQueue() throws Exception {
+        session.sendMessage(frame("/topic/rooms/3/typing", "typing-3", "{\"typing\":true}"));
+        session.sendMessage(frame("/user/queue/errors", null, "{\"error\":\"x\"}"));
+        session.sendMessage(frame("/topic/rooms/3/typing", "typing-3", "{\"typing\":false}"));
+
+        runWriterTasks();
+
+        assertThat(written).extracting(OutboundSessionBuffersTest::body)
+            .containsExactly("{\"typing\":false}", "{\"error\":\"x\"}");
+    }
+
+    @Test
+    void overflowingChatMessagesGoToTheMailboxAndAreDrainedOnceCaughtUp() throws Exception {
+        ReflectionTestUtils.setField(buffers, "sendBufferBytes", 400);
+        attributes.put(OfflineMailboxService.SUBSCRIPTION_ATTRIBUTE, "sub-9");
+        String payload = "{\"content\":\"" + "x".repeat(150) + "\"}";
+
+        session.sendMessage(frame("/topic/rooms/3/typing", "typing-3", "{\"typing\":true}"));
+        session.sendMessage(frame("/user/queue/messages", null, payload));
+        session.sendMessage(frame("/user/queue/messages", null, payload));
+        session.sendMessage(frame("/user/queue/messages", null, payload));
+
+        verify(mailboxService, times(3)).hold(List.of(1L), payload.getBytes(StandardCharsets.UTF_8));
+        assertThat(buffers.getOverflowCount()).isEqualTo(1);
+        assertThat(buffers.getDivertedCount()).isEqualTo(3);
+
+        runWriterTasks();
+
+        // Only the state frame is written; the mailbox burst tells the client what it missed
+        assertThat(written).extracting(OutboundSessionBuffersTest::body).containsExactly("{\"typing\":true}");
+        verify(mailboxService).drain(1L, "ann");
+        verify(((WebSocketSessionDecorator) session).getDelegate(), never()).close(any());
+    }
+
+    @Test
+    void overflowWithoutAMailboxSubscriptionClosesTheSession() throws Exception {
+        ReflectionTestUtils.setField(buffers, "sendBufferBytes", 400);
+        String payload = "{\"content\":\"" + "x".repeat(150) + "\"}";
+
+        for (int i = 0; i < 3; i++) {
+            session.sendMessage(frame("/user/queue/messages", null, payload));
+        }
+        runWriterTasks();
+
+        assertThat(written).isEmpty();
+        assertThat(buffers.getOverflowCount()).isEqualTo(1);
+        verify(mailboxService, never()).hold(any(), any());
+        verify(((WebSocketSessionDecorator) session).getDelegate()).close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    @Test
+    void batchedFramesAreWrittenTogetherOnceTheWindowCloses() throws Exception {
+        ReflectionTestUtils.setField(buffers, "batchWindowMillis", 200L);
+        attributes.put(OutboundSessionBuffers.BATCHING_ATTRIBUTE, true);
+
+        session.sendMessage(frame("/user/queue/messages", null, "{\"id\":1}"));
+        runWriterTasks();
+        session.sendMessage(frame("/topic/rooms/3/messages", null, "{\"id\":2}"));
+        session.sendMessage(frame("/user/queue/messages", null, "{\"id\":3}"));
+        assertThat(written).isEmpty();
+
+        Thread.sleep(250);
+        runScheduledBatch();
+
+        assertThat(written).hasSize(1);
+        assertThat(frames(written.get(0))).extracting(OutboundSessionBuffersTest::body)
+            .containsExactly("{\"id\":1}", "{\"id\":2}", "{\"id\":3}");
+        assertThat(buffers.getWriteCount()).isEqualTo(1);
+        assertThat(buffers.getWrittenFrameCount()).isEqualTo(3);
+    }
+
+    @Test
+    void aFullBatchIsWrittenWithoutWaiting() throws Exception {
+        ReflectionTestUtils.setField(buffers, "batchWindowMillis", 10_000L);
+        ReflectionTestUtils.setField(buffers, "batchMaxBytes", 600);
+        attributes.put(OutboundSessionBuffers.BATCHING_ATTRIBUTE, true);
+        String payload = "{\"content\":\"" + "x".repeat(150) + "\"}";
+
+        session.sendMessage(frame("/user/queue/messages", null, payload));
+        runWriterTasks();
+        session.sendMessage(frame("/user/queue/messages", null, payload));
+        session.sendMessage(frame("/user/queue/messages", null, payload));
+        runWriterTasks();
+
+        // Two frames fit under the byte limit; the third waits for the next window
+        assertThat(written).hasSize(1);
+        assertThat(frames(written.get(0))).hasSize(2);
+        assertThat(buffers.getWrittenFrameCount()).isEqualTo(2);
+    }
+
+    @Test
+    void anUrgentFrameTakesTheWaitingBatchWithIt() throws Exception {
+        ReflectionTestUtils.setField(buffers, "batchWindowMillis", 10_000L);
+        attributes.put(OutboundSessionBuffers.BATCHING_ATTRIBUTE, true);
+
+        session.sendMessage(frame("/user/queue/messages", null, "{\"id\":1}"));
+        runWriterTasks();
+        session.sendMessage(frame("/user/queue/errors", null, "{\"error\":\"x\"}"));
+        runWriterTasks();
+
+        assertThat(written).hasSize(1);
+        assertThat(frames(written.get(0))).extracting(OutboundSessionBuffersTest::body)
+            .containsExactly("{\"id\":1}", "{\"error\":\"x\"}");
+
+        // The batch window that was pending has nothing left to do
+        runScheduledBatch();
+        assertThat(written).hasSize(1);
+    }
+
+    @Test
+    void sessionsThatDidNotOptInAreNotBatched() throws Exception {
+        session.sendMessage(frame("/user/queue/messages", null, "{\"id\":1}"));
+        session.sendMessage(frame("/topic/rooms/3/messages", null, "{\"id\":2}"));
+        runWriterTasks();
+
+        assertThat(written).hasSize(2);
+        verifyNoInteractions(scheduler);
+    }
+
+    @Test
+    void batchingCanBeSwitchedOffForEveryone() throws Exception {
+        ReflectionTestUtils.setField(buffers, "batchingEnabled", false);
+        attributes.put(OutboundSessionBuffers.BATCHING_ATTRIBUTE, true);
+
+        session.sendMessage(frame("/user/queue/messages", null, "{\"id\":1}"));
+        session.sendMessage(frame("/topic/rooms/3/messages", null, "{\"id\":2}"));
+        runWriterTasks();
+
+        assertThat(written).hasSize(2);
+        assertThat(buffers.isBatchingEnabled()).isFalse();
+        verifyNoInteractions(scheduler);
+    }
+
+    @Test
+    void writerThreadsPlusOneStalledClientsAreClosedWithoutWaitingForThePool() throws Exception {
+        int writerThreads = 2;
+        ThreadPoolTaskExecutor writerExecutor = new ThreadPoolTaskExecutor();
+        writerExecutor.setCorePoolSize(writerThreads);
+        writerExecutor.setMaxPoolSize(writerThreads);
+        writerExecutor.initialize();
+        try {
+            OutboundSessionBuffers pooled = buffers(writerExecutor, 200L);
+            CountDownLatch writing = new CountDownLatch(writerThreads);
+            List<AtomicReference<Thread>> closedBy = new ArrayList<>();
+            List<WebSocketSession> stalled = new ArrayList<>();
+            for (int i = 0; i <= writerThreads; i++) {
+                AtomicReference<Thread> closer = new AtomicReference<>();
+                closedBy.add(closer);
+                stalled.add(connect(pooled, stalledClient("stalled-" + i, writing, closer)));
+            }
+            BlockingQueue<String> delivered = new LinkedBlockingQueue<>();
+            WebSocketSession reader = mock(WebSocketSession.class);
+            when(reader.getId()).thenReturn("reader");
+            when(reader.getAttributes()).thenReturn(new ConcurrentHashMap<>());
+            doAnswer(invocation -> delivered.add(((TextMessage) invocation.getArgument(0)).getPayload()))
+                .when(reader).sendMessage(any());
+            WebSocketSession healthy = connect(pooled, reader);
+
+            for (WebSocketSession client : stalled) {
+                client.sendMessage(frame("/user/queue/messages", null, "{\"id\":1}"));
+            }
+            assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+            healthy.sendMessage(frame("/user/queue/messages", null, "{\"id\":2}"));
+            // Every writer thread is held by a stalled client
+            assertThat(delivered.poll(100, TimeUnit.MILLISECONDS)).isNull();
+
+            Thread.sleep(250);
+            pooled.closeStalledSessions();
+            // The two stalled writes are closed from here, not from the saturated pool
+            assertThat(closedBy).extracting(AtomicReference::get)
+                .containsExactly(Thread.currentThread(), Thread.currentThread(), null);
+            assertThat(delivered.poll(5, TimeUnit.SECONDS)).isNotNull();
+
+            // The third took a freed writer thread and stalled in turn
+            Thread.sleep(250);
+            pooled.closeStalledSessions();
+            assertThat(closedBy).extracting(AtomicReference::get).containsOnly(Thread.currentThread());
+            assertThat(pooled.getTimeoutCount()).isEqualTo(3);
+        } finally {
+            writerExecutor.shutdown();
+        }
+    }
+
+    @Test
+    void plainWebSocketSessionsAreWrittenWithoutHoldingAWriterThread() throws Exception {
+        Map<String, Object> userProperties = new ConcurrentHashMap<>();
+        RemoteEndpoint.Async remote = mock(RemoteEndpoint.Async.class);
+        Session nativeSession = mock(Session.class);
+        when(nativeSession.getUserProperties()).thenReturn(userProperties);
+        when(nativeSession.getAsyncRemote()).thenReturn(remote);
+        StandardWebSocketSession delegate = mock(StandardWebSocketSession.class);
+        when(delegate.getId()).thenReturn("session-2");
+        when(delegate.getAttributes()).thenReturn(attributes);
+        when(delegate.getNativeSession()).thenReturn(nativeSession);
+
+        WebSocketSession plain = connect(buffers, delegate);
+        verify(remote).setSendTimeout(10000L);
+        assertThat(userProperties).containsEntry(OutboundSessionBuffers.BLOCKING_SEND_TIMEOUT_PROPERTY, 10000L);
+
+        plain.sendMessage(frame("/user/queue/messages", null, "{\"id\":1}"));
+        plain.sendMessage(frame("/user/queue/messages", null, "{\"id\":2}"));
+        runWriterTasks();
+
+        // The first write is handed over and the writer thread is free again
+        ArgumentCaptor<SendHandler> handler = ArgumentCaptor.forClass(SendHandler.class);
+        verify(remote).sendText(argThat(text -> text.contains("{\"id\":1}")), handler.capture());
+        verify(delegate, never()).sendMessage(any());
+
+        // The next goes out once the first is on the wire
+        handler.getValue().onResult(new SendResult());
+        runWriterTasks();
+        verify(remote).sendText(argThat(text -> text.contains("{\"id\":2}")), handler.capture());
+        assertThat(buffers.getWriteCount()).isEqualTo(1);
+
+        handler.getValue().onResult(new SendResult(new SocketTimeoutException()));
+        assertThat(buffers.getTimeoutCount()).isEqualTo(1);
+        verify(delegate).close(CloseStatus.SESSION_NOT_RELIABLE);
+        // The close frame does not wait behind a stalled write
+        assertThat(userProperties).containsEntry(OutboundSessionBuffers.BLOCKING_SEND_TIMEOUT_PROPERTY, 1L);
+    }
+
+    private OutboundSessionBuffers buffers(ThreadPoolTaskExecutor writerExecutor, long sendTimeLimitMillis) {
+        OutboundSessionBuffers buffers = new OutboundSessionBuffers(writerExecutor, mailboxProvider, schedulerProvider,
+            mock(MessagingMetrics.class), new ObjectMapper());
+        ReflectionTestUtils.setField(buffers, "sendBufferBytes", 524288);
+        ReflectionTestUtils.setField(buffers, "sendTimeLimitMillis", sendTimeLimitMillis);
+        ReflectionTestUtils.setField(buffers, "batchingEnabled", true);
+        ReflectionTestUtils.setField(buffers, "batchWindowMillis", 3L);
+        ReflectionTestUtils.setField(buffers, "batchMaxBytes", 16384);
+        return buffers;
+    }
+
+    private static WebSocketSession connect(OutboundSessionBuffers buffers, WebSocketSession delegate) throws Exception {
+        WebSocketHandler handler = mock(WebSocketHandler.class);
+        buffers.decorate(handler).afterConnectionEstablished(delegate);
+        ArgumentCaptor<WebSocketSession> buffered = ArgumentCaptor.forClass(WebSocketSession.class);
+        verify(handler).afterConnectionEstablished(buffered.capture());
+        return buffered.getValue();
+    }
+
+    /**
+     * A client that stopped reading: a write to it returns only once the connection is dropped
+     */
+    private static WebSocketSession stalledClient(String id, CountDownLatch writing, AtomicReference<Thread> closedBy)
+            throws Exception {
+        CountDownLatch dropped = new CountDownLatch(1);
+        WebSocketSession delegate = mock(WebSocketSession.class);
+        when(delegate.getId()).thenReturn(id);
+        when(delegate.getAttributes()).thenReturn(new ConcurrentHashMap<>());
+        doAnswer(invocation -> {
+            writing.countDown();
+            dropped.await();
+            throw new IOException("Connection reset");
+        }).when(delegate).sendMessage(any());
+        doAnswer(invocation -> {
+            closedBy.compareAndSet(null, Thread.currentThread());
+            dropped.countDown();
+            return null;
+        }).when(delegate).close(any());
+        return delegate;
+    }
+
+    private void runWriterTasks() {
+        while (!writerTasks.isEmpty()) {
+            writerTasks.remove(0).run();
+        }
+    }
+
+    private void runScheduledBatch() {
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, atLeastOnce()).schedule(task.capture(), any(Instant.class));
+        task.getValue().run();
+        runWriterTasks();
+    }
+
+    private static WebSocketMessage<?> frame(String destination, String conflateKey, String body) {
+        StringBuilder text = new StringBuilder("MESSAGE\ndestination:").append(destination)
+            .append("\ncontent-type:application/json")
+            .append("\nsubscription:sub-0\nmessage-id:m-").append(body.hashCode());
+        if (conflateKey != null) {
+            text.append('\n').append(OutboundSessionBuffers.CONFLATE_HEADER).append(':').append(conflateKey);
+        }
+        text.append("\ncontent-length:").append(body.getBytes(StandardCharsets.UTF_8).length)
+            .append("\n\n").append(body).append('\0');
+        return new TextMessage(text.toString());
+    }
+
+    private static List<String> frames(String message) {
+        List<String> frames = new ArrayList<>();
+        for (String frame : message.split("\0")) {
+            frames.add(frame + '\0');
+        }
+        return frames;
+    }
+
+    private static String body(String frame) {
+        return frame.substring(frame.indexOf("\n\n") + 2, frame.length() - 1);
+    }
+}
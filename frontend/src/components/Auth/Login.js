@@ -28,6 +28,7 @@ const Login = () => {
     try {
       const response = await authService.login(data);
       localStorage.setItem('token', response.token);
+      localStorage.setItem('refreshToken', response.refreshToken);
       localStorage.setItem('user', JSON.stringify(response.user));
       toast.success('Login successful!');
       navigate('/chat');
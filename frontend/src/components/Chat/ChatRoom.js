@@ -35,12 +35,24 @@ const ChatRoom = () => {
         
         // Set up message handler
         const unsubscribeMessages = chatService.onMessage((message) => {
-          // Add all received messages (they're already filtered on the backend)
+          // Add all received messages (they're already filtered on the backend);
+          // mailbox bursts may repeat messages that already arrived
           const senderUsername = message.sender.username;
-          setDmMessages(prev => ({
-            ...prev,
-            [senderUsername]: [...(prev[senderUsername] || []), message]
-          }));
+          setDmMessages(prev => {
+            const existing = prev[senderUsername] || [];
+            if (message.id && existing.some(m => m.id === message.id)) {
+              return prev;
+            }
+            return {
+              ...prev,
+              [senderUsername]: [...existing, message]
+            };
+          });
+        });
+        
+        // Reload history when the server could not hold everything missed
+        const unsubscribeHistoryGap = chatService.onHistoryGap(() => {
+          loadUsers();
         });
         
         // Set up connection handler
@@ -55,6 +67,7 @@ const ChatRoom = () => {
         
         return () => {
           unsubscribeMessages();
+          unsubscribeHistoryGap();
           unsubscribeConnection();
         };
         
@@ -10,10 +10,47 @@ const api = axios.create({
   },
 });
 
-// Add request interceptor to include auth token
+// Whether a JWT has passed its expiry time
+const isExpired = (token) => {
+  try {
+    const payload = token.split('.')[1].replace(/-/g, '+').replace(/_/g, '/');
+    return JSON.parse(atob(payload)).exp * 1000 <= Date.now();
+  } catch (error) {
+    return false;
+  }
+};
+
+// Exchange the refresh token for a new token pair, without the password. Requests made
+// meanwhile wait for the same exchange, as each refresh token works only once.
+let refreshing = null;
+const refreshToken = () => {
+  if (!refreshing) {
+    refreshing = axios.post(`${API_URL}/api/auth/refresh`, {
+      refreshToken: localStorage.getItem('refreshToken'),
+    })
+      .then(({ data }) => {
+        localStorage.setItem('token', data.token);
+        localStorage.setItem('refreshToken', data.refreshToken);
+        return data.token;
+      })
+      .catch((error) => {
+        localStorage.removeItem('refreshToken');
+        throw error;
+      })
+      .finally(() => {
+        refreshing = null;
+      });
+  }
+  return refreshing;
+};
+
+// Add request interceptor to include auth token, refreshed first if it has expired
 api.interceptors.request.use(
-  (config) => {
-    const token = localStorage.getItem('token');
+  async (config) => {
+    let token = localStorage.getItem('token');
+    if (token && isExpired(token) && localStorage.getItem('refreshToken')) {
+      token = await refreshToken().catch(() => token);
+    }
     if (token) {
       config.headers.Authorization = `Bearer ${token}`;
     }
@@ -31,6 +68,7 @@ api.interceptors.response.use(
     if (error.response?.status === 401) {
       // Token expired or invalid
       localStorage.removeItem('token');
+      localStorage.removeItem('refreshToken');
       localStorage.removeItem('user');
       window.location.href = '/login';
     }
@@ -69,11 +107,13 @@ export const authService = {
 
   async logout() {
     try {
-      await api.post('/auth/logout');
+      // Revokes the refresh token, so it cannot sign in again
+      await api.post('/auth/logout', { refreshToken: localStorage.getItem('refreshToken') });
     } catch (error) {
       console.error('Logout error:', error);
     } finally {
       localStorage.removeItem('token');
+      localStorage.removeItem('refreshToken');
       localStorage.removeItem('user');
     }
   },
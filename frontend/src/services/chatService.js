@@ -12,6 +12,7 @@ class ChatService {
     this.isConnected = false;
     this.messageHandlers = new Set();
     this.connectionHandlers = new Set();
+    this.historyGapHandlers = new Set();
     this.currentUser = null;
   }
 
@@ -50,11 +51,21 @@ class ChatService {
             this.isConnected = true;
             
             // Only subscribe to user-specific messages for DM
-            this.stompClient.subscribe(`/user/${user.username}/queue/messages`, (message) => {
+            this.stompClient.subscribe('/user/queue/messages', (message) => {
               const messageData = JSON.parse(message.body);
               this.notifyMessageHandlers(messageData);
             });
             
+            // Messages held while offline, or while this connection fell behind, arrive
+            // here in bursts; they may repeat ones already received, so handlers dedupe by id
+            this.stompClient.subscribe('/user/queue/mailbox', (frame) => {
+              const { truncated, messages } = JSON.parse(frame.body);
+              messages.forEach(messageData => this.notifyMessageHandlers(messageData));
+              if (truncated) {
+                this.notifyHistoryGapHandlers();
+              }
+            });
+            
             // Notify connection handlers
             this.notifyConnectionHandlers(true);
             
@@ -189,6 +200,19 @@ class ChatService {
     });
   }
 
+  /**
+   * Notify history gap handlers that some messages were not held and must be reloaded
+   */
+  notifyHistoryGapHandlers() {
+    this.historyGapHandlers.forEach(handler => {
+      try {
+        handler();
+      } catch (error) {
+        console.error('Error in history gap handler:', error);
+      }
+    });
+  }
+
   /**
    * Add message handler for real-time updates
    */
@@ -205,6 +229,14 @@ class ChatService {
     return () => this.connectionHandlers.delete(handler);
   }
 
+  /**
+   * Add handler for when held messages were truncated and history must be reloaded
+   */
+  onHistoryGap(handler) {
+    this.historyGapHandlers.add(handler);
+    return () => this.historyGapHandlers.delete(handler);
+  }
+
   /**
    * Send a message to a chat room via REST API
    * TODO: Implement REST API message sending for persistence
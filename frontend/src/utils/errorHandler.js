@@ -123,6 +123,7 @@ export const handleAuthError = (error, onAuthError = null) => {
     
     // Clear stored auth data
     localStorage.removeItem('token');
+    localStorage.removeItem('refreshToken');
     localStorage.removeItem('user');
     
     // Call auth error callback if provided